@@ -0,0 +1,31 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs benchmarks with JMH, accepting the same options as JMH's own main
+ * class, but with the GC profiler ({@code -prof gc}) enabled unless other
+ * profilers are specified, so that allocation rates are always reported.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {}
+
+    /**
+     * Runs benchmarks.
+     *
+     * @param args JMH command line options
+     * @throws Exception if an exception occurs while running benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
@@ -0,0 +1,32 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} which discards everything written to it into a
+ * {@link Blackhole}, so that writes cannot be optimized away.
+ */
+final class BlackholeOutputStream extends OutputStream {
+    private final Blackhole blackhole;
+
+    BlackholeOutputStream(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+        blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        blackhole.consume(b);
+    }
+}
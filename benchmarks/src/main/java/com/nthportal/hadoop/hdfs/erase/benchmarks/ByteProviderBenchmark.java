@@ -0,0 +1,53 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating a chunk of bytes with each {@link ByteProvider}.
+ *
+ * <p>Each chunk is generated into a newly allocated array, as
+ * {@link ByteProvider#nextBytes(byte[], ByteProvider.State)} requires the
+ * array to be filled with zeros.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteProviderBenchmark {
+    @Param({"random", "zeros", "byte", "pattern"})
+    public String provider;
+
+    @Param({"512", "4096", "65536", "1048576"})
+    public int chunkSize;
+
+    private ByteProvider byteProvider;
+    private ByteProvider.State state;
+
+    @Setup
+    public void setUp() {
+        byteProvider = ByteProviders.byName(provider);
+        state = ByteProvider.State.empty();
+    }
+
+    @Benchmark
+    public byte[] nextBytes() {
+        byte[] bytes = new byte[chunkSize];
+        byteProvider.nextBytes(bytes, state);
+        return bytes;
+    }
+}
@@ -0,0 +1,38 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+
+import java.security.SecureRandom;
+
+/**
+ * The {@link ByteProvider}s benchmarked, by name (for use as a
+ * benchmark parameter).
+ */
+final class ByteProviders {
+    private ByteProviders() {}
+
+    /**
+     * Returns a {@link ByteProvider} by name.
+     *
+     * @param name the name of the ByteProvider: {@code random},
+     *             {@code zeros}, {@code byte} (a single repeated byte)
+     *             or {@code pattern} (a repeated three-byte pattern)
+     * @return the ByteProvider with the specified name
+     * @throws IllegalArgumentException if there is no ByteProvider with
+     *                                  the specified name
+     */
+    static ByteProvider byName(String name) throws IllegalArgumentException {
+        switch (name) {
+            case "random":
+                return ByteProvider.randomBytes(new SecureRandom());
+            case "zeros":
+                return ByteProvider.zeros();
+            case "byte":
+                return ByteProvider.repeatedBytes((byte) 0xFF);
+            case "pattern":
+                return ByteProvider.repeatedBytes(new byte[] {(byte) 0x92, (byte) 0x49, (byte) 0x24});
+            default:
+                throw new IllegalArgumentException("Unknown byte provider: " + name);
+        }
+    }
+}
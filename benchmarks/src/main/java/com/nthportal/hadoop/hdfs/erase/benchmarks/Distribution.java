@@ -0,0 +1,179 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.util.StringUtils.TraditionalBinaryPrefix;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of non-negative values, such as the sizes of generated
+ * files or the latencies of simulated file system operations.
+ */
+public abstract class Distribution {
+    /**
+     * Returns the next value from this distribution.
+     *
+     * @param random the source of randomness
+     * @return the next value (non-negative)
+     */
+    public abstract long next(Random random);
+
+    /**
+     * Parses the values in a distribution.
+     */
+    public enum Unit {
+        /**
+         * Sizes in bytes, which may use binary prefixes (such as {@code 64k}
+         * or {@code 1m}).
+         */
+        BYTES {
+            @Override
+            long parse(String value) {
+                return TraditionalBinaryPrefix.string2long(value);
+            }
+        },
+        /**
+         * Durations in nanoseconds, which must have a unit of {@code ns},
+         * {@code us}, {@code ms} or {@code s} (such as {@code 500us} or
+         * {@code 2ms}).
+         */
+        NANOSECONDS {
+            @Override
+            long parse(String value) {
+                String lower = value.trim().toLowerCase(Locale.ROOT);
+                for (int i = 0; i < DURATION_SUFFIXES.length; i++) {
+                    if (lower.endsWith(DURATION_SUFFIXES[i])) {
+                        String number = lower.substring(0, lower.length() - DURATION_SUFFIXES[i].length());
+                        return DURATION_UNITS[i].toNanos(Long.parseLong(number));
+                    }
+                }
+                throw new NumberFormatException("Duration requires a unit (ns, us, ms or s): " + value);
+            }
+        };
+
+        // "ns", "us" and "ms" must be checked before "s"
+        private static final String[] DURATION_SUFFIXES = {"ns", "us", "ms", "s"};
+        private static final TimeUnit[] DURATION_UNITS = {
+                TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS, TimeUnit.SECONDS};
+
+        /**
+         * Parses a value.
+         *
+         * @param value the value
+         * @return the parsed value
+         * @throws NumberFormatException if the value is invalid
+         */
+        abstract long parse(String value) throws NumberFormatException;
+    }
+
+    /**
+     * Parses a distribution. The supported distributions are:
+     * <ul>
+     *     <li>{@code fixed:VALUE}</li>
+     *     <li>{@code uniform:MIN:MAX}</li>
+     *     <li>{@code exponential:MEAN}</li>
+     *     <li>{@code lognormal:MEDIAN:SIGMA}, which resembles both the sizes
+     *     of files on many real clusters (mostly small, with a long tail of
+     *     large files) and the latencies of remote calls</li>
+     * </ul>
+     *
+     * @param spec the specification of the distribution
+     * @param unit the unit of values in the specification
+     * @return the distribution
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    public static Distribution parse(String spec, Unit unit) throws IllegalArgumentException {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    checkArgs(spec, parts, 1);
+                    return fixed(value(parts[1], unit));
+                case "uniform":
+                    checkArgs(spec, parts, 2);
+                    return uniform(value(parts[1], unit), value(parts[2], unit));
+                case "exponential":
+                    checkArgs(spec, parts, 1);
+                    return exponential(value(parts[1], unit));
+                case "lognormal":
+                    checkArgs(spec, parts, 2);
+                    return logNormal(value(parts[1], unit), Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown distribution: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid distribution: " + spec, e);
+        }
+    }
+
+    private static void checkArgs(String spec, String[] parts, int count) {
+        Preconditions.checkArgument(parts.length == count + 1, "Invalid distribution: " + spec);
+    }
+
+    private static long value(String value, Unit unit) {
+        long parsed = unit.parse(value);
+        Preconditions.checkArgument(parsed >= 0, "Value must be non-negative: " + value);
+        return parsed;
+    }
+
+    public static Distribution fixed(final long value) {
+        return new Distribution() {
+            @Override
+            public long next(Random random) {
+                return value;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed " + value;
+            }
+        };
+    }
+
+    public static Distribution uniform(final long min, final long max) {
+        Preconditions.checkArgument(min <= max, "Minimum must not exceed maximum");
+        return new Distribution() {
+            @Override
+            public long next(Random random) {
+                return min + (long) (random.nextDouble() * (max - min + 1));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform " + min + "-" + max;
+            }
+        };
+    }
+
+    public static Distribution exponential(final long mean) {
+        return new Distribution() {
+            @Override
+            public long next(Random random) {
+                return (long) (-mean * Math.log(1 - random.nextDouble()));
+            }
+
+            @Override
+            public String toString() {
+                return "exponential, mean " + mean;
+            }
+        };
+    }
+
+    public static Distribution logNormal(final long median, final double sigma) {
+        Preconditions.checkArgument(sigma >= 0, "Sigma must be non-negative");
+        final double mu = Math.log(Math.max(median, 1));
+        return new Distribution() {
+            @Override
+            public long next(Random random) {
+                return (long) Math.exp(mu + sigma * random.nextGaussian());
+            }
+
+            @Override
+            public String toString() {
+                return "log-normal, median " + median + ", sigma " + sigma;
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import com.nthportal.hadoop.hdfs.erase.core.SizedOutputStream;
+import com.nthportal.hadoop.hdfs.erase.core.SizedOutputStreamProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a single {@link OverwriteSpec} pass over a file, discarding
+ * the bytes written, to measure the cost (and, with the GC profiler, the
+ * allocation) of generating and writing bytes for each block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverwriteBenchmark {
+    @Param({"random", "zeros", "byte", "pattern"})
+    public String provider;
+
+    @Param({"512", "4096", "65536"})
+    public int blockSize;
+
+    @Param({"4194304"})
+    public long fileSize;
+
+    private OverwriteSpec spec;
+
+    @Setup
+    public void setUp() {
+        spec = new OverwriteSpec(ByteProviders.byName(provider));
+    }
+
+    @Benchmark
+    public void overwrite(final Blackhole blackhole) throws IOException {
+        spec.erase(new SizedOutputStreamProvider() {
+            @Override
+            public SizedOutputStream get() {
+                return new SizedOutputStream(new BlackholeOutputStream(blackhole), fileSize);
+            }
+        }, blockSize);
+    }
+}
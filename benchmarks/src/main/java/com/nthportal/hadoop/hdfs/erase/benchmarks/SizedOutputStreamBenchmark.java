@@ -0,0 +1,60 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks;
+
+import com.nthportal.hadoop.hdfs.erase.core.SizedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the overhead of writing through a {@link SizedOutputStream},
+ * compared with writing to the underlying stream directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizedOutputStreamBenchmark {
+    @Param({"1", "512", "65536"})
+    public int chunkSize;
+
+    private byte[] bytes;
+    private OutputStream underlying;
+    private SizedOutputStream sized;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        bytes = new byte[chunkSize];
+        underlying = new BlackholeOutputStream(blackhole);
+        sized = new SizedOutputStream(underlying, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void underlying() throws IOException {
+        underlying.write(bytes, 0, chunkSize);
+    }
+
+    @Benchmark
+    public void sized() throws IOException {
+        sized.write(bytes, 0, chunkSize);
+    }
+
+    @Benchmark
+    public void sizedSingleByte() throws IOException {
+        sized.write(0);
+    }
+}
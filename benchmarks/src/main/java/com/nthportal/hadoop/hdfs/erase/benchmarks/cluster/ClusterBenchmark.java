@@ -0,0 +1,451 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.cluster;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.nthportal.hadoop.hdfs.erase.benchmarks.Distribution;
+import com.nthportal.hadoop.hdfs.erase.benchmarks.fs.InMemoryFileSystem;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureCalibration;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureStats;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import com.nthportal.hadoop.hdfs.erase.core.FsImageSelector;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import com.nthportal.hadoop.hdfs.erase.core.specs.AdvancedFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.BasicFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.tools.DFSAdmin;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An end-to-end benchmark of {@link SecureErase} against a
+ * {@link MiniDFSCluster}, which (unlike the JMH microbenchmarks) includes
+ * the cost of NameNode and DataNode round trips.
+ *
+ * <p>Each run generates a synthetic {@link Workload} of files on the
+ * cluster, erases them, and reports the files and bytes erased per second,
+ * the number of NameNode RPCs (in total, and by file system operation) per
+ * file, and percentiles of the latency of each phase. Runs may be repeated
+ * with {@code --runs}, so that later runs reflect a warmed-up JVM. With
+ * {@code --stats}, the {@link ErasureStats} of the last run are written to
+ * a file as JSON, from which the estimates of dry runs may be calibrated
+ * (see {@link ErasureCalibration#fromStats(String)}).
+ *
+ * <p>With {@code --fsimage}, the files to erase are selected offline from
+ * a freshly saved and fetched fsimage (see {@link FsImageSelector}) rather
+ * than by expanding a glob on the NameNode; saving and fetching the image
+ * is neither timed nor counted, and the final pass over the image (in
+ * which the selected files are read) is timed as part of erasing them.
+ *
+ * <p>With {@code --in-memory}, files are erased from an
+ * {@link InMemoryFileSystem} instead, so that the engine itself can be
+ * benchmarked with hundreds of thousands of files; its simulated latencies
+ * and failures are configured with {@code -D} (see
+ * {@link InMemoryFileSystem.Conf}), and its operations are reported as
+ * NameNode RPCs.
+ *
+ * <p>Run with {@code java -cp target/benchmarks.jar
+ * com.nthportal.hadoop.hdfs.erase.benchmarks.cluster.ClusterBenchmark
+ * [-D key=value ...] [options]}; {@code -D} sets any other configuration
+ * (for example, {@link SecureErase.Conf} options) for both the cluster
+ * and {@code SecureErase}.
+ */
+public final class ClusterBenchmark extends Configured implements Tool {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+    private static final Path ROOT = new Path("/benchmark");
+    private static final String[] IN_MEMORY_FAULT_KEYS = {
+            InMemoryFileSystem.Conf.LATENCY,
+            InMemoryFileSystem.Conf.FAILURE_RATE,
+            InMemoryFileSystem.Conf.TRUNCATE_RECOVERY_LATENCY,
+            InMemoryFileSystem.Conf.BYTES_PER_SECOND};
+
+    // Not "files", which is a generic Hadoop option
+    private static final String FILES = "file-count";
+    private static final String SIZES = "sizes";
+    private static final String FAN_OUT = "fan-out";
+    private static final String DEPTH = "depth";
+    private static final String NAME_LENGTH = "name-length";
+    private static final String SPEC = "spec";
+    private static final String CONCURRENCY = "concurrency";
+    private static final String DATANODES = "datanodes";
+    private static final String IN_MEMORY = "in-memory";
+    private static final String BLOCK_SIZE = "block-size";
+    private static final String RUNS = "runs";
+    private static final String SEED = "seed";
+    private static final String STATS = "stats";
+    private static final String FSIMAGE = "fsimage";
+    private static final String VERBOSE = "verbose";
+    private static final String HELP = "help";
+
+    private final PrintStream out = System.out;
+    private File statsFile = null;
+    private boolean selectFromFsImage = false;
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new ClusterBenchmark(), args));
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        Options options = makeOptions();
+        CommandLine cmd;
+        try {
+            cmd = new GnuParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("ClusterBenchmark", options, true);
+            return 1;
+        }
+        if (cmd.hasOption(HELP)) {
+            new HelpFormatter().printHelp("ClusterBenchmark", options, true);
+            return 0;
+        }
+        if (!cmd.hasOption(VERBOSE)) {
+            // The cluster logs every operation, drowning out the report
+            Logger.getRootLogger().setLevel(Level.ERROR);
+        }
+
+        Workload workload = new Workload(
+                Integer.parseInt(cmd.getOptionValue(FILES, "1000")),
+                Distribution.parse(cmd.getOptionValue(SIZES, "lognormal:64k:2"), Distribution.Unit.BYTES),
+                Integer.parseInt(cmd.getOptionValue(FAN_OUT, "10")),
+                Integer.parseInt(cmd.getOptionValue(DEPTH, "2")),
+                Integer.parseInt(cmd.getOptionValue(NAME_LENGTH, "16")));
+        String spec = cmd.getOptionValue(SPEC, "overwrite:1");
+        int runs = Integer.parseInt(cmd.getOptionValue(RUNS, "3"));
+        Random random = new Random(Long.parseLong(cmd.getOptionValue(SEED, "0")));
+
+        if (cmd.hasOption(STATS)) {
+            statsFile = new File(cmd.getOptionValue(STATS));
+        }
+        selectFromFsImage = cmd.hasOption(FSIMAGE);
+        if (selectFromFsImage && cmd.hasOption(IN_MEMORY)) {
+            System.err.println("Option `" + FSIMAGE + "` requires a MiniDFSCluster");
+            return 1;
+        }
+
+        Configuration conf = new Configuration(getConf());
+        if (cmd.hasOption(CONCURRENCY)) {
+            conf.setInt(SecureErase.Conf.MAX_CONCURRENCY, Integer.parseInt(cmd.getOptionValue(CONCURRENCY)));
+        }
+        if (cmd.hasOption(BLOCK_SIZE)) {
+            conf.set(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, cmd.getOptionValue(BLOCK_SIZE));
+            conf.set(InMemoryFileSystem.Conf.BLOCK_SIZE, cmd.getOptionValue(BLOCK_SIZE));
+        }
+
+        out.println("Workload: " + workload);
+        if (cmd.hasOption(IN_MEMORY)) {
+            runInMemory(workload, spec, runs, conf, random);
+        } else {
+            runOnCluster(workload, spec, runs, conf, Integer.parseInt(cmd.getOptionValue(DATANODES, "1")), random);
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the benchmark against a MiniDFSCluster.
+     */
+    private void runOnCluster(Workload workload,
+                              String spec,
+                              int runs,
+                              Configuration conf,
+                              int datanodes,
+                              Random random) throws IOException {
+        conf.setInt(DFSConfigKeys.DFS_REPLICATION_KEY, Math.min(datanodes, 3));
+        File baseDir = Files.createTempDirectory("secure-erase-benchmark").toFile();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(datanodes).build();
+        try {
+            cluster.waitActive();
+            Configuration clusterConf = new Configuration(conf);
+            clusterConf.set(FileSystem.FS_DEFAULT_NAME_KEY, cluster.getFileSystem().getUri().toString());
+            RpcCounter rpcs = new RpcCounter(cluster.getNameNodePort());
+
+            out.println("Spec: " + spec + ", data nodes: " + datanodes + ", concurrency: "
+                    + conf.get(SecureErase.Conf.MAX_CONCURRENCY, "default"));
+            // SecureErase closes the (cached) FileSystem it erases files with
+            try (FileSystem fs = FileSystem.newInstance(clusterConf)) {
+                for (int run = 1; run <= runs; run++) {
+                    runOnce(run, workload, spec, clusterConf, fs, rpcs, random);
+                }
+            }
+        } finally {
+            cluster.shutdown();
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    /**
+     * Runs the benchmark against an {@link InMemoryFileSystem}. Workloads
+     * are generated without the latencies and failures configured for it.
+     */
+    private void runInMemory(Workload workload,
+                             String spec,
+                             int runs,
+                             Configuration conf,
+                             Random random) throws IOException {
+        String authority = "benchmark-" + UUID.randomUUID();
+        Configuration memConf = new Configuration(conf);
+        memConf.set(FileSystem.FS_DEFAULT_NAME_KEY, InMemoryFileSystem.SCHEME + "://" + authority + "/");
+        Configuration generateConf = new Configuration(memConf);
+        for (Map.Entry<String, String> entry : memConf) {
+            for (String key : IN_MEMORY_FAULT_KEYS) {
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(key + ".")) {
+                    generateConf.unset(entry.getKey());
+                }
+            }
+        }
+
+        out.println("Spec: " + spec + ", in memory, concurrency: "
+                + conf.get(SecureErase.Conf.MAX_CONCURRENCY, "default"));
+        try (FileSystem fs = FileSystem.newInstance(generateConf)) {
+            final InMemoryFileSystem memFs = (InMemoryFileSystem) fs;
+            OperationCounter operations = new OperationCounter() {
+                @Override
+                public long count() {
+                    return memFs.getOperationCount();
+                }
+            };
+            for (int run = 1; run <= runs; run++) {
+                runOnce(run, workload, spec, memConf, fs, operations, random);
+            }
+        } finally {
+            InMemoryFileSystem.clear(authority);
+        }
+    }
+
+    /**
+     * Generates a workload, erases it, and reports the results.
+     */
+    private void runOnce(int run,
+                         Workload workload,
+                         String spec,
+                         Configuration conf,
+                         FileSystem fs,
+                         OperationCounter rpcs,
+                         Random random) throws IOException {
+        Path root = new Path(ROOT, "run-" + run);
+        long bytes = workload.generate(fs, root, random);
+        int files = fs.globStatus(workload.glob(root)).length;
+
+        SecureErase secureErase = new SecureErase(conf);
+        RunStats stats = new RunStats();
+        secureErase.addListener(stats);
+        FileErasureSpec erasureSpec = parseSpec(spec);
+        ErasureStats erasureStats = null;
+        if (statsFile != null) {
+            erasureStats = new ErasureStats();
+            secureErase.addListener(erasureStats);
+            erasureSpec = erasureStats.timed(erasureSpec);
+        }
+
+        File fsimage = null;
+        FsImageSelector.SelectedFiles selected = null;
+        long selectNanos = 0;
+        if (selectFromFsImage) {
+            fsimage = fetchImage(conf);
+            long selectStart = System.nanoTime();
+            selected = FsImageSelector.newBuilder().glob(workload.glob(root)).result().select(fsimage, conf);
+            selectNanos = System.nanoTime() - selectStart;
+        }
+
+        long rpcsBefore = rpcs.count();
+        long start = System.nanoTime();
+        try {
+            if (selected == null) {
+                secureErase.eraseGlob(workload.glob(root), erasureSpec);
+            } else {
+                secureErase.eraseStatuses(selected, erasureSpec);
+            }
+        } catch (FsImageSelector.ReadException e) {
+            throw e.getCause();
+        } finally {
+            if (selected != null) {
+                selected.close();
+                FileUtil.fullyDelete(fsimage.getParentFile());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long rpcCount = rpcs.count() - rpcsBefore;
+        fs.delete(root, true);
+        if (erasureStats != null) {
+            Files.write(statsFile.toPath(), erasureStats.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+
+        double seconds = nanos / NANOS_PER_SECOND;
+        out.println();
+        out.println(String.format(Locale.ROOT,
+                "Run %d: %d files, %d bytes (%d failed) in %.2f s: %.1f files/s, %.2f MB/s (%.2f MB/s written)",
+                run, files, bytes, stats.filesFailed(), seconds, files / seconds,
+                bytes / seconds / (1 << 20), stats.bytesWritten() / seconds / (1 << 20)));
+
+        if (selected != null) {
+            out.println(String.format(Locale.ROOT,
+                    "  Prepared to select files from the fsimage in %.2f ms (offline; files are read while erasing)",
+                    selectNanos / NANOS_PER_MILLI));
+        }
+        out.println(String.format(Locale.ROOT, "  NameNode RPCs: %d (%.2f per file)",
+                rpcCount, rpcCount / (double) files));
+        StringBuilder sb = new StringBuilder("  Operations per file:");
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            long count = stats.operations(operation);
+            if (count > 0) {
+                sb.append(String.format(Locale.ROOT, " %s %.2f", operation, count / (double) files));
+            }
+        }
+        out.println(sb);
+
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            List<Long> sorted = stats.sortedPhaseNanos(phase);
+            if (!sorted.isEmpty()) {
+                sb = new StringBuilder(String.format(Locale.ROOT, "  %s phase latency (ms):", phase));
+                for (double percentile : PERCENTILES) {
+                    sb.append(String.format(Locale.ROOT, " %s %.2f",
+                            (percentile == 100) ? "max" : "p" + (int) percentile,
+                            RunStats.percentile(sorted, percentile) / NANOS_PER_MILLI));
+                }
+                out.println(sb);
+            }
+        }
+    }
+
+    /**
+     * Saves the namespace of the cluster, and fetches the resulting fsimage
+     * into a temporary directory (as {@code hdfs dfsadmin -saveNamespace}
+     * and {@code -fetchImage} would).
+     */
+    private static File fetchImage(Configuration conf) throws IOException {
+        DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.newInstance(conf);
+        try {
+            dfs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_ENTER);
+            dfs.saveNamespace();
+            dfs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_LEAVE);
+        } finally {
+            dfs.close();
+        }
+
+        File dir = Files.createTempDirectory("secure-erase-fsimage").toFile();
+        try {
+            if (new DFSAdmin(conf).run(new String[]{"-fetchImage", dir.getAbsolutePath()}) != 0) {
+                throw new IOException("Failed to fetch the fsimage");
+            }
+        } catch (Exception e) {
+            Throwables.propagateIfPossible(e, IOException.class);
+            throw new IOException(e);
+        }
+        File[] images = dir.listFiles();
+        Preconditions.checkState(images != null && images.length == 1, "Expected one fsimage in %s", dir);
+        return images[0];
+    }
+
+    /**
+     * Parses the specification with which to erase files:
+     * <ul>
+     *     <li>{@code overwrite:N}: N overwrites with random bytes, then
+     *     removal</li>
+     *     <li>{@code overwrite-truncate:N}: N overwrites with random bytes,
+     *     then truncation, renaming and removal (as the command-line tool
+     *     erases files by default)</li>
+     *     <li>{@code truncate}: truncation, renaming and removal only</li>
+     *     <li>{@code delete}: removal only</li>
+     * </ul>
+     *
+     * <p>Truncation waits for block recovery, which a MiniDFSCluster only
+     * performs on data node heartbeats; lowering
+     * {@code dfs.heartbeat.interval} (with {@code -D}) shortens the wait.
+     *
+     * @param spec the specification
+     * @return the FileErasureSpec
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    private static FileErasureSpec parseSpec(String spec) throws IllegalArgumentException {
+        String[] parts = spec.split(":", 2);
+        switch (parts[0]) {
+            case "overwrite":
+                return overwrites(spec, parts).andThen(new BasicFileDeletionSpec());
+            case "overwrite-truncate":
+                return overwrites(spec, parts).andThen(truncation());
+            case "truncate":
+                return truncation();
+            case "delete":
+                return new BasicFileDeletionSpec();
+            default:
+                throw new IllegalArgumentException("Unknown spec: " + spec);
+        }
+    }
+
+    private static FileErasureSpec overwrites(String spec, String[] parts) throws IllegalArgumentException {
+        Preconditions.checkArgument(parts.length == 2, "Number of overwrites required: " + spec);
+        int passes = Integer.parseInt(parts[1]);
+        Preconditions.checkArgument(passes > 0, "Number of overwrites must be positive: " + spec);
+        return FileErasureSpec.from(new OverwriteSpec(ByteProvider.randomBytes())).repeated(passes);
+    }
+
+    private static FileErasureSpec truncation() {
+        return new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf());
+    }
+
+    private static Options makeOptions() {
+        Options options = new Options();
+        options.addOption(option(FILES, "N", "the number of files to generate per run (default 1000)"));
+        options.addOption(option(SIZES, "DIST", "the distribution of file sizes: fixed:SIZE, uniform:MIN:MAX, "
+                + "exponential:MEAN or lognormal:MEDIAN:SIGMA (default lognormal:64k:2)"));
+        options.addOption(option(FAN_OUT, "N", "the number of subdirectories per directory (default 10)"));
+        options.addOption(option(DEPTH, "N", "the depth of directories containing files (default 2)"));
+        options.addOption(option(NAME_LENGTH, "N", "the length of file names (default 16)"));
+        options.addOption(option(SPEC, "SPEC", "how to erase files: overwrite:N, "
+                + "overwrite-truncate:N, truncate or delete (default overwrite:1)"));
+        options.addOption(option(CONCURRENCY, "N", "the maximum number of files erased concurrently"));
+        options.addOption(option(DATANODES, "N", "the number of data nodes (default 1)"));
+        options.addOption(new Option(null, IN_MEMORY, false,
+                "uses an in-memory file system instead of a MiniDFSCluster"));
+        options.addOption(option(BLOCK_SIZE, "SIZE", "the block size of generated files"));
+        options.addOption(option(RUNS, "N", "the number of runs (default 3)"));
+        options.addOption(option(SEED, "N", "the seed for generating workloads (default 0)"));
+        options.addOption(option(STATS, "FILE", "writes the JSON stats of the last run to a file, "
+                + "for calibrating the estimates of dry runs"));
+        options.addOption(new Option(null, FSIMAGE, false, "selects the files to erase from a freshly saved "
+                + "fsimage, rather than by expanding a glob on the NameNode"));
+        options.addOption(new Option(null, VERBOSE, false, "shows the cluster's logs"));
+        options.addOption(new Option("h", HELP, false, "shows this help message"));
+        return options;
+    }
+
+    private static Option option(String name, String argName, String description) {
+        Option option = new Option(null, name, true, description);
+        option.setArgName(argName);
+        return option;
+    }
+}
@@ -0,0 +1,14 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.cluster;
+
+/**
+ * Counts the NameNode operations (or their equivalent) made on a file
+ * system.
+ */
+interface OperationCounter {
+    /**
+     * Returns the number of operations made so far.
+     *
+     * @return the number of operations made so far
+     */
+    long count();
+}
@@ -0,0 +1,126 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.cluster;
+
+import org.apache.hadoop.metrics2.AbstractMetric;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.MetricsTag;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+
+/**
+ * Counts the RPCs processed by a NameNode (or any other Hadoop RPC server
+ * in this JVM), by reading its RPC metrics source directly rather than
+ * through JMX, whose values are cached.
+ */
+final class RpcCounter implements OperationCounter {
+    private static final String SOURCE_PREFIX = "RpcActivityForPort";
+    private static final String CALLS_METRIC = "RpcProcessingTimeNumOps";
+
+    private final String sourceName;
+
+    /**
+     * Creates a new {@code RpcCounter} for the RPC server listening on the
+     * specified port.
+     *
+     * @param port the port of the RPC server
+     */
+    RpcCounter(int port) {
+        sourceName = SOURCE_PREFIX + port;
+    }
+
+    /**
+     * Returns the number of RPCs processed so far.
+     *
+     * @return the number of RPCs processed so far
+     * @throws IllegalStateException if there is no RPC server on the port
+     */
+    @Override
+    public long count() throws IllegalStateException {
+        MetricsSource source = DefaultMetricsSystem.instance().getSource(sourceName);
+        if (source == null) {
+            throw new IllegalStateException("No metrics source: " + sourceName);
+        }
+        CounterCollector collector = new CounterCollector();
+        source.getMetrics(collector, true);
+        return collector.value;
+    }
+
+    /**
+     * Collects the value of the calls metric, ignoring everything else.
+     */
+    private static final class CounterCollector extends MetricsRecordBuilder implements MetricsCollector {
+        private long value = 0;
+
+        @Override
+        public MetricsRecordBuilder addRecord(String name) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addRecord(MetricsInfo info) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder tag(MetricsInfo info, String value) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder add(MetricsTag tag) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder add(AbstractMetric metric) {
+            if (CALLS_METRIC.equals(metric.name())) {
+                value = metric.value().longValue();
+            }
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder setContext(String value) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addCounter(MetricsInfo info, int value) {
+            return addCounter(info, (long) value);
+        }
+
+        @Override
+        public MetricsRecordBuilder addCounter(MetricsInfo info, long value) {
+            if (CALLS_METRIC.equals(info.name())) {
+                this.value = value;
+            }
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addGauge(MetricsInfo info, int value) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addGauge(MetricsInfo info, long value) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addGauge(MetricsInfo info, float value) {
+            return this;
+        }
+
+        @Override
+        public MetricsRecordBuilder addGauge(MetricsInfo info, double value) {
+            return this;
+        }
+
+        @Override
+        public MetricsCollector parent() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.cluster;
+
+import com.nthportal.hadoop.hdfs.erase.core.EraseListener;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureResult;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EraseListener} which records what a single benchmark run needs
+ * to report: every phase latency (so that exact percentiles can be
+ * computed), and the number of each file system operation made.
+ */
+final class RunStats extends EraseListener {
+    private final Map<FileErasureSpec.Phase, List<Long>> phaseNanos = new EnumMap<>(FileErasureSpec.Phase.class);
+    private final Map<FileSystemOperation, AtomicLong> operations = new EnumMap<>(FileSystemOperation.class);
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+
+    RunStats() {
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            phaseNanos.put(phase, new ArrayList<Long>());
+        }
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            operations.put(operation, new AtomicLong());
+        }
+    }
+
+    @Override
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {
+        List<Long> nanosList = phaseNanos.get(phase);
+        synchronized (nanosList) {
+            nanosList.add(nanos);
+        }
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        operations.get(operation).incrementAndGet();
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        operations.get(operation).incrementAndGet();
+    }
+
+    @Override
+    public void passCompleted(long bytes, long nanos, long writeNanos) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        if (result.getStatus() != FileErasureResult.Status.ERASED) {
+            filesFailed.incrementAndGet();
+        }
+    }
+
+    long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    long filesFailed() {
+        return filesFailed.get();
+    }
+
+    long operations(FileSystemOperation operation) {
+        return operations.get(operation).get();
+    }
+
+    /**
+     * Returns the latencies of a phase, sorted in ascending order.
+     *
+     * @param phase the phase
+     * @return the sorted latencies of the phase, in nanoseconds
+     */
+    List<Long> sortedPhaseNanos(FileErasureSpec.Phase phase) {
+        List<Long> nanosList = phaseNanos.get(phase);
+        List<Long> sorted;
+        synchronized (nanosList) {
+            sorted = new ArrayList<>(nanosList);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns a percentile (nearest rank) of sorted values, or 0 if there
+     * are none.
+     *
+     * @param sorted     the sorted values
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile of the values
+     */
+    static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.cluster;
+
+import com.google.common.base.Preconditions;
+import com.nthportal.hadoop.hdfs.erase.benchmarks.Distribution;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A synthetic population of files: a tree of directories with a given
+ * fan-out and depth, with files of sizes drawn from a
+ * {@link Distribution} spread randomly across its leaf directories.
+ */
+final class Workload {
+    private static final String NAME_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_-";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final int files;
+    private final Distribution sizes;
+    private final int fanOut;
+    private final int depth;
+    private final int nameLength;
+
+    /**
+     * Creates a new {@code Workload}.
+     *
+     * @param files      the number of files
+     * @param sizes      the distribution of the sizes of the files
+     * @param fanOut     the number of subdirectories of each directory
+     * @param depth      the number of levels of directories below the root
+     *                   in which files are created (0 for none)
+     * @param nameLength the length of the name of each file
+     */
+    Workload(int files, Distribution sizes, int fanOut, int depth, int nameLength) {
+        Preconditions.checkArgument(files > 0, "Number of files must be positive");
+        Preconditions.checkArgument(fanOut > 0, "Fan-out must be positive");
+        Preconditions.checkArgument(depth >= 0, "Depth must be non-negative");
+        Preconditions.checkArgument(nameLength > 0, "Name length must be positive");
+        this.files = files;
+        this.sizes = sizes;
+        this.fanOut = fanOut;
+        this.depth = depth;
+        this.nameLength = nameLength;
+    }
+
+    /**
+     * Returns a glob matching every file in this workload, if it were
+     * generated under the specified root.
+     *
+     * @param root the root directory
+     * @return a glob matching every file in this workload
+     */
+    Path glob(Path root) {
+        Path glob = root;
+        for (int i = 0; i < depth; i++) {
+            glob = new Path(glob, "*");
+        }
+        return new Path(glob, "*");
+    }
+
+    /**
+     * Generates the files in this workload under the specified root.
+     *
+     * @param fs     the file system on which to generate the files
+     * @param root   the root directory (which should not exist)
+     * @param random the source of randomness
+     * @return the total size of the files generated
+     * @throws IOException if an I/O error occurs while generating the files
+     */
+    long generate(FileSystem fs, Path root, Random random) throws IOException {
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        random.nextBytes(buffer);
+
+        long bytes = 0;
+        for (int i = 0; i < files; i++) {
+            Path dir = root;
+            for (int level = 0; level < depth; level++) {
+                dir = new Path(dir, "d" + random.nextInt(fanOut));
+            }
+            Path file;
+            do {
+                file = new Path(dir, randomName(random));
+            } while (fs.exists(file));
+
+            long size = sizes.next(random);
+            try (FSDataOutputStream out = fs.create(file, false)) {
+                for (long remaining = size; remaining > 0; remaining -= buffer.length) {
+                    out.write(buffer, 0, (int) Math.min(remaining, buffer.length));
+                }
+            }
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    private String randomName(Random random) {
+        char[] name = new char[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length()));
+        }
+        return new String(name);
+    }
+
+    @Override
+    public String toString() {
+        return files + " files (" + sizes + "), fan-out " + fanOut + ", depth " + depth
+                + ", names of " + nameLength + " characters";
+    }
+}
@@ -0,0 +1,746 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.fs;
+
+import com.google.common.base.Preconditions;
+import com.nthportal.hadoop.hdfs.erase.benchmarks.Distribution;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.ParentNotDirectoryException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsNotEmptyDirectoryException;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link FileSystem} which keeps files in memory, and which simulates
+ * the latency, bandwidth and failures of a real cluster, so that erasing
+ * hundreds of thousands of files can be benchmarked (or stress-tested)
+ * in seconds, without a {@link org.apache.hadoop.hdfs.MiniDFSCluster}.
+ *
+ * <p>The URI of a file system is {@code mem://AUTHORITY/}; every instance
+ * with the same authority (in this JVM) shares the same files, as clients
+ * of the same cluster do. The scheme is registered with
+ * {@link java.util.ServiceLoader}, so {@code mem://} paths work anywhere
+ * that this module is on the classpath.
+ *
+ * <p>Operations behave as they do on HDFS where erasing files depends on
+ * it. In particular:
+ * <ul>
+ *     <li>renaming a file fails (returning false) if the destination
+ *     exists, and moves the file into the destination if it is a
+ *     directory</li>
+ *     <li>truncating a file to a length which is not a multiple of its
+ *     block size returns false, and the file keeps its old length until
+ *     block recovery has finished (see
+ *     {@link Conf#TRUNCATE_RECOVERY_LATENCY}); truncating it again until
+ *     then fails</li>
+ *     <li>the length of a file being written is only updated when the
+ *     file is closed</li>
+ *     <li>files cannot be appended to</li>
+ * </ul>
+ *
+ * <p>By default, the content of files is not kept, and files read as
+ * zeros; see {@link Conf#RETAIN_DATA}. Checksums are not supported.
+ *
+ * <p>Latencies and failures are simulated for each
+ * {@link FileSystemOperation}, and operations are counted as NameNode
+ * RPCs would be (see {@link #getOperationCount()}). As on any file system
+ * other than HDFS, a rename with {@link org.apache.hadoop.fs.Options.Rename}
+ * options is made up of several operations.
+ */
+public class InMemoryFileSystem extends FileSystem {
+    /**
+     * The scheme of in-memory file systems.
+     */
+    public static final String SCHEME = "mem";
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long DEFAULT_BLOCK_SIZE = 128L << 20;
+    private static final FsPermission FILE_PERMISSION = FsPermission.getFileDefault();
+    private static final FsPermission DIR_PERMISSION = FsPermission.getDirDefault();
+    private static final String GROUP = "supergroup";
+
+    private static final ConcurrentMap<String, Store> stores = new ConcurrentHashMap<>();
+
+    private final Distribution[] latencies = new Distribution[FileSystemOperation.values().length];
+    private final double[] failureRates = new double[FileSystemOperation.values().length];
+
+    private URI uri;
+    private Store store;
+    private Path workingDir;
+    private String owner;
+    private long blockSize;
+    private boolean retainData;
+    private Distribution recoveryLatency;
+    private double nanosPerByte;
+    private long nextWriteNanos = System.nanoTime();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public void initialize(URI name, Configuration conf) throws IOException {
+        super.initialize(name, conf);
+        String authority = (name.getAuthority() == null) ? "" : name.getAuthority();
+        uri = URI.create(SCHEME + "://" + authority + "/");
+        store = store(authority);
+        owner = UserGroupInformation.getCurrentUser().getShortUserName();
+        workingDir = makeQualified(new Path("/user", owner));
+
+        blockSize = conf.getLongBytes(Conf.BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+        retainData = conf.getBoolean(Conf.RETAIN_DATA, false);
+        recoveryLatency = distribution(conf, Conf.TRUNCATE_RECOVERY_LATENCY, "fixed:0ns");
+        long bytesPerSecond = conf.getLongBytes(Conf.BYTES_PER_SECOND, 0);
+        nanosPerByte = (bytesPerSecond > 0) ? NANOS_PER_SECOND / (double) bytesPerSecond : 0;
+
+        String defaultLatency = conf.get(Conf.LATENCY);
+        float defaultFailureRate = conf.getFloat(Conf.FAILURE_RATE, 0);
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            int i = operation.ordinal();
+            latencies[i] = distribution(conf, Conf.LATENCY + "." + operation.name(), defaultLatency);
+            failureRates[i] = conf.getFloat(Conf.FAILURE_RATE + "." + operation.name(), defaultFailureRate);
+            Preconditions.checkArgument(failureRates[i] >= 0 && failureRates[i] <= 1,
+                    "Failure rate must be between 0 and 1: " + operation);
+        }
+    }
+
+    private static Distribution distribution(Configuration conf, String key, String defaultValue) {
+        String spec = conf.get(key, defaultValue);
+        return (spec == null) ? null : Distribution.parse(spec, Distribution.Unit.NANOSECONDS);
+    }
+
+    private static Store store(String authority) {
+        Store store = stores.get(authority);
+        if (store == null) {
+            Store created = new Store();
+            store = stores.putIfAbsent(authority, created);
+            if (store == null) {
+                store = created;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Discards all files in the in-memory file systems with the specified
+     * authority. Instances which are still open see an empty file system.
+     *
+     * @param authority the authority of the file systems
+     */
+    public static void clear(String authority) {
+        Store store = stores.remove(authority);
+        if (store != null) {
+            synchronized (store) {
+                store.root.children.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of operations made on this file system (by all
+     * instances sharing its files), including failed operations. Operations
+     * are counted as the NameNode would count RPCs: each create, close,
+     * open, status check, listing, truncation, rename, deletion and
+     * directory creation counts as one operation.
+     *
+     * @return the number of operations made on this file system
+     */
+    public long getOperationCount() {
+        return store.operations.get();
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public Path getWorkingDirectory() {
+        return workingDir;
+    }
+
+    @Override
+    public void setWorkingDirectory(Path newDir) {
+        workingDir = makeQualified(newDir);
+    }
+
+    @Override
+    public long getDefaultBlockSize(Path f) {
+        return blockSize;
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.OPEN);
+        byte[] data;
+        long length;
+        synchronized (store) {
+            FileNode file = file(path);
+            data = file.data;
+            length = file.length;
+        }
+        return new FSDataInputStream(new MemoryInputStream(data, length));
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f,
+                                     FsPermission permission,
+                                     boolean overwrite,
+                                     int bufferSize,
+                                     short replication,
+                                     long blockSize,
+                                     Progressable progress) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.CREATE);
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+        FileNode file;
+        synchronized (store) {
+            List<String> names = names(path);
+            if (names.isEmpty()) {
+                throw new FileAlreadyExistsException("Cannot create a file at the root: " + path);
+            }
+            DirNode parent = mkdirs(path.getParent(), names.subList(0, names.size() - 1));
+            String name = names.get(names.size() - 1);
+            Node existing = parent.children.get(name);
+            if (existing instanceof DirNode) {
+                throw new FileAlreadyExistsException("Is a directory: " + path);
+            } else if (existing != null && !overwrite) {
+                throw new FileAlreadyExistsException("File already exists: " + path);
+            }
+            file = new FileNode(blockSize, replication);
+            parent.children.put(name, file);
+            parent.touch();
+        }
+        return new FSDataOutputStream(new MemoryOutputStream(path, file), statistics);
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) throws IOException {
+        throw new IOException("Append is not supported: " + f);
+    }
+
+    @Override
+    public boolean truncate(Path f, long newLength) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.TRUNCATE);
+        long recoveryNanos = recoveryLatency.next(ThreadLocalRandom.current());
+        synchronized (store) {
+            FileNode file = file(path);
+            if (newLength < 0 || newLength > file.length) {
+                throw new HadoopIllegalArgumentException("Cannot truncate " + path + " of length "
+                        + file.length + " to " + newLength);
+            }
+            if (file.writing) {
+                throw new IOException("File is open for writing: " + path);
+            }
+            if (file.recoveryLength >= 0) {
+                throw new RecoveryInProgressException("Truncation of " + path + " is still in progress");
+            }
+            if (newLength == file.length) {
+                return true;
+            }
+            file.touch();
+            if (newLength % file.blockSize == 0) {
+                file.setLength(newLength);
+                return true;
+            }
+            file.recoveryLength = newLength;
+            file.recoveryEndNanos = System.nanoTime() + recoveryNanos;
+            return false;
+        }
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        Path srcPath = makeQualified(src);
+        Path dstPath = makeQualified(dst);
+        beforeOperation(FileSystemOperation.RENAME);
+        synchronized (store) {
+            List<String> srcNames = names(srcPath);
+            List<String> dstNames = names(dstPath);
+            Node node = find(srcNames);
+            if (node == null || srcNames.isEmpty()) {
+                return false;
+            }
+            if (srcNames.equals(dstNames)) {
+                return node instanceof FileNode;
+            }
+
+            Node target = find(dstNames);
+            if (target instanceof DirNode) {
+                dstNames = new ArrayList<>(dstNames);
+                dstNames.add(srcNames.get(srcNames.size() - 1));
+                target = ((DirNode) target).children.get(dstNames.get(dstNames.size() - 1));
+            }
+            if (target != null || isPrefix(srcNames, dstNames)) {
+                return false;
+            }
+            Node dstParent = find(dstNames.subList(0, dstNames.size() - 1));
+            if (!(dstParent instanceof DirNode)) {
+                return false;
+            }
+
+            DirNode srcParent = (DirNode) find(srcNames.subList(0, srcNames.size() - 1));
+            srcParent.children.remove(srcNames.get(srcNames.size() - 1));
+            srcParent.touch();
+            ((DirNode) dstParent).children.put(dstNames.get(dstNames.size() - 1), node);
+            dstParent.touch();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.DELETE);
+        synchronized (store) {
+            List<String> names = names(path);
+            Node node = find(names);
+            if (node == null || names.isEmpty()) {
+                return false;
+            }
+            if (node instanceof DirNode && !recursive && !((DirNode) node).children.isEmpty()) {
+                throw new PathIsNotEmptyDirectoryException(path.toString());
+            }
+            DirNode parent = (DirNode) find(names.subList(0, names.size() - 1));
+            parent.children.remove(names.get(names.size() - 1));
+            parent.touch();
+            return true;
+        }
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.LIST_STATUS);
+        synchronized (store) {
+            Node node = find(names(path));
+            if (node == null) {
+                throw new FileNotFoundException("File does not exist: " + path);
+            }
+            if (node instanceof FileNode) {
+                return new FileStatus[]{status(path, node)};
+            }
+            Map<String, Node> children = ((DirNode) node).children;
+            FileStatus[] statuses = new FileStatus[children.size()];
+            int i = 0;
+            for (Map.Entry<String, Node> child : children.entrySet()) {
+                statuses[i++] = status(new Path(path, child.getKey()), child.getValue());
+            }
+            return statuses;
+        }
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+        Path path = makeQualified(f);
+        store.operations.incrementAndGet();
+        synchronized (store) {
+            mkdirs(path, names(path));
+            return true;
+        }
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.GET_FILE_STATUS);
+        synchronized (store) {
+            Node node = find(names(path));
+            if (node == null) {
+                throw new FileNotFoundException("File does not exist: " + path);
+            }
+            return status(path, node);
+        }
+    }
+
+    /**
+     * Returns {@code null}, as checksums are not supported.
+     */
+    @Override
+    public FileChecksum getFileChecksum(Path f) throws IOException {
+        Path path = makeQualified(f);
+        beforeOperation(FileSystemOperation.GET_FILE_CHECKSUM);
+        synchronized (store) {
+            file(path);
+        }
+        return null;
+    }
+
+    /**
+     * Counts an operation, waits for its simulated latency, and then fails
+     * it if its simulated failure happens.
+     *
+     * @param operation the operation
+     * @throws IOException if the operation fails
+     */
+    private void beforeOperation(FileSystemOperation operation) throws IOException {
+        store.operations.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = operation.ordinal();
+        if (latencies[i] != null) {
+            sleep(latencies[i].next(random));
+        }
+        if (failureRates[i] > 0 && random.nextDouble() < failureRates[i]) {
+            throw new IOException("Simulated failure of " + operation + " operation");
+        }
+    }
+
+    /**
+     * Waits until writing the specified number of bytes would not exceed
+     * the bandwidth of this file system instance.
+     *
+     * @param bytes the number of bytes to write
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    private void pace(long bytes) throws InterruptedIOException {
+        if (nanosPerByte == 0) {
+            return;
+        }
+        long finishNanos;
+        synchronized (this) {
+            finishNanos = Math.max(nextWriteNanos, System.nanoTime()) + (long) (bytes * nanosPerByte);
+            nextWriteNanos = finishNanos;
+        }
+        sleep(finishNanos - System.nanoTime());
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while simulating latency");
+            }
+        }
+    }
+
+    private FileStatus status(Path path, Node node) {
+        if (node instanceof DirNode) {
+            return new FileStatus(0, true, 0, 0, node.modificationTime, 0, DIR_PERMISSION,
+                    owner, GROUP, path);
+        }
+        FileNode file = (FileNode) node;
+        file.finishRecovery();
+        return new FileStatus(file.length, false, file.replication, file.blockSize, file.modificationTime, 0,
+                FILE_PERMISSION, owner, GROUP, path);
+    }
+
+    private FileNode file(Path path) throws IOException {
+        Node node = find(names(path));
+        if (node == null) {
+            throw new FileNotFoundException("File does not exist: " + path);
+        } else if (node instanceof DirNode) {
+            throw new FileNotFoundException("Path is not a file: " + path);
+        }
+        FileNode file = (FileNode) node;
+        file.finishRecovery();
+        return file;
+    }
+
+    private Node find(List<String> names) {
+        Node node = store.root;
+        for (String name : names) {
+            if (!(node instanceof DirNode)) {
+                return null;
+            }
+            node = ((DirNode) node).children.get(name);
+        }
+        return node;
+    }
+
+    private DirNode mkdirs(Path path, List<String> names) throws IOException {
+        DirNode dir = store.root;
+        for (String name : names) {
+            Node child = dir.children.get(name);
+            if (child == null) {
+                child = new DirNode();
+                dir.children.put(name, child);
+                dir.touch();
+            } else if (child instanceof FileNode) {
+                throw new ParentNotDirectoryException("Not a directory: " + name + " (creating " + path + ")");
+            }
+            dir = (DirNode) child;
+        }
+        return dir;
+    }
+
+    private static List<String> names(Path qualified) {
+        List<String> names = new ArrayList<>();
+        for (String name : qualified.toUri().getPath().split(Path.SEPARATOR)) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static boolean isPrefix(List<String> prefix, List<String> names) {
+        return names.size() >= prefix.size() && names.subList(0, prefix.size()).equals(prefix);
+    }
+
+    /**
+     * Configuration options for in-memory file systems.
+     *
+     * <p>Latencies are given as distributions (see
+     * {@link Distribution#parse(String, Distribution.Unit)}) of durations
+     * with units, such as {@code fixed:500us} or {@code lognormal:2ms:0.5}.
+     */
+    public static final class Conf {
+        private static final String PREFIX = "com.nthportal.hdfs-secure-erase.IN_MEMORY_FS.";
+
+        /**
+         * The distribution of the latency of each operation (default none).
+         * The latency of a specific {@link FileSystemOperation} may be
+         * configured by appending {@code .OPERATION} to this key (for
+         * example, {@code LATENCY.TRUNCATE}).
+         */
+        public static final String LATENCY = PREFIX + "LATENCY";
+        /**
+         * The probability (between 0 and 1) that an operation fails with
+         * an IOException (default 0). The rate for a specific
+         * {@link FileSystemOperation} may be configured by appending
+         * {@code .OPERATION} to this key (for example,
+         * {@code FAILURE_RATE.RENAME}).
+         */
+        public static final String FAILURE_RATE = PREFIX + "FAILURE_RATE";
+        /**
+         * The distribution of the time taken for block recovery after
+         * truncating a file to a length which is not a multiple of its
+         * block size (default {@code fixed:0ns}).
+         */
+        public static final String TRUNCATE_RECOVERY_LATENCY = PREFIX + "TRUNCATE_RECOVERY_LATENCY";
+        /**
+         * The maximum number of bytes per second written through each
+         * instance (non-positive for no limit).
+         */
+        public static final String BYTES_PER_SECOND = PREFIX + "BYTES_PER_SECOND";
+        /**
+         * The default block size of files (default 128m).
+         */
+        public static final String BLOCK_SIZE = PREFIX + "BLOCK_SIZE";
+        /**
+         * Whether or not to keep the content of files (default false), so
+         * that it can be read back (for example, to verify overwrites).
+         */
+        public static final String RETAIN_DATA = PREFIX + "RETAIN_DATA";
+
+        private Conf() {
+        }
+    }
+
+    /**
+     * The files shared by all instances with the same authority.
+     */
+    private static final class Store {
+        private final DirNode root = new DirNode();
+        private final AtomicLong operations = new AtomicLong();
+    }
+
+    /**
+     * A file or directory. All nodes are guarded by their store.
+     */
+    private abstract static class Node {
+        long modificationTime = System.currentTimeMillis();
+
+        void touch() {
+            modificationTime = System.currentTimeMillis();
+        }
+    }
+
+    private static final class DirNode extends Node {
+        private final Map<String, Node> children = new TreeMap<>();
+    }
+
+    private static final class FileNode extends Node {
+        private final long blockSize;
+        private final short replication;
+        private long length = 0;
+        private byte[] data = null;
+        private boolean writing = true;
+        private long recoveryLength = -1;
+        private long recoveryEndNanos;
+
+        private FileNode(long blockSize, short replication) {
+            this.blockSize = blockSize;
+            this.replication = replication;
+        }
+
+        private void setLength(long newLength) {
+            length = newLength;
+            if (data != null) {
+                data = Arrays.copyOf(data, (int) newLength);
+            }
+        }
+
+        /**
+         * Sets the length of this file to the length to which it was
+         * truncated, if block recovery has finished.
+         */
+        private void finishRecovery() {
+            if (recoveryLength >= 0 && System.nanoTime() - recoveryEndNanos >= 0) {
+                setLength(recoveryLength);
+                recoveryLength = -1;
+            }
+        }
+    }
+
+    /**
+     * A stream writing to a file, whose length is updated when it is
+     * closed.
+     */
+    private final class MemoryOutputStream extends OutputStream {
+        private final Path path;
+        private final FileNode file;
+        private final ByteArrayOutputStream data;
+        private long length = 0;
+        private boolean closed = false;
+
+        private MemoryOutputStream(Path path, FileNode file) {
+            this.path = path;
+            this.file = file;
+            data = retainData ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            pace(1);
+            if (data != null) {
+                data.write(b);
+            }
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            pace(len);
+            if (data != null) {
+                data.write(b, off, len);
+            }
+            length += len;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed: " + path);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                beforeOperation(FileSystemOperation.CLOSE);
+            } catch (IOException e) {
+                synchronized (store) {
+                    file.writing = false;
+                }
+                throw e;
+            }
+            synchronized (store) {
+                file.writing = false;
+                file.length = length;
+                file.data = (data == null) ? null : data.toByteArray();
+                file.touch();
+            }
+        }
+    }
+
+    /**
+     * A stream reading a snapshot of a file, or zeros if its content was
+     * not retained.
+     */
+    private static final class MemoryInputStream extends FSInputStream {
+        private final byte[] data;
+        private final long length;
+        private long position = 0;
+
+        private MemoryInputStream(byte[] data, long length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos < 0 || pos > length) {
+                throw new EOFException("Cannot seek to " + pos + " in file of length " + length);
+            }
+            position = pos;
+        }
+
+        @Override
+        public long getPos() {
+            return position;
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) {
+            return false;
+        }
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            int b = (data == null) ? 0 : data[(int) position] & 0xff;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (position >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - position);
+            if (data == null) {
+                Arrays.fill(b, off, off + n, (byte) 0);
+            } else {
+                System.arraycopy(data, (int) position, b, off, n);
+            }
+            position += n;
+            return n;
+        }
+    }
+}
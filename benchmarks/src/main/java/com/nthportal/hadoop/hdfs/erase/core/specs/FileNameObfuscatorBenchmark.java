@@ -0,0 +1,56 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating the names to which
+ * {@link AdvancedFileDeletionSpec.FileNameObfuscator} renames a file, once
+ * for each length from the length of the file's name down to 1.
+ *
+ * <p>{@code namesInUse} is the number of candidate names skipped at each
+ * length (as if files with those names already existed); skipping more
+ * names than there are characters in a file name exercises the generation
+ * of further prefixes.
+ *
+ * <p>This benchmark is in the same package as {@code AdvancedFileDeletionSpec}
+ * so that it can reach the (package-private) name generation directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameObfuscatorBenchmark {
+    @Param({"4", "10", "32", "128"})
+    public int nameLength;
+
+    @Param({"0", "100"})
+    public int namesInUse;
+
+    @Benchmark
+    public void obfuscationNames(Blackhole blackhole) {
+        for (int length = nameLength; length > 0; length--) {
+            Iterator<String> names = AdvancedFileDeletionSpec.FileNameObfuscator.namesOfLength(length);
+            for (int i = 0; i < namesInUse && names.hasNext(); i++) {
+                blackhole.consume(names.next());
+            }
+            if (names.hasNext()) {
+                blackhole.consume(names.next());
+            }
+        }
+    }
+}
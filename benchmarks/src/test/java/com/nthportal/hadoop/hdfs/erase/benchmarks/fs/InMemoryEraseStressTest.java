@@ -0,0 +1,99 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.fs;
+
+import com.nthportal.hadoop.hdfs.erase.core.EraseProgress;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import com.nthportal.hadoop.hdfs.erase.core.specs.AdvancedFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Erases many files on an {@link InMemoryFileSystem} whose renames and
+ * truncations fail at random, and checks that every file is erased once
+ * the failures have been retried.
+ */
+public class InMemoryEraseStressTest {
+    private static final int FILES = 10000;
+    private static final int DIRS = 20;
+    private static final long BLOCK_SIZE = 4;
+    private static final int CONCURRENCY = 64;
+
+    private String authority;
+    private Configuration conf;
+
+    @Before
+    public void setUp() {
+        authority = "stress-" + UUID.randomUUID();
+        conf = new Configuration();
+        conf.set(FileSystem.FS_DEFAULT_NAME_KEY, InMemoryFileSystem.SCHEME + "://" + authority + "/");
+        conf.setLong(InMemoryFileSystem.Conf.BLOCK_SIZE, BLOCK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        InMemoryFileSystem.clear(authority);
+    }
+
+    @Test(timeout = 300000)
+    public void erasesEveryFileDespiteRenameAndTruncateFailures() throws Exception {
+        Path root = new Path("/stress");
+        try (FileSystem fs = FileSystem.newInstance(URI.create(conf.get(FileSystem.FS_DEFAULT_NAME_KEY)), conf)) {
+            for (int i = 0; i < FILES; i++) {
+                // Lengths of up to two blocks, so that most truncations wait for block recovery
+                try (FSDataOutputStream out = fs.create(new Path(root, "dir-" + (i % DIRS) + "/part-" + i))) {
+                    out.write(new byte[1 + i % (int) (2 * BLOCK_SIZE)]);
+                }
+            }
+        }
+
+        Configuration eraseConf = new Configuration(conf);
+        eraseConf.setFloat(InMemoryFileSystem.Conf.FAILURE_RATE + "." + FileSystemOperation.RENAME.name(), 0.02f);
+        eraseConf.setFloat(InMemoryFileSystem.Conf.FAILURE_RATE + "." + FileSystemOperation.TRUNCATE.name(), 0.05f);
+        eraseConf.set(InMemoryFileSystem.Conf.TRUNCATE_RECOVERY_LATENCY, "uniform:0ms:1ms");
+        eraseConf.setInt(SecureErase.Conf.RETRIES, 20);
+        eraseConf.setLong(SecureErase.Conf.RETRY_BASE_DELAY_MILLIS, 1);
+        eraseConf.setLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS, 10);
+        eraseConf.setInt(SecureErase.Conf.MAX_FAILED_FILES, 0);
+        // Most truncations wait for block recovery, so many files are erased at once
+        eraseConf.setInt(SecureErase.Conf.MIN_CONCURRENCY, CONCURRENCY);
+        eraseConf.setInt(SecureErase.Conf.MAX_CONCURRENCY, CONCURRENCY);
+        // Several batches, so that files are added while earlier files are being erased
+        eraseConf.setInt(SecureErase.Conf.GLOB_BATCH_SIZE, FILES / DIRS * 3);
+
+        SecureErase secureErase = new SecureErase(eraseConf);
+        EraseProgress progress = new EraseProgress();
+        secureErase.addListener(progress);
+        FileErasureSpec spec = FileErasureSpec.from(new OverwriteSpec(ByteProvider.zeros()))
+                .andThen(new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf()));
+        List<Path> globs = new ArrayList<>();
+        for (int i = 0; i < DIRS; i++) {
+            globs.add(new Path(root, "dir-" + i + "/*"));
+        }
+        secureErase.eraseGlobs(globs, spec);
+
+        assertEquals(FILES, progress.getTotalFiles());
+        assertEquals(FILES, progress.getErasedFiles());
+        assertEquals(0, progress.getFailedFiles());
+        assertTrue("No failures were retried", progress.getRetries() > 0);
+        try (FileSystem fs = FileSystem.newInstance(URI.create(conf.get(FileSystem.FS_DEFAULT_NAME_KEY)), conf)) {
+            for (int i = 0; i < DIRS; i++) {
+                assertEquals(0, fs.listStatus(new Path(root, "dir-" + i)).length);
+            }
+        }
+    }
+}
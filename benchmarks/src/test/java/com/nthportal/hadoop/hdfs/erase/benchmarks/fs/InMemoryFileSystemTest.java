@@ -0,0 +1,204 @@
+package com.nthportal.hadoop.hdfs.erase.benchmarks.fs;
+
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an {@link InMemoryFileSystem} behaves as HDFS does where
+ * erasing files depends on it, and that it fails operations as configured.
+ */
+public class InMemoryFileSystemTest {
+    private static final long BLOCK_SIZE = 10;
+
+    private String authority;
+    private Configuration conf;
+
+    @Before
+    public void setUp() {
+        authority = "test-" + UUID.randomUUID();
+        conf = new Configuration();
+        conf.setLong(InMemoryFileSystem.Conf.BLOCK_SIZE, BLOCK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        InMemoryFileSystem.clear(authority);
+    }
+
+    private FileSystem newFileSystem() throws IOException {
+        return FileSystem.newInstance(URI.create(InMemoryFileSystem.SCHEME + "://" + authority + "/"), conf);
+    }
+
+    private static Path createFile(FileSystem fs, String path, int length) throws IOException {
+        Path file = new Path(path);
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(new byte[length]);
+        }
+        return file;
+    }
+
+    @Test
+    public void truncatesToBlockBoundaryImmediately() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path file = createFile(fs, "/file", 25);
+            assertTrue(fs.truncate(file, 20));
+            assertEquals(20, fs.getFileStatus(file).getLen());
+            assertTrue(fs.truncate(file, 20));
+        }
+    }
+
+    @Test
+    public void keepsLengthUntilTruncationIsRecovered() throws Exception {
+        conf.set(InMemoryFileSystem.Conf.TRUNCATE_RECOVERY_LATENCY, "fixed:3600s");
+        try (FileSystem fs = newFileSystem()) {
+            Path file = createFile(fs, "/file", 25);
+            assertFalse(fs.truncate(file, 5));
+            assertEquals(25, fs.getFileStatus(file).getLen());
+            try {
+                fs.truncate(file, 0);
+                fail("Expected truncating during recovery to fail");
+            } catch (RecoveryInProgressException expected) {
+                // Recovery takes an hour
+            }
+        }
+    }
+
+    @Test
+    public void finishesTruncationOnceRecovered() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path file = createFile(fs, "/file", 25);
+            assertFalse(fs.truncate(file, 5));
+            assertEquals(5, fs.getFileStatus(file).getLen());
+            assertFalse(fs.truncate(file, 3));
+            assertEquals(3, fs.getFileStatus(file).getLen());
+        }
+    }
+
+    @Test
+    public void retainsTruncatedData() throws Exception {
+        conf.setBoolean(InMemoryFileSystem.Conf.RETAIN_DATA, true);
+        try (FileSystem fs = newFileSystem()) {
+            Path file = new Path("/file");
+            try (FSDataOutputStream out = fs.create(file)) {
+                out.write(new byte[]{1, 2, 3, 4, 5});
+            }
+            assertFalse(fs.truncate(file, 2));
+
+            byte[] read = new byte[3];
+            try (FSDataInputStream in = fs.open(file)) {
+                assertEquals(2, in.read(read));
+            }
+            assertArrayEquals(new byte[]{1, 2, 0}, read);
+        }
+    }
+
+    @Test
+    public void doesNotTruncateFilesBeingWritten() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path file = new Path("/file");
+            try (FSDataOutputStream out = fs.create(file)) {
+                out.write(new byte[25]);
+                try {
+                    fs.truncate(file, 0);
+                    fail("Expected truncating an open file to fail");
+                } catch (IOException expected) {
+                    // Open for writing
+                }
+                // The length is only updated when the file is closed
+                assertEquals(0, fs.getFileStatus(file).getLen());
+            }
+            assertEquals(25, fs.getFileStatus(file).getLen());
+        }
+    }
+
+    @Test
+    public void doesNotRenameOntoExistingFile() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path src = createFile(fs, "/src", 1);
+            Path dst = createFile(fs, "/dst", 2);
+            assertFalse(fs.rename(src, dst));
+            assertEquals(1, fs.getFileStatus(src).getLen());
+            assertEquals(2, fs.getFileStatus(dst).getLen());
+        }
+    }
+
+    @Test
+    public void renamesIntoDirectory() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path src = createFile(fs, "/src", 1);
+            Path dir = new Path("/dir");
+            fs.mkdirs(dir);
+            assertTrue(fs.rename(src, dir));
+            assertFalse(fs.exists(src));
+            assertEquals(1, fs.getFileStatus(new Path(dir, "src")).getLen());
+
+            // Not onto a file of the same name in the directory
+            Path other = createFile(fs, "/src", 2);
+            assertFalse(fs.rename(other, dir));
+            assertTrue(fs.exists(other));
+        }
+    }
+
+    @Test
+    public void doesNotRenameWithoutParentOrIntoItself() throws Exception {
+        try (FileSystem fs = newFileSystem()) {
+            Path src = createFile(fs, "/src", 1);
+            assertFalse(fs.rename(src, new Path("/missing/dst")));
+            assertFalse(fs.rename(new Path("/missing"), new Path("/dst")));
+            assertTrue(fs.rename(src, src));
+
+            Path dir = new Path("/dir");
+            fs.mkdirs(new Path(dir, "child"));
+            assertFalse(fs.rename(dir, new Path(dir, "child")));
+            assertTrue(fs.exists(src));
+            assertTrue(fs.exists(dir));
+        }
+    }
+
+    @Test
+    public void failsOperationsAtConfiguredRate() throws Exception {
+        conf.setFloat(InMemoryFileSystem.Conf.FAILURE_RATE + "." + FileSystemOperation.RENAME.name(), 1);
+        try (FileSystem fs = newFileSystem()) {
+            Path src = createFile(fs, "/src", 1);
+            InMemoryFileSystem memFs = (InMemoryFileSystem) fs;
+            long before = memFs.getOperationCount();
+            try {
+                fs.rename(src, new Path("/dst"));
+                fail("Expected the rename to fail");
+            } catch (IOException expected) {
+                // Every rename fails
+            }
+            // Failed operations are counted, and have no effect
+            assertEquals(before + 1, memFs.getOperationCount());
+            assertTrue(fs.exists(src));
+            assertTrue(fs.delete(src, false));
+        }
+    }
+
+    @Test
+    public void sharesFilesBetweenInstancesWithSameAuthority() throws Exception {
+        try (FileSystem fs = newFileSystem();
+             FileSystem other = newFileSystem()) {
+            Path file = createFile(fs, "/file", 1);
+            assertTrue(other.exists(file));
+        }
+        InMemoryFileSystem.clear(authority);
+        try (FileSystem fs = newFileSystem()) {
+            assertFalse(fs.exists(new Path("/file")));
+        }
+    }
+}
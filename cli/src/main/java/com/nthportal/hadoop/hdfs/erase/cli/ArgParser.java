@@ -1,6 +1,7 @@
 package com.nthportal.hadoop.hdfs.erase.cli;
 
 import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.SampledVerificationSpec;
 import org.apache.commons.cli.*;
 
 /**
@@ -50,6 +51,244 @@ final class ArgParser {
                 false,
                 "shows version information"));
 
+        addSpecOptions(options);
+
+        opt = new Option(
+                Opts.INPUT_FILE_SHORT,
+                Opts.INPUT_FILE,
+                true,
+                "a file listing further files to erase, one per line, "
+                        + "or `" + PathManifest.STDIN + "` to read them from standard input; "
+                        + "files are read and erased as a stream, and are literal paths unless `"
+                        + Opts.GLOB_INPUT + "` is specified");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        options.addOption(new Option(
+                Opts.NULL_SHORT,
+                Opts.NULL,
+                false,
+                "files in the input file are separated by NUL characters instead of newlines"));
+
+        options.addOption(new Option(
+                null,
+                Opts.GLOB_INPUT,
+                false,
+                "files in the input file are globs to expand, rather than literal paths"));
+
+        opt = new Option(
+                null,
+                Opts.FSIMAGE,
+                true,
+                "select the files matching the specified globs from a local copy of an fsimage "
+                        + "(such as one fetched with `hdfs dfsadmin -fetchImage`), rather than by "
+                        + "listing them on the NameNode");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.MIN_SIZE,
+                true,
+                "only select files from the fsimage of at least this size "
+                        + "(accepts suffixes such as k, m and g)");
+        opt.setArgName(Names.SIZE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.MAX_SIZE,
+                true,
+                "only select files from the fsimage of at most this size "
+                        + "(accepts suffixes such as k, m and g)");
+        opt.setArgName(Names.SIZE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.MODIFIED_AFTER,
+                true,
+                "only select files from the fsimage last modified after this UTC time "
+                        + "(yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss)");
+        opt.setArgName(Names.TIME_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.MODIFIED_BEFORE,
+                true,
+                "only select files from the fsimage last modified before this UTC time "
+                        + "(yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss)");
+        opt.setArgName(Names.TIME_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                Opts.CONCURRENCY_SHORT,
+                Opts.CONCURRENCY,
+                true,
+                "the maximum number of files to erase concurrently; the number of "
+                        + "files erased concurrently adapts to the load on the cluster (default 1)");
+        opt.setArgName(Names.COUNT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.RETRIES,
+                true,
+                "the number of times to retry a phase of erasing a file which fails in a way which "
+                        + "may be transient, resuming from the pass which failed (default 0)");
+        opt.setArgName(Names.COUNT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.MAX_FAILED_FILES,
+                true,
+                "the number of files which may fail to be erased before no further files are "
+                        + "started, or -1 for no limit (default 0)");
+        opt.setArgName(Names.COUNT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.DEAD_LETTER,
+                true,
+                "a file to which to write the path of every file which was not erased, one per line "
+                        + "(for use as an input file to erase them again)");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        options.addOption(new Option(
+                null,
+                Opts.VIRTUAL_THREADS,
+                false,
+                "erase files on virtual threads (requires Java 21 or later)"));
+
+        options.addOption(new Option(
+                null,
+                Opts.PROGRESS,
+                false,
+                "display the progress of erasing files, with throughput "
+                        + "and estimated time remaining"));
+
+        opt = new Option(
+                null,
+                Opts.STATS,
+                true,
+                "report a breakdown of where the time was spent erasing files, "
+                        + "as `" + OptionProcessor.STATS_TEXT + "` or `" + OptionProcessor.STATS_JSON + "`");
+        opt.setArgName(Names.FORMAT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.SMALL_FILE_THRESHOLD,
+                true,
+                "the size of the largest file to erase using the small file fast path "
+                        + "(accepts suffixes such as k and m; default none)");
+        opt.setArgName(Names.SIZE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.BYTES_PER_SECOND,
+                true,
+                "the maximum number of bytes to write per second "
+                        + "(accepts suffixes such as k, m and g; default unlimited)");
+        opt.setArgName(Names.RATE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.OPS_PER_SECOND,
+                true,
+                "the maximum number of file system operations per second (default unlimited)");
+        opt.setArgName(Names.RATE_ARG);
+        options.addOption(opt);
+
+        options.addOption(new Option(
+                null,
+                Opts.EXPLAIN,
+                false,
+                "print the plan with which files would be erased, without erasing any files"));
+
+        options.addOption(new Option(
+                null,
+                Opts.DRY_RUN,
+                false,
+                "estimate the bytes written, file system operations and time needed to "
+                        + "erase the file(s), without erasing any files"));
+
+        opt = new Option(
+                null,
+                Opts.CALIBRATION,
+                true,
+                "a file containing the `" + OptionProcessor.STATS_JSON + "` stats of a previous run, "
+                        + "with which to calibrate the estimated time of a dry run");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.SERVE,
+                true,
+                "run as a resident erase service accepting requests over HTTP on the loopback "
+                        + "interface, instead of erasing the specified file(s)");
+        opt.setArgName(Names.PORT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.REQUEST_CONCURRENCY,
+                true,
+                "the maximum number of requests for the erase service to run concurrently (default 1)");
+        opt.setArgName(Names.COUNT_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.TOKEN_FILE,
+                true,
+                "a file (readable only by its owner) containing the token with which requests to the erase "
+                        + "service must be authorized; created with a new random token if it does not exist");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.PRINCIPAL,
+                true,
+                "the Kerberos principal with which the erase service logs in (requires `" + Opts.KEYTAB + "`)");
+        opt.setArgName(Names.PRINCIPAL_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.KEYTAB,
+                true,
+                "the keytab from which the erase service logs in as its principal, and renews its ticket "
+                        + "before each request");
+        opt.setArgName(Names.FILE_ARG);
+        options.addOption(opt);
+
+        options.addOption(new Option(
+                Opts.VERBOSE_SHORT,
+                Opts.VERBOSE,
+                false,
+                "show verbose erasure information"));
+
+        return options;
+    }
+
+    /**
+     * Adds the options which specify how files are erased to an
+     * {@link Options} object.
+     *
+     * @param options the Options to which to add the options
+     */
+    static void addSpecOptions(Options options) {
+        Option opt;
+
         opt = new Option(
                 Opts.ITERATIONS_SHORT,
                 Opts.ITERATIONS,
@@ -73,6 +312,41 @@ final class ArgParser {
                 false,
                 "truncate and remove the file(s) after overwriting"));
 
+        options.addOption(new Option(
+                null,
+                Opts.VERIFY,
+                false,
+                "verify that the file(s) were overwritten by the last pass "
+                        + "(by comparing checksums for byte patterns, or by reading "
+                        + "back a random sample for random passes)"));
+
+        options.addOption(new Option(
+                null,
+                Opts.VERIFY_FULL,
+                false,
+                "verify that the file(s) were overwritten with the last byte pattern "
+                        + "by reading back their entire contents (requires byte patterns)"));
+
+        opt = new Option(
+                null,
+                Opts.VERIFY_CONFIDENCE,
+                true,
+                "the probability with which sampled verification of random passes finds a file "
+                        + "which was not overwritten as expected (requires `" + Opts.VERIFY + "`; "
+                        + "default " + SampledVerificationSpec.DEFAULT_CONFIDENCE + ")");
+        opt.setArgName(Names.FRACTION_ARG);
+        options.addOption(opt);
+
+        opt = new Option(
+                null,
+                Opts.VERIFY_DEFECT_FRACTION,
+                true,
+                "the smallest fraction of a file not overwritten as expected which sampled verification "
+                        + "of random passes finds with the given confidence (requires `" + Opts.VERIFY + "`; "
+                        + "default " + SampledVerificationSpec.DEFAULT_DEFECT_FRACTION + ")");
+        opt.setArgName(Names.FRACTION_ARG);
+        options.addOption(opt);
+
         opt = new Option(
                 Opts.SPEC_SHORT,
                 Opts.SPEC,
@@ -90,14 +364,6 @@ final class ArgParser {
                         + "to use (must have a default constructor)");
         opt.setArgName(Names.CLASS_ARG);
         options.addOption(opt);
-
-        options.addOption(new Option(
-                Opts.VERBOSE_SHORT,
-                Opts.VERBOSE,
-                false,
-                "show verbose erasure information"));
-
-        return options;
     }
 
     /**
@@ -105,7 +371,7 @@ final class ArgParser {
      */
     static void printHelp() {
         printVersion();
-        new HelpFormatter().printHelp(Names.COMMAND_NAME + " [OPTIONS] FILE [FILES...]", Holder.options);
+        new HelpFormatter().printHelp(Names.COMMAND_NAME + " [OPTIONS] [FILE...]", Holder.options);
     }
 
     /**
@@ -133,19 +399,61 @@ final class ArgParser {
         static String BYTE_PATTERNS = "byte-patterns";
         static String REMOVE_SHORT = "u";
         static String REMOVE = "remove";
+        static String VERIFY = "verify";
+        static String VERIFY_FULL = "verify-full";
+        static String VERIFY_CONFIDENCE = "verify-confidence";
+        static String VERIFY_DEFECT_FRACTION = "verify-defect-fraction";
         static String SPEC_SHORT = "s";
         static String SPEC = "erasure-spec";
         static String PROVIDER_SHORT = "p";
         static String PROVIDER = "erasure-spec-provider";
         static String VERBOSE_SHORT = "v";
         static String VERBOSE = "verbose";
+        static String INPUT_FILE_SHORT = "f";
+        static String INPUT_FILE = "input-file";
+        static String NULL_SHORT = "0";
+        static String NULL = "null";
+        static String GLOB_INPUT = "glob-input";
+        static String FSIMAGE = "fsimage";
+        static String MIN_SIZE = "min-size";
+        static String MAX_SIZE = "max-size";
+        static String MODIFIED_AFTER = "modified-after";
+        static String MODIFIED_BEFORE = "modified-before";
+        static String CONCURRENCY_SHORT = "c";
+        static String CONCURRENCY = "concurrency";
+        static String RETRIES = "retries";
+        static String MAX_FAILED_FILES = "max-failed-files";
+        static String DEAD_LETTER = "dead-letter";
+        static String VIRTUAL_THREADS = "virtual-threads";
+        static String PROGRESS = "progress";
+        static String STATS = "stats";
+        static String SMALL_FILE_THRESHOLD = "small-file-threshold";
+        static String BYTES_PER_SECOND = "bytes-per-second";
+        static String OPS_PER_SECOND = "ops-per-second";
+        static String EXPLAIN = "explain";
+        static String DRY_RUN = "dry-run";
+        static String CALIBRATION = "calibration";
+        static String SERVE = "serve";
+        static String REQUEST_CONCURRENCY = "request-concurrency";
+        static String TOKEN_FILE = "token-file";
+        static String PRINCIPAL = "principal";
+        static String KEYTAB = "keytab";
     }
 
     private static class Names {
         private static String COMMAND_NAME = "hdfs-secure-erase";
 
         private static String ITERATIONS_ARG = "COUNT";
+        private static String COUNT_ARG = "COUNT";
         private static String PATTERNS_ARG = "PATTERNS";
         private static String CLASS_ARG = "CLASS";
+        private static String RATE_ARG = "RATE";
+        private static String SIZE_ARG = "SIZE";
+        private static String FORMAT_ARG = "FORMAT";
+        private static String FILE_ARG = "FILE";
+        private static String PORT_ARG = "PORT";
+        private static String PRINCIPAL_ARG = "PRINCIPAL";
+        private static String TIME_ARG = "TIME";
+        private static String FRACTION_ARG = "FRACTION";
     }
 }
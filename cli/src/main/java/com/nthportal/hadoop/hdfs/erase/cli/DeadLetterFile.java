@@ -0,0 +1,64 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.google.common.base.Charsets;
+import com.nthportal.hadoop.hdfs.erase.core.EraseListener;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureResult;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * An {@link EraseListener} which writes the path of every file which was
+ * not erased (because erasing it failed or was aborted) to a file, one
+ * per line, as it finishes.
+ *
+ * <p>Each path is the path at which the file remains (which differs from
+ * its original path if it was renamed before erasing it failed), so that
+ * the dead-letter file can be passed back as an input file to erase the
+ * remaining files again. Files matching globs which were never expanded
+ * (because erasing stopped first) are not listed.
+ */
+final class DeadLetterFile extends EraseListener implements Closeable {
+    private static final Logger logger = Logger.getLogger(DeadLetterFile.class);
+
+    private final String name;
+    private final Writer writer;
+    private boolean failed = false;
+
+    /**
+     * Creates a new {@code DeadLetterFile}, replacing any existing file.
+     *
+     * @param name the name of the file to which to write paths
+     * @throws IOException if the file cannot be created
+     */
+    DeadLetterFile(String name) throws IOException {
+        this.name = name;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(name), Charsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void fileFinished(FileErasureResult result) {
+        if (result.isErased() || failed) {
+            return;
+        }
+        try {
+            writer.write(result.getCurrentPath().toString());
+            writer.write('\n');
+            // Flush each path, so that the file is complete even if the process is killed
+            writer.flush();
+        } catch (IOException e) {
+            failed = true;
+            logger.error("Failed to write to dead-letter file: " + name, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
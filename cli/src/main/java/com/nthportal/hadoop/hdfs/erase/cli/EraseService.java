@@ -0,0 +1,611 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nthportal.hadoop.hdfs.erase.core.EraseProgress;
+import com.nthportal.hadoop.hdfs.erase.core.ErasurePlan;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A resident service which erases files on request, so that erasing a
+ * handful of files does not pay for starting a JVM, parsing the Hadoop
+ * configuration, logging in and connecting to the NameNode every time.
+ *
+ * <p>Requests are made over HTTP, with JSON bodies:
+ * <ul>
+ *     <li>{@code POST /requests} queues a request, whose body is an object
+ *     with an {@code args} array of the command-line options and files with
+ *     which to erase files (for example, {@code {"args": ["-n", "1",
+ *     "/data/*.csv"]}}), and responds with the status of the request</li>
+ *     <li>{@code GET /requests/ID} responds with the status of a request:
+ *     its state, the number of files and bytes erased, and the error with
+ *     which it failed (if any)</li>
+ *     <li>{@code GET /requests} responds with the status of every recent
+ *     request</li>
+ * </ul>
+ *
+ * <p>Requests are run in the order in which they are queued, a configurable
+ * number at a time. Every request shares the service's {@link Configuration}
+ * (with any options of the request applied to a copy of it), and the cached
+ * {@link org.apache.hadoop.fs.FileSystem} is
+ * {@linkplain SecureErase.Conf#REUSE_FILE_SYSTEM left open} between
+ * requests. Throughput limits are the service's, and apply to all of its
+ * requests together (so they cannot be set by a request). If the
+ * service {@linkplain #loginFromKeytab(String, String) logs in from a
+ * keytab}, its ticket is renewed from the keytab before each request is
+ * run, so that the service keeps its credentials for as long as it runs.
+ *
+ * <p>Every request erases files with the credentials of the user running
+ * the service, so the service only listens on the loopback interface, and
+ * only accepts requests which:
+ * <ul>
+ *     <li>carry the service's token, read from a file which only its owner
+ *     may access, in an {@code Authorization: Bearer TOKEN} header, so that
+ *     only users who can read the token file may erase files</li>
+ *     <li>name the loopback interface in their {@code Host} header, so that
+ *     web pages which rebind their own host name to the loopback address
+ *     cannot make requests</li>
+ *     <li>(for {@code POST} requests) have a {@code Content-Type} of
+ *     {@code application/json}, which browsers do not send across origins
+ *     without a preflight request</li>
+ * </ul>
+ *
+ * <p>The statuses of at most {@value #MAX_HISTORY} finished requests are
+ * kept (by default); requests which are queued or running are always kept.
+ */
+final class EraseService {
+    private static final int MAX_HISTORY = 1000;
+    private static final String REQUESTS_PATH = "/requests";
+    private static final String AUTHORIZATION_SCHEME = "Bearer ";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final int TOKEN_BYTES = 32;
+    private static final Set<String> LOOPBACK_HOSTS = ImmutableSet.of("localhost", "127.0.0.1", "[::1]");
+
+    private final Configuration conf;
+    private final SecureErase secureErase;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService httpExecutor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final byte[] token;
+    private final int maxHistory;
+    private final Map<Long, Request> requests = new LinkedHashMap<>();
+    private volatile boolean keytabLogin = false;
+
+    /**
+     * Creates a new {@code EraseService}.
+     *
+     * @param conf               the Configuration with which to erase files
+     * @param port               the port on which to listen, or 0 for any
+     *                           free port
+     * @param requestConcurrency the maximum number of requests to run
+     *                           concurrently
+     * @param token              the token with which requests must be
+     *                           authorized (see {@link #loadToken(File)})
+     * @throws IOException if the port cannot be bound
+     */
+    EraseService(Configuration conf, int port, int requestConcurrency, String token) throws IOException {
+        this(conf, port, requestConcurrency, token, MAX_HISTORY);
+    }
+
+    /**
+     * Creates a new {@code EraseService} which keeps the statuses of a
+     * specified number of finished requests.
+     *
+     * @param conf               the Configuration with which to erase files
+     * @param port               the port on which to listen, or 0 for any
+     *                           free port
+     * @param requestConcurrency the maximum number of requests to run
+     *                           concurrently
+     * @param token              the token with which requests must be
+     *                           authorized (see {@link #loadToken(File)})
+     * @param maxHistory         the maximum number of finished requests
+     *                           whose statuses to keep
+     * @throws IOException if the port cannot be bound
+     */
+    EraseService(Configuration conf, int port, int requestConcurrency, String token, int maxHistory)
+            throws IOException {
+        this.token = token.getBytes(Charsets.UTF_8);
+        this.maxHistory = maxHistory;
+        this.conf = new Configuration(conf);
+        this.conf.setBoolean(SecureErase.Conf.REUSE_FILE_SYSTEM, true);
+        secureErase = new SecureErase(this.conf);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(REQUESTS_PATH, new RequestsHandler());
+        requestExecutor = Executors.newFixedThreadPool(requestConcurrency, new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-request-%d")
+                .build());
+        httpExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-http")
+                .build());
+        server.setExecutor(httpExecutor);
+    }
+
+    /**
+     * Reads the token with which requests must be authorized from a file,
+     * first creating the file (readable and writable only by its owner)
+     * with a new random token if it does not exist.
+     *
+     * @param tokenFile the file containing the token
+     * @return the token
+     * @throws IOException if the file cannot be created or read, may be
+     *                     accessed by users other than its owner, or
+     *                     does not contain a token
+     */
+    static String loadToken(File tokenFile) throws IOException {
+        Set<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ,
+                PosixFilePermission.OWNER_WRITE);
+        if (!tokenFile.exists()) {
+            byte[] bytes = new byte[TOKEN_BYTES];
+            new SecureRandom().nextBytes(bytes);
+            try {
+                Files.createFile(tokenFile.toPath(), PosixFilePermissions.asFileAttribute(ownerOnly));
+                Files.write(tokenFile.toPath(), Hex.encodeHexString(bytes).getBytes(Charsets.UTF_8));
+            } catch (FileAlreadyExistsException ignored) {
+                // Created concurrently; use its token
+            }
+        }
+
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(tokenFile.toPath());
+        if (!ownerOnly.containsAll(permissions)) {
+            throw new IOException("Token file may be accessed by users other than its owner (permissions "
+                    + PosixFilePermissions.toString(permissions) + "; should be rw-------): " + tokenFile);
+        }
+        String token = new String(Files.readAllBytes(tokenFile.toPath()), Charsets.UTF_8).trim();
+        if (token.isEmpty()) {
+            throw new IOException("Token file is empty: " + tokenFile);
+        }
+        return token;
+    }
+
+    /**
+     * Logs in from a keytab, so that requests erase files with the
+     * credentials of its principal. Before each request is run, the
+     * principal's ticket is renewed from the keytab if it is close to
+     * expiring.
+     *
+     * @param principal the Kerberos principal with which to log in
+     * @param keytab    the path to the keytab file of the principal
+     * @throws IOException if the login fails
+     */
+    void loginFromKeytab(String principal, String keytab) throws IOException {
+        UserGroupInformation.setConfiguration(conf);
+        UserGroupInformation.loginUserFromKeytab(principal, keytab);
+        keytabLogin = true;
+    }
+
+    /**
+     * Sets the maximum number of bytes per second written by all requests
+     * together. The new limit applies immediately, including to requests
+     * which are running.
+     *
+     * @param bytesPerSecond the maximum number of bytes per second, or a
+     *                       non-positive value for no limit
+     * @see SecureErase#setBytesPerSecond(long)
+     */
+    void setBytesPerSecond(long bytesPerSecond) {
+        secureErase.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Sets the maximum number of file system (NameNode) operations per
+     * second made by all requests together. The new limit applies
+     * immediately, including to requests which are running.
+     *
+     * @param operationsPerSecond the maximum number of operations per second,
+     *                            or a non-positive value for no limit
+     * @see SecureErase#setOperationsPerSecond(long)
+     */
+    void setOperationsPerSecond(long operationsPerSecond) {
+        secureErase.setOperationsPerSecond(operationsPerSecond);
+    }
+
+    /**
+     * Starts accepting requests, and stops the service when the JVM
+     * shuts down.
+     */
+    void start() {
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+            }
+        }, "secure-erase-shutdown"));
+    }
+
+    /**
+     * Returns the address on which the service listens.
+     *
+     * @return the address on which the service listens
+     */
+    InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, and interrupts any requests which are
+     * running. Requests which are queued are not run.
+     */
+    void stop() {
+        server.stop(0);
+        httpExecutor.shutdownNow();
+        requestExecutor.shutdownNow();
+        try {
+            requestExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Waits until the service is stopped.
+     */
+    void awaitTermination() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses and queues a request.
+     *
+     * @param args the command-line options and files of the request
+     * @return the queued request
+     * @throws CliOptionException         if the options are invalid
+     * @throws RejectedExecutionException if the service is stopping
+     */
+    private Request submit(String[] args) throws CliOptionException, RejectedExecutionException {
+        OptionProcessor processor;
+        try {
+            processor = new OptionProcessor(ArgParser.parse(args));
+        } catch (ParseException e) {
+            throw new CliOptionException(e.getMessage(), e);
+        }
+        processor.checkRequestOptions();
+        Configuration requestConf = new Configuration(conf);
+        processor.configure(requestConf);
+        FileErasureSpec spec = processor.parseSpec();
+
+        Request request = new Request(nextId.getAndIncrement(), secureErase.sharingLimits(requestConf), spec,
+                processor.paths(), keytabLogin);
+        synchronized (requests) {
+            requests.put(request.id, request);
+            evictFinished();
+        }
+        try {
+            requestExecutor.execute(request);
+        } catch (RejectedExecutionException e) {
+            synchronized (requests) {
+                requests.remove(request.id);
+            }
+            throw e;
+        }
+        return request;
+    }
+
+    /**
+     * Forgets the oldest finished requests while more requests than the
+     * history allows are kept. Requests which are queued or running are
+     * kept however old they are. Must be called while holding the lock on
+     * {@link #requests}.
+     */
+    private void evictFinished() {
+        Iterator<Request> it = requests.values().iterator();
+        while (requests.size() > maxHistory && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not the {@code Host} header of a request names the
+     * loopback interface and the port on which the service listens.
+     *
+     * @param host the Host header of the request (may be null)
+     * @return true if the Host header names the service; false otherwise
+     */
+    boolean isLoopbackHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        int portStart = name.lastIndexOf(':');
+        if (portStart >= 0 && portStart > name.lastIndexOf(']')) {
+            if (!name.substring(portStart + 1).equals(String.valueOf(getAddress().getPort()))) {
+                return false;
+            }
+            name = name.substring(0, portStart);
+        }
+        return LOOPBACK_HOSTS.contains(name);
+    }
+
+    /**
+     * Returns whether or not a request carries the service's token.
+     *
+     * @param authorization the Authorization header of the request (may be
+     *                      null)
+     * @return true if the request carries the service's token; false
+     * otherwise
+     */
+    boolean isAuthorized(String authorization) {
+        if (authorization == null || !authorization.startsWith(AUTHORIZATION_SCHEME)) {
+            return false;
+        }
+        byte[] provided = authorization.substring(AUTHORIZATION_SCHEME.length()).trim().getBytes(Charsets.UTF_8);
+        // Compare in constant time, so that the token cannot be guessed a byte at a time
+        return MessageDigest.isEqual(provided, token);
+    }
+
+    /**
+     * Returns whether or not a request body is declared to be JSON.
+     *
+     * @param contentType the Content-Type header of the request (may be null)
+     * @return true if the body is declared to be JSON; false otherwise
+     */
+    private static boolean isJson(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int paramsStart = contentType.indexOf(';');
+        String mediaType = (paramsStart < 0) ? contentType : contentType.substring(0, paramsStart);
+        return mediaType.trim().equalsIgnoreCase(JSON_CONTENT_TYPE);
+    }
+
+    /**
+     * Handles requests to the {@code /requests} path.
+     */
+    private final class RequestsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                String method = exchange.getRequestMethod();
+                if (!isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                    respondWithError(exchange, 403, "Host must be the loopback interface");
+                } else if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                    respondWithError(exchange, 401, "Missing or invalid token");
+                } else if (path.equals(REQUESTS_PATH) || path.equals(REQUESTS_PATH + "/")) {
+                    if (method.equals("POST")) {
+                        handleSubmit(exchange);
+                    } else if (method.equals("GET")) {
+                        handleList(exchange);
+                    } else {
+                        respondWithError(exchange, 405, "Method not allowed: " + method);
+                    }
+                } else if (method.equals("GET")) {
+                    handleStatus(exchange, path.substring(REQUESTS_PATH.length() + 1));
+                } else {
+                    respondWithError(exchange, 405, "Method not allowed: " + method);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void handleSubmit(HttpExchange exchange) throws IOException {
+            if (!isJson(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                respondWithError(exchange, 415, "Content-Type must be " + JSON_CONTENT_TYPE);
+                return;
+            }
+
+            String[] args;
+            try (InputStream in = exchange.getRequestBody()) {
+                JsonNode body = mapper.readTree(new String(ByteStreams.toByteArray(in), Charsets.UTF_8));
+                JsonNode argsNode = (body == null) ? null : body.get("args");
+                if (argsNode == null || !argsNode.isArray()) {
+                    respondWithError(exchange, 400, "Request body must be an object with an `args` array");
+                    return;
+                }
+                args = new String[argsNode.size()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = argsNode.get(i).getTextValue();
+                    if (args[i] == null) {
+                        respondWithError(exchange, 400, "Arguments must be strings");
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                respondWithError(exchange, 400, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+
+            try {
+                respond(exchange, 202, submit(args).toStatus());
+            } catch (CliOptionException e) {
+                respondWithError(exchange, 400, e.getMessage());
+            } catch (RejectedExecutionException e) {
+                respondWithError(exchange, 503, "Service is stopping");
+            }
+        }
+
+        private void handleList(HttpExchange exchange) throws IOException {
+            List<Map<String, Object>> statuses = new ArrayList<>();
+            synchronized (requests) {
+                for (Request request : requests.values()) {
+                    statuses.add(request.toStatus());
+                }
+            }
+            respond(exchange, 200, statuses);
+        }
+
+        private void handleStatus(HttpExchange exchange, String idStr) throws IOException {
+            Request request = null;
+            try {
+                long id = Long.parseLong(idStr);
+                synchronized (requests) {
+                    request = requests.get(id);
+                }
+            } catch (NumberFormatException ignored) {
+                // Not found
+            }
+            if (request == null) {
+                respondWithError(exchange, 404, "No such request: " + idStr);
+            } else {
+                respond(exchange, 200, request.toStatus());
+            }
+        }
+
+        private void respondWithError(HttpExchange exchange, int code, String message) throws IOException {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", message);
+            respond(exchange, code, error);
+        }
+
+        private void respond(HttpExchange exchange, int code, Object body) throws IOException {
+            byte[] bytes = mapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * The state of a request.
+     */
+    private enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+    }
+
+    /**
+     * A request to erase files.
+     */
+    private static final class Request implements Runnable {
+        private final long id;
+        private final SecureErase secureErase;
+        private final FileErasureSpec spec;
+        private final List<Path> paths;
+        private final boolean relogin;
+        private final long submittedMillis = System.currentTimeMillis();
+
+        private volatile State state = State.QUEUED;
+        private volatile EraseProgress progress;
+        private volatile String error;
+        private volatile long startedMillis;
+        private volatile long finishedMillis;
+
+        Request(long id, SecureErase secureErase, FileErasureSpec spec, List<Path> paths, boolean relogin) {
+            this.id = id;
+            this.secureErase = secureErase;
+            this.spec = spec;
+            this.paths = paths;
+            this.relogin = relogin;
+        }
+
+        boolean isFinished() {
+            return state == State.SUCCEEDED || state == State.FAILED;
+        }
+
+        @Override
+        public void run() {
+            startedMillis = System.currentTimeMillis();
+            EraseProgress progress = new EraseProgress(ErasurePlan.compile(spec));
+            this.progress = progress;
+            state = State.RUNNING;
+            State finalState = State.FAILED;
+            try {
+                if (relogin) {
+                    // The ticket may have expired since the previous request
+                    UserGroupInformation.getLoginUser().checkTGTAndReloginFromKeytab();
+                }
+                secureErase.addListener(progress);
+                secureErase.eraseGlobs(paths, spec);
+                finalState = State.SUCCEEDED;
+            } catch (Exception e) {
+                error = String.valueOf(e.getMessage());
+            } finally {
+                finishedMillis = System.currentTimeMillis();
+                state = finalState;
+            }
+        }
+
+        /**
+         * Returns the status of this request, as a map to render as JSON.
+         *
+         * @return the status of this request
+         */
+        Map<String, Object> toStatus() {
+            // Read the state first, as everything it implies was written before it
+            State state = this.state;
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("state", state.name());
+            List<String> files = new ArrayList<>();
+            for (Path path : paths) {
+                files.add(path.toString());
+            }
+            status.put("files", files);
+            status.put("submittedMillis", submittedMillis);
+            if (state != State.QUEUED) {
+                EraseProgress progress = this.progress;
+                status.put("startedMillis", startedMillis);
+                status.put("totalFiles", progress.getTotalFiles());
+                status.put("totalBytes", progress.getTotalBytes());
+                status.put("erasedFiles", progress.getErasedFiles());
+                status.put("failedFiles", progress.getFailedFiles());
+                status.put("retries", progress.getRetries());
+                status.put("finishedBytes", progress.getFinishedBytes());
+                status.put("bytesWritten", progress.getBytesWritten());
+            }
+            if (state == State.SUCCEEDED || state == State.FAILED) {
+                status.put("finishedMillis", finishedMillis);
+            }
+            if (state == State.FAILED) {
+                status.put("error", error);
+            }
+            return status;
+        }
+    }
+}
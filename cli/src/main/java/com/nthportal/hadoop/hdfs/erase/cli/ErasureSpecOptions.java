@@ -0,0 +1,77 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The command-line options which specify how files are erased (such as
+ * {@code -n}, {@code -b}, {@code -u}, {@code -s} and {@code -p}), for use
+ * by other tools which erase files, so that they accept the same options
+ * (and the same default) as the command-line tool.
+ */
+public final class ErasureSpecOptions {
+    private ErasureSpecOptions() {}
+
+    /**
+     * Adds the options which specify how files are erased to an
+     * {@link Options} object.
+     *
+     * @param options the Options to which to add the options
+     */
+    public static void addTo(Options options) {
+        ArgParser.addSpecOptions(options);
+    }
+
+    /**
+     * Returns the arguments of the options which specify how files are
+     * erased in a parsed {@link CommandLine}, so that they can be
+     * {@linkplain #parse(String[]) parsed} again elsewhere (for example,
+     * by each task of a distributed job).
+     *
+     * @param cmd the CommandLine, parsed with options including those
+     *            {@linkplain #addTo(Options) added by this class}
+     * @return the arguments of the options which specify how files are
+     * erased
+     */
+    public static String[] toArgs(CommandLine cmd) {
+        Options specOptions = new Options();
+        addTo(specOptions);
+        List<String> args = new ArrayList<>();
+        for (Option opt : cmd.getOptions()) {
+            if (specOptions.hasOption(opt.getLongOpt())) {
+                args.add("--" + opt.getLongOpt());
+                if (opt.hasArg()) {
+                    args.add(opt.getValue());
+                }
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Parses the options which specify how files are erased, returning the
+     * {@link FileErasureSpec} they specify. If no options are specified,
+     * returns the default FileErasureSpec of the command-line tool.
+     *
+     * @param args the arguments of the options
+     * @return the FileErasureSpec specified by the options
+     * @throws IllegalArgumentException if the arguments include files or
+     *                                  any other option, or if the options
+     *                                  are invalid
+     */
+    public static FileErasureSpec parse(String[] args) throws IllegalArgumentException {
+        try {
+            OptionProcessor processor = new OptionProcessor(ArgParser.parse(args));
+            processor.checkSpecOptions();
+            return processor.parseSpec();
+        } catch (ParseException | CliOptionException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+}
@@ -1,18 +1,43 @@
 package com.nthportal.hadoop.hdfs.erase.cli;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
 import com.nthportal.hadoop.hdfs.erase.cli.ArgParser.Opts;
+import com.nthportal.hadoop.hdfs.erase.core.EraseProgress;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureCalibration;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
+import com.nthportal.hadoop.hdfs.erase.core.ErasurePlan;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureStats;
 import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FsImageSelector;
 import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
 import com.nthportal.hadoop.hdfs.erase.core.specs.AdvancedFileDeletionSpec;
 import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ChecksumVerificationSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.FullVerificationSpec;
 import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.SampledVerificationSpec;
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.StringUtils.TraditionalBinaryPrefix;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Processes command-line options and erases files based on
@@ -20,6 +45,37 @@ import java.io.IOException;
  */
 final class OptionProcessor {
     static final int DEFAULT_ITERATIONS = 3;
+    static final String STATS_TEXT = "text";
+    static final String STATS_JSON = "json";
+    private static final String[] TIME_FORMATS = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+
+    /**
+     * Options which only apply to erasing files once from the command line,
+     * and so apply neither to the erase service nor to its requests.
+     */
+    private static final String[] ONE_SHOT_OPTIONS = {
+            Opts.PROGRESS, Opts.STATS, Opts.EXPLAIN, Opts.DRY_RUN, Opts.CALIBRATION, Opts.INPUT_FILE, Opts.NULL,
+            Opts.GLOB_INPUT, Opts.FSIMAGE, Opts.MIN_SIZE, Opts.MAX_SIZE, Opts.MODIFIED_AFTER, Opts.MODIFIED_BEFORE,
+            Opts.DEAD_LETTER,
+    };
+
+    /**
+     * Options which specify how files are erased, and so are specified by
+     * each request to the erase service rather than by the service itself.
+     */
+    private static final String[] SPEC_OPTIONS = {
+            Opts.ITERATIONS, Opts.BYTE_PATTERNS, Opts.REMOVE, Opts.VERIFY, Opts.VERIFY_FULL,
+            Opts.VERIFY_CONFIDENCE, Opts.VERIFY_DEFECT_FRACTION, Opts.SPEC, Opts.PROVIDER,
+    };
+
+    /**
+     * Options which only apply to the erase service itself (including its
+     * throughput limits, which all of its requests share).
+     */
+    private static final String[] SERVICE_OPTIONS = {
+            Opts.HELP, Opts.VERSION, Opts.SERVE, Opts.REQUEST_CONCURRENCY, Opts.TOKEN_FILE, Opts.PRINCIPAL,
+            Opts.KEYTAB, Opts.BYTES_PER_SECOND, Opts.OPS_PER_SECOND,
+    };
 
     private final CommandLine cmd;
 
@@ -66,12 +122,14 @@ final class OptionProcessor {
     }
 
     /**
-     * Checks if no files to erase were specified.
+     * Checks if no files to erase were specified, either as arguments or in
+     * an input file (unless only explaining how files would be erased, or
+     * running the erase service).
      *
      * @throws CliOptionException if no files to erase were specified
      */
     private void checkForEmptyFilesList() throws CliOptionException {
-        if (cmd.getArgs().length == 0) {
+        if (cmd.getArgs().length == 0 && !has(Opts.INPUT_FILE) && !has(Opts.EXPLAIN) && !has(Opts.SERVE)) {
             throw new CliOptionException("No files specified");
         }
     }
@@ -90,6 +148,139 @@ final class OptionProcessor {
         checkForMutuallyExclusiveOptions(Opts.REMOVE, Opts.SPEC);
         checkForMutuallyExclusiveOptions(Opts.REMOVE, Opts.PROVIDER);
         checkForMutuallyExclusiveOptions(Opts.SPEC, Opts.PROVIDER);
+        checkForMutuallyExclusiveOptions(Opts.VERIFY, Opts.SPEC);
+        checkForMutuallyExclusiveOptions(Opts.VERIFY, Opts.PROVIDER);
+        checkForMutuallyExclusiveOptions(Opts.VERIFY, Opts.VERIFY_FULL);
+        checkForMutuallyExclusiveOptions(Opts.EXPLAIN, Opts.DRY_RUN);
+        checkForMutuallyExclusiveOptions(Opts.DRY_RUN, Opts.STATS);
+        if (has(Opts.VERIFY_FULL) && !has(Opts.BYTE_PATTERNS)) {
+            throw new CliOptionException("Option `" + Opts.VERIFY_FULL + "` requires `" + Opts.BYTE_PATTERNS + "`");
+        }
+        for (String opt : new String[]{Opts.VERIFY_CONFIDENCE, Opts.VERIFY_DEFECT_FRACTION}) {
+            if (has(opt) && !has(Opts.VERIFY)) {
+                throw new CliOptionException("Option `" + opt + "` requires `" + Opts.VERIFY + "`");
+            }
+            // Byte patterns are verified by comparing checksums, not by sampling
+            checkForMutuallyExclusiveOptions(opt, Opts.BYTE_PATTERNS);
+        }
+        if (has(Opts.CALIBRATION) && !has(Opts.DRY_RUN)) {
+            throw new CliOptionException("Option `" + Opts.CALIBRATION + "` requires `" + Opts.DRY_RUN + "`");
+        }
+        checkForMutuallyExclusiveOptions(Opts.FSIMAGE, Opts.INPUT_FILE);
+        for (String opt : new String[]{Opts.MIN_SIZE, Opts.MAX_SIZE, Opts.MODIFIED_AFTER, Opts.MODIFIED_BEFORE}) {
+            if (has(opt) && !has(Opts.FSIMAGE)) {
+                throw new CliOptionException("Option `" + opt + "` requires `" + Opts.FSIMAGE + "`");
+            }
+        }
+        for (String opt : new String[]{Opts.NULL, Opts.GLOB_INPUT}) {
+            if (has(opt) && !has(Opts.INPUT_FILE)) {
+                throw new CliOptionException("Option `" + opt + "` requires `" + Opts.INPUT_FILE + "`");
+            }
+        }
+        for (String opt : new String[]{Opts.REQUEST_CONCURRENCY, Opts.TOKEN_FILE, Opts.PRINCIPAL, Opts.KEYTAB}) {
+            if (has(opt) && !has(Opts.SERVE)) {
+                throw new CliOptionException("Option `" + opt + "` requires `" + Opts.SERVE + "`");
+            }
+        }
+        if (has(Opts.SERVE)) {
+            checkForServiceOptions();
+        }
+    }
+
+    /**
+     * Checks that no files, and none of the options which specify how files
+     * are erased or which only apply to erasing files once, were specified
+     * alongside the option to run the erase service, that the file
+     * containing the service's token was, and that its principal and keytab
+     * were either both specified or neither was.
+     *
+     * @throws CliOptionException if files or such an option were specified,
+     *                            the token file was not, or only one of the
+     *                            principal and keytab was
+     */
+    private void checkForServiceOptions() throws CliOptionException {
+        if (cmd.getArgs().length > 0) {
+            throw new CliOptionException("Option `" + Opts.SERVE + "` does not take files; "
+                    + "files are specified by each request");
+        }
+        if (!has(Opts.TOKEN_FILE)) {
+            throw new CliOptionException("Option `" + Opts.SERVE + "` requires `" + Opts.TOKEN_FILE + "`");
+        }
+        if (has(Opts.PRINCIPAL) != has(Opts.KEYTAB)) {
+            throw new CliOptionException("Options `" + Opts.PRINCIPAL + "` and `" + Opts.KEYTAB
+                    + "` must be specified together");
+        }
+        for (String opt : ONE_SHOT_OPTIONS) {
+            checkForMutuallyExclusiveOptions(Opts.SERVE, opt);
+        }
+        for (String opt : SPEC_OPTIONS) {
+            checkForMutuallyExclusiveOptions(Opts.SERVE, opt);
+        }
+    }
+
+    /**
+     * Checks the options of a request to the erase service.
+     *
+     * @throws CliOptionException if no files to erase were specified,
+     *                            if mutually exclusive options were used,
+     *                            or if an option which does not apply to
+     *                            a request was used
+     */
+    void checkRequestOptions() throws CliOptionException {
+        for (String opt : ONE_SHOT_OPTIONS) {
+            checkNotInRequest(opt);
+        }
+        for (String opt : SERVICE_OPTIONS) {
+            checkNotInRequest(opt);
+        }
+        checkForEmptyFilesList();
+        checkForMutuallyExclusiveOptions();
+    }
+
+    /**
+     * Checks that only options which specify how files are erased (and no
+     * files) were specified, and that they are not mutually exclusive.
+     *
+     * @throws CliOptionException if files or any other option were
+     *                            specified, or if mutually exclusive
+     *                            options were used
+     */
+    void checkSpecOptions() throws CliOptionException {
+        if (cmd.getArgs().length > 0) {
+            throw new CliOptionException("Unexpected arguments: " + Arrays.toString(cmd.getArgs()));
+        }
+        List<String> specOptions = Arrays.asList(SPEC_OPTIONS);
+        for (Option opt : cmd.getOptions()) {
+            if (!specOptions.contains(opt.getLongOpt())) {
+                throw new CliOptionException("Option `" + opt.getLongOpt() + "` does not specify how files are erased");
+            }
+        }
+        checkForMutuallyExclusiveOptions();
+    }
+
+    /**
+     * Checks that an option was not used in a request to the erase service.
+     *
+     * @param opt the option
+     * @throws CliOptionException if the option was used
+     */
+    private void checkNotInRequest(String opt) throws CliOptionException {
+        if (has(opt)) {
+            throw new CliOptionException("Option `" + opt + "` cannot be used in a request");
+        }
+    }
+
+    /**
+     * Returns the files (or globs) to erase.
+     *
+     * @return the files to erase
+     */
+    List<Path> paths() {
+        List<Path> paths = new ArrayList<>();
+        for (String arg : cmd.getArgs()) {
+            paths.add(new Path(arg));
+        }
+        return paths;
     }
 
     /**
@@ -112,44 +303,99 @@ final class OptionProcessor {
      * @throws IOException if an error occurred while erasing files
      */
     private void handleRemainingOptions() throws CliOptionException, IOException {
+        if (has(Opts.SERVE)) {
+            serve();
+        } else {
+            eraseFiles(parseSpec());
+        }
+    }
+
+    /**
+     * Returns the {@link FileErasureSpec} with which to erase files, as
+     * specified by the options.
+     *
+     * @return the FileErasureSpec with which to erase files
+     * @throws CliOptionException if one or more options are invalid
+     */
+    FileErasureSpec parseSpec() throws CliOptionException {
         if (!has(Opts.ITERATIONS)
                 && !has(Opts.BYTE_PATTERNS)
                 && !has(Opts.REMOVE)
                 && !has(Opts.SPEC)
                 && !has(Opts.PROVIDER)) {
-            defaultEraseFiles();
+            return defaultSpec();
         } else if (has(Opts.ITERATIONS)) {
             String iterationsStr = cmd.getOptionValue(Opts.ITERATIONS);
             try {
                 int iterations = Integer.parseInt(iterationsStr);
-                FileErasureSpec spec = FileErasureSpec.from(new OverwriteSpec(ByteProvider.randomBytes()).repeated(iterations));
-                eraseAndPossiblyRemove(spec);
+                return possiblyWithRemoval(randomOverwrites(iterations));
             } catch (NumberFormatException e) {
                 throw new CliOptionException("Invalid iteration count: " + iterationsStr, e);
             }
         } else if (has(Opts.BYTE_PATTERNS)) {
-            FileErasureSpec spec = parseBytePatterns();
-            eraseAndPossiblyRemove(spec);
+            return possiblyWithRemoval(parseBytePatterns());
         } else if (has(Opts.SPEC)) {
-            eraseFiles((FileErasureSpec) ReflectionHelper.instantiate(cmd.getOptionValue(Opts.SPEC)));
+            return (FileErasureSpec) ReflectionHelper.instantiate(cmd.getOptionValue(Opts.SPEC));
         } else if (has(Opts.PROVIDER)) {
-            eraseFiles(((FileErasureSpecProvider) ReflectionHelper.instantiate(cmd.getOptionValue(Opts.PROVIDER))).get());
+            return ((FileErasureSpecProvider) ReflectionHelper.instantiate(cmd.getOptionValue(Opts.PROVIDER))).get();
+        } else {
+            // Only removal
+            return possiblyWithRemoval(randomOverwrites(DEFAULT_ITERATIONS));
         }
     }
 
     /**
-     * Perform the default erasure.
+     * Returns the default {@link FileErasureSpec}.
      *
-     * @throws IOException if an error occurred while erasing files
+     * @return the default FileErasureSpec
+     * @throws CliOptionException if one or more options are invalid
      */
-    private void defaultEraseFiles() throws IOException {
-        eraseWithRemoval(FileErasureSpec.from(new OverwriteSpec(ByteProvider.randomBytes()).repeated(DEFAULT_ITERATIONS)));
+    private FileErasureSpec defaultSpec() throws CliOptionException {
+        return withRemoval(randomOverwrites(DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * Returns a {@link FileErasureSpec} which overwrites files with random
+     * bytes the specified number of times.
+     *
+     * <p>If the {@code verify} option was specified, the returned
+     * {@code FileErasureSpec} also verifies a random sample of the last
+     * overwrite, sized by the {@code verify-confidence} and
+     * {@code verify-defect-fraction} options.
+     *
+     * @param iterations the number of times to overwrite files
+     * @return a FileErasureSpec which overwrites files with random bytes
+     * @throws CliOptionException if the number of iterations is not positive
+     */
+    private FileErasureSpec randomOverwrites(int iterations) throws CliOptionException {
+        if (iterations <= 0) {
+            throw new CliOptionException("Iteration count must be positive: " + iterations);
+        }
+
+        FileErasureSpec overwrite = FileErasureSpec.from(new OverwriteSpec(ByteProvider.randomBytes()));
+        if (!has(Opts.VERIFY)) {
+            return overwrite.repeated(iterations);
+        }
+
+        double confidence = has(Opts.VERIFY_CONFIDENCE)
+                ? parseFraction(Opts.VERIFY_CONFIDENCE)
+                : SampledVerificationSpec.DEFAULT_CONFIDENCE;
+        double defectFraction = has(Opts.VERIFY_DEFECT_FRACTION)
+                ? parseFraction(Opts.VERIFY_DEFECT_FRACTION)
+                : SampledVerificationSpec.DEFAULT_DEFECT_FRACTION;
+        FileErasureSpec verified = new SampledVerificationSpec(overwrite, confidence, defectFraction);
+        return (iterations == 1) ? verified : overwrite.repeated(iterations - 1).andThen(verified);
     }
 
     /**
      * Parses list of byte patterns provided as the argument to the
      * {@code byte-patterns} option.
      *
+     * <p>If the {@code verify} option was specified, the returned
+     * {@link FileErasureSpec} also verifies the checksum of the last
+     * byte pattern; if the {@code verify-full} option was specified, it
+     * also reads back and verifies the entire last byte pattern.
+     *
      * @return A {@link FileErasureSpec} which erases according to the
      * specified byte patterns
      * @throws CliOptionException if one or more of the byte patterns
@@ -159,36 +405,26 @@ final class OptionProcessor {
         String patternsStr = cmd.getOptionValue(Opts.BYTE_PATTERNS);
         String[] patterns = patternsStr.split(",");
         FileErasureSpec spec = null;
-        boolean first = true;
+        ByteProvider last = null;
 
         try {
             for (String pattern : patterns) {
-                if (first) {
-                    spec = parseBytePattern(pattern);
-                    first = false;
-                } else {
-                    spec = spec.andThen(parseBytePattern(pattern));
-                }
+                last = ByteProvider.repeatedBytes(bytesFromString(pattern));
+                FileErasureSpec patternSpec = FileErasureSpec.from(new OverwriteSpec(last));
+                spec = (spec == null) ? patternSpec : spec.andThen(patternSpec);
             }
 
+            if (has(Opts.VERIFY)) {
+                spec = spec.andThen(new ChecksumVerificationSpec(last));
+            } else if (has(Opts.VERIFY_FULL)) {
+                spec = spec.andThen(new FullVerificationSpec(last));
+            }
             return spec;
         } catch (CliOptionException e) {
             throw new CliOptionException("Invalid byte patterns string: " + patternsStr, e);
         }
     }
 
-    /**
-     * Parses a byte pattern from a string.
-     *
-     * @param pattern the pattern to parse
-     * @return a {@link FileErasureSpec} which erases according to the
-     * specified byte pattern
-     * @throws CliOptionException if the byte pattern is invalid
-     */
-    private static FileErasureSpec parseBytePattern(String pattern) throws CliOptionException {
-        return FileErasureSpec.from(new OverwriteSpec(ByteProvider.repeatedBytes(bytesFromString(pattern))));
-    }
-
     /**
      * Parses a byte array from a hex string.
      *
@@ -209,45 +445,455 @@ final class OptionProcessor {
     }
 
     /**
-     * Erases files according to the specified {@link FileErasureSpec},
-     * and deletes the files afterward if the option to do so was specified.
+     * Returns the specified {@link FileErasureSpec}, followed by deleting
+     * files if the option to do so was specified.
      *
      * @param spec the specification with which to erase the files
-     * @throws IOException if an error occurred while erasing files
+     * @return the FileErasureSpec, possibly followed by deleting files
      */
-    private void eraseAndPossiblyRemove(FileErasureSpec spec) throws IOException {
-        if (has(Opts.REMOVE)) {
-            eraseWithRemoval(spec);
-        } else {
-            eraseFiles(spec);
-        }
+    private FileErasureSpec possiblyWithRemoval(FileErasureSpec spec) {
+        return has(Opts.REMOVE) ? withRemoval(spec) : spec;
     }
 
     /**
-     * Erases files according to the specified {@link FileErasureSpec},
-     * and deletes the files afterward.
+     * Returns the specified {@link FileErasureSpec}, followed by deleting
+     * files.
      *
      * @param spec the specification with which to erase the files
-     * @throws IOException if an error occurred while erasing files
+     * @return the FileErasureSpec followed by deleting files
      */
-    private void eraseWithRemoval(FileErasureSpec spec) throws IOException {
-        eraseFiles(spec.andThen(new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf())));
+    private static FileErasureSpec withRemoval(FileErasureSpec spec) {
+        return spec.andThen(new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf()));
     }
 
     /**
      * Erases files according to the specified {@link FileErasureSpec}.
      *
      * @param spec the specification with which to erase the files
+     * @throws CliOptionException if one or more options are invalid
      * @throws IOException if an error occurred while erasing files
      */
-    private void eraseFiles(FileErasureSpec spec) throws IOException {
+    private void eraseFiles(FileErasureSpec spec) throws CliOptionException, IOException {
         Configuration conf = new Configuration();
-        conf.setBoolean(SecureErase.Conf.LOG_ACTIONS, has(Opts.VERBOSE));
-        SecureErase secureErase = new SecureErase(conf);
+        configure(conf);
+        if (has(Opts.EXPLAIN)) {
+            spec.setConf(conf);
+            System.out.println(ErasurePlan.compile(spec).explain());
+            return;
+        }
 
-        for (String arg : cmd.getArgs()) {
-            Path path = new Path(arg);
-            secureErase.eraseGlob(path, spec);
+        try (PathManifest manifest = openManifest()) {
+            Iterable<Path> pathGlobs = (manifest == null) ? paths() : Iterables.concat(paths(), manifest);
+            eraseFiles(new SecureErase(conf), pathGlobs, spec);
+        } catch (PathManifest.ReadException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Erases files matching globs according to the specified
+     * {@link FileErasureSpec}.
+     *
+     * @param secureErase the SecureErase with which to erase the files
+     * @param pathGlobs   the files (or globs) to erase
+     * @param spec        the specification with which to erase the files
+     * @throws CliOptionException if one or more options are invalid
+     * @throws IOException if an error occurred while erasing files
+     */
+    private void eraseFiles(SecureErase secureErase, Iterable<Path> pathGlobs, FileErasureSpec spec)
+            throws CliOptionException, IOException {
+        if (!has(Opts.FSIMAGE)) {
+            eraseFiles(secureErase, pathGlobs, null, spec);
+            return;
+        }
+        try (FsImageSelector.SelectedFiles selected = selectFromFsImage(secureErase.getConf(), pathGlobs)) {
+            eraseFiles(secureErase, pathGlobs, selected, spec);
+        } catch (FsImageSelector.ReadException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Erases files matching globs, or files selected from an fsimage,
+     * according to the specified {@link FileErasureSpec}.
+     *
+     * @param secureErase the SecureErase with which to erase the files
+     * @param pathGlobs   the files (or globs) to erase
+     * @param selected    the files selected from an fsimage, or
+     *                    {@code null} to erase the files matching the globs
+     * @param spec        the specification with which to erase the files
+     * @throws CliOptionException if one or more options are invalid
+     * @throws IOException if an error occurred while erasing files
+     */
+    private void eraseFiles(SecureErase secureErase, Iterable<Path> pathGlobs, Iterable<FileStatus> selected,
+                            FileErasureSpec spec) throws CliOptionException, IOException {
+        if (has(Opts.DRY_RUN)) {
+            ErasureCalibration calibration = parseCalibration();
+            ErasureEstimate estimate = (selected == null)
+                    ? secureErase.estimateGlobs(pathGlobs, spec)
+                    : secureErase.estimateStatuses(selected, spec);
+            System.out.println(estimate.toReport(calibration));
+            return;
+        }
+
+        ErasureStats stats = null;
+        boolean statsAsJson = false;
+        if (has(Opts.STATS)) {
+            statsAsJson = parseStatsFormat();
+            stats = new ErasureStats();
+            secureErase.addListener(stats);
+            spec = stats.timed(spec);
+        }
+
+        DeadLetterFile deadLetters = null;
+        if (has(Opts.DEAD_LETTER)) {
+            String file = cmd.getOptionValue(Opts.DEAD_LETTER);
+            try {
+                deadLetters = new DeadLetterFile(file);
+            } catch (IOException e) {
+                throw new CliOptionException("Cannot create dead-letter file: " + file, e);
+            }
+            secureErase.addListener(deadLetters);
+        }
+
+        ProgressReporter reporter = null;
+        if (has(Opts.PROGRESS)) {
+            EraseProgress progress = new EraseProgress(ErasurePlan.compile(spec));
+            secureErase.addListener(progress);
+            reporter = new ProgressReporter(progress, System.err);
+        }
+
+        try {
+            if (selected == null) {
+                secureErase.eraseGlobs(pathGlobs, spec);
+            } else {
+                secureErase.eraseStatuses(selected, spec);
+            }
+        } finally {
+            if (reporter != null) {
+                reporter.close();
+            }
+            if (deadLetters != null) {
+                deadLetters.close();
+            }
+            if (stats != null) {
+                System.out.println(statsAsJson ? stats.toJson() : stats.toReport());
+            }
+        }
+    }
+
+    /**
+     * Selects the files matching globs from the fsimage specified by the
+     * {@code fsimage} option, subject to the size and modification time
+     * options.
+     *
+     * @param conf      the Configuration with which to read the fsimage
+     * @param pathGlobs the globs to match
+     * @return the statuses of the selected files, which must be closed
+     * @throws CliOptionException       if one or more options are invalid
+     * @throws IllegalArgumentException if no files are selected
+     * @throws IOException              if the fsimage cannot be read
+     */
+    private FsImageSelector.SelectedFiles selectFromFsImage(Configuration conf, Iterable<Path> pathGlobs)
+            throws CliOptionException, IOException {
+        FsImageSelector.Builder builder = FsImageSelector.newBuilder();
+        try {
+            for (Path pathGlob : pathGlobs) {
+                builder.glob(pathGlob);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CliOptionException(e.getMessage(), e);
+        }
+        if (has(Opts.MIN_SIZE)) {
+            builder.minSize(parseSize(Opts.MIN_SIZE));
+        }
+        if (has(Opts.MAX_SIZE)) {
+            builder.maxSize(parseSize(Opts.MAX_SIZE));
+        }
+        if (has(Opts.MODIFIED_AFTER)) {
+            builder.modifiedAfter(parseTime(Opts.MODIFIED_AFTER));
+        }
+        if (has(Opts.MODIFIED_BEFORE)) {
+            builder.modifiedBefore(parseTime(Opts.MODIFIED_BEFORE));
+        }
+
+        File fsimage = new File(cmd.getOptionValue(Opts.FSIMAGE));
+        FsImageSelector.SelectedFiles selected = builder.result().select(fsimage, conf);
+        try {
+            Preconditions.checkArgument(selected.iterator().hasNext(),
+                    "fsimage does not contain any matching files: " + fsimage);
+        } catch (IllegalArgumentException | FsImageSelector.ReadException e) {
+            selected.close();
+            throw e;
+        }
+        return selected;
+    }
+
+    /**
+     * Opens the manifest of files to erase specified by the
+     * {@code input-file} option, if it was specified.
+     *
+     * @return the manifest of files to erase, or {@code null} if none
+     * was specified
+     * @throws CliOptionException if the manifest cannot be opened
+     */
+    private PathManifest openManifest() throws CliOptionException {
+        if (!has(Opts.INPUT_FILE)) {
+            return null;
+        }
+        String file = cmd.getOptionValue(Opts.INPUT_FILE);
+        try {
+            return PathManifest.open(file, has(Opts.NULL), has(Opts.GLOB_INPUT));
+        } catch (IOException e) {
+            throw new CliOptionException("Cannot open input file: " + file, e);
+        }
+    }
+
+    /**
+     * Sets the {@link SecureErase.Conf} options specified by the options in
+     * a {@link Configuration}. Options which were not specified are left
+     * as they are.
+     *
+     * @param conf the Configuration
+     * @throws CliOptionException if one or more options are invalid
+     */
+    void configure(Configuration conf) throws CliOptionException {
+        if (has(Opts.VERBOSE)) {
+            conf.setBoolean(SecureErase.Conf.LOG_ACTIONS, true);
+        }
+        if (has(Opts.CONCURRENCY)) {
+            conf.setInt(SecureErase.Conf.MAX_CONCURRENCY, parseConcurrency());
+        }
+        if (has(Opts.VIRTUAL_THREADS)) {
+            conf.setBoolean(SecureErase.Conf.VIRTUAL_THREADS, true);
+        }
+        if (has(Opts.RETRIES)) {
+            conf.setInt(SecureErase.Conf.RETRIES, parseInt(Opts.RETRIES, 0));
+        }
+        if (has(Opts.MAX_FAILED_FILES)) {
+            conf.setInt(SecureErase.Conf.MAX_FAILED_FILES, parseInt(Opts.MAX_FAILED_FILES, -1));
+        }
+        if (has(Opts.SMALL_FILE_THRESHOLD)) {
+            conf.setLong(SecureErase.Conf.SMALL_FILE_THRESHOLD, parseSize(Opts.SMALL_FILE_THRESHOLD));
+        }
+        if (has(Opts.BYTES_PER_SECOND)) {
+            conf.setLong(SecureErase.Conf.BYTES_PER_SECOND, parseRate(Opts.BYTES_PER_SECOND));
+        }
+        if (has(Opts.OPS_PER_SECOND)) {
+            conf.setLong(SecureErase.Conf.OPERATIONS_PER_SECOND, parseRate(Opts.OPS_PER_SECOND));
+        }
+    }
+
+    /**
+     * Runs the erase service until the process is stopped.
+     *
+     * @throws CliOptionException if one or more options are invalid
+     * @throws IOException if the service could not be started
+     */
+    private void serve() throws CliOptionException, IOException {
+        Configuration conf = new Configuration();
+        configure(conf);
+        int port = parsePort();
+        int requestConcurrency = has(Opts.REQUEST_CONCURRENCY) ? parseCount(Opts.REQUEST_CONCURRENCY) : 1;
+        File tokenFile = new File(cmd.getOptionValue(Opts.TOKEN_FILE));
+        EraseService service = new EraseService(conf, port, requestConcurrency, EraseService.loadToken(tokenFile));
+        if (has(Opts.PRINCIPAL)) {
+            service.loginFromKeytab(cmd.getOptionValue(Opts.PRINCIPAL), cmd.getOptionValue(Opts.KEYTAB));
+        }
+        service.start();
+        System.err.println("Erase service listening on " + service.getAddress()
+                + " (with the token in " + tokenFile + ")");
+        service.awaitTermination();
+    }
+
+    /**
+     * Parses the port provided as the argument to the {@code serve} option.
+     *
+     * @return the port
+     * @throws CliOptionException if the port is invalid
+     */
+    private int parsePort() throws CliOptionException {
+        String portStr = cmd.getOptionValue(Opts.SERVE);
+        try {
+            int port = Integer.parseInt(portStr);
+            if (port < 0 || port > 65535) {
+                throw new CliOptionException("Port out of range: " + portStr);
+            }
+            return port;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid port: " + portStr, e);
+        }
+    }
+
+    /**
+     * Parses the format provided as the argument to the {@code stats} option.
+     *
+     * @return true if the format is JSON; false if it is text
+     * @throws CliOptionException if the format is invalid
+     */
+    private boolean parseStatsFormat() throws CliOptionException {
+        String format = cmd.getOptionValue(Opts.STATS);
+        if (STATS_TEXT.equals(format)) {
+            return false;
+        } else if (STATS_JSON.equals(format)) {
+            return true;
+        }
+        throw new CliOptionException("Invalid stats format: " + format);
+    }
+
+    /**
+     * Parses the calibration from the stats file provided as the argument to
+     * the {@code calibration} option, or returns the default calibration if
+     * the option is absent.
+     *
+     * @return the calibration with which to estimate the time of a dry run
+     * @throws CliOptionException if the stats file cannot be read or parsed
+     */
+    private ErasureCalibration parseCalibration() throws CliOptionException {
+        if (!has(Opts.CALIBRATION)) {
+            return ErasureCalibration.defaults();
+        }
+        String file = cmd.getOptionValue(Opts.CALIBRATION);
+        try {
+            return ErasureCalibration.fromStats(Files.toString(new File(file), Charsets.UTF_8));
+        } catch (IOException e) {
+            throw new CliOptionException("Invalid calibration file: " + file, e);
+        }
+    }
+
+    /**
+     * Parses the maximum concurrency provided as the argument to the
+     * {@code concurrency} option.
+     *
+     * @return the maximum concurrency
+     * @throws CliOptionException if the concurrency is invalid
+     */
+    private int parseConcurrency() throws CliOptionException {
+        return parseCount(Opts.CONCURRENCY);
+    }
+
+    /**
+     * Parses a concurrency provided as the argument to an option.
+     *
+     * @param opt the option whose argument to parse
+     * @return the concurrency
+     * @throws CliOptionException if the concurrency is invalid
+     */
+    private int parseCount(String opt) throws CliOptionException {
+        String concurrencyStr = cmd.getOptionValue(opt);
+        try {
+            int concurrency = Integer.parseInt(concurrencyStr);
+            if (concurrency <= 0) {
+                throw new CliOptionException("Concurrency must be positive: " + concurrencyStr);
+            }
+            return concurrency;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid concurrency: " + concurrencyStr, e);
+        }
+    }
+
+    /**
+     * Parses an integer provided as the argument to an option.
+     *
+     * @param opt the option whose argument to parse
+     * @param min the smallest valid value
+     * @return the integer
+     * @throws CliOptionException if the integer is invalid
+     */
+    private int parseInt(String opt, int min) throws CliOptionException {
+        String intStr = cmd.getOptionValue(opt);
+        try {
+            int value = Integer.parseInt(intStr);
+            if (value < min) {
+                throw new CliOptionException("Option `" + opt + "` must be at least " + min + ": " + intStr);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid number: " + intStr, e);
+        }
+    }
+
+    /**
+     * Parses a rate provided as the argument to an option.
+     *
+     * @param opt the option whose argument to parse
+     * @return the rate
+     * @throws CliOptionException if the rate is invalid
+     */
+    private long parseRate(String opt) throws CliOptionException {
+        String rateStr = cmd.getOptionValue(opt);
+        try {
+            long rate = TraditionalBinaryPrefix.string2long(rateStr);
+            if (rate <= 0) {
+                throw new CliOptionException("Rate must be positive: " + rateStr);
+            }
+            return rate;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid rate: " + rateStr, e);
+        }
+    }
+
+    /**
+     * Parses a fraction (strictly between 0 and 1) provided as the argument
+     * to an option.
+     *
+     * @param opt the option whose argument to parse
+     * @return the fraction
+     * @throws CliOptionException if the fraction is invalid
+     */
+    private double parseFraction(String opt) throws CliOptionException {
+        String fractionStr = cmd.getOptionValue(opt);
+        try {
+            double fraction = Double.parseDouble(fractionStr);
+            if (!(fraction > 0 && fraction < 1)) {
+                throw new CliOptionException("Option `" + opt + "` must be between 0 and 1: " + fractionStr);
+            }
+            return fraction;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid fraction: " + fractionStr, e);
+        }
+    }
+
+    /**
+     * Parses a size in bytes provided as the argument to an option.
+     *
+     * @param opt the option whose argument to parse
+     * @return the size in bytes
+     * @throws CliOptionException if the size is invalid
+     */
+    private long parseSize(String opt) throws CliOptionException {
+        String sizeStr = cmd.getOptionValue(opt);
+        try {
+            long size = TraditionalBinaryPrefix.string2long(sizeStr);
+            if (size < 0) {
+                throw new CliOptionException("Size cannot be negative: " + sizeStr);
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw new CliOptionException("Invalid size: " + sizeStr, e);
+        }
+    }
+
+    /**
+     * Parses a time provided as the argument to an option, as a UTC date
+     * ({@code yyyy-MM-dd}) or date and time ({@code yyyy-MM-ddTHH:mm:ss}).
+     *
+     * @param opt the option whose argument to parse
+     * @return the time, in milliseconds since the epoch
+     * @throws CliOptionException if the time is invalid
+     */
+    private long parseTime(String opt) throws CliOptionException {
+        String timeStr = cmd.getOptionValue(opt);
+        for (String format : TIME_FORMATS) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.ROOT);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            dateFormat.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = dateFormat.parse(timeStr, position);
+            if (date != null && position.getIndex() == timeStr.length()) {
+                return date.getTime();
+            }
         }
+        throw new CliOptionException("Invalid time: " + timeStr);
     }
 }
@@ -0,0 +1,186 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.google.common.base.Charsets;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A manifest of files (or globs) to erase, read lazily from a stream with
+ * one path per line (or per NUL-terminated entry).
+ *
+ * <p>Entries are literal paths unless the manifest is opened as a manifest
+ * of globs: characters with a special meaning in globs (such as {@code *},
+ * {@code ?}, {@code [} and <code>{</code>) are escaped, so that an entry
+ * only ever matches the file it names, even when it is erased as a glob.
+ * This way, a list of files produced by another tool (or a
+ * {@linkplain DeadLetterFile dead-letter file}) never matches files it
+ * does not name.
+ *
+ * <p>Paths are read only as they are needed, so a manifest of any length
+ * can be erased with bounded memory. Empty entries are skipped. A manifest
+ * may only be iterated over once.
+ */
+final class PathManifest implements Iterable<Path>, Closeable {
+    /**
+     * The name of a manifest which is read from standard input.
+     */
+    static final String STDIN = "-";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String GLOB_SPECIAL_CHARS = "\\*?[]{}";
+
+    private final BufferedReader reader;
+    private final char delimiter;
+    private final boolean globs;
+    private boolean iterated = false;
+
+    /**
+     * Creates a new {@code PathManifest}.
+     *
+     * @param in        the stream from which to read paths
+     * @param delimiter the character separating paths
+     * @param globs     whether entries are globs rather than literal paths
+     */
+    private PathManifest(InputStream in, char delimiter, boolean globs) {
+        this.reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8), BUFFER_SIZE);
+        this.delimiter = delimiter;
+        this.globs = globs;
+    }
+
+    /**
+     * Opens a manifest.
+     *
+     * @param name          the name of the file from which to read the
+     *                      manifest, or {@link #STDIN} for standard input
+     * @param nulDelimited  whether paths are separated by NUL characters
+     *                      rather than newlines
+     * @param globs         whether entries are globs rather than literal
+     *                      paths
+     * @return the manifest
+     * @throws IOException if the file cannot be opened
+     */
+    static PathManifest open(String name, boolean nulDelimited, boolean globs) throws IOException {
+        InputStream in = name.equals(STDIN) ? System.in : new FileInputStream(name);
+        return new PathManifest(in, nulDelimited ? '\0' : '\n', globs);
+    }
+
+    /**
+     * Escapes the characters of a literal path which have a special meaning
+     * in globs, so that the path matches only itself when used as a glob.
+     *
+     * @param path the literal path
+     * @return the path, with glob characters escaped
+     */
+    static String escapeGlob(String path) {
+        StringBuilder escaped = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (GLOB_SPECIAL_CHARS.indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("A manifest can only be iterated over once");
+        }
+        iterated = true;
+        return new Iterator<Path>() {
+            private String next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = readEntry();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Path path = new Path(globs ? next : escapeGlob(next));
+                next = null;
+                return path;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Reads the next non-empty entry.
+     *
+     * @return the next non-empty entry, or {@code null} if there are none left
+     * @throws ReadException if an I/O error occurs while reading
+     */
+    private String readEntry() throws ReadException {
+        StringBuilder entry = new StringBuilder();
+        try {
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c != delimiter) {
+                    entry.append((char) c);
+                } else if (trim(entry)) {
+                    return entry.toString();
+                }
+            }
+        } catch (IOException e) {
+            throw new ReadException(e);
+        }
+        return trim(entry) ? entry.toString() : null;
+    }
+
+    /**
+     * Removes a trailing carriage return from a newline-delimited entry.
+     *
+     * @param entry the entry
+     * @return true if the entry is not empty; false otherwise
+     */
+    private boolean trim(StringBuilder entry) {
+        int length = entry.length();
+        if (delimiter == '\n' && length > 0 && entry.charAt(length - 1) == '\r') {
+            entry.setLength(length - 1);
+        }
+        return entry.length() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * An unchecked exception wrapping an {@link IOException} thrown while
+     * reading a manifest, as an {@link Iterator} cannot throw one.
+     */
+    static final class ReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ReadException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nthportal.hadoop.hdfs.erase.core.EraseProgress;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the {@link EraseProgress progress} of erasing files on a single,
+ * continually rewritten, line of a terminal: the number of files finished,
+ * the number of bytes written and the write throughput, the number of files
+ * finished per second, and the estimated time remaining.
+ *
+ * <p>The line is rewritten a few times per second, from a thread of its own,
+ * until the reporter is closed.
+ */
+final class ProgressReporter implements Closeable {
+    private static final long INTERVAL_MILLIS = 250;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final EraseProgress progress;
+    private final PrintStream out;
+    private final ScheduledExecutorService scheduler;
+    private int lastLineLength = 0;
+
+    /**
+     * Creates a new {@code ProgressReporter}, and starts rendering progress.
+     *
+     * @param progress the progress to render
+     * @param out      the stream to which to render progress
+     */
+    ProgressReporter(EraseProgress progress, PrintStream out) {
+        this.progress = progress;
+        this.out = out;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-progress")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                render(false);
+            }
+        }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops rendering progress, and renders it one last time.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        render(true);
+    }
+
+    /**
+     * Renders the current progress.
+     *
+     * @param last whether or not this is the last time progress is rendered
+     */
+    private synchronized void render(boolean last) {
+        double seconds = progress.getElapsedNanos() / NANOS_PER_SECOND;
+        long bytesWritten = progress.getBytesWritten();
+        long finished = progress.getFinishedFiles();
+
+        StringBuilder line = new StringBuilder();
+        line.append(finished).append('/').append(progress.getTotalFiles()).append(" files");
+        if (progress.getFailedFiles() > 0) {
+            line.append(" (").append(progress.getFailedFiles()).append(" failed)");
+        }
+        if (progress.getRetries() > 0) {
+            line.append(", ").append(progress.getRetries()).append(" retries");
+        }
+        line.append(", ").append(StringUtils.byteDesc(bytesWritten)).append(" written");
+        if (seconds > 0) {
+            line.append(", ").append(StringUtils.byteDesc((long) (bytesWritten / seconds))).append("/s");
+            line.append(", ").append(String.format("%.1f", finished / seconds)).append(" files/s");
+        }
+        if (!last) {
+            long remainingNanos = progress.getEstimatedRemainingNanos();
+            line.append(", ETA ").append(remainingNanos < 0 ? "--:--:--" : formatDuration(remainingNanos));
+        } else {
+            line.append(", elapsed ").append(formatDuration(progress.getElapsedNanos()));
+        }
+
+        // Pad with spaces to overwrite any longer previous line
+        int length = line.length();
+        for (int i = length; i < lastLineLength; i++) {
+            line.append(' ');
+        }
+        lastLineLength = length;
+
+        out.print('\r');
+        out.print(line);
+        if (last) {
+            out.println();
+        }
+        out.flush();
+    }
+
+    /**
+     * Formats a duration as hours, minutes and seconds.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration
+     */
+    private static String formatDuration(long nanos) {
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,289 @@
+package com.nthportal.hadoop.hdfs.erase.cli;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes requests to an {@link EraseService} on the loopback interface, and
+ * checks which requests it accepts and the statuses with which it responds.
+ */
+public class EraseServiceTest {
+    private static final String TOKEN = "0123456789abcdef";
+    private static final int MAX_HISTORY = 2;
+    private static final int BYTES_PER_SECOND = 64 * 1024;
+    private static final int FILE_LENGTH = 2 * BYTES_PER_SECOND;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private File dir;
+    private EraseService service;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        service = new EraseService(new Configuration(), 0, 1, TOKEN, MAX_HISTORY);
+        service.start();
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+        FileUtil.fullyDelete(dir);
+    }
+
+    private String host() {
+        return "localhost:" + service.getAddress().getPort();
+    }
+
+    private Map<String, String> headers() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Host", host());
+        headers.put("Authorization", "Bearer " + TOKEN);
+        headers.put("Content-Type", "application/json");
+        return headers;
+    }
+
+    /**
+     * Makes a request to the service.
+     *
+     * @return the status code and body of the response
+     */
+    private Response request(String method, String path, Map<String, String> headers, String body)
+            throws IOException {
+        byte[] bytes = (body == null) ? new byte[0] : body.getBytes(Charsets.UTF_8);
+        try (Socket socket = new Socket(service.getAddress().getAddress(), service.getAddress().getPort())) {
+            StringBuilder request = new StringBuilder();
+            request.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("Content-Length: ").append(bytes.length).append("\r\n");
+            request.append("Connection: close\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes(Charsets.UTF_8));
+            out.write(bytes);
+            out.flush();
+
+            String response = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.UTF_8);
+            int code = Integer.parseInt(response.substring(0, response.indexOf("\r\n")).split(" ")[1]);
+            int bodyStart = response.indexOf("\r\n\r\n");
+            String responseBody = (bodyStart < 0) ? "" : response.substring(bodyStart + 4);
+            return new Response(code, responseBody.isEmpty() ? null : mapper.readTree(responseBody));
+        }
+    }
+
+    private Response submit(String body) throws IOException {
+        return request("POST", "/requests", headers(), body);
+    }
+
+    private Response status(long id) throws IOException {
+        return request("GET", "/requests/" + id, headers(), null);
+    }
+
+    /**
+     * Submits a request which fails (as its file does not exist), and waits
+     * for it to finish.
+     *
+     * @return the ID of the request
+     */
+    private long submitAndFinish(String name) throws Exception {
+        Response submitted = submit("{\"args\": [\"" + new File(dir, name).toURI() + "\"]}");
+        assertEquals(202, submitted.code);
+        long id = submitted.body.get("id").getLongValue();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!status(id).body.get("state").getTextValue().equals("FAILED")) {
+            assertTrue("Request " + id + " did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return id;
+    }
+
+    @Test
+    public void authorizesOnlyTheServiceToken() {
+        assertTrue(service.isAuthorized("Bearer " + TOKEN));
+        assertTrue(service.isAuthorized("Bearer " + TOKEN + " "));
+        assertFalse(service.isAuthorized(null));
+        assertFalse(service.isAuthorized(""));
+        assertFalse(service.isAuthorized(TOKEN));
+        assertFalse(service.isAuthorized("Basic " + TOKEN));
+        assertFalse(service.isAuthorized("Bearer " + TOKEN.substring(1)));
+        assertFalse(service.isAuthorized("Bearer " + TOKEN + "0"));
+    }
+
+    @Test
+    public void acceptsOnlyLoopbackHostsOnTheServicePort() {
+        int port = service.getAddress().getPort();
+        assertTrue(service.isLoopbackHost("localhost"));
+        assertTrue(service.isLoopbackHost("LocalHost:" + port));
+        assertTrue(service.isLoopbackHost("127.0.0.1:" + port));
+        assertTrue(service.isLoopbackHost("[::1]"));
+        assertTrue(service.isLoopbackHost("[::1]:" + port));
+
+        assertFalse(service.isLoopbackHost(null));
+        assertFalse(service.isLoopbackHost(""));
+        assertFalse(service.isLoopbackHost("localhost:" + (port + 1)));
+        assertFalse(service.isLoopbackHost("[::1]:" + (port + 1)));
+        assertFalse(service.isLoopbackHost("::1"));
+        assertFalse(service.isLoopbackHost("example.com"));
+        assertFalse(service.isLoopbackHost("localhost.example.com:" + port));
+    }
+
+    @Test
+    public void rejectsRequestsWithoutLoopbackHost() throws Exception {
+        Map<String, String> headers = headers();
+        headers.put("Host", "attacker.example.com:" + service.getAddress().getPort());
+        assertEquals(403, request("GET", "/requests", headers, null).code);
+
+        headers.remove("Host");
+        assertEquals(403, request("GET", "/requests", headers, null).code);
+    }
+
+    @Test
+    public void rejectsRequestsWithoutToken() throws Exception {
+        Map<String, String> headers = headers();
+        headers.remove("Authorization");
+        assertEquals(401, request("GET", "/requests", headers, null).code);
+
+        headers.put("Authorization", "Bearer wrong");
+        assertEquals(401, request("POST", "/requests", headers, "{\"args\": []}").code);
+    }
+
+    @Test
+    public void rejectsSubmissionsWhichAreNotJson() throws Exception {
+        Map<String, String> headers = headers();
+        headers.put("Content-Type", "text/plain");
+        assertEquals(415, request("POST", "/requests", headers, "{\"args\": [\"/a\"]}").code);
+
+        headers.remove("Content-Type");
+        assertEquals(415, request("POST", "/requests", headers, "{\"args\": [\"/a\"]}").code);
+    }
+
+    @Test
+    public void rejectsInvalidSubmissions() throws Exception {
+        assertEquals(400, submit("not json").code);
+        assertEquals(400, submit("{}").code);
+        assertEquals(400, submit("{\"args\": \"/a\"}").code);
+        assertEquals(400, submit("{\"args\": [1]}").code);
+        // No files
+        assertEquals(400, submit("{\"args\": [\"-n\", \"1\"]}").code);
+        // An option which only applies to the service itself
+        assertEquals(400, submit("{\"args\": [\"--request-concurrency\", \"2\", \"/a\"]}").code);
+    }
+
+    @Test
+    public void respondsNotFoundForUnknownRequests() throws Exception {
+        assertEquals(404, status(1).code);
+        assertEquals(404, request("GET", "/requests/abc", headers(), null).code);
+    }
+
+    @Test
+    public void reportsStatusOfFinishedRequest() throws Exception {
+        long id = submitAndFinish("missing");
+        Response response = status(id);
+        assertEquals(200, response.code);
+        assertEquals(id, response.body.get("id").getLongValue());
+        assertNotNull(response.body.get("error"));
+        assertNotNull(response.body.get("finishedMillis"));
+    }
+
+    @Test
+    public void evictsOldestFinishedRequests() throws Exception {
+        long first = submitAndFinish("first");
+        long second = submitAndFinish("second");
+        long third = submitAndFinish("third");
+
+        assertEquals(404, status(first).code);
+        assertEquals(200, status(second).code);
+        assertEquals(200, status(third).code);
+        Response list = request("GET", "/requests", headers(), null);
+        assertEquals(200, list.code);
+        assertEquals(MAX_HISTORY, list.body.size());
+    }
+
+    @Test
+    public void rejectsThroughputLimitsInRequests() throws Exception {
+        Response response = submit("{\"args\": [\"--bytes-per-second\", \"1k\", \""
+                + new File(dir, "file").toURI() + "\"]}");
+        assertEquals(400, response.code);
+    }
+
+    @Test
+    public void limitsThroughputOfAllRequestsTogether() throws Exception {
+        // Run two requests at a time
+        service.stop();
+        service = new EraseService(new Configuration(), 0, 2, TOKEN);
+        service.start();
+        service.setBytesPerSecond(BYTES_PER_SECOND);
+
+        long startNanos = System.nanoTime();
+        long first = submitOverwrite(createFile("first", FILE_LENGTH));
+        long second = submitOverwrite(createFile("second", FILE_LENGTH));
+        long bytesWritten = awaitSucceeded(first) + awaitSucceeded(second);
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        assertEquals(2 * FILE_LENGTH, bytesWritten);
+        // Beyond the one second's worth of bytes which may be written at once
+        assertTrue("Wrote " + bytesWritten + " bytes in " + elapsedSeconds + " s",
+                bytesWritten <= BYTES_PER_SECOND * (elapsedSeconds + 1));
+    }
+
+    private File createFile(String name, int length) throws IOException {
+        File file = new File(dir, name);
+        Files.write(new byte[length], file);
+        return file;
+    }
+
+    /**
+     * Submits a request which overwrites a file once.
+     *
+     * @return the ID of the request
+     */
+    private long submitOverwrite(File file) throws IOException {
+        Response submitted = submit("{\"args\": [\"-n\", \"1\", \"" + file.toURI() + "\"]}");
+        assertEquals(202, submitted.code);
+        return submitted.body.get("id").getLongValue();
+    }
+
+    /**
+     * Waits for a request to succeed.
+     *
+     * @return the number of bytes written by the request
+     */
+    private long awaitSucceeded(long id) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        JsonNode body;
+        while (!(body = status(id).body).get("state").getTextValue().equals("SUCCEEDED")) {
+            assertNotEquals("Request " + id + " failed: " + body.get("error"), "FAILED",
+                    body.get("state").getTextValue());
+            assertTrue("Request " + id + " did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return body.get("bytesWritten").getLongValue();
+    }
+
+    private static final class Response {
+        private final int code;
+        private final JsonNode body;
+
+        private Response(int code, JsonNode body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+}
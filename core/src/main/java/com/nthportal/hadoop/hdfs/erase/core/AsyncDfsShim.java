@@ -0,0 +1,133 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Future;
+
+/**
+ * A shim for the asynchronous {@link DistributedFileSystem} API
+ * ({@code org.apache.hadoop.hdfs.AsyncDistributedFileSystem}), which is
+ * only present in some versions of Hadoop (2.8 and later).
+ *
+ * <p>Renames made through the asynchronous API return as soon as they have
+ * been sent to the NameNode, so that many renames may be in flight over a
+ * single connection. Note that operations in flight at the same time may be
+ * executed by the NameNode in any order, and that the asynchronous API has
+ * no counterpart to {@link FileSystem#delete(Path, boolean)}.
+ *
+ * <p>The asynchronous API is accessed reflectively, so that this project
+ * can continue to be built against Hadoop versions without it.
+ */
+final class AsyncDfsShim {
+    private final Object asyncFs;
+    private final Method rename;
+
+    private AsyncDfsShim(Object asyncFs, Method rename) {
+        this.asyncFs = asyncFs;
+        this.rename = rename;
+    }
+
+    /**
+     * Lazy initialization for the asynchronous API.
+     */
+    private static class Holder {
+        private static final Method getAsyncFs;
+
+        static {
+            Method getAsyncFsMethod;
+            try {
+                Class.forName("org.apache.hadoop.hdfs.AsyncDistributedFileSystem");
+                getAsyncFsMethod = DistributedFileSystem.class.getMethod("getAsyncDistributedFileSystem");
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                getAsyncFsMethod = null;
+            }
+            getAsyncFs = getAsyncFsMethod;
+        }
+    }
+
+    /**
+     * Returns whether or not the asynchronous API is supported by the
+     * version of Hadoop on the classpath.
+     *
+     * @return true if the asynchronous API is supported; false otherwise
+     */
+    static boolean isSupported() {
+        return Holder.getAsyncFs != null;
+    }
+
+    /**
+     * Returns an {@code AsyncDfsShim} for a {@link FileSystem}, or
+     * {@code null} if the FileSystem is not a {@link DistributedFileSystem}
+     * or the asynchronous API is not supported, in which case renames
+     * should be made synchronously.
+     *
+     * @param fs the FileSystem
+     * @return an AsyncDfsShim for the FileSystem, or null
+     */
+    static AsyncDfsShim forFileSystem(FileSystem fs) {
+        if (!isSupported() || !(fs instanceof DistributedFileSystem)) {
+            return null;
+        }
+
+        try {
+            return wrap(Holder.getAsyncFs.invoke(fs));
+        } catch (IllegalAccessException | InvocationTargetException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns an {@code AsyncDfsShim} which renames files through an object
+     * with the same {@code rename} method as
+     * {@code AsyncDistributedFileSystem}.
+     *
+     * @param asyncFs the object through which to rename files
+     * @return an AsyncDfsShim for the object
+     * @throws IllegalArgumentException if the object has no such method
+     */
+    @VisibleForTesting
+    static AsyncDfsShim wrap(Object asyncFs) throws IllegalArgumentException {
+        try {
+            return new AsyncDfsShim(asyncFs,
+                    asyncFs.getClass().getMethod("rename", Path.class, Path.class, Options.Rename[].class));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Not an asynchronous file system: " + asyncFs, e);
+        }
+    }
+
+    /**
+     * Starts renaming {@code src} to {@code dst} according to the
+     * specified options.
+     *
+     * @param src     the source path
+     * @param dst     the destination path
+     * @param options the rename options
+     * @return a future which completes once the file has been renamed
+     * @throws IOException if an I/O error occurs while sending the operation
+     */
+    @SuppressWarnings("unchecked")
+    Future<Void> rename(Path src, Path dst, Options.Rename... options) throws IOException {
+        try {
+            return (Future<Void>) rename.invoke(asyncFs, src, dst, options);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Unable to use asynchronous file system API", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the number of files erased concurrently using additive
+ * increase/multiplicative decrease (AIMD), based on the observed latency
+ * of file system operations and throughput of overwrite passes.
+ *
+ * <p>A baseline is kept for the latency of each kind of operation and for
+ * the throughput of a single pass. An observation is a spike if the latency
+ * exceeds its baseline by more than the tolerance factor, or if the
+ * throughput falls below its baseline by more than the tolerance factor.
+ * Each baseline is a decaying average which moves a tenth of the way
+ * towards observations better than it, and a hundredth of the way towards
+ * worse ones, so that it tracks a low percentile of recent observations
+ * rather than being pinned by a single fast outlier. The throughput of a
+ * pass excludes time spent waiting for the byte throttle, which says
+ * nothing about the load on the cluster.
+ *
+ * <p>After a full window of observations (one per concurrently erased
+ * file) without a spike, the limit is increased by one. A spike, or an
+ * operation failing because the NameNode is overloaded or in standby
+ * ({@link RetriableException} or {@link StandbyException}), halves the
+ * limit; the limit is not decreased again until a full window of
+ * observations has been made at the new limit.
+ */
+final class ConcurrencyController implements OperationObserver {
+    private static final Logger logger = Logger.getLogger(ConcurrencyController.class);
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double BASELINE_IMPROVEMENT = 0.1;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final long MIN_SPIKE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 1024 * 1024;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final Map<FileSystemOperation, Double> latencyBaselines = new EnumMap<>(FileSystemOperation.class);
+
+    private volatile int limit;
+    private double throughputBaseline = 0;
+    private int observationsInWindow = 0;
+    private boolean coolingDown = false;
+
+    /**
+     * Creates a new {@code ConcurrencyController}.
+     *
+     * @param minLimit  the minimum (and initial) concurrency limit
+     * @param maxLimit  the maximum concurrency limit
+     * @param tolerance the factor by which an observation may differ from
+     *                  its baseline before it is considered a spike
+     * @throws IllegalArgumentException if the limits or tolerance are invalid
+     */
+    ConcurrencyController(int minLimit, int maxLimit, double tolerance) throws IllegalArgumentException {
+        Preconditions.checkArgument(minLimit > 0, "minimum concurrency must be positive");
+        Preconditions.checkArgument(maxLimit >= minLimit, "maximum concurrency must be at least the minimum");
+        Preconditions.checkArgument(tolerance > 1, "latency tolerance must be greater than 1");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        limit = minLimit;
+    }
+
+    /**
+     * Returns the maximum concurrency limit.
+     *
+     * @return the maximum concurrency limit
+     */
+    int maxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     *
+     * @return the current concurrency limit
+     */
+    int limit() {
+        return limit;
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        if (minLimit == maxLimit) {
+            return;
+        }
+
+        synchronized (this) {
+            Double baseline = latencyBaselines.get(operation);
+            if (baseline == null) {
+                latencyBaselines.put(operation, (double) nanos);
+                observe(false);
+            } else if (nanos < baseline) {
+                latencyBaselines.put(operation, baseline - (baseline - nanos) * BASELINE_IMPROVEMENT);
+                observe(false);
+            } else {
+                latencyBaselines.put(operation, baseline + (nanos - baseline) * BASELINE_DRIFT);
+                observe(nanos > baseline * tolerance && nanos - baseline > MIN_SPIKE_NANOS);
+            }
+        }
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        if (minLimit != maxLimit && isCongestion(e)) {
+            synchronized (this) {
+                observe(true);
+            }
+        }
+    }
+
+    @Override
+    public void streamClosed(long bytes, long nanos, long writeNanos, long throttledNanos) {
+        long workNanos = nanos - throttledNanos;
+        if (minLimit == maxLimit || bytes < MIN_THROUGHPUT_SAMPLE_BYTES || workNanos <= 0) {
+            return;
+        }
+
+        double throughput = bytes / (double) workNanos;
+        synchronized (this) {
+            if (throughputBaseline == 0) {
+                throughputBaseline = throughput;
+                observe(false);
+            } else if (throughput > throughputBaseline) {
+                throughputBaseline += (throughput - throughputBaseline) * BASELINE_IMPROVEMENT;
+                observe(false);
+            } else {
+                throughputBaseline -= (throughputBaseline - throughput) * BASELINE_DRIFT;
+                observe(throughput * tolerance < throughputBaseline);
+            }
+        }
+    }
+
+    /**
+     * Records an observation, adjusting the limit if necessary.
+     *
+     * @param spike whether or not the observation was a spike
+     */
+    private void observe(boolean spike) {
+        observationsInWindow++;
+
+        if (spike && !coolingDown) {
+            int newLimit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            if (newLimit != limit) {
+                logger.debug("Decreasing concurrency from " + limit + " to " + newLimit);
+                limit = newLimit;
+            }
+            observationsInWindow = 0;
+            coolingDown = true;
+        } else if (observationsInWindow >= limit) {
+            if (!spike && !coolingDown && limit < maxLimit) {
+                limit++;
+                logger.debug("Increasing concurrency to " + limit);
+            }
+            observationsInWindow = 0;
+            coolingDown = false;
+        }
+    }
+
+    /**
+     * Returns whether or not an exception indicates that the NameNode
+     * is overloaded or unavailable.
+     *
+     * @param e the exception
+     * @return true if the exception indicates that the NameNode is
+     * overloaded or unavailable; false otherwise
+     */
+    static boolean isCongestion(IOException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RetriableException || t instanceof StandbyException) {
+                return true;
+            }
+            if (t instanceof RemoteException) {
+                String className = ((RemoteException) t).getClassName();
+                if (RetriableException.class.getName().equals(className)
+                        || StandbyException.class.getName().equals(className)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,1170 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Erases files concurrently, with the number of files erased at once
+ * governed by a {@link ConcurrencyController}.
+ *
+ * <p>Files are erased by worker tasks, each of which erases files one at a
+ * time until there are none left. Each worker occupies a slot of a
+ * {@link FileWorkQueue}, which hands out files largest first and lets
+ * workers which have run out of files steal them from other slots.
+ * Whenever a file finishes being erased, workers are started or stopped
+ * to match the controller's current limit.
+ *
+ * <p>Small files (see {@link SecureErase.Conf#SMALL_FILE_THRESHOLD}) are
+ * erased in a separate lane with its own, fixed, number of workers. Erasing
+ * a small file consists almost entirely of NameNode round trips, so many
+ * small files are kept in flight at once to share the client's connection
+ * to the NameNode, without waiting behind large files or being limited by
+ * the controller's view of write throughput.
+ *
+ * <p>The specification with which files are erased is compiled into an
+ * {@link ErasurePlan}, whose steps are split into stages by
+ * {@linkplain FileErasureSpec.Phase phase}. Data stages are run in the
+ * lanes above, while metadata stages are run in a lane of their own (see
+ * {@link SecureErase.Conf#METADATA_CONCURRENCY}); once a stage of erasing a
+ * file finishes, the file is handed to the lane for its next stage. This
+ * way, one file can be truncated, renamed and deleted while the next is
+ * being overwritten. Files handed to a lane are erased before any files
+ * which have not yet been started in that lane. While more files are
+ * waiting for the metadata lane than a small multiple of its number of
+ * workers, the data lanes start no further files (their workers stop,
+ * and are started again once the metadata lane catches up), so the
+ * number of partially erased files stays bounded.
+ *
+ * <p>Where the HDFS client can rename files asynchronously (see
+ * {@link ErasureFileSystem#supportsAsyncRename()}), and a metadata stage
+ * consists only of a {@link RenamingDeletionSpec}, each metadata worker
+ * takes up to {@value #RENAME_PIPELINE_DEPTH} waiting files at once, and
+ * keeps the next rename of each of them in flight together rather than
+ * waiting for each rename in turn. The files are still truncated and
+ * deleted one at a time, as the asynchronous client cannot delete files.
+ *
+ * <p>If a stage of erasing a file fails in a way which may be transient,
+ * it is retried after a delay chosen by the {@link RetryPolicy} for the
+ * operation which failed (see {@link SecureErase.Conf#RETRIES}). The retry
+ * is handed back to the stage's lane, rather than holding a worker while
+ * waiting, and resumes the stage from the pass which failed, at the file's
+ * current path (which differs from its original path if it has been
+ * renamed). A file which still fails is recorded in the {@link FailedFiles}
+ * shared by every engine of an erasure, and the other files carry on being
+ * erased; once more files have failed than it allows (or the erasure is
+ * {@linkplain #cancel() cancelled}), no further files or stages are
+ * started. When erasing {@linkplain #erase(Collection, boolean)
+ * synchronously}, the failures are rethrown once all files which were
+ * already being erased have finished their current stage, if erasing was
+ * stopped; when erasing {@linkplain #start(Collection, Executor)
+ * asynchronously}, the outcome for each file is reported as a
+ * {@link FileErasureResult}.
+ *
+ * <p>Files may also be {@linkplain #erase(FileBatcher, int, boolean) added
+ * in batches} while earlier files are still being erased. Each batch is
+ * added to the lanes' queues as it arrives, so workers move on to the
+ * files of the next batch without waiting for the last files of the
+ * previous one. Only the files which are being erased are tracked, so
+ * the memory used does not grow with the number of files erased. A file
+ * which is added while it is still waiting or being erased (for example,
+ * if it is matched by globs in different batches) is not added again, so
+ * that it is never erased by two workers at once.
+ *
+ * <p>The progress of erasing files is reported to an {@link EraseListener}.
+ * Listener events are sent without holding the engine's lock.
+ *
+ * <p>An {@code EraseEngine} may only be used to erase files once.
+ */
+final class EraseEngine {
+    private static final Logger logger = Logger.getLogger(EraseEngine.class);
+    private static final long LEASE_RECOVERY_POLL_MILLIS = 1000;
+    private static final int LEASE_RECOVERY_POLLS = 60;
+    private static final int METADATA_BACKLOG_PER_WORKER = 4;
+    // Well below the number of asynchronous calls a client thread may have in flight by default (100)
+    private static final int RENAME_PIPELINE_DEPTH = 16;
+
+    private final FileSystem fs;
+    private final ConcurrencyController controller;
+    private final EraseListener listener;
+    private final long smallFileThreshold;
+    private final int smallFileConcurrency;
+    private final List<Stage> stages;
+    private final Lane largeFileLane;
+    private final Lane smallFileLane;
+    private final Lane metadataLane;
+    private final int metadataBacklogLimit;
+    private final RetryPolicy.Policies retryPolicies;
+    private final FailedFiles failedFiles;
+
+    private final SettableFuture<List<FileErasureResult>> completion = SettableFuture.create();
+    // The files which have been started but have not yet finished, by their state
+    private final Map<ErasurePlan.FileState, FileStatus> inFlight = new HashMap<>();
+    // The original paths of the files which have been added but have not yet finished
+    private final Set<Path> active = new HashSet<>();
+
+    private int workers = 0;
+    private int retrying = 0;
+    private Throwable failure = null;
+    private boolean tooManyFailures = false;
+    private boolean cancelled = false;
+    private boolean adding = true;
+    private boolean eraseStarted = false;
+    private Collection<FileStatus> files;
+    private Map<Path, FileErasureResult> results;
+    private Executor executor;
+    private ScheduledExecutorService retryTimer;
+
+    /**
+     * Creates a new {@code EraseEngine}.
+     *
+     * @param fs                   the file system on which the files reside
+     * @param spec                 the specification with which to erase files
+     * @param controller           the controller limiting the number of files
+     *                             erased concurrently
+     * @param smallFileThreshold   the size in bytes of the largest file to
+     *                             erase in the small file lane (non-positive
+     *                             for no small file lane)
+     * @param smallFileConcurrency the number of small files to erase
+     *                             concurrently
+     * @param metadataConcurrency  the number of files whose metadata stages
+     *                             to run concurrently (non-positive to run
+     *                             every stage of erasing a file together)
+     * @param retryPolicies        the policies for retrying failed stages
+     * @param failedFiles          the files which have failed to be erased
+     *                             (shared between the engines of an erasure)
+     * @param listener             the listener to which to report progress
+     */
+    EraseEngine(FileSystem fs,
+                FileErasureSpec spec,
+                final ConcurrencyController controller,
+                long smallFileThreshold,
+                final int smallFileConcurrency,
+                int metadataConcurrency,
+                RetryPolicy.Policies retryPolicies,
+                FailedFiles failedFiles,
+                EraseListener listener) {
+        this.fs = fs;
+        this.controller = controller;
+        this.retryPolicies = retryPolicies;
+        this.failedFiles = failedFiles;
+        this.listener = listener;
+        this.smallFileThreshold = smallFileThreshold;
+        this.smallFileConcurrency = smallFileConcurrency;
+        ErasurePlan plan = ErasurePlan.compile(spec);
+        this.stages = metadataConcurrency > 0
+                ? Stage.split(plan)
+                : Collections.singletonList(new Stage(FileErasureSpec.Phase.DATA, plan.getSteps()));
+
+        largeFileLane = new Lane(controller.maxLimit()) {
+            @Override
+            int limit() {
+                return controller.limit();
+            }
+        };
+        smallFileLane = new Lane(smallFileConcurrency) {
+            @Override
+            int limit() {
+                return smallFileConcurrency;
+            }
+        };
+        final int metadataLimit = Math.max(metadataConcurrency, 1);
+        metadataBacklogLimit = METADATA_BACKLOG_PER_WORKER * metadataLimit;
+        metadataLane = new Lane(metadataLimit) {
+            @Override
+            int limit() {
+                return metadataLimit;
+            }
+        };
+    }
+
+    /**
+     * Erases the specified files, returning once all of them have been erased.
+     *
+     * <p>Files which fail to be erased are recorded in the engine's
+     * {@link FailedFiles}, and only rethrown here if too many files have
+     * failed for erasing to continue.
+     *
+     * @param files          the files to erase
+     * @param virtualThreads whether or not to run workers on virtual threads
+     *                       (if supported by the running JVM)
+     * @throws IOException if an I/O error occurs while erasing the files,
+     *                     and erasing was stopped
+     */
+    void erase(Collection<FileStatus> files, boolean virtualThreads) throws IOException {
+        ExecutorService executor = newExecutor(virtualThreads);
+        try {
+            await(start(files, executor));
+        } finally {
+            executor.shutdownNow();
+        }
+        rethrowFailures();
+    }
+
+    /**
+     * Erases the files expanded by a {@link FileBatcher}, adding each batch
+     * to the files being erased as soon as it has been expanded, and
+     * returning once all of them have been erased.
+     *
+     * <p>A batch is only taken once fewer than the specified number of
+     * files are waiting to be started, so that the files held at once are
+     * bounded. Files which fail to be erased are handled as by
+     * {@link #erase(Collection, boolean)}; once erasing has been stopped, no
+     * further batches are taken. If a batch fails to be expanded, the files
+     * of earlier batches are still erased before the failure is thrown.
+     *
+     * @param batcher        the FileBatcher, which has been started
+     * @param maxWaiting     the number of files waiting to be started at
+     *                       which to stop taking batches
+     * @param virtualThreads whether or not to run workers on virtual threads
+     *                       (if supported by the running JVM)
+     * @throws IllegalArgumentException if a file cannot be erased
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  the files, or while erasing them and
+     *                                  erasing was stopped
+     */
+    void erase(FileBatcher<?> batcher, int maxWaiting, boolean virtualThreads)
+            throws IllegalArgumentException, IOException {
+        ExecutorService executor = newExecutor(virtualThreads);
+        Exception expandFailure = null;
+        try {
+            synchronized (this) {
+                this.executor = executor;
+            }
+            try {
+                List<FileStatus> batch;
+                while (awaitWaitingBelow(maxWaiting) && (batch = batcher.nextBatch()) != null) {
+                    add(batch);
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                expandFailure = e;
+            } finally {
+                finishAdding();
+            }
+            await(completion);
+        } finally {
+            executor.shutdownNow();
+        }
+        rethrowFailures();
+
+        if (expandFailure != null) {
+            Throwables.propagateIfPossible(expandFailure, IOException.class);
+            throw Throwables.propagate(expandFailure);
+        }
+    }
+
+    /**
+     * Waits for erasing files to complete.
+     *
+     * @param future the future which completes once erasing files completes
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    private void await(ListenableFuture<?> future) throws InterruptedIOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (InterruptedIOException) new InterruptedIOException("Interrupted while erasing files").initCause(e);
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+    }
+
+    /**
+     * Rethrows the failures which stopped erasing files, if it was stopped.
+     *
+     * @throws IOException if erasing files was stopped by an I/O error
+     */
+    private void rethrowFailures() throws IOException {
+        boolean rethrow;
+        synchronized (this) {
+            if (failure != null) {
+                Throwables.propagateIfPossible(failure, IOException.class);
+                throw Throwables.propagate(failure);
+            }
+            rethrow = tooManyFailures;
+        }
+        if (rethrow) {
+            failedFiles.rethrow();
+        }
+    }
+
+    /**
+     * Returns a new {@link ExecutorService} with which to run workers.
+     *
+     * @param virtualThreads whether or not to run workers on virtual threads
+     *                       (if supported by the running JVM)
+     * @return a new ExecutorService with which to run workers
+     */
+    private static ExecutorService newExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            if (VirtualThreads.isSupported()) {
+                return VirtualThreads.newVirtualThreadPerTaskExecutor();
+            }
+            logger.warn("Virtual threads are not supported by this JVM; using platform threads");
+        }
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Starts erasing the specified files, without waiting for them to be
+     * erased.
+     *
+     * @param files    the files to erase
+     * @param executor the Executor with which to run the workers erasing
+     *                 the files
+     * @return a future which completes with the result of erasing each
+     * file (in the order given) once no more files are being erased, or
+     * fails if erasing files was stopped by a failure of the engine itself
+     */
+    ListenableFuture<List<FileErasureResult>> start(Collection<FileStatus> files, Executor executor) {
+        synchronized (this) {
+            this.files = files;
+            this.results = new HashMap<>();
+            this.executor = executor;
+        }
+        add(files);
+        finishAdding();
+        return completion;
+    }
+
+    /**
+     * Adds files to those being erased, skipping any which are already
+     * waiting or being erased.
+     *
+     * @param files the files to add
+     */
+    private void add(Collection<FileStatus> files) {
+        List<FileStatus> added = new ArrayList<>();
+        synchronized (this) {
+            for (FileStatus file : files) {
+                if (active.add(file.getPath())) {
+                    added.add(file);
+                }
+            }
+        }
+
+        FileErasureSpec.Phase firstPhase = stages.get(0).phase;
+        List<FileStatus> largeFiles = new ArrayList<>();
+        List<FileStatus> smallFiles = new ArrayList<>();
+        List<FileStatus> metadataFiles = new ArrayList<>();
+        long bytes = 0;
+        for (FileStatus file : added) {
+            bytes += file.getLen();
+            if (firstPhase == FileErasureSpec.Phase.METADATA) {
+                metadataFiles.add(file);
+            } else if (isSmall(file)) {
+                smallFiles.add(file);
+            } else {
+                largeFiles.add(file);
+            }
+        }
+
+        boolean first;
+        synchronized (this) {
+            first = !eraseStarted;
+            eraseStarted = true;
+        }
+        if (first) {
+            listener.eraseStarted(added.size(), bytes);
+        } else if (!added.isEmpty()) {
+            listener.filesAdded(added.size(), bytes);
+        }
+
+        synchronized (this) {
+            largeFileLane.add(largeFiles);
+            smallFileLane.add(smallFiles);
+            metadataLane.add(metadataFiles);
+        }
+    }
+
+    /**
+     * Records that no further files will be added, completing once every
+     * file which has been added has been erased.
+     */
+    private void finishAdding() {
+        boolean first;
+        boolean done;
+        synchronized (this) {
+            adding = false;
+            first = !eraseStarted;
+            eraseStarted = true;
+            done = idle();
+        }
+        if (first) {
+            listener.eraseStarted(0, 0);
+        }
+        if (done) {
+            complete();
+        }
+    }
+
+    /**
+     * Waits until fewer than the specified number of files are waiting to
+     * be started, or erasing has been stopped.
+     *
+     * @param maxWaiting the number of waiting files below which to return
+     * @return true if further files may be added; false if erasing has
+     * been stopped
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    private synchronized boolean awaitWaitingBelow(int maxWaiting) throws InterruptedIOException {
+        while (!stopped()
+                && largeFileLane.pending.size() + smallFileLane.pending.size() + metadataLane.pending.size()
+                >= maxWaiting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException(
+                        "Interrupted while waiting for files to be erased").initCause(e);
+            }
+        }
+        return !stopped();
+    }
+
+    /**
+     * Stops starting further files or stages. Files which are already
+     * being erased finish their current stage.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns whether or not further files and stages should not be started.
+     *
+     * @return true if further files and stages should not be started;
+     * false otherwise
+     */
+    private boolean stopped() {
+        return failure != null || tooManyFailures || cancelled;
+    }
+
+    /**
+     * Returns whether or not no further files will be added, and no files
+     * are being erased or waiting to be retried.
+     *
+     * @return true if no further files will be added, and no files are
+     * being erased or waiting to be retried; false otherwise
+     */
+    private boolean idle() {
+        return !adding && workers == 0 && retrying == 0;
+    }
+
+    /**
+     * Completes the future returned by {@link #start(Collection, Executor)},
+     * reporting every file which was not erased or failed as aborted. If
+     * erasing files was stopped by a failure of the engine itself (such as
+     * the Executor rejecting a worker), the future fails with it instead.
+     * Must be called without holding the lock on this engine.
+     */
+    private void complete() {
+        List<FileErasureResult> aborted = new ArrayList<>();
+        List<FileErasureResult> ordered = new ArrayList<>();
+        Throwable engineFailure;
+        synchronized (this) {
+            engineFailure = failure;
+            if (retryTimer != null) {
+                retryTimer.shutdown();
+            }
+            for (Map.Entry<ErasurePlan.FileState, FileStatus> entry : inFlight.entrySet()) {
+                FileStatus file = entry.getValue();
+                aborted.add(new FileErasureResult(file.getPath(), entry.getKey().getPath(), file.getLen(),
+                        FileErasureResult.Status.ABORTED, null));
+            }
+            inFlight.clear();
+            active.clear();
+            for (Lane lane : Arrays.asList(largeFileLane, smallFileLane, metadataLane)) {
+                FileStatus file;
+                while ((file = lane.pending.poll(0)) != null) {
+                    aborted.add(new FileErasureResult(file.getPath(), file.getLen(),
+                            FileErasureResult.Status.ABORTED, null));
+                }
+            }
+
+            if (results != null) {
+                for (FileErasureResult result : aborted) {
+                    results.put(result.getPath(), result);
+                }
+                for (FileStatus file : files) {
+                    ordered.add(results.get(file.getPath()));
+                }
+            }
+        }
+
+        for (FileErasureResult result : aborted) {
+            listener.fileFinished(result);
+        }
+        listener.eraseFinished();
+        if (engineFailure != null) {
+            completion.setException(engineFailure);
+        } else {
+            completion.set(ordered);
+        }
+    }
+
+    /**
+     * Returns whether or not a file is erased in the small file lane.
+     *
+     * @param file the file
+     * @return true if the file is erased in the small file lane; false otherwise
+     */
+    private boolean isSmall(FileStatus file) {
+        return smallFileThreshold > 0 && file.getLen() <= smallFileThreshold;
+    }
+
+    /**
+     * Hands a file whose current stage has finished to the lane for its
+     * next stage, if it has one.
+     *
+     * @param task the file and the stage which has finished
+     * @return the result of erasing the file if it has been erased (that
+     * is, the stage which has finished was its last), or {@code null}
+     * otherwise
+     */
+    private synchronized FileErasureResult advance(Task task) {
+        int next = task.stage + 1;
+        if (next < stages.size()) {
+            lane(task.file, next).handOff(new Task(task.file, next, task.state, false));
+            return null;
+        }
+        FileErasureResult result = new FileErasureResult(task.file.getPath(), task.file.getLen(),
+                FileErasureResult.Status.ERASED, null);
+        finished(task.state, result);
+        return result;
+    }
+
+    /**
+     * Records the result of erasing a file which has finished.
+     *
+     * @param state  the state of the file
+     * @param result the result of erasing the file
+     */
+    private void finished(ErasurePlan.FileState state, FileErasureResult result) {
+        inFlight.remove(state);
+        active.remove(result.getPath());
+        if (results != null) {
+            results.put(result.getPath(), result);
+        }
+    }
+
+    /**
+     * Returns the lane in which to run a stage of erasing a file.
+     *
+     * @param file  the file
+     * @param stage the index of the stage
+     * @return the lane in which to run the stage
+     */
+    private Lane lane(FileStatus file, int stage) {
+        if (stages.get(stage).phase == FileErasureSpec.Phase.METADATA) {
+            return metadataLane;
+        }
+        return isSmall(file) ? smallFileLane : largeFileLane;
+    }
+
+    /**
+     * Returns the delay before retrying a failed stage of erasing a file,
+     * or {@code -1} if it should not be retried (because the failure is
+     * not transient, the file has run out of retries, or erasing has been
+     * stopped).
+     *
+     * @param task the file and the stage which failed
+     * @param e    the exception with which the stage failed
+     * @return the delay in milliseconds before retrying, or -1
+     */
+    private synchronized long retryDelay(Task task, Throwable e) {
+        if (stopped() || !RetryPolicy.isRetryable(e)) {
+            return -1;
+        }
+        RetryPolicy policy = retryPolicies.get(task.state.failedOperation());
+        if (task.state.retries() >= policy.maxRetries()) {
+            return -1;
+        }
+        return policy.delayMillis(task.state.retry());
+    }
+
+    /**
+     * Hands a failed stage of erasing a file back to its lane after a delay.
+     *
+     * @param task        the file and the stage which failed
+     * @param delayMillis the delay in milliseconds before retrying
+     */
+    private void scheduleRetry(final Task task, long delayMillis) {
+        ScheduledExecutorService timer;
+        synchronized (this) {
+            if (retryTimer == null) {
+                retryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("secure-erase-retry")
+                        .setDaemon(true)
+                        .build());
+            }
+            timer = retryTimer;
+            retrying++;
+        }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                boolean done;
+                synchronized (EraseEngine.this) {
+                    retrying--;
+                    // A file which is not retried because erasing was stopped is reported as aborted
+                    if (!stopped()) {
+                        lane(task.file, task.stage).handOff(new Task(task.file, task.stage, task.state, true));
+                    }
+                    done = idle();
+                }
+                if (done) {
+                    complete();
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Prepares to retry a failed stage of erasing a file.
+     *
+     * <p>If the file no longer exists at its tracked path, and the stage
+     * failed while deleting it from that path, the file was deleted before
+     * the failure (for example, if only the NameNode's response was lost),
+     * so the deletion is skipped. Otherwise, a missing file fails the stage
+     * rather than being recreated or assumed deleted: it may have been
+     * renamed by an operation whose response was lost, or through a
+     * FileSystem other than an {@link ErasureFileSystem} (which does not
+     * track renames), and so still exist elsewhere. If the file was left
+     * open by a failed write, the lease on it is recovered, so that it can
+     * be written again.
+     *
+     * @param stage the stage to retry
+     * @param file  the state of the file
+     * @throws IOException if the file no longer exists, or an I/O error
+     *                     occurs while recovering the lease on it
+     */
+    private void prepareRetry(Stage stage, ErasurePlan.FileState file) throws IOException {
+        // Checking whether the file exists records a failed operation of its own
+        FileSystemOperation failedOperation = file.failedOperation();
+        Path path = file.getPath();
+        if (!fs.exists(path)) {
+            if (failedOperation == FileSystemOperation.DELETE
+                    && fs instanceof ErasureFileSystem
+                    && stage.steps.get(file.currentStep()).getKind() == ErasurePlan.Kind.DELETE) {
+                file.skipStep();
+                return;
+            }
+            throw new FileNotFoundException("File no longer exists: " + path);
+        }
+
+        if (fs instanceof ErasureFileSystem) {
+            ErasureFileSystem efs = (ErasureFileSystem) fs;
+            if (efs.recoverLease(path)) {
+                return;
+            }
+            // Recovering the lease again would restart the recovery, so wait for the file to be closed instead
+            for (int polls = 0; !efs.isFileClosed(path); polls++) {
+                if (polls >= LEASE_RECOVERY_POLLS) {
+                    throw new IOException("Timed out waiting for the lease on file to be recovered: " + path);
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(LEASE_RECOVERY_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw (InterruptedIOException) new InterruptedIOException(
+                            "Interrupted while waiting for the lease on file to be recovered").initCause(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a file which failed to be erased.
+     *
+     * @param state  the state of the file
+     * @param result the result of erasing the file
+     */
+    private synchronized void fail(ErasurePlan.FileState state, FileErasureResult result) {
+        finished(state, result);
+        if (!failedFiles.add(result)) {
+            tooManyFailures = true;
+            notifyAll();
+        } else {
+            logger.warn("Failed to erase file '" + result.getCurrentPath() + "'; continuing with other files",
+                    result.getFailure());
+        }
+    }
+
+    /**
+     * Records a failure to erase files.
+     *
+     * @param e the exception with which erasing files failed
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        } else if (failure != e) {
+            failure.addSuppressed(e);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Sets the file being erased by the current thread, so that renames of
+     * it and failed operations on it are recorded in its state.
+     *
+     * @param file the state of the file, or {@code null} if the current
+     *             thread is no longer erasing a file
+     */
+    private void setCurrentFile(ErasurePlan.FileState file) {
+        if (fs instanceof ErasureFileSystem) {
+            ((ErasureFileSystem) fs).setCurrentFile(file);
+        }
+    }
+
+    /**
+     * Returns whether or not a stage is run on several files at once,
+     * pipelining their renames.
+     *
+     * @param stage the stage
+     * @return true if the stage pipelines renames of different files;
+     * false otherwise
+     */
+    private boolean pipelinesRenames(Stage stage) {
+        return stage.phase == FileErasureSpec.Phase.METADATA
+                && stage.steps.size() == 1
+                && stage.steps.get(0).pipelinesRenames()
+                && fs instanceof ErasureFileSystem
+                && ((ErasureFileSystem) fs).supportsAsyncRename();
+    }
+
+    /**
+     * A group of files erased by its own workers, up to a limit.
+     *
+     * <p>All of the state of a lane is guarded by the enclosing
+     * {@code EraseEngine}.
+     */
+    private abstract class Lane {
+        private final int maxLimit;
+        private final Deque<Task> handedOff = new ArrayDeque<>();
+        private final Deque<Integer> freeSlots = new ArrayDeque<>();
+        private final FileWorkQueue pending;
+        private int laneWorkers = 0;
+
+        /**
+         * Creates a new {@code Lane}.
+         *
+         * @param maxLimit the maximum number of workers for this lane
+         */
+        Lane(int maxLimit) {
+            this.maxLimit = Math.max(maxLimit, 1);
+            for (int slot = this.maxLimit - 1; slot >= 0; slot--) {
+                freeSlots.push(slot);
+            }
+            pending = new FileWorkQueue(Collections.<FileStatus>emptyList(), this.maxLimit);
+        }
+
+        /**
+         * Returns the current limit on the number of workers for this lane.
+         *
+         * @return the current limit on the number of workers for this lane
+         */
+        abstract int limit();
+
+        /**
+         * Adds files which have not yet been started to this lane, behind
+         * any files already waiting to be started.
+         *
+         * @param files the files to erase
+         */
+        void add(Collection<FileStatus> files) {
+            synchronized (EraseEngine.this) {
+                pending.addAll(files);
+                startWorkers();
+            }
+        }
+
+        /**
+         * Hands a file which has already been started to this lane.
+         *
+         * @param task the file and the stage of erasing it to run in this lane
+         */
+        void handOff(Task task) {
+            synchronized (EraseEngine.this) {
+                handedOff.addLast(task);
+                startWorkers();
+            }
+        }
+
+        /**
+         * Returns the number of files waiting to be erased in this lane.
+         *
+         * @return the number of files waiting to be erased in this lane
+         */
+        private int waiting() {
+            return handedOff.size() + (startsFiles() ? pending.size() : 0);
+        }
+
+        /**
+         * Returns whether or not this lane may start erasing files which
+         * have not yet been started. Lanes other than the metadata lane do
+         * not start further files while the metadata lane is backlogged.
+         *
+         * @return true if this lane may start further files; false otherwise
+         */
+        private boolean startsFiles() {
+            return this == metadataLane || metadataLane.handedOff.size() < metadataBacklogLimit;
+        }
+
+        /**
+         * Starts workers until the concurrency limit is reached or there is
+         * a worker for every waiting file.
+         */
+        void startWorkers() {
+            synchronized (EraseEngine.this) {
+                while (!stopped() && laneWorkers < limit() && laneWorkers < waiting()) {
+                    int slot = freeSlots.pop();
+                    // Count the worker before starting it, as the executor may run it (and it may stop) before returning
+                    laneWorkers++;
+                    workers++;
+                    try {
+                        executor.execute(new Worker(this, slot));
+                    } catch (RejectedExecutionException e) {
+                        laneWorkers--;
+                        workers--;
+                        freeSlots.push(slot);
+                        fail(e);
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the next file for a worker to erase, or {@code null} if the
+         * worker should stop.
+         *
+         * @param slot the slot occupied by the worker
+         * @return the next file for a worker to erase, or null if the worker
+         * should stop
+         */
+        Task nextTask(int slot) {
+            boolean done = false;
+            Task next = null;
+            synchronized (EraseEngine.this) {
+                if (!stopped() && laneWorkers <= limit()) {
+                    next = handedOff.pollFirst();
+                    if (next != null && this == metadataLane) {
+                        // The backlog may have fallen below its limit, letting the other lanes start files again
+                        largeFileLane.startWorkers();
+                        smallFileLane.startWorkers();
+                    }
+                    if (next == null && startsFiles()) {
+                        next = startFile(slot);
+                    }
+                }
+
+                if (next == null) {
+                    laneWorkers--;
+                    workers--;
+                    freeSlots.push(slot);
+                    done = idle();
+                } else {
+                    startWorkers();
+                }
+            }
+            if (done) {
+                complete();
+            }
+            return next;
+        }
+
+        /**
+         * Returns further files for a worker to run the same stage of along
+         * with a file it has just taken, without stopping the worker if
+         * there are none.
+         *
+         * @param slot  the slot occupied by the worker
+         * @param stage the index of the stage
+         * @param max   the maximum number of files to return
+         * @return the further files for the worker to erase
+         */
+        List<Task> moreTasks(int slot, int stage, int max) {
+            List<Task> more = new ArrayList<>();
+            synchronized (EraseEngine.this) {
+                if (stopped()) {
+                    return more;
+                }
+                for (Iterator<Task> it = handedOff.iterator(); it.hasNext() && more.size() < max; ) {
+                    Task task = it.next();
+                    if (task.stage == stage) {
+                        it.remove();
+                        more.add(task);
+                    }
+                }
+                if (!more.isEmpty() && this == metadataLane) {
+                    largeFileLane.startWorkers();
+                    smallFileLane.startWorkers();
+                }
+                while (stage == 0 && more.size() < max && startsFiles()) {
+                    Task task = startFile(slot);
+                    if (task == null) {
+                        break;
+                    }
+                    more.add(task);
+                }
+            }
+            return more;
+        }
+
+        /**
+         * Starts erasing the next file which has not yet been started.
+         * Must be called while holding the lock on the enclosing engine.
+         *
+         * @param slot the slot occupied by the worker starting the file
+         * @return the first stage of erasing the file, or {@code null} if
+         * there are no files waiting to be started
+         */
+        private Task startFile(int slot) {
+            FileStatus file = pending.poll(slot);
+            if (file == null) {
+                return null;
+            }
+            ErasurePlan.FileState state = new ErasurePlan.FileState(file.getPath());
+            inFlight.put(state, file);
+            // Further files may be added now that fewer are waiting
+            EraseEngine.this.notifyAll();
+            return new Task(file, 0, state, false);
+        }
+    }
+
+    /**
+     * A stage of erasing a file.
+     */
+    private static final class Task {
+        private final FileStatus file;
+        private final int stage;
+        private final ErasurePlan.FileState state;
+        private final boolean retry;
+
+        private Task(FileStatus file, int stage, ErasurePlan.FileState state, boolean retry) {
+            this.file = file;
+            this.stage = stage;
+            this.state = state;
+            this.retry = retry;
+        }
+    }
+
+    /**
+     * Erases files from a lane until there are no more files to erase or
+     * it is stopped.
+     */
+    private final class Worker implements Runnable {
+        private final Lane lane;
+        private final int slot;
+
+        private Worker(Lane lane, int slot) {
+            this.lane = lane;
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            Task task;
+            while ((task = lane.nextTask(slot)) != null) {
+                Stage stage = stages.get(task.stage);
+                if (pipelinesRenames(stage)) {
+                    List<Task> tasks = new ArrayList<>();
+                    tasks.add(task);
+                    tasks.addAll(lane.moreTasks(slot, task.stage, RENAME_PIPELINE_DEPTH - 1));
+                    eraseFiles(stage, tasks);
+                } else {
+                    eraseFile(stage, task);
+                }
+            }
+        }
+
+        /**
+         * Runs a stage of erasing a file.
+         *
+         * @param stage the stage
+         * @param task  the file and the index of the stage
+         */
+        private void eraseFile(Stage stage, Task task) {
+            stageStarted(stage, task);
+            long start = System.nanoTime();
+            Throwable failure = null;
+            setCurrentFile(task.state);
+            try {
+                if (task.retry) {
+                    prepareRetry(stage, task.state);
+                }
+                stage.eraseFile(fs, task.state);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                setCurrentFile(null);
+            }
+            stageFinished(stage, task, System.nanoTime() - start, failure);
+        }
+
+        /**
+         * Runs the same stage of erasing several files at once, pipelining
+         * their renames.
+         *
+         * @param stage the stage, which {@linkplain #pipelinesRenames(Stage)
+         *              pipelines renames}
+         * @param tasks the files and the index of the stage
+         */
+        private void eraseFiles(Stage stage, List<Task> tasks) {
+            for (Task task : tasks) {
+                stageStarted(stage, task);
+            }
+            long start = System.nanoTime();
+            Throwable[] failures = new Throwable[tasks.size()];
+            List<Task> prepared = new ArrayList<>();
+            List<ErasurePlan.FileState> states = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (task.retry) {
+                    setCurrentFile(task.state);
+                    try {
+                        prepareRetry(stage, task.state);
+                    } catch (Throwable t) {
+                        failures[i] = t;
+                        continue;
+                    } finally {
+                        setCurrentFile(null);
+                    }
+                }
+                prepared.add(task);
+                states.add(task.state);
+            }
+
+            Throwable[] stageFailures = ErasurePlan.FileState.executeAll((ErasureFileSystem) fs, stage.steps, states);
+            for (int i = 0, j = 0; i < tasks.size(); i++) {
+                if (j < prepared.size() && prepared.get(j) == tasks.get(i)) {
+                    failures[i] = stageFailures[j++];
+                }
+            }
+
+            long nanos = System.nanoTime() - start;
+            for (int i = 0; i < tasks.size(); i++) {
+                stageFinished(stage, tasks.get(i), nanos, failures[i]);
+            }
+        }
+
+        /**
+         * Reports that a stage of erasing a file has started.
+         *
+         * @param stage the stage
+         * @param task  the file and the index of the stage
+         */
+        private void stageStarted(Stage stage, Task task) {
+            if (task.stage == 0 && !task.retry) {
+                listener.fileStarted(task.file);
+            }
+            listener.phaseStarted(task.file.getPath(), stage.phase);
+        }
+
+        /**
+         * Hands a file whose stage has finished on to its next stage, or
+         * retries or fails it if the stage failed.
+         *
+         * @param stage   the stage
+         * @param task    the file and the index of the stage
+         * @param nanos   the time taken by the stage, in nanoseconds
+         * @param failure the exception with which the stage failed, or
+         *                {@code null} if it succeeded
+         */
+        private void stageFinished(Stage stage, Task task, long nanos, Throwable failure) {
+            Path path = task.file.getPath();
+            if (failure != null) {
+                long delay = retryDelay(task, failure);
+                if (delay >= 0) {
+                    listener.phaseFinished(path, stage.phase, nanos, failure);
+                    listener.phaseRetried(path, stage.phase, task.state.retries(), delay, failure);
+                    scheduleRetry(task, delay);
+                } else {
+                    FileErasureResult result = new FileErasureResult(path, task.state.getPath(),
+                            task.file.getLen(), FileErasureResult.Status.FAILED, failure);
+                    fail(task.state, result);
+                    listener.phaseFinished(path, stage.phase, nanos, failure);
+                    listener.fileFinished(result);
+                }
+                return;
+            }
+            listener.phaseFinished(path, stage.phase, nanos, null);
+            FileErasureResult result = advance(task);
+            if (result != null) {
+                listener.fileFinished(result);
+            }
+        }
+    }
+
+    /**
+     * A consecutive run of {@linkplain ErasurePlan.Step steps} of the same phase.
+     */
+    private static final class Stage {
+        private final FileErasureSpec.Phase phase;
+        private final List<ErasurePlan.Step> steps = new ArrayList<>();
+
+        private Stage(FileErasureSpec.Phase phase, List<ErasurePlan.Step> steps) {
+            this.phase = phase;
+            this.steps.addAll(steps);
+        }
+
+        private void eraseFile(FileSystem fs, ErasurePlan.FileState file) throws IOException {
+            file.execute(fs, steps);
+        }
+
+        /**
+         * Splits an {@link ErasurePlan} into stages.
+         *
+         * @param plan the ErasurePlan to split
+         * @return the stages of the ErasurePlan, in order
+         */
+        private static List<Stage> split(ErasurePlan plan) {
+            List<Stage> stages = new ArrayList<>();
+            Stage current = null;
+            for (ErasurePlan.Step step : plan.getSteps()) {
+                if (current != null && current.phase == step.getPhase()) {
+                    current.steps.add(step);
+                } else {
+                    current = new Stage(step.getPhase(), Collections.singletonList(step));
+                    stages.add(current);
+                }
+            }
+            return stages;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Listens for the progress of erasing files with {@link SecureErase}.
+ *
+ * <p>Listeners are either {@linkplain SecureErase#addListener(EraseListener)
+ * added} to a {@code SecureErase} directly, or named in its configuration
+ * (see {@link SecureErase.Conf#LISTENERS}). Every method does nothing by
+ * default, so that implementations need only override the events in which
+ * they are interested.
+ *
+ * <p>Listeners are called synchronously from every thread erasing files,
+ * and must therefore be thread-safe and return quickly. In particular,
+ * {@link #bytesWritten(long)} is called for every write made while
+ * overwriting files, and should do no more than update a counter (see
+ * {@link EraseProgress}). Exceptions thrown by listeners are logged and
+ * otherwise ignored.
+ */
+public abstract class EraseListener {
+    /**
+     * Returns the listener to notify of the progress of a single erasure
+     * (such as a call to {@link SecureErase#eraseGlob(Path, FileErasureSpec)}).
+     * Called by {@code SecureErase} when each erasure starts, so that a
+     * listener which tracks state between events (such as which group of
+     * files an {@link #eraseFinished()} event ends) can keep that state
+     * separately for erasures which run concurrently.
+     *
+     * <p>By default, returns this listener.
+     *
+     * @return the listener to notify of the progress of a single erasure
+     */
+    public EraseListener forErasure() {
+        return this;
+    }
+
+    /**
+     * Called when erasing a group of files starts.
+     *
+     * @param files the number of files to erase
+     * @param bytes the total length of the files to erase
+     */
+    public void eraseStarted(long files, long bytes) {}
+
+    /**
+     * Called when further files are added to a group of files which is
+     * already being erased (such as the files matching a later batch of
+     * globs).
+     *
+     * @param files the number of files added
+     * @param bytes the total length of the files added
+     */
+    public void filesAdded(long files, long bytes) {}
+
+    /**
+     * Called when erasing a file starts.
+     *
+     * @param file the status of the file
+     */
+    public void fileStarted(FileStatus file) {}
+
+    /**
+     * Called when a {@linkplain FileErasureSpec.Phase phase} of erasing a
+     * file starts. The metadata phase of a file does not necessarily
+     * immediately follow its data phase (see
+     * {@link SecureErase.Conf#METADATA_CONCURRENCY}).
+     *
+     * <p>Phase events are only sent when erasing files matching a glob.
+     *
+     * @param path  the path to the file
+     * @param phase the phase
+     */
+    public void phaseStarted(Path path, FileErasureSpec.Phase phase) {}
+
+    /**
+     * Called when a {@linkplain FileErasureSpec.Phase phase} of erasing a
+     * file finishes, whether or not it finished successfully.
+     *
+     * @param path    the path to the file
+     * @param phase   the phase
+     * @param nanos   the duration of the phase in nanoseconds
+     * @param failure the exception with which the phase failed, or
+     *                {@code null} if it did not fail
+     */
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {}
+
+    /**
+     * Called when a failed {@linkplain FileErasureSpec.Phase phase} of
+     * erasing a file is to be retried (see {@link SecureErase.Conf#RETRIES}),
+     * after {@link #phaseFinished(Path, FileErasureSpec.Phase, long, Throwable)}
+     * has been called for the failure. The retry resumes the phase from the
+     * pass which failed.
+     *
+     * @param path        the path to the file
+     * @param phase       the phase
+     * @param retry       the number of retries of the file since it last
+     *                    made progress, including this one
+     * @param delayMillis the delay in milliseconds before the retry
+     * @param failure     the exception with which the phase failed
+     */
+    public void phaseRetried(Path path, FileErasureSpec.Phase phase, int retry, long delayMillis,
+                             Throwable failure) {}
+
+    /**
+     * Called when a file system operation made while erasing files
+     * completes successfully.
+     *
+     * @param operation the operation
+     * @param nanos     the duration of the operation in nanoseconds
+     */
+    public void operationCompleted(FileSystemOperation operation, long nanos) {}
+
+    /**
+     * Called when a file system operation made while erasing files fails.
+     *
+     * @param operation the operation
+     * @param e         the exception with which the operation failed
+     */
+    public void operationFailed(FileSystemOperation operation, IOException e) {}
+
+    /**
+     * Called when bytes are written while overwriting a file.
+     *
+     * @param bytes the number of bytes written
+     */
+    public void bytesWritten(long bytes) {}
+
+    /**
+     * Called when a pass writing to a file (such as an overwrite pass)
+     * finishes, once the file has been closed.
+     *
+     * @param bytes      the number of bytes written by the pass
+     * @param nanos      the duration of the pass in nanoseconds, from
+     *                   creating the file until it was closed
+     * @param writeNanos the number of nanoseconds of the pass spent writing
+     *                   to the file (excluding creating and closing it)
+     */
+    public void passCompleted(long bytes, long nanos, long writeNanos) {}
+
+    /**
+     * Called when erasing a file finishes, whether or not it finished
+     * successfully. Files which were never started (or which were started,
+     * but not finished) because erasing other files failed are reported
+     * as {@linkplain FileErasureResult.Status#ABORTED aborted} once erasing
+     * the group of files finishes.
+     *
+     * @param result the result of erasing the file
+     */
+    public void fileFinished(FileErasureResult result) {}
+
+    /**
+     * Called when erasing a group of files finishes, whether or not it
+     * finished successfully.
+     */
+    public void eraseFinished() {}
+}
@@ -0,0 +1,240 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link EraseListener} which passes events on to other listeners,
+ * logging and ignoring any exceptions they throw.
+ */
+final class EraseListeners extends EraseListener {
+    /**
+     * An {@code EraseListener} which ignores all events.
+     */
+    static final EraseListener NONE = new EraseListener() {};
+
+    private static final Logger logger = Logger.getLogger(EraseListeners.class);
+
+    private final EraseListener[] listeners;
+
+    private EraseListeners(List<EraseListener> listeners) {
+        this.listeners = listeners.toArray(new EraseListener[listeners.size()]);
+    }
+
+    /**
+     * Returns an {@link EraseListener} which passes events on to the
+     * specified listeners, in order.
+     *
+     * @param listeners the listeners
+     * @return an EraseListener which passes events on to the listeners
+     */
+    static EraseListener of(List<EraseListener> listeners) {
+        return listeners.isEmpty() ? NONE : new EraseListeners(new ArrayList<>(listeners));
+    }
+
+    /**
+     * Returns an {@link EraseListener} which passes the events of a single
+     * erasure on to the {@linkplain EraseListener#forErasure() listeners
+     * for the erasure} of the specified listeners, in order. A listener
+     * which fails to return a listener for the erasure is passed the
+     * events itself.
+     *
+     * @param listeners the listeners
+     * @return an EraseListener which passes the events of a single erasure
+     * on to the listeners
+     */
+    static EraseListener forErasure(List<EraseListener> listeners) {
+        List<EraseListener> forErasure = new ArrayList<>(listeners.size());
+        for (EraseListener listener : listeners) {
+            try {
+                forErasure.add(listener.forErasure());
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+                forErasure.add(listener);
+            }
+        }
+        return of(forErasure);
+    }
+
+    @Override
+    public void eraseStarted(long files, long bytes) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.eraseStarted(files, bytes);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void filesAdded(long files, long bytes) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.filesAdded(files, bytes);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void fileStarted(FileStatus file) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.fileStarted(file);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void phaseStarted(Path path, FileErasureSpec.Phase phase) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.phaseStarted(path, phase);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.phaseFinished(path, phase, nanos, failure);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void phaseRetried(Path path, FileErasureSpec.Phase phase, int retry, long delayMillis,
+                             Throwable failure) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.phaseRetried(path, phase, retry, delayMillis, failure);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.operationCompleted(operation, nanos);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.operationFailed(operation, e);
+            } catch (RuntimeException re) {
+                listenerFailed(listener, re);
+            }
+        }
+    }
+
+    @Override
+    public void passCompleted(long bytes, long nanos, long writeNanos) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.passCompleted(bytes, nanos, writeNanos);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void bytesWritten(long bytes) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.bytesWritten(bytes);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.fileFinished(result);
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void eraseFinished() {
+        for (EraseListener listener : listeners) {
+            try {
+                listener.eraseFinished();
+            } catch (RuntimeException e) {
+                listenerFailed(listener, e);
+            }
+        }
+    }
+
+    /**
+     * Returns an {@link OperationObserver} which passes operations on to
+     * both an OperationObserver and an {@link EraseListener}.
+     *
+     * @param observer the OperationObserver
+     * @param listener the EraseListener
+     * @return an OperationObserver which passes operations on to both
+     */
+    static OperationObserver observer(final OperationObserver observer, final EraseListener listener) {
+        if (listener == NONE) {
+            return observer;
+        }
+
+        return new OperationObserver() {
+            @Override
+            public void operationCompleted(FileSystemOperation operation, long nanos) {
+                observer.operationCompleted(operation, nanos);
+                listener.operationCompleted(operation, nanos);
+            }
+
+            @Override
+            public void operationFailed(FileSystemOperation operation, IOException e) {
+                observer.operationFailed(operation, e);
+                listener.operationFailed(operation, e);
+            }
+
+            @Override
+            public void streamClosed(long bytes, long nanos, long writeNanos, long throttledNanos) {
+                observer.streamClosed(bytes, nanos, writeNanos, throttledNanos);
+                listener.passCompleted(bytes, nanos, writeNanos);
+            }
+        };
+    }
+
+    /**
+     * Logs an exception thrown by a listener.
+     *
+     * @param listener the listener
+     * @param e        the exception thrown by the listener
+     */
+    private static void listenerFailed(EraseListener listener, RuntimeException e) {
+        logger.warn("Ignoring exception thrown by listener: " + listener, e);
+    }
+}
@@ -0,0 +1,235 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EraseListener} which counts the progress of erasing files, for
+ * displaying progress and estimating the time remaining.
+ *
+ * <p>Bytes written are counted with a striped counter, so that counting
+ * them adds negligible cost to overwriting files from many threads at once.
+ * Counts accumulate across every group of files erased while this listener
+ * is registered.
+ *
+ * <p>The time remaining is estimated from the bytes written so far against
+ * the bytes which the overwrite passes of the {@link ErasurePlan} will
+ * write in total, so that the estimate improves during each pass (even
+ * while the first, largest, files are still being overwritten). Without a
+ * plan, or for plans which do not overwrite files, it is estimated from
+ * the total length of the files which have finished instead.
+ */
+public final class EraseProgress extends EraseListener {
+    private final StripedCounter bytesWritten = new StripedCounter();
+    private final AtomicLong totalFiles = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong startedFiles = new AtomicLong();
+    private final AtomicLong erasedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong finishedFiles = new AtomicLong();
+    private final AtomicLong finishedBytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final int passes;
+
+    /**
+     * Creates a new {@code EraseProgress}, which estimates the time
+     * remaining from the total length of the files which have finished.
+     */
+    public EraseProgress() {
+        this.passes = 0;
+    }
+
+    /**
+     * Creates a new {@code EraseProgress}, which estimates the time
+     * remaining from the bytes written by the overwrite passes of an
+     * {@link ErasurePlan}.
+     *
+     * @param plan the plan with which files are erased
+     */
+    public EraseProgress(ErasurePlan plan) {
+        this.passes = plan.overwritePasses();
+    }
+
+    @Override
+    public void eraseStarted(long files, long bytes) {
+        totalFiles.addAndGet(files);
+        totalBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void filesAdded(long files, long bytes) {
+        totalFiles.addAndGet(files);
+        totalBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void fileStarted(FileStatus file) {
+        startedFiles.incrementAndGet();
+    }
+
+    @Override
+    public void phaseRetried(Path path, FileErasureSpec.Phase phase, int retry, long delayMillis,
+                             Throwable failure) {
+        retries.incrementAndGet();
+    }
+
+    @Override
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        switch (result.getStatus()) {
+            case ERASED:
+                erasedFiles.incrementAndGet();
+                break;
+            case FAILED:
+                failedFiles.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+        finishedFiles.incrementAndGet();
+        finishedBytes.addAndGet(result.getLength());
+    }
+
+    /**
+     * Returns the total number of files to erase.
+     *
+     * @return the total number of files to erase
+     */
+    public long getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    /**
+     * Returns the total length of the files to erase.
+     *
+     * @return the total length of the files to erase
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Returns the number of files which have been started.
+     *
+     * @return the number of files which have been started
+     */
+    public long getStartedFiles() {
+        return startedFiles.get();
+    }
+
+    /**
+     * Returns the number of files which have been erased successfully.
+     *
+     * @return the number of files which have been erased successfully
+     */
+    public long getErasedFiles() {
+        return erasedFiles.get();
+    }
+
+    /**
+     * Returns the number of files which failed to be erased.
+     *
+     * @return the number of files which failed to be erased
+     */
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    /**
+     * Returns the number of times failed phases of erasing files have been
+     * retried.
+     *
+     * @return the number of retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of files which have finished (including files
+     * which failed or were aborted).
+     *
+     * @return the number of files which have finished
+     */
+    public long getFinishedFiles() {
+        return finishedFiles.get();
+    }
+
+    /**
+     * Returns the total length of the files which have finished.
+     *
+     * @return the total length of the files which have finished
+     */
+    public long getFinishedBytes() {
+        return finishedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes written while overwriting files, over
+     * all passes.
+     *
+     * @return the number of bytes written while overwriting files
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the number of nanoseconds since this listener was created.
+     *
+     * @return the number of nanoseconds since this listener was created
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns an estimate of the number of nanoseconds until all files
+     * have finished, or {@code -1} if no estimate can be made yet. The
+     * estimate is based on the rate at which bytes have been written so
+     * far, if files are overwritten, or otherwise on the rate at which the
+     * total length of finished files has grown so far.
+     *
+     * @return an estimate of the number of nanoseconds until all files have
+     * finished, or -1
+     */
+    public long getEstimatedRemainingNanos() {
+        if (finishedFiles.get() >= totalFiles.get()) {
+            return 0;
+        }
+        long total = totalBytes.get();
+        if (passes > 0) {
+            long toWrite = total * passes;
+            long written = bytesWritten.sum();
+            if (written < toWrite) {
+                return (written == 0) ? -1 : remainingNanos(toWrite, written);
+            }
+            // Every pass has been written (as have rewrites made while truncating small files), so
+            // only the metadata phases of the last files are left
+        }
+        long finished = finishedBytes.get();
+        if (finished == 0 || finished >= total) {
+            return -1;
+        }
+        return remainingNanos(total, finished);
+    }
+
+    /**
+     * Returns an estimate of the number of nanoseconds until an amount of
+     * work is done, assuming that it continues at the rate so far.
+     *
+     * @param total the total amount of work
+     * @param done  the amount of work done so far (must be positive)
+     * @return an estimate of the number of nanoseconds until the work is done
+     */
+    private long remainingNanos(long total, long done) {
+        return (long) ((double) getElapsedNanos() * (total - done) / done);
+    }
+}
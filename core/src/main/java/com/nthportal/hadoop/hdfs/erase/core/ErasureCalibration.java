@@ -0,0 +1,259 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * The throughput figures with which an {@link ErasureEstimate} estimates
+ * how long erasing files will take.
+ *
+ * <p>Every figure is for a single file being erased (that is, for a single
+ * worker); the estimate accounts for the number of files erased
+ * concurrently. The {@linkplain #defaults() default} figures are rough
+ * figures for a lightly loaded HDFS cluster; figures
+ * {@linkplain #fromStats(String) calibrated} from the {@link ErasureStats}
+ * of a previous run (or of a benchmark) against the same cluster give far
+ * better estimates.
+ */
+public final class ErasureCalibration {
+    private static final long DEFAULT_WRITE_BYTES_PER_SECOND = 64L * 1024 * 1024;
+    private static final long DEFAULT_READ_BYTES_PER_SECOND = 128L * 1024 * 1024;
+    private static final long DEFAULT_TRUNCATE_RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final Map<FileSystemOperation, Long> DEFAULT_OPERATION_NANOS;
+
+    static {
+        Map<FileSystemOperation, Long> nanos = new EnumMap<>(FileSystemOperation.class);
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            nanos.put(operation, TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        nanos.put(FileSystemOperation.GET_FILE_STATUS, TimeUnit.MILLISECONDS.toNanos(1));
+        nanos.put(FileSystemOperation.CREATE, TimeUnit.MILLISECONDS.toNanos(5));
+        // Closing a file waits for the last block to be acknowledged and completed
+        nanos.put(FileSystemOperation.CLOSE, TimeUnit.MILLISECONDS.toNanos(10));
+        // Checksums are computed by the DataNodes holding each block
+        nanos.put(FileSystemOperation.GET_FILE_CHECKSUM, TimeUnit.MILLISECONDS.toNanos(20));
+        DEFAULT_OPERATION_NANOS = Collections.unmodifiableMap(nanos);
+    }
+
+    private final long writeBytesPerSecond;
+    private final long readBytesPerSecond;
+    private final long truncateRecoveryNanos;
+    private final Map<FileSystemOperation, Long> operationNanos;
+
+    private ErasureCalibration(long writeBytesPerSecond,
+                               long readBytesPerSecond,
+                               long truncateRecoveryNanos,
+                               Map<FileSystemOperation, Long> operationNanos) {
+        this.writeBytesPerSecond = writeBytesPerSecond;
+        this.readBytesPerSecond = readBytesPerSecond;
+        this.truncateRecoveryNanos = truncateRecoveryNanos;
+        this.operationNanos = Collections.unmodifiableMap(new EnumMap<>(operationNanos));
+    }
+
+    /**
+     * The number of bytes per second written to a file.
+     *
+     * @return the number of bytes per second written to a file
+     */
+    public long writeBytesPerSecond() {
+        return writeBytesPerSecond;
+    }
+
+    /**
+     * The number of bytes per second read from a file.
+     *
+     * @return the number of bytes per second read from a file
+     */
+    public long readBytesPerSecond() {
+        return readBytesPerSecond;
+    }
+
+    /**
+     * The time in nanoseconds which a truncation waits for the last block
+     * of the file to be recovered, when the file is not truncated to a
+     * block boundary.
+     *
+     * @return the time in nanoseconds waited for block recovery
+     */
+    public long truncateRecoveryNanos() {
+        return truncateRecoveryNanos;
+    }
+
+    /**
+     * The mean latency in nanoseconds of a file system operation.
+     *
+     * @param operation the file system operation
+     * @return the mean latency in nanoseconds of the operation
+     */
+    public long operationNanos(FileSystemOperation operation) {
+        return operationNanos.get(operation);
+    }
+
+    @Override
+    public String toString() {
+        return "ErasureCalibration{writeBytesPerSecond=" + writeBytesPerSecond
+                + ", readBytesPerSecond=" + readBytesPerSecond
+                + ", truncateRecoveryNanos=" + truncateRecoveryNanos
+                + ", operationNanos=" + operationNanos + "}";
+    }
+
+    /**
+     * Returns a new {@link Builder} with the same values as this
+     * {@code ErasureCalibration}.
+     *
+     * @return a new Builder with the same values as this ErasureCalibration
+     */
+    public Builder toBuilder() {
+        Builder builder = newBuilder()
+                .writeBytesPerSecond(writeBytesPerSecond)
+                .readBytesPerSecond(readBytesPerSecond)
+                .truncateRecoveryNanos(truncateRecoveryNanos);
+        builder.operationNanos.putAll(operationNanos);
+        return builder;
+    }
+
+    /**
+     * Returns a new calibration builder, with the default figures.
+     *
+     * @return a new calibration builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the default {@code ErasureCalibration}.
+     *
+     * @return the default ErasureCalibration
+     */
+    public static ErasureCalibration defaults() {
+        return newBuilder().result();
+    }
+
+    /**
+     * Returns an {@code ErasureCalibration} calibrated from the
+     * {@linkplain ErasureStats#toJson() JSON breakdown} of a previous run.
+     *
+     * <p>The write throughput is calibrated from the bytes written and the
+     * time spent writing them, and the latency of each file system operation
+     * from its mean latency. Figures which the run does not measure (such as
+     * the read throughput, the time waited for block recovery, and the
+     * latency of operations which the run did not make) are the defaults.
+     *
+     * @param json the JSON breakdown of a previous run
+     * @return an ErasureCalibration calibrated from the previous run
+     * @throws IOException if the JSON cannot be parsed
+     */
+    public static ErasureCalibration fromStats(String json) throws IOException {
+        JsonNode stats = new ObjectMapper().readTree(json);
+        if (stats == null || !stats.isObject()) {
+            throw new IOException("Not a JSON object: " + json);
+        }
+        Builder builder = newBuilder();
+
+        JsonNode operations = stats.path("operations");
+        long bytesWritten = stats.path("bytesWritten").getLongValue();
+        long writeNanos = operations.path("WRITE").path("totalNanos").getLongValue();
+        if (bytesWritten > 0 && writeNanos > 0) {
+            builder.writeBytesPerSecond(Math.max(1, (long) (bytesWritten * (double) TimeUnit.SECONDS.toNanos(1)
+                    / writeNanos)));
+        }
+
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            JsonNode timer = operations.path(operation.name());
+            // Failed operations are recorded without a duration
+            long completed = timer.path("count").getLongValue() - timer.path("failures").getLongValue();
+            if (completed > 0) {
+                builder.operationNanos(operation, timer.path("totalNanos").getLongValue() / completed);
+            }
+        }
+        return builder.result();
+    }
+
+    /**
+     * A builder for an {@link ErasureCalibration}.
+     */
+    public static final class Builder {
+        private long writeBytesPerSecond = DEFAULT_WRITE_BYTES_PER_SECOND;
+        private long readBytesPerSecond = DEFAULT_READ_BYTES_PER_SECOND;
+        private long truncateRecoveryNanos = DEFAULT_TRUNCATE_RECOVERY_NANOS;
+        private final Map<FileSystemOperation, Long> operationNanos = new EnumMap<>(DEFAULT_OPERATION_NANOS);
+
+        private Builder() {}
+
+        /**
+         * Sets the number of bytes per second written to a file.
+         *
+         * @param writeBytesPerSecond the number of bytes per second
+         * @return this builder
+         * @throws IllegalArgumentException if the number of bytes per second
+         *                                  is not positive
+         */
+        public Builder writeBytesPerSecond(long writeBytesPerSecond) throws IllegalArgumentException {
+            checkArgument(writeBytesPerSecond > 0, "write throughput must be positive");
+            this.writeBytesPerSecond = writeBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes per second read from a file.
+         *
+         * @param readBytesPerSecond the number of bytes per second
+         * @return this builder
+         * @throws IllegalArgumentException if the number of bytes per second
+         *                                  is not positive
+         */
+        public Builder readBytesPerSecond(long readBytesPerSecond) throws IllegalArgumentException {
+            checkArgument(readBytesPerSecond > 0, "read throughput must be positive");
+            this.readBytesPerSecond = readBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the time in nanoseconds which a truncation waits for the last
+         * block of the file to be recovered.
+         *
+         * @param truncateRecoveryNanos the time in nanoseconds
+         * @return this builder
+         * @throws IllegalArgumentException if the time is negative
+         */
+        public Builder truncateRecoveryNanos(long truncateRecoveryNanos) throws IllegalArgumentException {
+            checkArgument(truncateRecoveryNanos >= 0, "truncate recovery time cannot be negative");
+            this.truncateRecoveryNanos = truncateRecoveryNanos;
+            return this;
+        }
+
+        /**
+         * Sets the mean latency in nanoseconds of a file system operation.
+         *
+         * @param operation the file system operation
+         * @param nanos     the mean latency in nanoseconds
+         * @return this builder
+         * @throws IllegalArgumentException if the latency is negative
+         */
+        public Builder operationNanos(FileSystemOperation operation, long nanos) throws IllegalArgumentException {
+            checkNotNull(operation);
+            checkArgument(nanos >= 0, "latency cannot be negative");
+            operationNanos.put(operation, nanos);
+            return this;
+        }
+
+        /**
+         * Returns a calibration from this builder.
+         *
+         * @return a calibration from this builder
+         */
+        public ErasureCalibration result() {
+            return new ErasureCalibration(writeBytesPerSecond, readBytesPerSecond, truncateRecoveryNanos,
+                    operationNanos);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * An estimate of the cost of erasing a group of files, made without
+ * modifying them (see {@link SecureErase#estimateGlobs(Iterable, FileErasureSpec)}).
+ *
+ * <p>The estimate is built by walking the {@linkplain ErasurePlan plan}
+ * with which each file would be erased, each erasure specification
+ * recording the file system operations it would make, the bytes it would
+ * write and read, and the truncations which would wait for block recovery
+ * (see {@link FileErasureSpec#estimate(FileStatus, ErasureEstimate)} and
+ * {@link OutputStreamErasureSpec#estimate(long, ErasureEstimate)}). It
+ * reports:
+ * <ul>
+ *     <li>the bytes which would be written, with and without replication</li>
+ *     <li>the number of each file system (NameNode) operation which would
+ *     be made, by {@linkplain FileErasureSpec.Phase phase}</li>
+ *     <li>an {@linkplain #estimateNanos(ErasureCalibration) estimated
+ *     duration}, from the figures of an {@link ErasureCalibration}</li>
+ * </ul>
+ *
+ * <p>Counts assume that nothing fails and that no obfuscated file name is
+ * already in use. Specifications which do not estimate their costs are
+ * {@linkplain #getUnestimatedSpecs() listed}, and not counted.
+ *
+ * <p>This class is not thread-safe.
+ */
+public final class ErasureEstimate {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int concurrency;
+    private final long smallFileThreshold;
+    private final int smallFileConcurrency;
+    private final int metadataConcurrency;
+    private final long bytesPerSecond;
+    private final long operationsPerSecond;
+
+    private final Cost[][] costs = new Cost[Lane.values().length][FileErasureSpec.Phase.values().length];
+    private final Set<String> unestimated = new LinkedHashSet<>();
+    private long files = 0;
+    private long bytes = 0;
+    private long replicatedBytesWritten = 0;
+    private long largestFileBytesWritten = 0;
+
+    private boolean smallFile = false;
+    private short replication = 1;
+    private long fileBytesWritten = 0;
+    private Cost current;
+
+    /**
+     * Creates a new {@code ErasureEstimate} for files erased with the
+     * specified settings (see {@link SecureErase.Conf}).
+     *
+     * @param concurrency          the maximum number of files to erase
+     *                             concurrently
+     * @param smallFileThreshold   the size in bytes of the largest small file
+     * @param smallFileConcurrency the number of small files to erase
+     *                             concurrently
+     * @param metadataConcurrency  the number of files whose metadata phases
+     *                             to run concurrently
+     * @param bytesPerSecond       the maximum number of bytes written per
+     *                             second (non-positive for no limit)
+     * @param operationsPerSecond  the maximum number of operations per second
+     *                             (non-positive for no limit)
+     */
+    ErasureEstimate(int concurrency,
+                    long smallFileThreshold,
+                    int smallFileConcurrency,
+                    int metadataConcurrency,
+                    long bytesPerSecond,
+                    long operationsPerSecond) {
+        this.concurrency = Math.max(concurrency, 1);
+        this.smallFileThreshold = smallFileThreshold;
+        this.smallFileConcurrency = Math.max(smallFileConcurrency, 1);
+        this.metadataConcurrency = metadataConcurrency;
+        this.bytesPerSecond = bytesPerSecond;
+        this.operationsPerSecond = operationsPerSecond;
+        for (Cost[] laneCosts : costs) {
+            for (int i = 0; i < laneCosts.length; i++) {
+                laneCosts[i] = new Cost();
+            }
+        }
+        current = costs[Lane.LARGE.ordinal()][FileErasureSpec.Phase.DATA.ordinal()];
+    }
+
+    /**
+     * Starts estimating the cost of erasing a file.
+     *
+     * @param file the status of the file
+     */
+    void startFile(FileStatus file) {
+        files++;
+        bytes += file.getLen();
+        smallFile = smallFileThreshold > 0 && file.getLen() <= smallFileThreshold;
+        replication = (short) Math.max(file.getReplication(), 1);
+        startPhase(FileErasureSpec.Phase.DATA);
+    }
+
+    /**
+     * Starts estimating the cost of a phase of erasing the current file.
+     *
+     * @param phase the phase
+     */
+    void startPhase(FileErasureSpec.Phase phase) {
+        Lane lane;
+        if (phase == FileErasureSpec.Phase.METADATA && metadataConcurrency > 0) {
+            lane = Lane.METADATA;
+        } else {
+            lane = smallFile ? Lane.SMALL : Lane.LARGE;
+        }
+        current = costs[lane.ordinal()][phase.ordinal()];
+    }
+
+    /**
+     * Finishes estimating the cost of erasing the current file.
+     */
+    void finishFile() {
+        largestFileBytesWritten = Math.max(largestFileBytesWritten, fileBytesWritten);
+        fileBytesWritten = 0;
+    }
+
+    /**
+     * Records a file system operation which would be made.
+     *
+     * @param operation the file system operation
+     */
+    public void operation(FileSystemOperation operation) {
+        operations(operation, 1);
+    }
+
+    /**
+     * Records a number of file system operations which would be made.
+     *
+     * @param operation the file system operation
+     * @param count     the number of operations
+     */
+    public void operations(FileSystemOperation operation, long count) {
+        current.operations[operation.ordinal()] += count;
+    }
+
+    /**
+     * Records bytes which would be written to the current file.
+     *
+     * @param bytes the number of bytes
+     */
+    public void write(long bytes) {
+        current.bytesWritten += bytes;
+        fileBytesWritten += bytes;
+        replicatedBytesWritten += bytes * replication;
+    }
+
+    /**
+     * Records bytes which would be read from the current file.
+     *
+     * @param bytes the number of bytes
+     */
+    public void read(long bytes) {
+        current.bytesRead += bytes;
+    }
+
+    /**
+     * Records a truncation which would wait for the last block of the file
+     * to be recovered (the status checks made while waiting should be
+     * recorded as well).
+     */
+    public void truncateRecovery() {
+        current.truncateRecoveries++;
+    }
+
+    /**
+     * Records an erasure specification which does not estimate its cost.
+     *
+     * @param spec the erasure specification
+     */
+    public void unestimated(ErasureSpec spec) {
+        unestimated.add(spec.toString());
+    }
+
+    /**
+     * Returns the number of files which would be erased.
+     *
+     * @return the number of files
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the total size in bytes of the files which would be erased.
+     *
+     * @return the total size in bytes of the files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes which would be written to files (as
+     * counted by {@link EraseListener#bytesWritten(long)}).
+     *
+     * @return the number of bytes which would be written
+     */
+    public long getBytesWritten() {
+        long total = 0;
+        for (Cost[] laneCosts : costs) {
+            for (Cost cost : laneCosts) {
+                total += cost.bytesWritten;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of bytes which would be written to DataNodes,
+     * counting each replica of each file.
+     *
+     * @return the number of bytes which would be written, with replication
+     */
+    public long getReplicatedBytesWritten() {
+        return replicatedBytesWritten;
+    }
+
+    /**
+     * Returns the number of bytes which would be read from files.
+     *
+     * @return the number of bytes which would be read
+     */
+    public long getBytesRead() {
+        long total = 0;
+        for (Cost[] laneCosts : costs) {
+            for (Cost cost : laneCosts) {
+                total += cost.bytesRead;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of times a file system operation would be made
+     * during a phase.
+     *
+     * @param phase     the phase
+     * @param operation the file system operation
+     * @return the number of operations
+     */
+    public long getOperations(FileErasureSpec.Phase phase, FileSystemOperation operation) {
+        long total = 0;
+        for (Cost[] laneCosts : costs) {
+            total += laneCosts[phase.ordinal()].operations[operation.ordinal()];
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total number of file system operations which would be made.
+     *
+     * @return the number of operations
+     */
+    public long getOperations() {
+        long total = 0;
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            for (FileSystemOperation operation : FileSystemOperation.values()) {
+                total += getOperations(phase, operation);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of truncations which would wait for block recovery
+     * during a phase.
+     *
+     * @param phase the phase
+     * @return the number of truncations waiting for block recovery
+     */
+    public long getTruncateRecoveries(FileErasureSpec.Phase phase) {
+        long total = 0;
+        for (Cost[] laneCosts : costs) {
+            total += laneCosts[phase.ordinal()].truncateRecoveries;
+        }
+        return total;
+    }
+
+    /**
+     * Returns descriptions of the erasure specifications which do not
+     * estimate their costs.
+     *
+     * @return an unmodifiable set of descriptions of erasure specifications
+     */
+    public Set<String> getUnestimatedSpecs() {
+        return Collections.unmodifiableSet(unestimated);
+    }
+
+    /**
+     * Estimates how long erasing the files would take, in nanoseconds.
+     *
+     * <p>Each lane of workers (large files, small files and metadata
+     * phases; see {@link SecureErase.Conf}) is assumed to be kept busy with
+     * its maximum number of workers, and the lanes to run alongside each
+     * other. The estimate is no less than the time taken to write the
+     * largest file, nor than the time allowed by the configured limits on
+     * bytes and operations per second.
+     *
+     * @param calibration the throughput figures with which to estimate
+     * @return the estimated duration in nanoseconds
+     */
+    public long estimateNanos(ErasureCalibration calibration) {
+        checkNotNull(calibration);
+        double nanos = 0;
+        for (Lane lane : Lane.values()) {
+            double laneNanos = 0;
+            for (Cost cost : costs[lane.ordinal()]) {
+                laneNanos += cost.nanos(calibration);
+            }
+            nanos = Math.max(nanos, laneNanos / workers(lane));
+        }
+
+        nanos = Math.max(nanos, largestFileBytesWritten * NANOS_PER_SECOND / calibration.writeBytesPerSecond());
+        if (bytesPerSecond > 0) {
+            nanos = Math.max(nanos, getBytesWritten() * NANOS_PER_SECOND / bytesPerSecond);
+        }
+        if (operationsPerSecond > 0) {
+            nanos = Math.max(nanos, getOperations() * NANOS_PER_SECOND / operationsPerSecond);
+        }
+        return (long) nanos;
+    }
+
+    /**
+     * Returns the number of workers in a lane.
+     *
+     * @param lane the lane
+     * @return the number of workers in the lane
+     */
+    private int workers(Lane lane) {
+        switch (lane) {
+            case SMALL:
+                return smallFileConcurrency;
+            case METADATA:
+                return Math.max(metadataConcurrency, 1);
+            default:
+                return concurrency;
+        }
+    }
+
+    /**
+     * Returns a human-readable report of the estimate.
+     *
+     * @param calibration the throughput figures with which to estimate the
+     *                    duration
+     * @return a human-readable report
+     */
+    public String toReport(ErasureCalibration calibration) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Would erase %d files (%d bytes)%n", files, bytes));
+        sb.append(String.format(Locale.ROOT, "Would write %d bytes (%d bytes with replication) and read %d bytes%n",
+                getBytesWritten(), replicatedBytesWritten, getBytesRead()));
+
+        sb.append(String.format("%nFile system operations:%n"));
+        sb.append(String.format(Locale.ROOT, "%-40s", ""));
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            sb.append(String.format(Locale.ROOT, " %12s", phase));
+        }
+        sb.append(String.format(Locale.ROOT, " %12s%n", "total"));
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            long total = 0;
+            StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-40s", operation));
+            for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+                long count = getOperations(phase, operation);
+                row.append(String.format(Locale.ROOT, " %12d", count));
+                total += count;
+            }
+            if (total > 0) {
+                sb.append(row).append(String.format(Locale.ROOT, " %12d%n", total));
+            }
+        }
+        StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-40s", "(truncations awaiting recovery)"));
+        long recoveries = 0;
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            long count = getTruncateRecoveries(phase);
+            row.append(String.format(Locale.ROOT, " %12d", count));
+            recoveries += count;
+        }
+        if (recoveries > 0) {
+            sb.append(row).append(String.format(Locale.ROOT, " %12d%n", recoveries));
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(estimateNanos(calibration));
+        long seconds = millis / 1000;
+        sb.append(String.format(Locale.ROOT, "%nEstimated duration: %d:%02d:%02d.%03d%n",
+                seconds / 3600, (seconds / 60) % 60, seconds % 60, millis % 1000));
+        if (!unestimated.isEmpty()) {
+            sb.append(String.format("%nNot estimated:%n"));
+            for (String spec : unestimated) {
+                sb.append("  ").append(spec).append(System.lineSeparator());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A lane of workers in which files are erased.
+     */
+    private enum Lane {
+        LARGE,
+        SMALL,
+        METADATA
+    }
+
+    /**
+     * The cost of the phases of erasing files which would run in a lane.
+     */
+    private static final class Cost {
+        private final long[] operations = new long[FileSystemOperation.values().length];
+        private long bytesWritten = 0;
+        private long bytesRead = 0;
+        private long truncateRecoveries = 0;
+
+        /**
+         * Returns the time for which a worker would be busy with this cost,
+         * in nanoseconds.
+         *
+         * @param calibration the throughput figures
+         * @return the time in nanoseconds
+         */
+        private double nanos(ErasureCalibration calibration) {
+            double nanos = bytesWritten * NANOS_PER_SECOND / calibration.writeBytesPerSecond()
+                    + bytesRead * NANOS_PER_SECOND / calibration.readBytesPerSecond()
+                    + truncateRecoveries * (double) calibration.truncateRecoveryNanos();
+            for (FileSystemOperation operation : FileSystemOperation.values()) {
+                nanos += operations[operation.ordinal()] * (double) calibration.operationNanos(operation);
+            }
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * The {@link FileSystem} handed to {@link FileErasureSpec}s by
+ * {@link SecureErase}.
+ *
+ * <p>Every NameNode operation made through this FileSystem acquires a
+ * permit from an operation {@link TokenBucket}, and every byte written
+ * to a file created through it acquires a permit from a byte TokenBucket.
+ * The duration of every operation is reported to an {@link OperationObserver},
+ * and every operation and byte written is reported to an {@link EraseListener}.
+ *
+ * <p>While a thread erases a file {@linkplain #setCurrentFile(ErasurePlan.FileState)
+ * on behalf of an EraseEngine}, renames of the file and failed operations
+ * are recorded in the file's state, so that erasing it can be retried from
+ * where it failed.
+ *
+ * <p>Where the HDFS client supports it (see {@link AsyncDfsShim}), files
+ * may also be {@linkplain #renameAsync(ErasurePlan.FileState, Path, Path)
+ * renamed asynchronously}, so that renames of several files are in flight
+ * at once over the client's connection to the NameNode.
+ *
+ * <p>Closing this FileSystem closes the underlying FileSystem only if it
+ * is owned by this FileSystem (see {@link SecureErase.Conf#REUSE_FILE_SYSTEM}).
+ */
+final class ErasureFileSystem extends FilterFileSystem {
+    private final TokenBucket byteThrottle;
+    private final TokenBucket operationThrottle;
+    private final OperationObserver observer;
+    private final EraseListener listener;
+    private final boolean ownsFileSystem;
+    private final ThreadLocal<ErasurePlan.FileState> currentFile = new ThreadLocal<>();
+    private AsyncDfsShim asyncFs;
+
+    /**
+     * Creates a new {@code ErasureFileSystem}.
+     *
+     * @param fs                the underlying FileSystem
+     * @param byteThrottle      the TokenBucket limiting bytes written
+     * @param operationThrottle the TokenBucket limiting NameNode operations
+     * @param observer          the observer of operations made through
+     *                          this FileSystem
+     * @param listener          the listener to which to report bytes written
+     * @param ownsFileSystem    whether or not to close the underlying
+     *                          FileSystem when this FileSystem is closed
+     */
+    ErasureFileSystem(FileSystem fs,
+                      TokenBucket byteThrottle,
+                      TokenBucket operationThrottle,
+                      OperationObserver observer,
+                      EraseListener listener,
+                      boolean ownsFileSystem) {
+        super(fs);
+        this.ownsFileSystem = ownsFileSystem;
+        this.byteThrottle = byteThrottle;
+        this.operationThrottle = operationThrottle;
+        this.observer = EraseListeners.observer(observer, listener);
+        this.listener = listener;
+        this.asyncFs = AsyncDfsShim.forFileSystem(fs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsFileSystem) {
+            super.close();
+        }
+    }
+
+    /**
+     * Sets the file being erased by the current thread.
+     *
+     * @param file the state of the file, or {@code null} if the current
+     *             thread is no longer erasing a file
+     */
+    void setCurrentFile(ErasurePlan.FileState file) {
+        if (file == null) {
+            currentFile.remove();
+        } else {
+            currentFile.set(file);
+        }
+    }
+
+    /**
+     * Reports a failed operation to the {@link OperationObserver}, and
+     * records it in the state of the file being erased by the current
+     * thread (if any).
+     *
+     * @param operation the operation
+     * @param e         the exception with which the operation failed
+     */
+    private void operationFailed(FileSystemOperation operation, IOException e) {
+        operationFailed(currentFile.get(), operation, e);
+    }
+
+    /**
+     * Reports a failed operation to the {@link OperationObserver}, and
+     * records it in the state of a file (if any).
+     *
+     * @param file      the state of the file, or {@code null}
+     * @param operation the operation
+     * @param e         the exception with which the operation failed
+     */
+    private void operationFailed(ErasurePlan.FileState file, FileSystemOperation operation, IOException e) {
+        if (file != null) {
+            file.operationFailed(operation);
+        }
+        observer.operationFailed(operation, e);
+    }
+
+    /**
+     * Records a rename in the state of the file being erased by the current
+     * thread (if any).
+     *
+     * @param src the source path
+     * @param dst the destination path
+     */
+    private void renamed(Path src, Path dst) {
+        ErasurePlan.FileState file = currentFile.get();
+        if (file != null) {
+            file.renamed(src, dst);
+        }
+    }
+
+    /**
+     * Ensures that a file is not left open for writing by an earlier,
+     * failed, attempt to write to it, so that it can be written again.
+     *
+     * <p>On HDFS, if the file is still open, the lease on it is recovered
+     * (which may complete asynchronously, once the DataNodes have recovered
+     * its last block). On other file systems, files are never left open.
+     *
+     * <p>Each call to recover the lease on a file restarts the recovery of
+     * its last block, so once this method returns false, callers should
+     * wait for the file to be {@linkplain #isFileClosed(Path) closed}
+     * rather than calling it again.
+     *
+     * @param f the path to the file
+     * @return true if the file is closed; false if its lease is still
+     * being recovered
+     * @throws IOException if an I/O error occurs while checking or recovering
+     *                     the lease
+     */
+    boolean recoverLease(Path f) throws IOException {
+        if (isFileClosed(f)) {
+            return true;
+        }
+        operationThrottle.acquire(1);
+        return ((DistributedFileSystem) fs).recoverLease(f);
+    }
+
+    /**
+     * Returns whether or not a file is closed. On file systems other than
+     * HDFS, files are never left open.
+     *
+     * @param f the path to the file
+     * @return true if the file is closed; false otherwise
+     * @throws IOException if an I/O error occurs while checking the file
+     */
+    boolean isFileClosed(Path f) throws IOException {
+        if (!(fs instanceof DistributedFileSystem)) {
+            return true;
+        }
+        operationThrottle.acquire(1);
+        return ((DistributedFileSystem) fs).isFileClosed(f);
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                     short replication, long blockSize, Progressable progress)
+            throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        FSDataOutputStream out;
+        try {
+            out = super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.CREATE, e);
+            throw e;
+        }
+        long created = System.nanoTime();
+        observer.operationCompleted(FileSystemOperation.CREATE, created - start);
+        return new FSDataOutputStream(new ErasureOutputStream(out, created), null);
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            FSDataInputStream in = super.open(f, bufferSize);
+            observer.operationCompleted(FileSystemOperation.OPEN, System.nanoTime() - start);
+            return in;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.OPEN, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            FileStatus status = super.getFileStatus(f);
+            observer.operationCompleted(FileSystemOperation.GET_FILE_STATUS, System.nanoTime() - start);
+            return status;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.GET_FILE_STATUS, e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This is throttled and observed as getting the status of a file,
+     * as it is what {@link #rename(Path, Path, Options.Rename...)} uses to
+     * check the source and destination on file systems other than HDFS.
+     */
+    @Override
+    public FileStatus getFileLinkStatus(Path f) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            FileStatus status = super.getFileLinkStatus(f);
+            observer.operationCompleted(FileSystemOperation.GET_FILE_STATUS, System.nanoTime() - start);
+            return status;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.GET_FILE_STATUS, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the status of a file, including the ID of its inode if the
+     * file is on HDFS.
+     *
+     * @param f the path to the file
+     * @return the status of the file (an {@link InodeFileStatus} on HDFS),
+     * or {@code null} if it does not exist
+     * @throws IOException if an I/O error occurs while getting the status
+     */
+    FileStatus getInodeStatus(Path f) throws IOException {
+        if (!(fs instanceof DistributedFileSystem)) {
+            try {
+                return getFileStatus(f);
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        Path qualified = makeQualified(f);
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        HdfsFileStatus status;
+        try {
+            status = ((DistributedFileSystem) fs).getClient().getFileInfo(qualified.toUri().getPath());
+            observer.operationCompleted(FileSystemOperation.GET_FILE_STATUS, System.nanoTime() - start);
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.GET_FILE_STATUS, e);
+            throw e;
+        }
+        if (status == null) {
+            return null;
+        }
+        return new InodeFileStatus(status.getLen(), status.isDir(), status.getReplication(), status.getBlockSize(),
+                status.getModificationTime(), status.getAccessTime(), status.getPermission(), status.getOwner(),
+                status.getGroup(), status.isSymlink() ? new Path(status.getSymlink()) : null, qualified,
+                status.getFileId());
+    }
+
+    @Override
+    public FileChecksum getFileChecksum(Path f) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            FileChecksum checksum = super.getFileChecksum(f);
+            observer.operationCompleted(FileSystemOperation.GET_FILE_CHECKSUM, System.nanoTime() - start);
+            return checksum;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.GET_FILE_CHECKSUM, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            FileStatus[] statuses = super.listStatus(f);
+            observer.operationCompleted(FileSystemOperation.LIST_STATUS, System.nanoTime() - start);
+            return statuses;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.LIST_STATUS, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean truncate(Path f, long newLength) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            boolean res = super.truncate(f, newLength);
+            observer.operationCompleted(FileSystemOperation.TRUNCATE, System.nanoTime() - start);
+            return res;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.TRUNCATE, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            boolean res = super.rename(src, dst);
+            observer.operationCompleted(FileSystemOperation.RENAME, System.nanoTime() - start);
+            if (res) {
+                renamed(src, dst);
+            }
+            return res;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.RENAME, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Renames {@code src} to {@code dst} according to the specified options.
+     *
+     * <p>On HDFS, this is a single atomic operation which fails if the
+     * destination exists (unless {@link Options.Rename#OVERWRITE} is
+     * specified); on other file systems, the source and destination are
+     * checked first, and each check (as well as the rename itself) is
+     * throttled and observed like any other operation.
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public void rename(Path src, Path dst, Options.Rename... options) throws IOException {
+        if (!(fs instanceof DistributedFileSystem)) {
+            super.rename(src, dst, options);
+            renamed(src, dst);
+            return;
+        }
+
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            ((DistributedFileSystem) fs).rename(src, dst, options);
+            observer.operationCompleted(FileSystemOperation.RENAME, System.nanoTime() - start);
+            renamed(src, dst);
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.RENAME, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether or not files can be
+     * {@linkplain #renameAsync(ErasurePlan.FileState, Path, Path) renamed
+     * asynchronously}, which requires the underlying FileSystem to be HDFS,
+     * and the version of Hadoop on the classpath to support it.
+     *
+     * @return true if files can be renamed asynchronously; false otherwise
+     */
+    boolean supportsAsyncRename() {
+        return asyncFs != null;
+    }
+
+    /**
+     * Sets the shim through which to rename files asynchronously.
+     *
+     * @param asyncFs the shim, or {@code null} to rename files synchronously
+     */
+    @VisibleForTesting
+    void setAsyncFs(AsyncDfsShim asyncFs) {
+        this.asyncFs = asyncFs;
+    }
+
+    /**
+     * Starts renaming a file to a destination which must not exist, without
+     * waiting for the NameNode to reply. The rename is throttled like any
+     * other operation when it is sent, and observed (and, if it succeeds,
+     * recorded in the state of the file) once it has been
+     * {@linkplain PendingRename#await() waited for}.
+     *
+     * @param file the state of the file
+     * @param src  the current path to the file
+     * @param dst  the destination path
+     * @return the rename, which must be waited for
+     * @throws IllegalStateException if files cannot be renamed asynchronously
+     * @throws IOException           if an I/O error occurs while sending the
+     *                               rename
+     */
+    PendingRename renameAsync(ErasurePlan.FileState file, Path src, Path dst)
+            throws IllegalStateException, IOException {
+        checkState(asyncFs != null, "Asynchronous renames are not supported");
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            return new PendingRename(file, src, dst, asyncFs.rename(src, dst, Options.Rename.NONE), start);
+        } catch (IOException e) {
+            operationFailed(file, FileSystemOperation.RENAME, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        operationThrottle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            boolean res = super.delete(f, recursive);
+            observer.operationCompleted(FileSystemOperation.DELETE, System.nanoTime() - start);
+            return res;
+        } catch (IOException e) {
+            operationFailed(FileSystemOperation.DELETE, e);
+            throw e;
+        }
+    }
+
+    /**
+     * A rename which has been sent to the NameNode, but whose reply may
+     * not yet have been received.
+     */
+    final class PendingRename {
+        private final ErasurePlan.FileState file;
+        private final Path src;
+        private final Path dst;
+        private final Future<Void> future;
+        private final long startNanos;
+
+        private PendingRename(ErasurePlan.FileState file, Path src, Path dst, Future<Void> future, long startNanos) {
+            this.file = file;
+            this.src = src;
+            this.dst = dst;
+            this.future = future;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Waits for the NameNode to reply to this rename.
+         *
+         * @return true if the file was renamed; false if the destination
+         * already exists
+         * @throws IOException if the rename failed for any other reason, or
+         *                     if interrupted while waiting
+         */
+        boolean await() throws IOException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException(
+                        "Interrupted while waiting for file to be renamed").initCause(e);
+            } catch (ExecutionException e) {
+                IOException failure = unwrap(e.getCause());
+                operationFailed(file, FileSystemOperation.RENAME, failure);
+                if (failure instanceof FileAlreadyExistsException) {
+                    return false;
+                }
+                throw failure;
+            }
+            observer.operationCompleted(FileSystemOperation.RENAME, System.nanoTime() - startNanos);
+            file.renamed(src, dst);
+            return true;
+        }
+
+        private IOException unwrap(Throwable cause) {
+            if (cause instanceof RemoteException) {
+                return ((RemoteException) cause).unwrapRemoteException();
+            } else if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+            return new IOException("Failed to rename '" + src + "' to '" + dst + "'", cause);
+        }
+    }
+
+    /**
+     * An OutputStream which acquires a permit from the byte
+     * {@link TokenBucket} for every byte written, reports bytes written
+     * to the {@link EraseListener}, and reports its closing to the
+     * {@link OperationObserver}.
+     *
+     * <p>Large writes are throttled (and written) in chunks of at most
+     * {@value #THROTTLE_CHUNK_SIZE} bytes, so that throttled bytes are
+     * written steadily rather than in bursts the size of a write buffer.
+     *
+     * <p>{@link Syncable} and {@link CanSetDropBehind} are forwarded to the
+     * underlying stream, so that specs which hflush or hsync files get the
+     * durability they ask for.
+     */
+    private final class ErasureOutputStream extends FilterOutputStream implements Syncable, CanSetDropBehind {
+        private static final int THROTTLE_CHUNK_SIZE = 64 * 1024;
+
+        private final FSDataOutputStream out;
+        private final long openedNanos;
+        private long bytesWritten = 0;
+        private long writeNanos = 0;
+        private long throttledNanos = 0;
+        private boolean closed = false;
+
+        private ErasureOutputStream(FSDataOutputStream out, long openedNanos) {
+            super(out);
+            this.out = out;
+            this.openedNanos = openedNanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle(1);
+            long start = System.nanoTime();
+            out.write(b);
+            writeNanos += System.nanoTime() - start;
+            bytesWritten++;
+            listener.bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int end = off + len; off < end; ) {
+                int chunk = Math.min(end - off, THROTTLE_CHUNK_SIZE);
+                throttle(chunk);
+                long start = System.nanoTime();
+                out.write(b, off, chunk);
+                writeNanos += System.nanoTime() - start;
+                bytesWritten += chunk;
+                listener.bytesWritten(chunk);
+                off += chunk;
+            }
+        }
+
+        /**
+         * Acquires permits from the byte {@link TokenBucket}, recording the
+         * time spent waiting for them.
+         *
+         * @param bytes the number of bytes about to be written
+         * @throws InterruptedIOException if interrupted while waiting
+         */
+        private void throttle(int bytes) throws InterruptedIOException {
+            long start = System.nanoTime();
+            byteThrottle.acquire(bytes);
+            throttledNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        @Deprecated
+        public void sync() throws IOException {
+            hflush();
+        }
+
+        @Override
+        public void hflush() throws IOException {
+            out.hflush();
+        }
+
+        @Override
+        public void hsync() throws IOException {
+            out.hsync();
+        }
+
+        @Override
+        public void setDropBehind(Boolean dropCache) throws IOException {
+            out.setDropBehind(dropCache);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            long start = System.nanoTime();
+            try {
+                out.close();
+            } catch (IOException e) {
+                operationFailed(FileSystemOperation.CLOSE, e);
+                throw e;
+            }
+            long end = System.nanoTime();
+            observer.operationCompleted(FileSystemOperation.CLOSE, end - start);
+            observer.streamClosed(bytesWritten, end - openedNanos, writeNanos, throttledNanos);
+        }
+    }
+}
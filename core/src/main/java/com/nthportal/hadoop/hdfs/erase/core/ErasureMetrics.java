@@ -0,0 +1,206 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.MetricsSystem;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EraseListener} which publishes metrics for erasing files
+ * through the Hadoop metrics system (metrics2), and therefore also as a
+ * JMX MBean ({@code Hadoop:service=SecureErase,name=SecureErase}).
+ *
+ * <p>The metrics published are:
+ * <ul>
+ *     <li>the number of bytes written while overwriting files</li>
+ *     <li>the number of files erased, failed and aborted</li>
+ *     <li>for each {@linkplain FileErasureSpec.Phase phase}, the number of
+ *     files for which it completed and failed</li>
+ *     <li>the number of overwrite passes, and their durations</li>
+ *     <li>for each {@linkplain FileSystemOperation file system operation},
+ *     the number of operations which completed and failed, and their
+ *     latencies</li>
+ * </ul>
+ *
+ * <p>Durations are published as their mean, 50th, 90th and 99th percentiles,
+ * and maximum, in microseconds; like counters, they cover everything since
+ * the metrics were registered. Durations are recorded in lock-free
+ * histograms (see {@link LatencyHistogram}), so that recording them adds
+ * little cost to erasing files from many threads at once.
+ *
+ * <p>There is a single instance of this class per JVM, shared by every
+ * {@link SecureErase} configured to publish metrics
+ * (see {@link SecureErase.Conf#METRICS}).
+ */
+public final class ErasureMetrics extends EraseListener implements MetricsSource {
+    private static final String PREFIX = "SecureErase";
+    private static final String SOURCE_NAME = "SecureErase";
+    private static final String CONTEXT = "secureerase";
+    private static final MetricsInfo RECORD_INFO = Interns.info("SecureErase", "Secure erasure of HDFS files");
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private final StripedCounter bytesWritten = new StripedCounter();
+    private final AtomicLong filesErased = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong filesAborted = new AtomicLong();
+    private final Map<FileErasureSpec.Phase, AtomicLong> phasesCompleted = new EnumMap<>(FileErasureSpec.Phase.class);
+    private final Map<FileErasureSpec.Phase, AtomicLong> phasesFailed = new EnumMap<>(FileErasureSpec.Phase.class);
+    private final LatencyHistogram passDurations = new LatencyHistogram();
+    private final Map<FileSystemOperation, LatencyHistogram> operationLatencies =
+            new EnumMap<>(FileSystemOperation.class);
+    private final Map<FileSystemOperation, AtomicLong> operationFailures = new EnumMap<>(FileSystemOperation.class);
+
+    private ErasureMetrics() {
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            phasesCompleted.put(phase, new AtomicLong());
+            phasesFailed.put(phase, new AtomicLong());
+        }
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            operationLatencies.put(operation, new LatencyHistogram());
+            operationFailures.put(operation, new AtomicLong());
+        }
+    }
+
+    /**
+     * Lazy initialization for the instance.
+     */
+    private static class Holder {
+        private static final ErasureMetrics instance = register();
+
+        private static ErasureMetrics register() {
+            MetricsSystem metricsSystem = DefaultMetricsSystem.initialize(PREFIX);
+            return metricsSystem.register(SOURCE_NAME, RECORD_INFO.description(), new ErasureMetrics());
+        }
+    }
+
+    /**
+     * Returns the instance of {@code ErasureMetrics}, registering it with
+     * the metrics system (and initializing the metrics system, if this JVM
+     * has not already done so) the first time it is called.
+     *
+     * @return the instance of ErasureMetrics
+     */
+    public static ErasureMetrics get() {
+        return Holder.instance;
+    }
+
+    @Override
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void passCompleted(long bytes, long nanos, long writeNanos) {
+        passDurations.record(nanos);
+    }
+
+    @Override
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {
+        (failure == null ? phasesCompleted : phasesFailed).get(phase).incrementAndGet();
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        operationLatencies.get(operation).record(nanos);
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        operationFailures.get(operation).incrementAndGet();
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        switch (result.getStatus()) {
+            case ERASED:
+                filesErased.incrementAndGet();
+                break;
+            case FAILED:
+                filesFailed.incrementAndGet();
+                break;
+            case ABORTED:
+                filesAborted.incrementAndGet();
+                break;
+        }
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+        MetricsRecordBuilder record = collector.addRecord(RECORD_INFO).setContext(CONTEXT);
+        record.addCounter(Interns.info("BytesWritten", "Bytes written while overwriting files"), bytesWritten.sum())
+                .addCounter(Interns.info("FilesErased", "Files erased successfully"), filesErased.get())
+                .addCounter(Interns.info("FilesFailed", "Files which failed to be erased"), filesFailed.get())
+                .addCounter(Interns.info("FilesAborted", "Files not erased because another file failed"),
+                        filesAborted.get());
+
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            String name = camelCase(phase.name());
+            record.addCounter(Interns.info(name + "PhasesCompleted", "Files whose " + phase + " phase completed"),
+                    phasesCompleted.get(phase).get())
+                    .addCounter(Interns.info(name + "PhasesFailed", "Files whose " + phase + " phase failed"),
+                            phasesFailed.get(phase).get());
+        }
+
+        addDurations(record, "Pass", "overwrite passes", passDurations);
+
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            String name = camelCase(operation.name());
+            addDurations(record, name, operation + " operations", operationLatencies.get(operation));
+            record.addCounter(Interns.info(name + "Failures", "Number of failed " + operation + " operations"),
+                    operationFailures.get(operation).get());
+        }
+    }
+
+    /**
+     * Adds the count and durations recorded in a histogram to a record.
+     *
+     * @param record      the record
+     * @param name        the prefix of the names of the metrics
+     * @param description a description of what the histogram records
+     * @param histogram   the histogram
+     */
+    private static void addDurations(MetricsRecordBuilder record,
+                                     String name,
+                                     String description,
+                                     LatencyHistogram histogram) {
+        record.addCounter(Interns.info(name + "NumOps", "Number of " + description), histogram.count())
+                .addGauge(Interns.info(name + "AvgTimeMicros", "Mean duration of " + description),
+                        histogram.mean() / NANOS_PER_MICRO);
+        for (int percentile : PERCENTILES) {
+            record.addGauge(Interns.info(name + percentile + "thPercentileTimeMicros",
+                    percentile + "th percentile duration of " + description),
+                    histogram.percentile(percentile) / NANOS_PER_MICRO);
+        }
+        record.addGauge(Interns.info(name + "MaxTimeMicros", "Maximum duration of " + description),
+                histogram.max() / NANOS_PER_MICRO);
+    }
+
+    /**
+     * Converts the name of a constant to upper camel case
+     * (for example, {@code GET_FILE_STATUS} to {@code GetFileStatus}).
+     *
+     * @param constant the name of the constant
+     * @return the name in upper camel case
+     */
+    private static String camelCase(String constant) {
+        StringBuilder sb = new StringBuilder(constant.length());
+        for (String word : constant.split("_")) {
+            if (!word.isEmpty()) {
+                sb.append(word.charAt(0)).append(word.substring(1).toLowerCase(Locale.ROOT));
+            }
+        }
+        return sb.toString();
+    }
+}
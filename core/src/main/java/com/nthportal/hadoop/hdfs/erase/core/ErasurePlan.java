@@ -0,0 +1,788 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * A flat, immutable plan for erasing files, compiled from a (possibly
+ * combined) {@link FileErasureSpec}.
+ *
+ * <p>Combining erasure specifications with {@code andThen} and
+ * {@code repeated} builds a tree, which would otherwise be walked
+ * recursively for every file erased. Compiling it flattens the tree into a
+ * list of {@linkplain Step steps}, in order:
+ * <ul>
+ *     <li>consecutive {@link OutputStreamErasureSpec}s (such as the
+ *     overwrite passes for a list of byte patterns) become a single
+ *     {@link Kind#OVERWRITE} step, which gets the status of the file once
+ *     and shares its length and block size between all of its passes,
+ *     rather than once per pass</li>
+ *     <li>a {@linkplain FileErasureSpec#isTerminal() terminal}
+ *     FileErasureSpec (such as one truncating, renaming and deleting the
+ *     file) becomes a {@link Kind#DELETE} step</li>
+ *     <li>any other FileErasureSpec (such as one verifying the file)
+ *     becomes a {@link Kind#FILE} step</li>
+ * </ul>
+ * Repetitions are kept as counts on steps, rather than being expanded,
+ * where a single step is repeated.
+ *
+ * <p>{@link SecureErase} compiles the specification with which it erases
+ * files; {@link #explain()} describes the resulting plan, and
+ * {@link #estimate(FileStatus, ErasureEstimate)} estimates its cost.
+ */
+public final class ErasurePlan {
+    private static final Logger logger = Logger.getLogger(ErasurePlan.class);
+
+    private final List<Step> steps;
+
+    private ErasurePlan(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    /**
+     * Compiles a {@link FileErasureSpec} into a plan.
+     *
+     * @param spec the FileErasureSpec to compile
+     * @return a plan which erases files as the FileErasureSpec does
+     * @throws NullPointerException if the FileErasureSpec is null
+     */
+    public static ErasurePlan compile(FileErasureSpec spec) throws NullPointerException {
+        checkNotNull(spec);
+        Builder builder = new Builder();
+        spec.addSteps(builder);
+        return new ErasurePlan(builder.steps);
+    }
+
+    /**
+     * Returns the steps of this plan, in order.
+     *
+     * @return an unmodifiable list of the steps of this plan
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the number of passes over the whole of a file made by the
+     * {@link Kind#OVERWRITE} steps of this plan.
+     *
+     * @return the number of overwrite passes of this plan
+     */
+    int overwritePasses() {
+        int passes = 0;
+        for (Step step : steps) {
+            passes += step.overwritePasses();
+        }
+        return passes;
+    }
+
+    /**
+     * Erases a file by executing each step of this plan in turn.
+     *
+     * @param fs   the file system on which the file resides
+     * @param path the path to the file
+     * @throws IOException if an I/O error occurs during the file erasure
+     */
+    public void eraseFile(FileSystem fs, Path path) throws IOException {
+        new FileState(path).execute(fs, steps);
+    }
+
+    /**
+     * Estimates the cost of erasing a file with this plan, without
+     * modifying the file.
+     *
+     * @param file     the status of the file
+     * @param estimate the estimate to which to add the cost
+     */
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.startFile(file);
+        for (Step step : steps) {
+            estimate.startPhase(step.getPhase());
+            step.estimate(file, estimate);
+        }
+        estimate.finishFile();
+    }
+
+    /**
+     * Returns a human-readable description of this plan, with one line
+     * per step.
+     *
+     * @return a description of this plan
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder("Erasure plan (")
+                .append(steps.size()).append(steps.size() == 1 ? " step)" : " steps)");
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            sb.append(System.lineSeparator()).append(String.format(Locale.ROOT, "%3d. %-9s %-8s %s",
+                    i + 1, step.getKind(), step.getPhase(), step));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    /**
+     * The kind of a {@link Step}.
+     */
+    public enum Kind {
+        /**
+         * One or more passes of {@link OutputStreamErasureSpec}s, such as
+         * overwrites.
+         */
+        OVERWRITE,
+        /**
+         * A {@link FileErasureSpec} which is not terminal, such as one
+         * verifying the file.
+         */
+        FILE,
+        /**
+         * A terminal {@link FileErasureSpec}, which deletes the file (and
+         * may first truncate and rename it).
+         */
+        DELETE
+    }
+
+    /**
+     * A step of an {@link ErasurePlan}.
+     */
+    public abstract static class Step {
+        private Step() {
+        }
+
+        /**
+         * Returns the kind of this step.
+         *
+         * @return the kind of this step
+         */
+        public abstract Kind getKind();
+
+        /**
+         * Returns the phase of erasure which this step performs.
+         *
+         * @return the phase of erasure which this step performs
+         */
+        public abstract FileErasureSpec.Phase getPhase();
+
+        /**
+         * Executes this step on a file.
+         *
+         * @param fs   the file system on which the file resides
+         * @param file the state of the file shared between steps
+         * @throws IOException if an I/O error occurs while executing this step
+         */
+        abstract void execute(FileSystem fs, FileState file) throws IOException;
+
+        /**
+         * Estimates the cost of executing this step on a file.
+         *
+         * @param file     the status of the file
+         * @param estimate the estimate to which to add the cost
+         */
+        abstract void estimate(FileStatus file, ErasureEstimate estimate);
+
+        /**
+         * Returns the number of passes over the whole of a file which this
+         * step makes to overwrite it.
+         *
+         * @return the number of overwrite passes of this step
+         */
+        int overwritePasses() {
+            return 0;
+        }
+
+        /**
+         * Returns whether or not this step can be
+         * {@linkplain FileState#executeAll(ErasureFileSystem, List, List)
+         * executed on several files at once}, pipelining their renames.
+         *
+         * @return true if this step pipelines renames; false otherwise
+         */
+        boolean pipelinesRenames() {
+            return false;
+        }
+
+        /**
+         * Returns a step which executes this step the specified number of
+         * times.
+         *
+         * @param times the number of times to execute this step
+         * @return a step which repeats this step
+         */
+        abstract Step repeated(int times);
+
+        /**
+         * Returns a step which executes this step and then the specified
+         * step, or {@code null} if the two cannot be combined.
+         *
+         * @param next the step to execute after this one
+         * @return the combined step, or null
+         */
+        abstract Step merge(Step next);
+    }
+
+    /**
+     * An {@link OutputStreamErasureSpec} executed one or more times in a
+     * row.
+     */
+    private static final class Pass {
+        private final OutputStreamErasureSpec spec;
+        private final int times;
+
+        private Pass(OutputStreamErasureSpec spec, int times) {
+            this.spec = spec;
+            this.times = times;
+        }
+
+        @Override
+        public String toString() {
+            return (times == 1) ? spec.toString() : times + " x " + spec;
+        }
+    }
+
+    /**
+     * A step which executes passes of {@link OutputStreamErasureSpec}s,
+     * each writing over the whole file.
+     */
+    private static final class OverwriteStep extends Step {
+        private final List<Pass> passes;
+        private final boolean logging;
+
+        private OverwriteStep(List<Pass> passes, boolean logging) {
+            this.passes = Collections.unmodifiableList(passes);
+            this.logging = logging;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.OVERWRITE;
+        }
+
+        @Override
+        public FileErasureSpec.Phase getPhase() {
+            return FileErasureSpec.Phase.DATA;
+        }
+
+        @Override
+        void execute(final FileSystem fs, final FileState file) throws IOException {
+            file.resolve(fs);
+            SizedOutputStreamProvider provider = new SizedOutputStreamProvider() {
+                @Override
+                public SizedOutputStream get() throws IOException {
+                    SizedOutputStream stream = new SizedOutputStream(fs.create(file.path), file.length);
+                    // The file now has the default block size, as it would if its status were fetched again
+                    file.blockSize = FileErasureSpec.intBlockSize(fs.getDefaultBlockSize(file.path));
+                    return stream;
+                }
+            };
+
+            // Skip the passes which have already been made, when resuming the step
+            int pass = 0;
+            for (Pass p : passes) {
+                for (int i = 0; i < p.times; i++, pass++) {
+                    if (pass < file.repetition) {
+                        continue;
+                    }
+                    if (logging) {
+                        logger.info("Erasing file '" + file.path + "' with " + p.spec);
+                    }
+                    p.spec.erase(provider, file.blockSize);
+                    file.completeRepetition();
+                }
+            }
+        }
+
+        @Override
+        void estimate(FileStatus file, ErasureEstimate estimate) {
+            estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+            for (Pass pass : passes) {
+                for (int i = 0; i < pass.times; i++) {
+                    pass.spec.estimate(file.getLen(), estimate);
+                }
+            }
+        }
+
+        @Override
+        int overwritePasses() {
+            int count = 0;
+            for (Pass pass : passes) {
+                count += pass.times;
+            }
+            return count;
+        }
+
+        @Override
+        Step repeated(int times) {
+            if (passes.size() == 1) {
+                Pass pass = passes.get(0);
+                return new OverwriteStep(Collections.singletonList(new Pass(pass.spec, pass.times * times)), logging);
+            }
+            List<Pass> repeated = new ArrayList<>(passes.size() * times);
+            for (int i = 0; i < times; i++) {
+                repeated.addAll(passes);
+            }
+            return new OverwriteStep(repeated, logging);
+        }
+
+        @Override
+        Step merge(Step next) {
+            if (!(next instanceof OverwriteStep)) {
+                return null;
+            }
+            List<Pass> merged = new ArrayList<>(passes);
+            for (Pass pass : ((OverwriteStep) next).passes) {
+                Pass last = merged.get(merged.size() - 1);
+                if (last.spec.equals(pass.spec)) {
+                    merged.set(merged.size() - 1, new Pass(last.spec, last.times + pass.times));
+                } else {
+                    merged.add(pass);
+                }
+            }
+            return new OverwriteStep(merged, logging || ((OverwriteStep) next).logging);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Pass pass : passes) {
+                if (sb.length() > 0) {
+                    sb.append(", then ");
+                }
+                sb.append(pass);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A step which executes a {@link FileErasureSpec} one or more times.
+     */
+    private static final class FileStep extends Step {
+        private final FileErasureSpec spec;
+        private final int times;
+
+        private FileStep(FileErasureSpec spec, int times) {
+            this.spec = spec;
+            this.times = times;
+        }
+
+        @Override
+        public Kind getKind() {
+            return spec.isTerminal() ? Kind.DELETE : Kind.FILE;
+        }
+
+        @Override
+        public FileErasureSpec.Phase getPhase() {
+            return spec.getPhase();
+        }
+
+        @Override
+        void execute(FileSystem fs, FileState file) throws IOException {
+            try {
+                for (int i = file.repetition; i < times; i++) {
+                    spec.eraseFile(fs, file.path);
+                    file.completeRepetition();
+                }
+            } finally {
+                // The spec may have changed the file in any way, even if it failed
+                file.invalidate();
+            }
+        }
+
+        @Override
+        void estimate(FileStatus file, ErasureEstimate estimate) {
+            for (int i = 0; i < times; i++) {
+                spec.estimate(file, estimate);
+            }
+        }
+
+        @Override
+        boolean pipelinesRenames() {
+            return spec instanceof RenamingDeletionSpec && times == 1;
+        }
+
+        /**
+         * Executes this step on several files at once, each of which is
+         * started and finished in turn, while their renames are made in
+         * rounds, with the next rename of every file still being renamed
+         * in flight at once.
+         *
+         * @param fs       the file system on which the files reside
+         * @param files    the states of the files
+         * @param failures the exception with which this step failed for each
+         *                 file, to which failures are added
+         */
+        private void executeAll(ErasureFileSystem fs, List<FileState> files, Throwable[] failures) {
+            RenamingDeletionSpec renamingSpec = (RenamingDeletionSpec) spec;
+            RenamingDeletionSpec.Renames[] renames = new RenamingDeletionSpec.Renames[files.size()];
+            List<Integer> renaming = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                if (failures[i] == null) {
+                    fs.setCurrentFile(files.get(i));
+                    try {
+                        renames[i] = renamingSpec.startErasing(fs, files.get(i).path);
+                        renaming.add(i);
+                    } catch (Throwable t) {
+                        failures[i] = t;
+                    } finally {
+                        fs.setCurrentFile(null);
+                    }
+                }
+            }
+
+            while (!renaming.isEmpty()) {
+                Map<Integer, ErasureFileSystem.PendingRename> round = new LinkedHashMap<>();
+                List<Integer> next = new ArrayList<>();
+                try {
+                    for (int i : renaming) {
+                        Path dst;
+                        try {
+                            dst = renames[i].next();
+                        } catch (IOException e) {
+                            failures[i] = e;
+                            continue;
+                        }
+                        if (dst != null) {
+                            try {
+                                round.put(i, fs.renameAsync(files.get(i), renames[i].getPath(), dst));
+                            } catch (InterruptedIOException e) {
+                                throw e;
+                            } catch (IOException e) {
+                                renames[i].failed(e);
+                                next.add(i);
+                            }
+                        }
+                    }
+                    for (Map.Entry<Integer, ErasureFileSystem.PendingRename> entry : round.entrySet()) {
+                        int i = entry.getKey();
+                        try {
+                            renames[i].completed(entry.getValue().await());
+                        } catch (InterruptedIOException e) {
+                            throw e;
+                        } catch (IOException e) {
+                            renames[i].failed(e);
+                        }
+                        next.add(i);
+                    }
+                } catch (InterruptedIOException e) {
+                    for (int i : renaming) {
+                        if (failures[i] == null) {
+                            failures[i] = e;
+                        }
+                    }
+                    break;
+                }
+                renaming = next;
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                FileState file = files.get(i);
+                if (failures[i] == null) {
+                    fs.setCurrentFile(file);
+                    try {
+                        renamingSpec.finishErasing(fs, renames[i].getPath());
+                        file.completeRepetition();
+                    } catch (Throwable t) {
+                        failures[i] = t;
+                    } finally {
+                        fs.setCurrentFile(null);
+                    }
+                }
+                file.invalidate();
+            }
+        }
+
+        @Override
+        Step repeated(int times) {
+            return new FileStep(spec, this.times * times);
+        }
+
+        @Override
+        Step merge(Step next) {
+            if (next instanceof FileStep && spec.equals(((FileStep) next).spec)) {
+                return new FileStep(spec, times + ((FileStep) next).times);
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return (times == 1) ? spec.toString() : times + " x " + spec;
+        }
+    }
+
+    /**
+     * Builds the steps of a plan from a tree of erasure specifications.
+     *
+     * @see FileErasureSpec#addSteps(Builder)
+     * @see OutputStreamErasureSpec#addSteps(Builder, boolean)
+     */
+    static final class Builder {
+        private final List<Step> steps = new ArrayList<>();
+
+        /**
+         * Adds a {@link FileErasureSpec} which does not combine others.
+         *
+         * @param spec the FileErasureSpec
+         */
+        void addSpec(FileErasureSpec spec) {
+            add(new FileStep(spec, 1));
+        }
+
+        /**
+         * Adds a pass of an {@link OutputStreamErasureSpec} which does not
+         * combine others.
+         *
+         * @param spec    the OutputStreamErasureSpec
+         * @param logging whether or not to log each pass
+         */
+        void addPass(OutputStreamErasureSpec spec, boolean logging) {
+            add(new OverwriteStep(Collections.singletonList(new Pass(spec, 1)), logging));
+        }
+
+        /**
+         * Adds the steps of another builder, repeated the specified number
+         * of times.
+         *
+         * @param builder the other builder
+         * @param times   the number of times to repeat its steps
+         */
+        void addRepeated(Builder builder, int times) {
+            if (builder.steps.size() == 1) {
+                add(builder.steps.get(0).repeated(times));
+                return;
+            }
+            for (int i = 0; i < times; i++) {
+                for (Step step : builder.steps) {
+                    add(step);
+                }
+            }
+        }
+
+        private void add(Step step) {
+            if (!steps.isEmpty()) {
+                Step merged = steps.get(steps.size() - 1).merge(step);
+                if (merged != null) {
+                    steps.set(steps.size() - 1, merged);
+                    return;
+                }
+            }
+            steps.add(step);
+        }
+    }
+
+    /**
+     * The state of a file being erased, shared between the steps of a plan
+     * (including steps run on different threads, one after another).
+     *
+     * <p>The state records how far through a list of steps erasing the file
+     * has got, down to the pass (or repetition) of the current step, so
+     * that a failed list of steps can be {@linkplain #execute(FileSystem, List)
+     * executed again} from the pass which failed rather than from the start.
+     * It also follows the file as it is renamed through an
+     * {@link ErasureFileSystem}, so that it is resumed at its current path.
+     */
+    static final class FileState {
+        private Path path;
+        private long length = -1;
+        private int blockSize;
+        private int step = 0;
+        private int repetition = 0;
+        private int retries = 0;
+        private FileSystemOperation failedOperation;
+
+        FileState(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Executes a list of steps on the file, starting from the step (and
+         * pass) at which executing it last stopped. Once every step has been
+         * executed, the state is reset for the next list of steps.
+         *
+         * @param fs    the file system on which the file resides
+         * @param steps the steps to execute
+         * @throws IOException if an I/O error occurs while executing a step
+         */
+        void execute(FileSystem fs, List<Step> steps) throws IOException {
+            failedOperation = null;
+            for (; step < steps.size(); step++) {
+                steps.get(step).execute(fs, this);
+                repetition = 0;
+            }
+            step = 0;
+        }
+
+        /**
+         * Executes a list of steps on several files at once, as
+         * {@link #execute(FileSystem, List)} would on each of them, while
+         * keeping renames of different files in flight together. The list
+         * must consist of a single step which
+         * {@linkplain Step#pipelinesRenames() pipelines renames}.
+         *
+         * @param fs    the file system on which the files reside, which must
+         *              {@linkplain ErasureFileSystem#supportsAsyncRename()
+         *              support asynchronous renames}
+         * @param steps the steps to execute
+         * @param files the states of the files
+         * @return the exception with which executing the steps failed for
+         * each file, or {@code null} for each file on which they were
+         * executed
+         * @throws IllegalArgumentException if the steps do not pipeline renames
+         */
+        static Throwable[] executeAll(ErasureFileSystem fs, List<Step> steps, List<FileState> files)
+                throws IllegalArgumentException {
+            checkArgument(steps.size() == 1 && steps.get(0).pipelinesRenames(),
+                    "Steps do not pipeline renames: %s", steps);
+            List<FileState> executing = new ArrayList<>();
+            for (FileState file : files) {
+                file.failedOperation = null;
+                // The step may already have been skipped when preparing to retry it
+                if (file.step == 0) {
+                    executing.add(file);
+                }
+            }
+
+            Throwable[] executingFailures = new Throwable[executing.size()];
+            ((FileStep) steps.get(0)).executeAll(fs, executing, executingFailures);
+
+            Throwable[] failures = new Throwable[files.size()];
+            for (int i = 0, j = 0; i < files.size(); i++) {
+                FileState file = files.get(i);
+                if (file.step == 0) {
+                    failures[i] = executingFailures[j++];
+                }
+                if (failures[i] == null) {
+                    file.step = 0;
+                    file.repetition = 0;
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * Returns the current path to the file.
+         *
+         * @return the current path to the file
+         */
+        Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the index of the step at which executing a list of steps
+         * will resume.
+         *
+         * @return the index of the current step
+         */
+        int currentStep() {
+            return step;
+        }
+
+        /**
+         * Skips the current step, for example because its effect has already
+         * been achieved.
+         */
+        void skipStep() {
+            step++;
+            repetition = 0;
+        }
+
+        /**
+         * Returns the number of times erasing the file has been retried
+         * since it last made progress.
+         *
+         * @return the number of retries since the file last made progress
+         */
+        int retries() {
+            return retries;
+        }
+
+        /**
+         * Records a retry of erasing the file.
+         *
+         * @return the number of retries since the file last made progress,
+         * including this one
+         */
+        int retry() {
+            return ++retries;
+        }
+
+        /**
+         * Returns the operation whose failure last caused a step to fail,
+         * if known.
+         *
+         * @return the operation which last failed, or {@code null}
+         */
+        FileSystemOperation failedOperation() {
+            return failedOperation;
+        }
+
+        /**
+         * Records a failed operation on the file.
+         *
+         * @param operation the operation
+         */
+        void operationFailed(FileSystemOperation operation) {
+            failedOperation = operation;
+        }
+
+        /**
+         * Records that the file has been renamed.
+         *
+         * @param src the path from which a file was renamed
+         * @param dst the path to which the file was renamed
+         */
+        void renamed(Path src, Path dst) {
+            if (path.equals(src)) {
+                path = dst;
+            }
+        }
+
+        /**
+         * Records that a pass (or repetition) of the current step has
+         * finished successfully.
+         */
+        private void completeRepetition() {
+            repetition++;
+            retries = 0;
+        }
+
+        /**
+         * Gets the status of the file, unless it is already known.
+         *
+         * @param fs the file system on which the file resides
+         * @throws IOException if an I/O error occurs while getting the status
+         */
+        private void resolve(FileSystem fs) throws IOException {
+            if (length < 0) {
+                FileStatus status = fs.getFileStatus(path);
+                length = status.getLen();
+                blockSize = FileErasureSpec.intBlockSize(status.getBlockSize());
+            }
+        }
+
+        /**
+         * Forgets the status of the file, after a step which may have changed it.
+         */
+        private void invalidate() {
+            length = -1;
+        }
+    }
+}
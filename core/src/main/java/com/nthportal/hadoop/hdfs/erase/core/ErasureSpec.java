@@ -35,6 +35,19 @@ abstract class ErasureSpec extends NonNullConfigured {
         return loggingEnabled;
     }
 
+    /**
+     * Returns a short description of this {@code ErasureSpec}, such as
+     * "overwrite with random bytes", for describing
+     * {@linkplain ErasurePlan#explain() erasure plans}. By default, this is
+     * the simple name of its class.
+     *
+     * @return a short description of this ErasureSpec
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
     /**
      * Requires that this {@code ErasureSpec} is not terminal.
      *
@@ -0,0 +1,473 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EraseListener} which breaks down where the time spent erasing
+ * files went, for reporting at the end of a run.
+ *
+ * <p>Time is broken down by:
+ * <ul>
+ *     <li>{@linkplain FileErasureSpec.Phase phase}</li>
+ *     <li>{@linkplain FileSystemOperation file system operation} (such as
+ *     creating, closing, truncating and renaming files), and time spent
+ *     writing to files</li>
+ *     <li>erasure specification: every {@link FileErasureSpec} and
+ *     {@link OutputStreamErasureSpec} in a {@linkplain #timed(FileErasureSpec)
+ *     timed} specification. The time spent in each specification is split
+ *     into time spent in file system operations and writes made by it, and
+ *     the remainder (for example, generating bytes with which to overwrite
+ *     files, or waiting for truncated blocks to be recovered).</li>
+ * </ul>
+ *
+ * <p>The breakdown is available as {@linkplain #toReport() human-readable
+ * text} and as {@linkplain #toJson() JSON}.
+ */
+public final class ErasureStats extends EraseListener {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<FileErasureSpec.Phase, Timer> phases = new EnumMap<>(FileErasureSpec.Phase.class);
+    private final Map<FileSystemOperation, Timer> operations = new EnumMap<>(FileSystemOperation.class);
+    private final Timer writes = new Timer();
+    private final Timer passes = new Timer();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final List<SpecTimer> specs = new ArrayList<>();
+    private final ThreadLocal<SpecTimer.Invocation> currentInvocation = new ThreadLocal<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+
+    /**
+     * Creates a new {@code ErasureStats}.
+     */
+    public ErasureStats() {
+        for (FileErasureSpec.Phase phase : FileErasureSpec.Phase.values()) {
+            phases.put(phase, new Timer());
+        }
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            operations.put(operation, new Timer());
+        }
+    }
+
+    /**
+     * Returns a {@link FileErasureSpec} equivalent to the specified one,
+     * except that the time spent in each FileErasureSpec and
+     * {@link OutputStreamErasureSpec} which makes it up is broken down
+     * by this {@code ErasureStats}.
+     *
+     * @param spec the FileErasureSpec to time
+     * @return a timed FileErasureSpec
+     */
+    public FileErasureSpec timed(FileErasureSpec spec) {
+        return spec.decorate(new SpecDecorator() {
+            @Override
+            public FileErasureSpec decorate(FileErasureSpec spec) {
+                return new TimedFileErasureSpec(spec, newSpecTimer(spec));
+            }
+
+            @Override
+            public OutputStreamErasureSpec decorate(OutputStreamErasureSpec spec) {
+                return new TimedOutputStreamErasureSpec(spec, newSpecTimer(spec));
+            }
+        });
+    }
+
+    /**
+     * Returns a new {@link SpecTimer} for an erasure specification.
+     *
+     * @param spec the erasure specification
+     * @return a new SpecTimer for the erasure specification
+     */
+    private synchronized SpecTimer newSpecTimer(ErasureSpec spec) {
+        SpecTimer timer = new SpecTimer((specs.size() + 1) + ". " + spec.getClass().getSimpleName());
+        specs.add(timer);
+        return timer;
+    }
+
+    @Override
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {
+        phases.get(phase).record(nanos, failure != null);
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        operations.get(operation).record(nanos, false);
+        SpecTimer.Invocation invocation = currentInvocation.get();
+        if (invocation != null) {
+            invocation.fileSystemNanos += nanos;
+        }
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        operations.get(operation).record(0, true);
+    }
+
+    @Override
+    public void passCompleted(long bytes, long nanos, long writeNanos) {
+        passes.record(nanos, false);
+        writes.record(writeNanos, false);
+        bytesWritten.addAndGet(bytes);
+        SpecTimer.Invocation invocation = currentInvocation.get();
+        if (invocation != null) {
+            invocation.fileSystemNanos += writeNanos;
+        }
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        files.incrementAndGet();
+        if (result.getStatus() == FileErasureResult.Status.FAILED) {
+            filesFailed.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void eraseFinished() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the wall-clock time from the creation of this
+     * {@code ErasureStats} until the last erasure finished (or until now,
+     * if none has finished), in nanoseconds.
+     *
+     * @return the wall-clock time in nanoseconds
+     */
+    private long wallNanos() {
+        long end = endNanos;
+        return ((end < 0) ? System.nanoTime() : end) - startNanos;
+    }
+
+    /**
+     * Returns a human-readable report of the breakdown of time spent
+     * erasing files.
+     *
+     * @return a human-readable report
+     */
+    public String toReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Erased %d files (%d failed), wrote %d bytes in %.1f ms%n",
+                files.get(), filesFailed.get(), bytesWritten.get(), wallNanos() / NANOS_PER_MILLI));
+
+        String header = String.format(Locale.ROOT, "%-40s %10s %8s %14s %12s%n",
+                "", "count", "failed", "total (ms)", "mean (ms)");
+
+        sb.append(String.format("%nPhases:%n")).append(header);
+        for (Map.Entry<FileErasureSpec.Phase, Timer> entry : phases.entrySet()) {
+            appendRow(sb, entry.getKey().toString(), entry.getValue());
+        }
+
+        sb.append(String.format("%nFile system:%n")).append(header);
+        appendRow(sb, "WRITE (per pass)", writes);
+        for (Map.Entry<FileSystemOperation, Timer> entry : operations.entrySet()) {
+            if (entry.getValue().count() > 0) {
+                appendRow(sb, entry.getKey().toString(), entry.getValue());
+            }
+        }
+        appendRow(sb, "(overwrite passes, open to close)", passes);
+
+        List<SpecTimer> specs = specs();
+        if (!specs.isEmpty()) {
+            sb.append(String.format("%nErasure specifications:%n"));
+            sb.append(String.format(Locale.ROOT, "%-40s %10s %14s %14s %14s%n",
+                    "", "count", "total (ms)", "fs (ms)", "other (ms)"));
+            for (SpecTimer spec : specs) {
+                long total = spec.totalNanos.get();
+                long fs = spec.fileSystemNanos.get();
+                sb.append(String.format(Locale.ROOT, "%-40s %10d %14.1f %14.1f %14.1f%n",
+                        spec.name, spec.count.get(),
+                        total / NANOS_PER_MILLI, fs / NANOS_PER_MILLI, (total - fs) / NANOS_PER_MILLI));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a row for a {@link Timer} to a report.
+     *
+     * @param sb    the report
+     * @param name  the name of the row
+     * @param timer the Timer
+     */
+    private static void appendRow(StringBuilder sb, String name, Timer timer) {
+        long count = timer.count();
+        sb.append(String.format(Locale.ROOT, "%-40s %10d %8d %14.1f %12.3f%n",
+                name, count, timer.failures.get(), timer.totalNanos.get() / NANOS_PER_MILLI,
+                count == 0 ? 0.0 : timer.totalNanos.get() / NANOS_PER_MILLI / count));
+    }
+
+    /**
+     * Returns a JSON object of the breakdown of time spent erasing files.
+     * All durations are in nanoseconds.
+     *
+     * @return a JSON object of the breakdown of time spent erasing files
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        sb.append("\"files\":").append(files.get());
+        sb.append(",\"filesFailed\":").append(filesFailed.get());
+        sb.append(",\"bytesWritten\":").append(bytesWritten.get());
+        sb.append(",\"wallNanos\":").append(wallNanos());
+
+        sb.append(",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<FileErasureSpec.Phase, Timer> entry : phases.entrySet()) {
+            appendJsonTimer(sb.append(first ? "" : ","), entry.getKey().toString(), entry.getValue());
+            first = false;
+        }
+        sb.append('}');
+
+        sb.append(",\"operations\":{");
+        appendJsonTimer(sb, "WRITE", writes);
+        for (Map.Entry<FileSystemOperation, Timer> entry : operations.entrySet()) {
+            appendJsonTimer(sb.append(','), entry.getKey().toString(), entry.getValue());
+        }
+        sb.append('}');
+
+        appendJsonTimer(sb.append(','), "passes", passes);
+
+        sb.append(",\"specs\":[");
+        first = true;
+        for (SpecTimer spec : specs()) {
+            sb.append(first ? "" : ",");
+            first = false;
+            sb.append("{\"name\":").append(jsonString(spec.name))
+                    .append(",\"count\":").append(spec.count.get())
+                    .append(",\"totalNanos\":").append(spec.totalNanos.get())
+                    .append(",\"fileSystemNanos\":").append(spec.fileSystemNanos.get())
+                    .append('}');
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Appends a {@link Timer} to a JSON object as a named member.
+     *
+     * @param sb    the JSON object
+     * @param name  the name of the member
+     * @param timer the Timer
+     */
+    private static void appendJsonTimer(StringBuilder sb, String name, Timer timer) {
+        sb.append(jsonString(name)).append(":{")
+                .append("\"count\":").append(timer.count())
+                .append(",\"failures\":").append(timer.failures.get())
+                .append(",\"totalNanos\":").append(timer.totalNanos.get())
+                .append('}');
+    }
+
+    /**
+     * Returns a string as a JSON string literal.
+     *
+     * @param s the string
+     * @return the string as a JSON string literal
+     */
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns a snapshot of the {@link SpecTimer}s.
+     *
+     * @return a snapshot of the SpecTimers
+     */
+    private synchronized List<SpecTimer> specs() {
+        return new ArrayList<>(specs);
+    }
+
+    /**
+     * Accumulates the number and total duration of events.
+     */
+    private static final class Timer {
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            (failed ? failures : completed).incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        long count() {
+            return completed.get() + failures.get();
+        }
+    }
+
+    /**
+     * Accumulates the time spent in an erasure specification.
+     */
+    private final class SpecTimer {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong fileSystemNanos = new AtomicLong();
+
+        private SpecTimer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts timing an invocation of the erasure specification on the
+         * current thread.
+         *
+         * @return the invocation
+         */
+        Invocation start() {
+            Invocation invocation = new Invocation(currentInvocation.get());
+            currentInvocation.set(invocation);
+            return invocation;
+        }
+
+        /**
+         * An invocation of an erasure specification.
+         */
+        final class Invocation {
+            private final Invocation outer;
+            private final long startNanos = System.nanoTime();
+            private long fileSystemNanos = 0;
+
+            private Invocation(Invocation outer) {
+                this.outer = outer;
+            }
+
+            /**
+             * Finishes timing this invocation, attributing the time spent
+             * in file system operations and writes during it to enclosing
+             * invocations as well.
+             */
+            void finish() {
+                long nanos = System.nanoTime() - startNanos;
+                currentInvocation.set(outer);
+                if (outer != null) {
+                    outer.fileSystemNanos += fileSystemNanos;
+                }
+                count.incrementAndGet();
+                totalNanos.addAndGet(nanos);
+                SpecTimer.this.fileSystemNanos.addAndGet(fileSystemNanos);
+            }
+        }
+    }
+
+    /**
+     * A timed {@link FileErasureSpec}.
+     */
+    private static final class TimedFileErasureSpec extends FileErasureSpec {
+        private final FileErasureSpec spec;
+        private final SpecTimer timer;
+
+        private TimedFileErasureSpec(FileErasureSpec spec, SpecTimer timer) {
+            this.spec = spec;
+            this.timer = timer;
+        }
+
+        @Override
+        public void eraseFile(FileSystem fs, Path path) throws IOException {
+            SpecTimer.Invocation invocation = timer.start();
+            try {
+                spec.eraseFile(fs, path);
+            } finally {
+                invocation.finish();
+            }
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return spec.isTerminal();
+        }
+
+        @Override
+        public Phase getPhase() {
+            return spec.getPhase();
+        }
+
+        @Override
+        public String toString() {
+            return spec.toString();
+        }
+
+        @Override
+        public void estimate(FileStatus file, ErasureEstimate estimate) {
+            spec.estimate(file, estimate);
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+            super.setConf(conf);
+            if (initialized) {
+                spec.setConf(conf);
+            }
+        }
+    }
+
+    /**
+     * A timed {@link OutputStreamErasureSpec}.
+     */
+    private static final class TimedOutputStreamErasureSpec extends OutputStreamErasureSpec {
+        private final OutputStreamErasureSpec spec;
+        private final SpecTimer timer;
+
+        private TimedOutputStreamErasureSpec(OutputStreamErasureSpec spec, SpecTimer timer) {
+            this.spec = spec;
+            this.timer = timer;
+        }
+
+        @Override
+        public void erase(SizedOutputStreamProvider provider, int blockSizeIfKnown) throws IOException {
+            SpecTimer.Invocation invocation = timer.start();
+            try {
+                spec.erase(provider, blockSizeIfKnown);
+            } finally {
+                invocation.finish();
+            }
+        }
+
+        @Override
+        public void estimate(long length, ErasureEstimate estimate) {
+            spec.estimate(length, estimate);
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return spec.isTerminal();
+        }
+
+        @Override
+        public String toString() {
+            return spec.toString();
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+            super.setConf(conf);
+            if (initialized) {
+                spec.setConf(conf);
+            }
+        }
+    }
+}
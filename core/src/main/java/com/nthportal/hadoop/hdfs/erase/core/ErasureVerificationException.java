@@ -0,0 +1,35 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown when verifying that a file was overwritten finds
+ * that its contents are not as expected.
+ */
+public class ErasureVerificationException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Path path;
+
+    /**
+     * Creates a new {@code ErasureVerificationException}.
+     *
+     * @param path    the path to the file which failed verification
+     * @param message the detail message
+     */
+    public ErasureVerificationException(Path path, String message) {
+        super(message);
+        this.path = path;
+    }
+
+    /**
+     * Returns the path to the file which failed verification.
+     *
+     * @return the path to the file which failed verification
+     */
+    public Path getPath() {
+        return path;
+    }
+}
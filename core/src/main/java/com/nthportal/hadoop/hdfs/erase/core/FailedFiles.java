@@ -0,0 +1,102 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The files which failed to be erased in a single erasure (which may be
+ * made up of several groups of files), and the number of them which may
+ * fail before erasing further files stops.
+ *
+ * <p>A file which fails (once any retries are exhausted) is recorded here
+ * rather than immediately failing the whole erasure, so that one bad file
+ * does not stop every other file from being erased; the failures are
+ * {@linkplain #rethrow() rethrown} once every file has been tried.
+ *
+ * <p>Every failure counts towards the limit, but only the first
+ * {@value #MAX_RETAINED_FAILURES} are kept to be rethrown, so that an
+ * erasure of very many files with no limit (for example, from a manifest)
+ * holds a bounded number of failures, and rethrows a bounded exception.
+ * Every failed file is still reported to the erasure's
+ * {@link EraseListener}.
+ *
+ * @see SecureErase.Conf#MAX_FAILED_FILES
+ */
+final class FailedFiles {
+    static final int MAX_RETAINED_FAILURES = 100;
+
+    private final int maxFailedFiles;
+    private final List<FileErasureResult> failed = new ArrayList<>();
+    private long failedCount = 0;
+    private boolean rethrown = false;
+
+    /**
+     * Creates a new {@code FailedFiles}.
+     *
+     * @param maxFailedFiles the number of files which may fail before
+     *                       erasing further files stops (negative for no
+     *                       limit)
+     */
+    FailedFiles(int maxFailedFiles) {
+        this.maxFailedFiles = maxFailedFiles;
+    }
+
+    /**
+     * Records a file which failed to be erased.
+     *
+     * @param result the result of erasing the file
+     * @return true if further files may still be erased; false if too
+     * many files have failed
+     */
+    synchronized boolean add(FileErasureResult result) {
+        failedCount++;
+        if (failed.size() < MAX_RETAINED_FAILURES) {
+            failed.add(result);
+        }
+        return maxFailedFiles < 0 || failedCount <= maxFailedFiles;
+    }
+
+    /**
+     * Returns the number of files which have failed to be erased.
+     *
+     * @return the number of files which have failed to be erased
+     */
+    synchronized long count() {
+        return failedCount;
+    }
+
+    /**
+     * Rethrows the failure of the first file which failed to be erased
+     * (with the failures of every later file which was kept
+     * {@linkplain Throwable#addSuppressed(Throwable) suppressed}, followed
+     * by a count of any which were not), if any files failed.
+     *
+     * @throws IOException if a file failed with an IOException
+     */
+    void rethrow() throws IOException {
+        Throwable first;
+        synchronized (this) {
+            if (failed.isEmpty()) {
+                return;
+            }
+            first = failed.get(0).getFailure();
+            if (!rethrown) {
+                rethrown = true;
+                for (FileErasureResult result : failed.subList(1, failed.size())) {
+                    if (result.getFailure() != first) {
+                        first.addSuppressed(result.getFailure());
+                    }
+                }
+                if (failedCount > failed.size()) {
+                    first.addSuppressed(new IOException((failedCount - failed.size())
+                            + " further files failed to be erased"));
+                }
+            }
+        }
+        Throwables.propagateIfPossible(first, IOException.class);
+        throw Throwables.propagate(first);
+    }
+}
@@ -0,0 +1,206 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands a stream of items (such as globs) into batches of files to erase,
+ * on a thread of its own, so that later items are expanded while the files
+ * of earlier items are being erased.
+ *
+ * <p>{@link #nextBatch()} returns every file expanded since the previous
+ * batch was taken, and only waits if there are none. Erasing therefore
+ * starts as soon as the first item has been expanded, and batches grow
+ * when items are expanded faster than files are erased. Once a batch
+ * size's worth of files is waiting, no further items are expanded (or read
+ * from the stream) until the batch is taken, which bounds the number of
+ * files held at once to the batch size plus the files of one item.
+ *
+ * <p>A file expanded from more than one item in the same batch is only
+ * returned once. A file expanded again in a later batch is returned again;
+ * the {@link EraseEngine} does not erase it a second time while it is
+ * still waiting or being erased.
+ *
+ * @param <T> the type of the items from which files are expanded
+ */
+abstract class FileBatcher<T> implements Closeable {
+    private final Iterator<? extends T> items;
+    private final int batchSize;
+    private FileSystem fs;
+
+    // Guarded by this
+    private Map<Path, FileStatus> expanded = new LinkedHashMap<>();
+    private boolean done = false;
+    private boolean closed = false;
+    private Throwable failure = null;
+
+    /**
+     * Creates a new {@code FileBatcher}. Items are not expanded until it is
+     * {@linkplain #start() started}.
+     *
+     * @param items     the items to expand
+     * @param batchSize the number of files at which to stop expanding items
+     *                  until the waiting files are taken
+     */
+    FileBatcher(Iterator<? extends T> items, int batchSize) {
+        this.items = items;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Expands an item into the files to erase.
+     *
+     * @param item the item to expand
+     * @return the files to erase
+     * @throws IllegalArgumentException if the item cannot be erased
+     * @throws IOException              if an I/O error occurs while
+     *                                  expanding the item
+     */
+    abstract FileStatus[] expand(T item) throws IllegalArgumentException, IOException;
+
+    /**
+     * Returns the file system on which the files reside.
+     *
+     * @return the file system on which the files reside
+     */
+    FileSystem getFileSystem() {
+        return fs;
+    }
+
+    /**
+     * Returns the number of files at which to stop expanding items.
+     *
+     * @return the number of files at which to stop expanding items
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Starts expanding items.
+     *
+     * @param fs the file system on which the files reside
+     * @return this batcher
+     */
+    FileBatcher<T> start(FileSystem fs) {
+        this.fs = fs;
+        Thread thread = new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-expand")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        expandAll();
+                    }
+                });
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Expands every item, until there are none left, one fails to expand,
+     * or this batcher is closed.
+     */
+    private void expandAll() {
+        try {
+            while (!isClosed() && items.hasNext()) {
+                FileStatus[] statuses = expand(items.next());
+
+                synchronized (this) {
+                    for (FileStatus status : statuses) {
+                        expanded.put(status.getPath(), status);
+                    }
+                    notifyAll();
+                    while (!closed && expanded.size() >= batchSize) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            synchronized (this) {
+                failure = t;
+            }
+        } finally {
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not this batcher has been closed.
+     *
+     * @return true if this batcher has been closed; false otherwise
+     */
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the files expanded since the previous batch was taken, waiting
+     * for at least one if necessary.
+     *
+     * <p>Once every file expanded before an item failed to expand has been
+     * returned, the failure is thrown.
+     *
+     * @return the next batch of files to erase, or {@code null} if every
+     * item has been expanded and returned
+     * @throws IllegalArgumentException if an item cannot be erased
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  an item
+     */
+    synchronized List<FileStatus> nextBatch() throws IllegalArgumentException, IOException {
+        while (expanded.isEmpty() && !done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException("Interrupted while expanding files")
+                        .initCause(e);
+            }
+        }
+
+        if (expanded.isEmpty()) {
+            if (failure != null) {
+                Throwables.propagateIfPossible(failure, IOException.class);
+                throw Throwables.propagate(failure);
+            }
+            return null;
+        }
+
+        List<FileStatus> batch = new ArrayList<>(expanded.values());
+        expanded = new LinkedHashMap<>();
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Stops expanding items. An item which is already being expanded is not
+     * interrupted, so as not to interrupt a call to the NameNode made
+     * through a shared client; its files are discarded.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
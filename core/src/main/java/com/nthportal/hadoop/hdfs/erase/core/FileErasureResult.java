@@ -0,0 +1,133 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The result of erasing a file.
+ *
+ * @see EraseListener#fileFinished(FileErasureResult)
+ * @see SecureErase#eraseGlobAsync(Path, FileErasureSpec, java.util.concurrent.Executor)
+ * @see SecureErase#eraseFileAsync(Path, FileErasureSpec, java.util.concurrent.Executor)
+ */
+public final class FileErasureResult {
+    private final Path path;
+    private final Path currentPath;
+    private final long length;
+    private final Status status;
+    private final Throwable failure;
+
+    /**
+     * Creates a new {@code FileErasureResult} for a file which was not
+     * renamed.
+     *
+     * @param path    the path to the file
+     * @param length  the length of the file before it was erased
+     * @param status  the status of the file's erasure
+     * @param failure the exception with which erasing the file failed,
+     *                or null if it did not fail
+     */
+    FileErasureResult(Path path, long length, Status status, Throwable failure) {
+        this(path, path, length, status, failure);
+    }
+
+    /**
+     * Creates a new {@code FileErasureResult}.
+     *
+     * @param path        the path to the file
+     * @param currentPath the path at which the file remains
+     * @param length      the length of the file before it was erased
+     * @param status      the status of the file's erasure
+     * @param failure     the exception with which erasing the file failed,
+     *                    or null if it did not fail
+     */
+    FileErasureResult(Path path, Path currentPath, long length, Status status, Throwable failure) {
+        this.path = path;
+        this.currentPath = currentPath;
+        this.length = length;
+        this.status = status;
+        this.failure = failure;
+    }
+
+    /**
+     * Returns the path to the file.
+     *
+     * @return the path to the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the path at which a file which was not erased remains. This
+     * differs from {@link #getPath()} if the file was renamed (to obfuscate
+     * its name) before erasing it failed or was aborted; erasing the file
+     * again must start from this path.
+     *
+     * @return the path at which the file remains
+     */
+    public Path getCurrentPath() {
+        return currentPath;
+    }
+
+    /**
+     * Returns the length of the file before it was erased.
+     *
+     * @return the length of the file before it was erased
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the status of the file's erasure.
+     *
+     * @return the status of the file's erasure
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether or not the file was erased successfully.
+     *
+     * @return true if the file was erased successfully; false otherwise
+     */
+    public boolean isErased() {
+        return status == Status.ERASED;
+    }
+
+    /**
+     * Returns the exception with which erasing the file failed, or
+     * {@code null} if its status is not {@link Status#FAILED FAILED}.
+     *
+     * @return the exception with which erasing the file failed, or null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return path + (currentPath.equals(path) ? "" : " (now " + currentPath + ")") + ": " + status
+                + (failure == null ? "" : " (" + failure + ")");
+    }
+
+    /**
+     * The status of a file's erasure.
+     */
+    public enum Status {
+        /**
+         * The file was erased successfully.
+         */
+        ERASED,
+        /**
+         * Erasing the file failed.
+         */
+        FAILED,
+        /**
+         * The file was not erased, or not completely erased, because
+         * erasing another file failed or the erasure was cancelled.
+         */
+        ABORTED
+    }
+}
@@ -2,8 +2,10 @@ package com.nthportal.hadoop.hdfs.erase.core;
 
 import com.google.common.primitives.Ints;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
@@ -74,6 +76,80 @@ public abstract class FileErasureSpec extends ErasureSpec {
      */
     public abstract boolean isTerminal();
 
+    /**
+     * Returns the {@link Phase} of erasure which this {@code FileErasureSpec}
+     * performs. When erasing many files, {@link SecureErase} may run the data
+     * and metadata phases of erasing different files concurrently.
+     *
+     * <p>By default, a {@code FileErasureSpec} is a {@link Phase#DATA data}
+     * phase. A {@code FileErasureSpec} combining others returns the phase
+     * of the first of them.
+     *
+     * @return the phase of erasure which this FileErasureSpec performs
+     */
+    public Phase getPhase() {
+        return Phase.DATA;
+    }
+
+    /**
+     * Estimates the cost of erasing a file with this {@code FileErasureSpec},
+     * without modifying the file, by recording the file system operations
+     * it would make and the bytes it would write and read (see
+     * {@link SecureErase#estimateGlobs(Iterable, FileErasureSpec)}).
+     *
+     * <p>By default, this {@code FileErasureSpec} is recorded as not
+     * estimating its cost. A {@code FileErasureSpec} combining others
+     * adds their costs.
+     *
+     * @param file     the status of the file
+     * @param estimate the estimate to which to add the cost
+     */
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.unestimated(this);
+    }
+
+    /**
+     * Adds the steps which make up this {@code FileErasureSpec} to a plan
+     * being compiled (see {@link ErasurePlan#compile(FileErasureSpec)}).
+     *
+     * <p>A {@code FileErasureSpec} combining others adds their steps;
+     * any other adds itself.
+     *
+     * @param builder the builder of the plan
+     */
+    void addSteps(ErasurePlan.Builder builder) {
+        builder.addSpec(this);
+    }
+
+    /**
+     * Returns a {@code FileErasureSpec} equivalent to this one, except that
+     * every {@code FileErasureSpec} and {@link OutputStreamErasureSpec}
+     * which does not combine others is decorated by a {@link SpecDecorator}.
+     *
+     * @param decorator the decorator
+     * @return a decorated copy of this FileErasureSpec
+     */
+    FileErasureSpec decorate(SpecDecorator decorator) {
+        return decorator.decorate(this);
+    }
+
+    /**
+     * Returns the int value of a long block size, or -1 (that is, unknown)
+     * if the block size does not fit in an int (unlikely).
+     *
+     * @param blockSize the long block size
+     * @return the block size as an int
+     */
+    static int intBlockSize(long blockSize) {
+        while (blockSize > MAX_INT) {
+            if ((blockSize & 1) == 1) {
+                return -1;
+            }
+            blockSize >>= 1;
+        }
+        return Ints.checkedCast(blockSize); // should never fail after of loop
+    }
+
     /**
      * Creates a {@code FileErasureSpec} from a specified
      * {@link OutputStreamErasureSpec}.
@@ -85,6 +161,48 @@ public abstract class FileErasureSpec extends ErasureSpec {
         return new Delegating(spec);
     }
 
+    /**
+     * Renames {@code src} to {@code dest} if {@code dest} does not exist.
+     *
+     * <p>When erasing files on HDFS through {@link SecureErase}, this is a
+     * single NameNode operation; otherwise, the existence of {@code dest}
+     * is checked before renaming.
+     *
+     * @param fs   the file system on which the file resides
+     * @param src  the source path
+     * @param dest the destination path
+     * @return true if the file was renamed; false if {@code dest} exists
+     * or the file could not otherwise be renamed
+     * @throws IOException if an I/O error occurs while renaming the file
+     */
+    protected static boolean renameIfAbsent(FileSystem fs, Path src, Path dest) throws IOException {
+        if (fs instanceof ErasureFileSystem) {
+            try {
+                ((ErasureFileSystem) fs).rename(src, dest, Options.Rename.NONE);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        }
+        return !fs.exists(dest) && fs.rename(src, dest);
+    }
+
+    /**
+     * A phase of erasing a file.
+     */
+    public enum Phase {
+        /**
+         * A phase limited mainly by the bandwidth available for writing
+         * (or reading) file data, such as overwriting a file.
+         */
+        DATA,
+        /**
+         * A phase limited mainly by the latency of NameNode operations,
+         * such as truncating, renaming or deleting a file.
+         */
+        METADATA
+    }
+
     /**
      * A FileErasureSpec which combines two FileErasureSpecs in order.
      */
@@ -108,6 +226,33 @@ public abstract class FileErasureSpec extends ErasureSpec {
             return last.isTerminal();
         }
 
+        @Override
+        public String toString() {
+            return first + ", then " + last;
+        }
+
+        @Override
+        public Phase getPhase() {
+            return first.getPhase();
+        }
+
+        @Override
+        public void estimate(FileStatus file, ErasureEstimate estimate) {
+            first.estimate(file, estimate);
+            last.estimate(file, estimate);
+        }
+
+        @Override
+        void addSteps(ErasurePlan.Builder builder) {
+            first.addSteps(builder);
+            last.addSteps(builder);
+        }
+
+        @Override
+        FileErasureSpec decorate(SpecDecorator decorator) {
+            return new Cons(first.decorate(decorator), last.decorate(decorator));
+        }
+
         @Override
         public void setConf(Configuration conf) {
             super.setConf(conf);
@@ -142,6 +287,35 @@ public abstract class FileErasureSpec extends ErasureSpec {
             return false;
         }
 
+        @Override
+        public String toString() {
+            return times + " x (" + spec + ")";
+        }
+
+        @Override
+        public Phase getPhase() {
+            return spec.getPhase();
+        }
+
+        @Override
+        public void estimate(FileStatus file, ErasureEstimate estimate) {
+            for (int i = 0; i < times; i++) {
+                spec.estimate(file, estimate);
+            }
+        }
+
+        @Override
+        void addSteps(ErasurePlan.Builder builder) {
+            ErasurePlan.Builder repeated = new ErasurePlan.Builder();
+            spec.addSteps(repeated);
+            builder.addRepeated(repeated, times);
+        }
+
+        @Override
+        FileErasureSpec decorate(SpecDecorator decorator) {
+            return new Repeated(spec.decorate(decorator), times);
+        }
+
         @Override
         public void setConf(Configuration conf) {
             super.setConf(conf);
@@ -196,6 +370,27 @@ public abstract class FileErasureSpec extends ErasureSpec {
             return spec.isTerminal();
         }
 
+        @Override
+        public String toString() {
+            return spec.toString();
+        }
+
+        @Override
+        public void estimate(FileStatus file, ErasureEstimate estimate) {
+            estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+            spec.estimate(file.getLen(), estimate);
+        }
+
+        @Override
+        void addSteps(ErasurePlan.Builder builder) {
+            spec.addSteps(builder, isLoggingEnabled());
+        }
+
+        @Override
+        FileErasureSpec decorate(SpecDecorator decorator) {
+            return new Delegating(spec.decorate(decorator));
+        }
+
         @Override
         public void setConf(Configuration conf) {
             super.setConf(conf);
@@ -203,22 +398,5 @@ public abstract class FileErasureSpec extends ErasureSpec {
                 spec.setConf(conf);
             }
         }
-
-        /**
-         * Returns the int value of a long block size, or {@link Integer#MAX_VALUE} if
-         * the block size does not fit in an int (unlikely).
-         *
-         * @param blockSize the long block size
-         * @return the block size as an int
-         */
-        private static int intBlockSize(long blockSize) {
-            while (blockSize > MAX_INT) {
-                if ((blockSize & 1) == 1) {
-                    return -1;
-                }
-                blockSize >>= 1;
-            }
-            return Ints.checkedCast(blockSize); // should never fail after of loop
-        }
     }
 }
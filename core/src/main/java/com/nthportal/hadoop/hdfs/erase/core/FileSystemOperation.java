@@ -0,0 +1,46 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+/**
+ * A file system operation made while erasing files.
+ *
+ * @see EraseListener#operationCompleted(FileSystemOperation, long)
+ */
+public enum FileSystemOperation {
+    /**
+     * Creating (or overwriting) a file.
+     */
+    CREATE,
+    /**
+     * Closing a file after writing to it, which waits for the write
+     * pipeline to acknowledge all data written.
+     */
+    CLOSE,
+    /**
+     * Opening a file for reading.
+     */
+    OPEN,
+    /**
+     * Getting the status of a file (including checking whether it exists).
+     */
+    GET_FILE_STATUS,
+    /**
+     * Getting the checksum of a file.
+     */
+    GET_FILE_CHECKSUM,
+    /**
+     * Listing the contents of a directory.
+     */
+    LIST_STATUS,
+    /**
+     * Truncating a file.
+     */
+    TRUNCATE,
+    /**
+     * Renaming a file.
+     */
+    RENAME,
+    /**
+     * Deleting a file.
+     */
+    DELETE
+}
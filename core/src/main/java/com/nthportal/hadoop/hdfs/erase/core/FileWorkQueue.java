@@ -0,0 +1,161 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.*;
+
+/**
+ * A queue of files to erase, ordered by size and partitioned between
+ * worker slots.
+ *
+ * <p>Files are sorted by length (largest first), and each is assigned to
+ * the slot with the least work assigned so far (longest processing time
+ * first). Each slot takes its own files largest first; once a slot has run
+ * out of files, it steals the largest file queued for the slot with the
+ * most remaining work. This keeps the largest files from being left until
+ * the end of a run while other workers sit idle.
+ *
+ * <p>Further files may be {@linkplain #addAll(Collection) added} while
+ * files are being taken from the queue; they are assigned in the same
+ * way, behind the files already queued for each slot.
+ *
+ * <p>The amount of work for a file is its length plus a fixed overhead
+ * approximating the cost of its metadata operations, so that many small
+ * files are also spread evenly between slots. File lengths are taken from
+ * the statuses already obtained when matching files, without any further
+ * file system operations.
+ *
+ * <p>This class is not thread-safe.
+ */
+final class FileWorkQueue {
+    /**
+     * The approximate cost of erasing an empty file (for example, creating,
+     * truncating, renaming and deleting it), expressed in bytes.
+     */
+    private static final long FILE_OVERHEAD_BYTES = 4L * 1024 * 1024;
+
+    private static final Comparator<FileStatus> largestFirst = new Comparator<FileStatus>() {
+        @Override
+        public int compare(FileStatus a, FileStatus b) {
+            return Long.compare(b.getLen(), a.getLen());
+        }
+    };
+
+    private final List<Deque<FileStatus>> queues;
+    private final long[] remainingWork;
+    private int size;
+
+    /**
+     * Creates a new {@code FileWorkQueue}.
+     *
+     * @param files the files to erase
+     * @param slots the number of worker slots between which to partition
+     *              the files
+     * @throws IllegalArgumentException if the number of slots is not positive
+     */
+    FileWorkQueue(Collection<FileStatus> files, int slots) throws IllegalArgumentException {
+        Preconditions.checkArgument(slots > 0, "number of slots must be positive");
+
+        queues = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            queues.add(new ArrayDeque<FileStatus>());
+        }
+        remainingWork = new long[slots];
+        addAll(files);
+    }
+
+    /**
+     * Adds files to the queue, behind the files already queued.
+     *
+     * @param files the files to add
+     */
+    void addAll(Collection<FileStatus> files) {
+        List<FileStatus> sorted = new ArrayList<>(files);
+        Collections.sort(sorted, largestFirst);
+        for (FileStatus file : sorted) {
+            int slot = leastLoadedSlot();
+            queues.get(slot).addLast(file);
+            remainingWork[slot] += work(file);
+        }
+        size += sorted.size();
+    }
+
+    /**
+     * Returns the number of worker slots.
+     *
+     * @return the number of worker slots
+     */
+    int slots() {
+        return queues.size();
+    }
+
+    /**
+     * Returns the number of files remaining in the queue.
+     *
+     * @return the number of files remaining in the queue
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes and returns the next file for a slot to erase, stealing it
+     * from another slot if the slot has no files of its own left.
+     *
+     * @param slot the slot for which to get a file
+     * @return the next file for the slot to erase, or {@code null} if
+     * there are no files left
+     */
+    FileStatus poll(int slot) {
+        if (size == 0) {
+            return null;
+        }
+
+        int from = queues.get(slot).isEmpty() ? mostLoadedSlot() : slot;
+        FileStatus file = queues.get(from).pollFirst();
+        remainingWork[from] -= work(file);
+        size--;
+        return file;
+    }
+
+    /**
+     * Returns the slot with the least remaining work.
+     *
+     * @return the slot with the least remaining work
+     */
+    private int leastLoadedSlot() {
+        int least = 0;
+        for (int i = 1; i < remainingWork.length; i++) {
+            if (remainingWork[i] < remainingWork[least]) {
+                least = i;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Returns the slot with the most remaining work.
+     *
+     * @return the slot with the most remaining work
+     */
+    private int mostLoadedSlot() {
+        int most = 0;
+        for (int i = 1; i < remainingWork.length; i++) {
+            if (remainingWork[i] > remainingWork[most]) {
+                most = i;
+            }
+        }
+        return most;
+    }
+
+    /**
+     * Returns the amount of work needed to erase a file.
+     *
+     * @param file the file
+     * @return the amount of work needed to erase the file
+     */
+    private static long work(FileStatus file) {
+        return file.getLen() + FILE_OVERHEAD_BYTES;
+    }
+}
@@ -0,0 +1,709 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.GlobPattern;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatPBINode;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf;
+import org.apache.hadoop.hdfs.server.namenode.FSImageUtil;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto;
+import org.apache.hadoop.hdfs.server.namenode.INodeId;
+import org.apache.hadoop.util.LimitInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects files to erase from a local copy of an HDFS fsimage (such as one
+ * fetched with {@code hdfs dfsadmin -fetchImage}), rather than by listing
+ * directories on the NameNode.
+ *
+ * <p>Files are selected by matching their paths against
+ * {@linkplain org.apache.hadoop.fs.FileSystem#globStatus(Path) globs}
+ * (component by component, as they would be matched when expanded on the
+ * NameNode), and optionally by their size and modification time. The
+ * image is parsed offline, in the same way as the offline image viewer
+ * parses it, so selecting files from even a very large namespace puts no
+ * load on the NameNode; only erasing the selected files (with
+ * {@link SecureErase#eraseStatuses(Iterable, FileErasureSpec)}) does.
+ *
+ * <p>Only files in the current namespace are selected: files which exist
+ * only in snapshots, files which are still being written, and symbolic
+ * links are not. The image reflects the namespace as of when it was saved,
+ * so each selected file's status records the ID of its inode: files which
+ * have since been deleted, replaced by another file at the same path, or
+ * modified (and so may no longer match the size and modification time
+ * predicates) are skipped rather than erased, and files which have since
+ * been created are not selected.
+ *
+ * <p>The image is read several times over, so that only the names, parents
+ * and paths of directories, and the parents of files in directories which
+ * match the globs, are held in memory at once. The selected files
+ * themselves are not held: they are read from the image in a final pass as
+ * they are {@linkplain SelectedFiles iterated over}, so selecting millions
+ * of files takes no more memory than selecting one.
+ *
+ * <p>Instances of this class are immutable, and are created with a
+ * {@link Builder}.
+ */
+public final class FsImageSelector {
+    private final List<Path> globs;
+    private final long minSize;
+    private final long maxSize;
+    private final long modifiedAfter;
+    private final long modifiedBefore;
+
+    private FsImageSelector(List<Path> globs, long minSize, long maxSize, long modifiedAfter, long modifiedBefore) {
+        this.globs = Collections.unmodifiableList(new ArrayList<>(globs));
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.modifiedAfter = modifiedAfter;
+        this.modifiedBefore = modifiedBefore;
+    }
+
+    /**
+     * Selects files from an fsimage.
+     *
+     * @param fsimage the fsimage file
+     * @param conf    the Configuration with which to decompress the image
+     * @return the statuses of the selected files (each an
+     * {@link InodeFileStatus}), whose paths have no scheme or authority,
+     * which must be closed once they are no longer needed
+     * @throws IOException if the fsimage cannot be read, or is not in the
+     *                     protobuf format written by Hadoop 2.4 and later
+     */
+    public SelectedFiles select(File fsimage, Configuration conf) throws IOException {
+        Selection selection = new Selection(fsimage, conf);
+        selection.prepare();
+        return new SelectedFiles(selection);
+    }
+
+    @Override
+    public String toString() {
+        return "FsImageSelector{globs=" + globs
+                + ", minSize=" + minSize
+                + ", maxSize=" + maxSize
+                + ", modifiedAfter=" + modifiedAfter
+                + ", modifiedBefore=" + modifiedBefore + "}";
+    }
+
+    /**
+     * Returns a new {@link Builder} with the same values as this
+     * {@code FsImageSelector}.
+     *
+     * @return a new Builder with the same values as this FsImageSelector
+     */
+    public Builder toBuilder() {
+        Builder builder = newBuilder()
+                .minSize(minSize)
+                .maxSize(maxSize)
+                .modifiedAfter(modifiedAfter)
+                .modifiedBefore(modifiedBefore);
+        for (Path glob : globs) {
+            builder.glob(glob);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns a new selector builder, which selects no files until a glob
+     * is added.
+     *
+     * @return a new selector builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * A glob split into the patterns of its components.
+     */
+    private static final class Glob {
+        private final List<GlobPattern> components = new ArrayList<>();
+
+        /**
+         * Creates a new {@code Glob}.
+         *
+         * @param glob an absolute path containing a glob pattern
+         */
+        Glob(Path glob) {
+            for (String component : glob.toUri().getPath().split("/")) {
+                if (!component.isEmpty()) {
+                    components.add(new GlobPattern(component));
+                }
+            }
+        }
+
+        /**
+         * Returns whether or not a directory could contain files matching
+         * this glob.
+         *
+         * @param dir the components of the path of the directory
+         * @return true if the directory matches every component of this
+         * glob but the last; false otherwise
+         */
+        boolean matchesParent(List<String> dir) {
+            return dir.size() == components.size() - 1 && matchesPrefix(dir);
+        }
+
+        /**
+         * Returns whether or not a file matches this glob.
+         *
+         * @param dir  the components of the path of the file's directory
+         * @param name the name of the file
+         * @return true if the file matches this glob; false otherwise
+         */
+        boolean matches(List<String> dir, String name) {
+            return matchesParent(dir) && components.get(dir.size()).matches(name);
+        }
+
+        private boolean matchesPrefix(List<String> dir) {
+            for (int i = 0; i < dir.size(); i++) {
+                if (!components.get(i).matches(dir.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The state of selecting files from an fsimage.
+     */
+    private final class Selection {
+        private final File fsimage;
+        private final Configuration conf;
+        private final List<Glob> patterns = new ArrayList<>();
+        private final Map<FSImageFormatProtobuf.SectionName, FsImageProto.FileSummary.Section> sections =
+                new EnumMap<>(FSImageFormatProtobuf.SectionName.class);
+        private String codec;
+
+        private String[] stringTable = new String[0];
+        private final Map<Long, String> dirNames = new HashMap<>();
+        private final Map<Long, Long> dirParents = new HashMap<>();
+        private final Map<Long, List<String>> dirPaths = new HashMap<>();
+        private final List<Long> referredIds = new ArrayList<>();
+        private final Set<Long> candidateDirs = new HashSet<>();
+        private final Map<Long, Long> fileParents = new HashMap<>();
+
+        Selection(File fsimage, Configuration conf) {
+            this.fsimage = fsimage;
+            this.conf = conf;
+            for (Path glob : globs) {
+                patterns.add(new Glob(glob));
+            }
+        }
+
+        /**
+         * Reads everything but the selected files themselves from the image.
+         */
+        void prepare() throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(fsimage, "r")) {
+                if (!FSImageUtil.checkFileFormat(file)) {
+                    throw new IOException("Unrecognized fsimage format: " + fsimage);
+                }
+                FsImageProto.FileSummary summary = FSImageUtil.loadSummary(file);
+                codec = summary.getCodec();
+                for (FsImageProto.FileSummary.Section section : summary.getSectionsList()) {
+                    FSImageFormatProtobuf.SectionName name =
+                            FSImageFormatProtobuf.SectionName.fromString(section.getName());
+                    if (name != null) {
+                        sections.put(name, section);
+                    }
+                }
+            }
+
+            loadStringTable();
+            loadDirectoryNames();
+            loadReferences();
+            loadDirectoryTree();
+            findCandidateDirectories();
+            loadFileParents();
+        }
+
+        /**
+         * Opens a section of the image for reading.
+         *
+         * @param name the name of the section
+         * @return a stream of the section's contents, or {@code null} if
+         * the image has no such section
+         * @throws IOException if the section cannot be opened
+         */
+        private InputStream open(FSImageFormatProtobuf.SectionName name) throws IOException {
+            FsImageProto.FileSummary.Section section = sections.get(name);
+            if (section == null) {
+                return null;
+            }
+            FileInputStream in = new FileInputStream(fsimage);
+            try {
+                in.getChannel().position(section.getOffset());
+                return FSImageUtil.wrapInputStreamForCompression(conf, codec,
+                        new BufferedInputStream(new LimitInputStream(in, section.getLength())));
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Loads the names of owners and groups, for the permissions of files.
+         */
+        private void loadStringTable() throws IOException {
+            try (InputStream in = open(FSImageFormatProtobuf.SectionName.STRING_TABLE)) {
+                if (in == null) {
+                    return;
+                }
+                FsImageProto.StringTableSection header = FsImageProto.StringTableSection.parseDelimitedFrom(in);
+                stringTable = new String[header.getNumEntry() + 1];
+                for (int i = 0; i < header.getNumEntry(); i++) {
+                    FsImageProto.StringTableSection.Entry entry =
+                            FsImageProto.StringTableSection.Entry.parseDelimitedFrom(in);
+                    stringTable[entry.getId()] = entry.getStr();
+                }
+            }
+        }
+
+        /**
+         * Loads the names of every directory.
+         */
+        private void loadDirectoryNames() throws IOException {
+            try (InputStream in = openRequired(FSImageFormatProtobuf.SectionName.INODE)) {
+                long inodes = FsImageProto.INodeSection.parseDelimitedFrom(in).getNumInodes();
+                for (long i = 0; i < inodes; i++) {
+                    FsImageProto.INodeSection.INode inode = FsImageProto.INodeSection.INode.parseDelimitedFrom(in);
+                    if (inode.getType() == FsImageProto.INodeSection.INode.Type.DIRECTORY) {
+                        dirNames.put(inode.getId(), inode.getName().toStringUtf8());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Loads the inodes referred to by references (which take the place
+         * of inodes renamed since a snapshot was taken). A reference in the
+         * current namespace has the name of the inode to which it refers.
+         */
+        private void loadReferences() throws IOException {
+            try (InputStream in = open(FSImageFormatProtobuf.SectionName.INODE_REFERENCE)) {
+                if (in == null) {
+                    return;
+                }
+                FsImageProto.INodeReferenceSection.INodeReference reference;
+                while ((reference = FsImageProto.INodeReferenceSection.INodeReference.parseDelimitedFrom(in))
+                        != null) {
+                    referredIds.add(reference.getReferredId());
+                }
+            }
+        }
+
+        /**
+         * Loads the parent of every directory.
+         */
+        private void loadDirectoryTree() throws IOException {
+            try (InputStream in = openRequired(FSImageFormatProtobuf.SectionName.INODE_DIR)) {
+                FsImageProto.INodeDirectorySection.DirEntry entry;
+                while ((entry = FsImageProto.INodeDirectorySection.DirEntry.parseDelimitedFrom(in)) != null) {
+                    for (long child : children(entry)) {
+                        if (dirNames.containsKey(child)) {
+                            dirParents.put(child, entry.getParent());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds the directories which could contain files matching the globs.
+         */
+        private void findCandidateDirectories() {
+            for (long dir : dirNames.keySet()) {
+                List<String> path = dirPath(dir);
+                if (path == null) {
+                    continue;
+                }
+                for (Glob glob : patterns) {
+                    if (glob.matchesParent(path)) {
+                        candidateDirs.add(dir);
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Loads the parent of every file in a candidate directory.
+         */
+        private void loadFileParents() throws IOException {
+            try (InputStream in = openRequired(FSImageFormatProtobuf.SectionName.INODE_DIR)) {
+                FsImageProto.INodeDirectorySection.DirEntry entry;
+                while ((entry = FsImageProto.INodeDirectorySection.DirEntry.parseDelimitedFrom(in)) != null) {
+                    if (candidateDirs.contains(entry.getParent())) {
+                        for (long child : children(entry)) {
+                            if (!dirNames.containsKey(child)) {
+                                fileParents.put(child, entry.getParent());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Opens the inodes of the image, to select files from them.
+         *
+         * @return a stream of the inodes, positioned after the section's
+         * header
+         */
+        InodeStream openInodes() throws IOException {
+            InputStream in = openRequired(FSImageFormatProtobuf.SectionName.INODE);
+            try {
+                return new InodeStream(in, FsImageProto.INodeSection.parseDelimitedFrom(in).getNumInodes());
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the status of an inode if it is a file in a candidate
+         * directory which matches a glob and the predicates.
+         *
+         * @param inode the inode
+         * @return the status of the file, or {@code null} if it is not
+         * selected
+         */
+        FileStatus select(FsImageProto.INodeSection.INode inode) {
+            Long parent = fileParents.get(inode.getId());
+            if (parent == null
+                    || inode.getType() != FsImageProto.INodeSection.INode.Type.FILE
+                    || inode.getFile().hasFileUC()) {
+                return null;
+            }
+
+            List<String> dir = dirPath(parent);
+            String name = inode.getName().toStringUtf8();
+            FsImageProto.INodeSection.INodeFile file = inode.getFile();
+            long length = 0;
+            for (HdfsProtos.BlockProto block : file.getBlocksList()) {
+                length += block.getNumBytes();
+            }
+            if (matches(dir, name) && accepts(length, file.getModificationTime())) {
+                return toStatus(dir, name, length, inode.getId(), file);
+            }
+            return null;
+        }
+
+        private InputStream openRequired(FSImageFormatProtobuf.SectionName name) throws IOException {
+            InputStream in = open(name);
+            if (in == null) {
+                throw new IOException("fsimage has no " + name + " section: " + fsimage);
+            }
+            return in;
+        }
+
+        /**
+         * Returns the children of a directory, including those referred to
+         * by references.
+         */
+        private List<Long> children(FsImageProto.INodeDirectorySection.DirEntry entry) {
+            List<Long> children = new ArrayList<>(entry.getChildrenList());
+            for (int ref : entry.getRefChildrenList()) {
+                children.add(referredIds.get(ref));
+            }
+            return children;
+        }
+
+        /**
+         * Returns the components of the path of a directory, or {@code null}
+         * if it is not in the current namespace.
+         */
+        private List<String> dirPath(long dir) {
+            if (dir == INodeId.ROOT_INODE_ID) {
+                return Collections.emptyList();
+            }
+            if (dirPaths.containsKey(dir)) {
+                return dirPaths.get(dir);
+            }
+
+            List<String> path = null;
+            Long parent = dirParents.get(dir);
+            if (parent != null) {
+                List<String> parentPath = dirPath(parent);
+                if (parentPath != null) {
+                    path = new ArrayList<>(parentPath.size() + 1);
+                    path.addAll(parentPath);
+                    path.add(dirNames.get(dir));
+                }
+            }
+            dirPaths.put(dir, path);
+            return path;
+        }
+
+        private boolean matches(List<String> dir, String name) {
+            for (Glob glob : patterns) {
+                if (glob.matches(dir, name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean accepts(long length, long modificationTime) {
+            return length >= minSize
+                    && length <= maxSize
+                    && modificationTime > modifiedAfter
+                    && modificationTime < modifiedBefore;
+        }
+
+        private FileStatus toStatus(List<String> dir, String name, long length, long fileId,
+                                    FsImageProto.INodeSection.INodeFile file) {
+            StringBuilder path = new StringBuilder();
+            for (String component : dir) {
+                path.append('/').append(component);
+            }
+            path.append('/').append(name);
+
+            PermissionStatus permission = FSImageFormatPBINode.Loader.loadPermission(file.getPermission(), stringTable);
+            return new InodeFileStatus(length, false, file.getReplication(), file.getPreferredBlockSize(),
+                    file.getModificationTime(), file.getAccessTime(), permission.getPermission(),
+                    permission.getUserName(), permission.getGroupName(), null, new Path(path.toString()), fileId);
+        }
+    }
+
+    /**
+     * A stream of the inodes of an image, and the number of them left.
+     */
+    private static final class InodeStream {
+        private final InputStream in;
+        private long remaining;
+
+        InodeStream(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * The files selected from an fsimage.
+     *
+     * <p>Each time the files are iterated over, they are read from the image
+     * again, and only as they are needed, so only the files not yet taken
+     * from the iterator are held in memory. Iterating over them may therefore
+     * throw a {@link ReadException}.
+     *
+     * <p>Closing the files closes the image for every unfinished iteration,
+     * and prevents any further iterations.
+     */
+    public static final class SelectedFiles implements Iterable<FileStatus>, Closeable {
+        private final Selection selection;
+
+        // Guarded by this
+        private final Set<InputStream> open = new HashSet<>();
+        private boolean closed = false;
+
+        private SelectedFiles(Selection selection) {
+            this.selection = selection;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws IllegalStateException if the files have been closed
+         */
+        @Override
+        public Iterator<FileStatus> iterator() throws IllegalStateException {
+            synchronized (this) {
+                Preconditions.checkState(!closed, "Selected files have been closed");
+            }
+            return new AbstractIterator<FileStatus>() {
+                private InodeStream inodes = null;
+
+                @Override
+                protected FileStatus computeNext() {
+                    try {
+                        if (inodes == null) {
+                            inodes = openInodes();
+                        }
+                        while (inodes.remaining > 0) {
+                            inodes.remaining--;
+                            FileStatus status = selection.select(
+                                    FsImageProto.INodeSection.INode.parseDelimitedFrom(inodes.in));
+                            if (status != null) {
+                                return status;
+                            }
+                        }
+                        closeInodes(inodes.in);
+                        return endOfData();
+                    } catch (IOException e) {
+                        throw new ReadException(e);
+                    }
+                }
+            };
+        }
+
+        private InodeStream openInodes() throws IOException {
+            InodeStream inodes = selection.openInodes();
+            synchronized (this) {
+                if (!closed) {
+                    open.add(inodes.in);
+                    return inodes;
+                }
+            }
+            inodes.in.close();
+            throw new IOException("Selected files have been closed");
+        }
+
+        private void closeInodes(InputStream in) throws IOException {
+            synchronized (this) {
+                open.remove(in);
+            }
+            in.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            List<InputStream> toClose;
+            synchronized (this) {
+                closed = true;
+                toClose = new ArrayList<>(open);
+                open.clear();
+            }
+            IOException failure = null;
+            for (InputStream in : toClose) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * An unchecked exception wrapping an {@link IOException} thrown while
+     * reading selected files from an fsimage, as an {@link Iterator} cannot
+     * throw one.
+     */
+    public static final class ReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ReadException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * A builder for an {@link FsImageSelector}.
+     */
+    public static final class Builder {
+        private final List<Path> globs = new ArrayList<>();
+        private long minSize = 0;
+        private long maxSize = Long.MAX_VALUE;
+        private long modifiedAfter = Long.MIN_VALUE;
+        private long modifiedBefore = Long.MAX_VALUE;
+
+        private Builder() {}
+
+        /**
+         * Adds a glob which selected files must match (if any of the globs
+         * added are matched, a file is selected). Only the path of the glob
+         * is matched; its scheme and authority (if any) are ignored.
+         *
+         * <p>Globs are matched component by component, so alternatives in
+         * braces ({@code {a,b}}) cannot contain {@code /}.
+         *
+         * @param glob an absolute path containing a glob pattern
+         * @return this builder
+         * @throws IllegalArgumentException if the glob is not absolute
+         */
+        public Builder glob(Path glob) throws IllegalArgumentException {
+            Preconditions.checkArgument(glob.isUriPathAbsolute(), "glob must be absolute: %s", glob);
+            globs.add(glob);
+            return this;
+        }
+
+        /**
+         * Sets the size in bytes of the smallest file to select.
+         *
+         * @param minSize the size in bytes of the smallest file to select
+         * @return this builder
+         */
+        public Builder minSize(long minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        /**
+         * Sets the size in bytes of the largest file to select.
+         *
+         * @param maxSize the size in bytes of the largest file to select
+         * @return this builder
+         */
+        public Builder maxSize(long maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Only selects files last modified after a time.
+         *
+         * @param modifiedAfter the time, in milliseconds since the epoch
+         * @return this builder
+         */
+        public Builder modifiedAfter(long modifiedAfter) {
+            this.modifiedAfter = modifiedAfter;
+            return this;
+        }
+
+        /**
+         * Only selects files last modified before a time.
+         *
+         * @param modifiedBefore the time, in milliseconds since the epoch
+         * @return this builder
+         */
+        public Builder modifiedBefore(long modifiedBefore) {
+            this.modifiedBefore = modifiedBefore;
+            return this;
+        }
+
+        /**
+         * Returns a selector from this builder.
+         *
+         * @return a selector from this builder
+         */
+        public FsImageSelector result() {
+            return new FsImageSelector(globs, minSize, maxSize, modifiedAfter, modifiedBefore);
+        }
+    }
+}
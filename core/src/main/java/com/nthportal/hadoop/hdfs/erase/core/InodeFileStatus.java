@@ -0,0 +1,71 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+/**
+ * The status of a file on HDFS, along with the ID of its inode.
+ *
+ * <p>Unlike its path, the inode ID of a file is never given to another
+ * file, so it tells a file apart from one which has since replaced it at
+ * the same path (for example, when selecting files from an
+ * {@linkplain FsImageSelector offline image} of the namespace).
+ *
+ * <p>Like {@link FileStatus#equals(Object)}, equality only considers the
+ * path; and the inode ID is not {@linkplain #write(java.io.DataOutput)
+ * written} with the rest of the status.
+ */
+public final class InodeFileStatus extends FileStatus {
+    private final long fileId;
+
+    /**
+     * Creates a new {@code InodeFileStatus}.
+     *
+     * @param length            the length of the file in bytes
+     * @param isdir             whether or not the file is a directory
+     * @param block_replication the replication of the file
+     * @param blocksize         the block size of the file
+     * @param modification_time the modification time of the file
+     * @param access_time       the access time of the file
+     * @param permission        the permission of the file
+     * @param owner             the owner of the file
+     * @param group             the group of the file
+     * @param symlink           the target of the file if it is a symbolic
+     *                          link; otherwise {@code null}
+     * @param path              the path of the file
+     * @param fileId            the ID of the inode of the file
+     */
+    public InodeFileStatus(long length, boolean isdir, int block_replication, long blocksize,
+                           long modification_time, long access_time, FsPermission permission,
+                           String owner, String group, Path symlink, Path path, long fileId) {
+        super(length, isdir, block_replication, blocksize, modification_time, access_time, permission, owner, group,
+                symlink, path);
+        this.fileId = fileId;
+    }
+
+    /**
+     * Returns the ID of the inode of the file.
+     *
+     * @return the ID of the inode of the file
+     */
+    public long getFileId() {
+        return fileId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String status = super.toString();
+        return status.substring(0, status.length() - 1) + "; fileId=" + fileId + "}";
+    }
+}
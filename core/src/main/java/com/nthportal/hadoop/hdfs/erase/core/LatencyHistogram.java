@@ -0,0 +1,141 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, with buckets in the style of
+ * HdrHistogram.
+ *
+ * <p>Each power of two is divided into {@value #SUB_BUCKETS} linear
+ * sub-buckets, so that every recorded value is counted in a bucket whose
+ * width is at most 1/{@value #SUB_BUCKETS} of its lower bound (and values
+ * less than {@value #SUB_BUCKETS} are counted exactly). Recording a value
+ * is a few atomic operations, with no locking or allocation; reading
+ * percentiles scans every bucket, and is comparatively expensive.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value (negative values are recorded as 0)
+     */
+    void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Retry until either this value is no longer the maximum, or it is set
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values recorded
+     */
+    long count() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or 0 if no values have
+     * been recorded.
+     *
+     * @return the mean of the values recorded
+     */
+    double mean() {
+        long n = count.get();
+        return (n == 0) ? 0 : total.get() / (double) n;
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if no values have been recorded.
+     *
+     * @return the largest value recorded
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns an estimate of a percentile of the values recorded (the
+     * midpoint of the bucket containing it), or 0 if no values have been
+     * recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return an estimate of the percentile of the values recorded
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max((long) Math.ceil(percentile / 100 * n), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i) + bucketWidth(i) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the index of the bucket in which a value is counted.
+     *
+     * @param value the (non-negative) value
+     * @return the index of the bucket in which the value is counted
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the smallest value counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the smallest value counted in the bucket
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Returns the number of distinct values counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the number of distinct values counted in the bucket
+     */
+    static long bucketWidth(int index) {
+        return (index < SUB_BUCKETS) ? 1 : 1L << (index / SUB_BUCKETS - 1);
+    }
+}
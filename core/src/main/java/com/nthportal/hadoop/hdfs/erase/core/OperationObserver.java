@@ -0,0 +1,55 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import java.io.IOException;
+
+/**
+ * Observes the operations made through an {@link ErasureFileSystem}.
+ *
+ * <p>Implementations are called from every thread erasing files, and
+ * must therefore be thread-safe.
+ */
+interface OperationObserver {
+    /**
+     * An {@code OperationObserver} which ignores all operations.
+     */
+    OperationObserver NONE = new OperationObserver() {
+        @Override
+        public void operationCompleted(FileSystemOperation operation, long nanos) {}
+
+        @Override
+        public void operationFailed(FileSystemOperation operation, IOException e) {}
+
+        @Override
+        public void streamClosed(long bytes, long nanos, long writeNanos, long throttledNanos) {}
+    };
+
+    /**
+     * Called when an operation completes successfully.
+     *
+     * @param operation the operation
+     * @param nanos     the duration of the operation in nanoseconds
+     */
+    void operationCompleted(FileSystemOperation operation, long nanos);
+
+    /**
+     * Called when an operation fails.
+     *
+     * @param operation the operation
+     * @param e         the exception with which the operation failed
+     */
+    void operationFailed(FileSystemOperation operation, IOException e);
+
+    /**
+     * Called when an output stream is closed.
+     *
+     * @param bytes          the number of bytes written to the stream
+     * @param nanos          the number of nanoseconds between opening the
+     *                       stream and it being closed
+     * @param writeNanos     the number of nanoseconds spent writing to the
+     *                       stream
+     * @param throttledNanos the number of nanoseconds (included in
+     *                       {@code nanos}) spent waiting for the byte
+     *                       throttle before writing to the stream
+     */
+    void streamClosed(long bytes, long nanos, long writeNanos, long throttledNanos);
+}
@@ -64,6 +64,53 @@ public abstract class OutputStreamErasureSpec extends ErasureSpec {
         return (times == 1) ? this : Repeated.apply(this, times);
     }
 
+    /**
+     * Estimates the cost of erasing data of a specified length with this
+     * {@code OutputStreamErasureSpec}, without modifying it, by recording
+     * the file system operations it would make and the bytes it would write
+     * (see {@link FileErasureSpec#estimate(org.apache.hadoop.fs.FileStatus,
+     * ErasureEstimate)}).
+     *
+     * <p>By default, an {@code OutputStreamErasureSpec} is estimated to
+     * write over the whole length once, from a single stream (that is,
+     * creating and closing the file once). An
+     * {@code OutputStreamErasureSpec} combining others adds their costs.
+     *
+     * @param length   the length in bytes of the data
+     * @param estimate the estimate to which to add the cost
+     */
+    public void estimate(long length, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.CREATE);
+        estimate.write(length);
+        estimate.operation(FileSystemOperation.CLOSE);
+    }
+
+    /**
+     * Adds the passes which make up this {@code OutputStreamErasureSpec}
+     * to a plan being compiled (see {@link ErasurePlan#compile(FileErasureSpec)}).
+     *
+     * <p>An {@code OutputStreamErasureSpec} combining others adds their
+     * passes; any other adds itself.
+     *
+     * @param builder the builder of the plan
+     * @param logging whether or not to log each pass
+     */
+    void addSteps(ErasurePlan.Builder builder, boolean logging) {
+        builder.addPass(this, logging);
+    }
+
+    /**
+     * Returns an {@code OutputStreamErasureSpec} equivalent to this one,
+     * except that every {@code OutputStreamErasureSpec} which does not
+     * combine others is decorated by a {@link SpecDecorator}.
+     *
+     * @param decorator the decorator
+     * @return a decorated copy of this OutputStreamErasureSpec
+     */
+    OutputStreamErasureSpec decorate(SpecDecorator decorator) {
+        return decorator.decorate(this);
+    }
+
     /**
      * An OutputStreamErasureSpec which combines two OutputStreamErasureSpec in order.
      */
@@ -87,6 +134,28 @@ public abstract class OutputStreamErasureSpec extends ErasureSpec {
             return last.isTerminal();
         }
 
+        @Override
+        public String toString() {
+            return first + ", then " + last;
+        }
+
+        @Override
+        public void estimate(long length, ErasureEstimate estimate) {
+            first.estimate(length, estimate);
+            last.estimate(length, estimate);
+        }
+
+        @Override
+        void addSteps(ErasurePlan.Builder builder, boolean logging) {
+            first.addSteps(builder, logging);
+            last.addSteps(builder, logging);
+        }
+
+        @Override
+        OutputStreamErasureSpec decorate(SpecDecorator decorator) {
+            return new Cons(first.decorate(decorator), last.decorate(decorator));
+        }
+
         @Override
         public void setConf(Configuration conf) {
             super.setConf(conf);
@@ -122,6 +191,30 @@ public abstract class OutputStreamErasureSpec extends ErasureSpec {
             return false;
         }
 
+        @Override
+        public String toString() {
+            return times + " x (" + spec + ")";
+        }
+
+        @Override
+        public void estimate(long length, ErasureEstimate estimate) {
+            for (int i = 0; i < times; i++) {
+                spec.estimate(length, estimate);
+            }
+        }
+
+        @Override
+        void addSteps(ErasurePlan.Builder builder, boolean logging) {
+            ErasurePlan.Builder repeated = new ErasurePlan.Builder();
+            spec.addSteps(repeated, logging);
+            builder.addRepeated(repeated, times);
+        }
+
+        @Override
+        OutputStreamErasureSpec decorate(SpecDecorator decorator) {
+            return new Repeated(spec.decorate(decorator), times);
+        }
+
         @Override
         public void setConf(Configuration conf) {
             super.setConf(conf);
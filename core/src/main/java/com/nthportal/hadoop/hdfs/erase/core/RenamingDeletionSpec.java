@@ -0,0 +1,106 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Abstract specification for deleting files after renaming them one or more
+ * times, each rename starting from the name produced by the one before it.
+ *
+ * <p>Erasing a file is split into {@linkplain #startErasing(FileSystem, Path)
+ * starting}, a sequence of {@linkplain Renames renames}, and
+ * {@linkplain #finishErasing(FileSystem, Path) finishing}, so that the
+ * renames of a file need not be made by the thread erasing it. Where the
+ * HDFS client can rename files asynchronously (Hadoop 2.8 and later),
+ * {@link SecureErase} keeps the next rename of each of several files in
+ * flight at once, rather than waiting for each rename in turn; otherwise,
+ * and when a file is erased with {@link #eraseFile(FileSystem, Path)},
+ * the renames are made one at a time.
+ */
+public abstract class RenamingDeletionSpec extends FileErasureSpec {
+    @Override
+    public final boolean isTerminal() {
+        return true;
+    }
+
+    @Override
+    public final Phase getPhase() {
+        return Phase.METADATA;
+    }
+
+    @Override
+    public final void eraseFile(FileSystem fs, Path path) throws IOException {
+        Renames renames = startErasing(fs, path);
+        Path dst;
+        while ((dst = renames.next()) != null) {
+            boolean renamed;
+            try {
+                renamed = renameIfAbsent(fs, renames.getPath(), dst);
+            } catch (IOException e) {
+                renames.failed(e);
+                continue;
+            }
+            renames.completed(renamed);
+        }
+        finishErasing(fs, renames.getPath());
+    }
+
+    /**
+     * Starts erasing a file, doing everything which comes before renaming it
+     * (such as truncating it).
+     *
+     * @param fs   the file system on which the file resides
+     * @param path the path to the file
+     * @return the renames to make
+     * @throws IOException if an I/O error occurs while erasing the file
+     */
+    protected abstract Renames startErasing(FileSystem fs, Path path) throws IOException;
+
+    /**
+     * Finishes erasing a file once it has been renamed, deleting it.
+     *
+     * @param fs   the file system on which the file resides
+     * @param path the path to which the file has been renamed
+     * @throws IOException if an I/O error occurs while erasing the file
+     */
+    protected abstract void finishErasing(FileSystem fs, Path path) throws IOException;
+
+    /**
+     * The renames of a file, each of which is made (if the destination does
+     * not already exist) and reported back before the next is requested.
+     */
+    protected interface Renames {
+        /**
+         * Returns the current path to the file.
+         *
+         * @return the current path to the file
+         */
+        Path getPath();
+
+        /**
+         * Returns the destination of the next rename.
+         *
+         * @return the destination of the next rename, or {@code null} if
+         * the file has been renamed enough
+         * @throws IOException if too many renames have failed
+         */
+        Path next() throws IOException;
+
+        /**
+         * Reports that the last rename completed.
+         *
+         * @param renamed true if the file was renamed; false if the
+         *                destination already exists
+         */
+        void completed(boolean renamed);
+
+        /**
+         * Reports that the last rename failed.
+         *
+         * @param e the exception with which the rename failed
+         */
+        void failed(IOException e);
+    }
+}
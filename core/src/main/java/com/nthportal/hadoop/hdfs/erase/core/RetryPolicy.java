@@ -0,0 +1,137 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.AccessControlException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A policy for retrying a failed stage of erasing a file, with
+ * exponential backoff and jitter.
+ *
+ * <p>The delay before the {@code n}th retry is chosen uniformly at random
+ * between 0 and {@code min(maxDelay, baseDelay * 2^(n-1))} ("full
+ * jitter"), so that files which failed together (for example, because
+ * of a NameNode failover) are not all retried at the same moment.
+ *
+ * @see SecureErase.Conf#RETRIES
+ */
+final class RetryPolicy {
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Creates a new {@code RetryPolicy}.
+     *
+     * @param maxRetries      the maximum number of times to retry
+     * @param baseDelayMillis the maximum delay before the first retry
+     * @param maxDelayMillis  the maximum delay before any retry
+     */
+    private RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        // At most one less than Long.MAX_VALUE, so that the bound of a random delay does not overflow
+        this.baseDelayMillis = Math.min(Math.max(baseDelayMillis, 0), Long.MAX_VALUE - 1);
+        this.maxDelayMillis = Math.min(Math.max(maxDelayMillis, this.baseDelayMillis), Long.MAX_VALUE - 1);
+    }
+
+    /**
+     * Returns the maximum number of times to retry.
+     *
+     * @return the maximum number of times to retry
+     */
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the delay before a retry.
+     *
+     * @param retry the number of the retry (starting from 1)
+     * @return the delay in milliseconds before the retry
+     */
+    long delayMillis(int retry) {
+        long ceiling = baseDelayMillis;
+        for (int i = 1; i < retry && ceiling > 0 && ceiling < maxDelayMillis; i++) {
+            // Stop doubling at the maximum, rather than overflowing
+            ceiling = (ceiling > maxDelayMillis / 2) ? maxDelayMillis : ceiling << 1;
+        }
+        return (ceiling == 0) ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Returns whether or not a failure may be transient, and so worth
+     * retrying. Failures caused by a missing file, an existing destination,
+     * a lack of permission, a failed verification or an interruption are
+     * not retried, as retrying them would fail the same way.
+     *
+     * @param failure the failure
+     * @return true if the failure may be retried; false otherwise
+     */
+    static boolean isRetryable(Throwable failure) {
+        if (!(failure instanceof IOException)) {
+            return false;
+        }
+        IOException e = (failure instanceof RemoteException)
+                ? ((RemoteException) failure).unwrapRemoteException(FileNotFoundException.class,
+                FileAlreadyExistsException.class, AccessControlException.class)
+                : (IOException) failure;
+        return !(e instanceof FileNotFoundException
+                || e instanceof FileAlreadyExistsException
+                || e instanceof AccessControlException
+                || e instanceof ErasureVerificationException
+                || e instanceof InterruptedIOException);
+    }
+
+    /**
+     * The retry policies for each {@link FileSystemOperation}.
+     */
+    static final class Policies {
+        private final RetryPolicy defaultPolicy;
+        private final Map<FileSystemOperation, RetryPolicy> policies = new EnumMap<>(FileSystemOperation.class);
+
+        /**
+         * Creates the retry policies from a {@link Configuration}.
+         *
+         * @param conf the Configuration
+         * @see SecureErase.Conf#RETRIES
+         * @see SecureErase.Conf#RETRY_BASE_DELAY_MILLIS
+         * @see SecureErase.Conf#RETRY_MAX_DELAY_MILLIS
+         */
+        Policies(Configuration conf) {
+            int retries = conf.getInt(SecureErase.Conf.RETRIES, 0);
+            long baseDelay = conf.getLong(SecureErase.Conf.RETRY_BASE_DELAY_MILLIS, DEFAULT_BASE_DELAY_MILLIS);
+            long maxDelay = conf.getLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+            defaultPolicy = new RetryPolicy(retries, baseDelay, maxDelay);
+            for (FileSystemOperation operation : FileSystemOperation.values()) {
+                String suffix = "." + operation.name();
+                policies.put(operation, new RetryPolicy(
+                        conf.getInt(SecureErase.Conf.RETRIES + suffix, retries),
+                        conf.getLong(SecureErase.Conf.RETRY_BASE_DELAY_MILLIS + suffix, baseDelay),
+                        conf.getLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS + suffix, maxDelay)));
+            }
+        }
+
+        /**
+         * Returns the retry policy for a failed operation.
+         *
+         * @param operation the operation which failed, or {@code null} if
+         *                  the failure was not that of an operation (for
+         *                  example, a write to a file)
+         * @return the retry policy for the operation
+         */
+        RetryPolicy get(FileSystemOperation operation) {
+            return (operation == null) ? defaultPolicy : policies.get(operation);
+        }
+    }
+}
@@ -1,18 +1,41 @@
 package com.nthportal.hadoop.hdfs.erase.core;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * {@link org.apache.hadoop.conf.Configurable Configurable} object for
  * securely erasing files.
  */
 public final class SecureErase extends NonNullConfigured {
+    private static final Logger logger = Logger.getLogger(SecureErase.class);
+    private static final int DEFAULT_SMALL_FILE_CONCURRENCY = 16;
+    private static final int DEFAULT_GLOB_BATCH_SIZE = 10000;
+
+    private final TokenBucket byteThrottle;
+    private final TokenBucket operationThrottle;
+    private final List<EraseListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile List<EraseListener> configuredListeners;
+    private volatile boolean publishMetrics;
+
     /**
      * Creates a new {@code SecureErase} with a default {@link Configuration}.
      */
@@ -25,9 +48,108 @@ public final class SecureErase extends NonNullConfigured {
      *
      * @param conf the Configuration to use
      * @see Conf#LOG_ACTIONS
+     * @see Conf#BYTES_PER_SECOND
+     * @see Conf#OPERATIONS_PER_SECOND
+     * @see Conf#LISTENERS
+     * @see Conf#METRICS
      */
     public SecureErase(Configuration conf) {
+        this(conf,
+                new TokenBucket(conf.getLong(Conf.BYTES_PER_SECOND, 0)),
+                new TokenBucket(conf.getLong(Conf.OPERATIONS_PER_SECOND, 0)));
+    }
+
+    /**
+     * Creates a new {@code SecureErase} with the specified {@link Configuration}
+     * and throttles.
+     *
+     * @param conf              the Configuration to use
+     * @param byteThrottle      the throttle of bytes written
+     * @param operationThrottle the throttle of file system operations
+     */
+    private SecureErase(Configuration conf, TokenBucket byteThrottle, TokenBucket operationThrottle) {
         super(conf);
+        this.byteThrottle = byteThrottle;
+        this.operationThrottle = operationThrottle;
+        configuredListeners = conf.getInstances(Conf.LISTENERS, EraseListener.class);
+        publishMetrics = conf.getBoolean(Conf.METRICS, false);
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        if (initialized) {
+            setBytesPerSecond(conf.getLong(Conf.BYTES_PER_SECOND, 0));
+            setOperationsPerSecond(conf.getLong(Conf.OPERATIONS_PER_SECOND, 0));
+            configuredListeners = conf.getInstances(Conf.LISTENERS, EraseListener.class);
+            publishMetrics = conf.getBoolean(Conf.METRICS, false);
+        }
+    }
+
+    /**
+     * Returns a new {@code SecureErase} with the specified {@link Configuration}
+     * which shares this one's throughput limits, so that the bytes written
+     * and operations made by both together stay within them. The limits in
+     * the specified Configuration are ignored; setting the limits of either
+     * {@code SecureErase} (including by setting its Configuration) sets
+     * them for both.
+     *
+     * <p>Listeners are not shared.
+     *
+     * @param conf the Configuration to use
+     * @return a new SecureErase which shares this one's throughput limits
+     * @see #setBytesPerSecond(long)
+     * @see #setOperationsPerSecond(long)
+     */
+    public SecureErase sharingLimits(Configuration conf) {
+        return new SecureErase(conf, byteThrottle, operationThrottle);
+    }
+
+    /**
+     * Adds a listener for the progress of erasing files. The listener
+     * receives events for erasures started after it was added.
+     *
+     * @param listener the listener to add
+     * @see Conf#LISTENERS
+     */
+    public void addListener(EraseListener listener) {
+        listeners.add(Preconditions.checkNotNull(listener));
+    }
+
+    /**
+     * Removes a listener previously {@linkplain #addListener(EraseListener)
+     * added}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(EraseListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the maximum number of bytes per second written while overwriting
+     * files. The new limit applies immediately, including to erasures
+     * which are already in progress.
+     *
+     * @param bytesPerSecond the maximum number of bytes per second, or a
+     *                       non-positive value for no limit
+     * @see Conf#BYTES_PER_SECOND
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        byteThrottle.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Sets the maximum number of file system (NameNode) operations per
+     * second made while erasing files. The new limit applies immediately,
+     * including to erasures which are already in progress.
+     *
+     * @param operationsPerSecond the maximum number of operations per second,
+     *                            or a non-positive value for no limit
+     * @see Conf#OPERATIONS_PER_SECOND
+     */
+    public void setOperationsPerSecond(long operationsPerSecond) {
+        operationThrottle.setRate(operationsPerSecond);
     }
 
     /**
@@ -40,27 +162,415 @@ public final class SecureErase extends NonNullConfigured {
      * @throws IllegalArgumentException if the glob matches no files or non-regular
      *                                  files
      * @throws IOException              if an I/O error occurs while erasing the
-     *                                  files matching the glob
+     *                                  files matching the glob (which, if
+     *                                  {@linkplain Conf#MAX_FAILED_FILES
+     *                                  allowed}, is only thrown once every
+     *                                  other file has been erased)
      * @see FileSystem#globStatus(Path)
      */
     public void eraseGlob(Path pathGlob, FileErasureSpec erasureSpec) throws IllegalArgumentException, IOException {
         preConfigure();
         erasureSpec.setConf(getConf());
 
-        try (FileSystem fs = FileSystem.get(getConf())) {
-            FileStatus[] statuses = fs.globStatus(pathGlob);
-            Preconditions.checkArgument(statuses.length > 0, "glob does not match any files: " + pathGlob);
+        ConcurrencyController controller = newConcurrencyController();
+        EraseListener listener = listener();
+
+        FailedFiles failedFiles = newFailedFiles();
+
+        try (FileSystem fs = openFileSystem(controller, listener)) {
+            FileStatus[] statuses = globFiles(fs, pathGlob);
+
+            // Erase files
+            newEraseEngine(fs, erasureSpec, controller, failedFiles, listener)
+                    .erase(Arrays.asList(statuses), getConf().getBoolean(Conf.VIRTUAL_THREADS, false));
+        }
+        failedFiles.rethrow();
+    }
+
+    /**
+     * Erases files on HDFS matching any of a stream of globs, as a single
+     * erasure.
+     *
+     * <p>Globs are taken from the stream and expanded on a thread of their
+     * own while the files matching earlier globs are being erased, in
+     * batches of at most {@linkplain Conf#GLOB_BATCH_SIZE a configurable
+     * number} of files. Erasing starts as soon as the first glob has been
+     * expanded, and only about two batches of files are held at once, so
+     * the stream may be read lazily from a manifest of any length. Each
+     * batch is added to a single running erasure as soon as it has been
+     * expanded, so workers move on to the files of the next batch without
+     * waiting for the last files of the previous one, and every batch is
+     * erased through the same {@link FileSystem}, with the same limit on the
+     * number of files erased concurrently.
+     *
+     * <p>As with calling {@link #eraseGlob(Path, FileErasureSpec)} for each
+     * glob in turn, the files matching globs before a glob which fails to
+     * expand are erased before the failure is thrown. Files which fail to
+     * be erased count towards a single {@linkplain Conf#MAX_FAILED_FILES
+     * limit} for the whole stream; once it is exceeded, no further globs
+     * are expanded.
+     *
+     * @param pathGlobs   {@link Path}s containing
+     *                    {@link FileSystem#globStatus(Path) glob patterns}
+     * @param erasureSpec the {@link FileErasureSpec} with which to erase the
+     *                    files matching the globs
+     * @throws IllegalArgumentException if a glob matches no files or non-regular
+     *                                  files
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  the globs or erasing the files
+     *                                  matching them
+     */
+    public void eraseGlobs(Iterable<Path> pathGlobs, FileErasureSpec erasureSpec)
+            throws IllegalArgumentException, IOException {
+        erase(new FileBatcher<Path>(pathGlobs.iterator(), getConf().getInt(Conf.GLOB_BATCH_SIZE,
+                DEFAULT_GLOB_BATCH_SIZE)) {
+            @Override
+            FileStatus[] expand(Path pathGlob) throws IllegalArgumentException, IOException {
+                return globFiles(getFileSystem(), pathGlob);
+            }
+        }, erasureSpec);
+    }
 
-            // Check that statuses refer to regular files
-            for (FileStatus status : statuses) {
+    /**
+     * Erases files on HDFS whose statuses are already known (for example,
+     * from an {@linkplain FsImageSelector offline image} of the namespace),
+     * as a single erasure.
+     *
+     * <p>Files are erased as by {@link #eraseGlobs(Iterable, FileErasureSpec)},
+     * except that no globs are expanded, so the NameNode is only called upon
+     * to erase the files themselves. The statuses are used to order and group
+     * the files, and to report progress.
+     *
+     * <p>Since the statuses may be out of date, each file's current status
+     * is fetched (on the same thread as globs would be expanded) before the
+     * file is erased. A file is only erased if it is still a regular file
+     * with the length and modification time of its status and, if the
+     * status is an {@link InodeFileStatus} and the file is on HDFS, the same
+     * inode ID; otherwise it has been modified, deleted or replaced since
+     * its status was taken, and it is skipped (and a warning logged).
+     *
+     * @param files       the statuses of the files to erase
+     * @param erasureSpec the {@link FileErasureSpec} with which to erase the
+     *                    files
+     * @throws IllegalArgumentException if a status is not that of a regular
+     *                                  file
+     * @throws IOException              if an I/O error occurs while erasing
+     *                                  the files
+     */
+    public void eraseStatuses(Iterable<FileStatus> files, FileErasureSpec erasureSpec)
+            throws IllegalArgumentException, IOException {
+        erase(new FileBatcher<FileStatus>(files.iterator(), getConf().getInt(Conf.GLOB_BATCH_SIZE,
+                DEFAULT_GLOB_BATCH_SIZE)) {
+            @Override
+            FileStatus[] expand(FileStatus status) throws IllegalArgumentException, IOException {
                 Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + status.getPath());
+                FileStatus current = ((ErasureFileSystem) getFileSystem()).getInodeStatus(status.getPath());
+                if (!isUnchanged(status, current)) {
+                    logger.warn("Skipping file '" + status.getPath() + "', which has changed since its status was "
+                            + "taken (was " + status + "; now " + current + ")");
+                    return new FileStatus[0];
+                }
+                return new FileStatus[]{status};
             }
+        }, erasureSpec);
+    }
 
-            // Erase files
-            for (FileStatus status : statuses) {
-                erasureSpec.eraseFile(fs, status.getPath());
+    /**
+     * Returns whether or not a file is still the file described by an
+     * earlier status of it, unmodified.
+     *
+     * @param status  the earlier status of the file
+     * @param current the current status of the file, or {@code null} if it
+     *                no longer exists
+     * @return true if the file is unchanged; false otherwise
+     */
+    private static boolean isUnchanged(FileStatus status, FileStatus current) {
+        if (current == null
+                || !current.isFile()
+                || current.getLen() != status.getLen()
+                || current.getModificationTime() != status.getModificationTime()) {
+            return false;
+        }
+        return !(status instanceof InodeFileStatus && current instanceof InodeFileStatus)
+                || ((InodeFileStatus) status).getFileId() == ((InodeFileStatus) current).getFileId();
+    }
+
+    /**
+     * Erases the files expanded by a {@link FileBatcher} with a single
+     * {@link EraseEngine}, adding each batch as it is expanded.
+     *
+     * @param batcher     the FileBatcher, which has not yet been started
+     * @param erasureSpec the FileErasureSpec with which to erase the files
+     * @throws IllegalArgumentException if a file cannot be erased
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  or erasing the files
+     */
+    private void erase(FileBatcher<?> batcher, FileErasureSpec erasureSpec)
+            throws IllegalArgumentException, IOException {
+        preConfigure();
+        erasureSpec.setConf(getConf());
+
+        ConcurrencyController controller = newConcurrencyController();
+        EraseListener listener = listener();
+        FailedFiles failedFiles = newFailedFiles();
+        boolean virtualThreads = getConf().getBoolean(Conf.VIRTUAL_THREADS, false);
+
+        try (FileSystem fs = openFileSystem(controller, listener);
+             FileBatcher<?> started = batcher.start(fs)) {
+            newEraseEngine(fs, erasureSpec, controller, failedFiles, listener)
+                    .erase(started, started.getBatchSize(), virtualThreads);
+        }
+        failedFiles.rethrow();
+    }
+
+    /**
+     * Estimates the cost of erasing files on HDFS matching globs, without
+     * modifying any files.
+     *
+     * <p>Each glob is expanded once, as {@link #eraseGlob(Path, FileErasureSpec)}
+     * would expand it, and the {@linkplain ErasurePlan plan} with which the
+     * files would be erased is walked for each file to count the bytes which
+     * would be written and the file system operations which would be made
+     * (see {@link ErasureEstimate}). The estimate accounts for the configured
+     * concurrency, small file threshold and limits on bytes and operations
+     * per second.
+     *
+     * @param pathGlobs   {@link Path}s containing
+     *                    {@link FileSystem#globStatus(Path) glob patterns}
+     * @param erasureSpec the {@link FileErasureSpec} with which the files
+     *                    would be erased
+     * @return an estimate of the cost of erasing the files
+     * @throws IllegalArgumentException if a glob matches no files or non-regular
+     *                                  files
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  the globs
+     */
+    public ErasureEstimate estimateGlobs(Iterable<Path> pathGlobs, FileErasureSpec erasureSpec)
+            throws IllegalArgumentException, IOException {
+        preConfigure();
+        erasureSpec.setConf(getConf());
+        ErasurePlan plan = ErasurePlan.compile(erasureSpec);
+        ErasureEstimate estimate = newEstimate();
+
+        Configuration conf = getConf();
+        // A separate instance, so as not to close the cached FileSystem (unless it is reused)
+        FileSystem fs = reuseFileSystem() ? FileSystem.get(conf) : FileSystem.newInstance(conf);
+        try {
+            for (Path pathGlob : pathGlobs) {
+                for (FileStatus status : globFiles(fs, pathGlob)) {
+                    plan.estimate(status, estimate);
+                }
+            }
+        } finally {
+            if (!reuseFileSystem()) {
+                closeQuietly(fs);
             }
         }
+        return estimate;
+    }
+
+    /**
+     * Estimates the cost of erasing files on HDFS whose statuses are already
+     * known, without modifying any files or calling upon the NameNode.
+     *
+     * @param files       the statuses of the files
+     * @param erasureSpec the {@link FileErasureSpec} with which the files
+     *                    would be erased
+     * @return an estimate of the cost of erasing the files
+     * @throws IllegalArgumentException if a status is not that of a regular
+     *                                  file
+     * @see #estimateGlobs(Iterable, FileErasureSpec)
+     * @see #eraseStatuses(Iterable, FileErasureSpec)
+     */
+    public ErasureEstimate estimateStatuses(Iterable<FileStatus> files, FileErasureSpec erasureSpec)
+            throws IllegalArgumentException {
+        preConfigure();
+        erasureSpec.setConf(getConf());
+        ErasurePlan plan = ErasurePlan.compile(erasureSpec);
+        ErasureEstimate estimate = newEstimate();
+        for (FileStatus status : files) {
+            Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + status.getPath());
+            plan.estimate(status, estimate);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns a new, empty, {@link ErasureEstimate} for the configured
+     * concurrency and limits.
+     *
+     * @return a new ErasureEstimate
+     */
+    private ErasureEstimate newEstimate() {
+        Configuration conf = getConf();
+        return new ErasureEstimate(
+                conf.getInt(Conf.MAX_CONCURRENCY, 1),
+                conf.getLong(Conf.SMALL_FILE_THRESHOLD, 0),
+                conf.getInt(Conf.SMALL_FILE_CONCURRENCY, DEFAULT_SMALL_FILE_CONCURRENCY),
+                metadataConcurrency(),
+                conf.getLong(Conf.BYTES_PER_SECOND, 0),
+                conf.getLong(Conf.OPERATIONS_PER_SECOND, 0));
+    }
+
+    /**
+     * Erases files on HDFS matching a glob asynchronously.
+     *
+     * <p>The glob is expanded and the files are erased by tasks run on
+     * the specified {@link Executor}; no thread waits for the erasure to
+     * finish. The returned future fails if the glob cannot be expanded
+     * (for the same reasons that {@link #eraseGlob(Path, FileErasureSpec)}
+     * throws an exception before erasing any files); otherwise, it completes
+     * with the result of erasing each file once no more files are being
+     * erased. Once more files have failed than
+     * {@linkplain Conf#MAX_FAILED_FILES allowed}, no further files are
+     * started. Cancelling the returned future likewise stops further files
+     * from being started. If the Executor rejects an erasure task, no
+     * further files are started, and the returned future fails with the
+     * {@link RejectedExecutionException} once no more files are being
+     * erased.
+     *
+     * <p>Erasure tasks may block for long periods while waiting for file
+     * system operations; on Java 21 and later, an Executor which runs each
+     * task on a virtual thread allows many to be in flight cheaply.
+     *
+     * @param pathGlob    a {@link Path} containing a
+     *                    {@link FileSystem#globStatus(Path) glob pattern}
+     * @param erasureSpec the {@link FileErasureSpec} with which to erase the files
+     *                    matching the glob
+     * @param executor    the Executor with which to run erasure tasks
+     * @return a future which completes with the result of erasing each
+     * file matching the glob
+     * @see #eraseGlob(Path, FileErasureSpec)
+     */
+    public ListenableFuture<List<FileErasureResult>> eraseGlobAsync(final Path pathGlob,
+                                                                    FileErasureSpec erasureSpec,
+                                                                    Executor executor) {
+        return eraseAsync(erasureSpec, executor, new FileResolver() {
+            @Override
+            public FileStatus[] resolve(FileSystem fs) throws IOException {
+                return globFiles(fs, pathGlob);
+            }
+        });
+    }
+
+    /**
+     * Erases a file on HDFS asynchronously.
+     *
+     * <p>The file is erased by tasks run on the specified {@link Executor};
+     * no thread waits for the erasure to finish. The returned future fails
+     * if the path does not exist or does not refer to a regular file;
+     * otherwise, it completes with the result of erasing the file.
+     *
+     * @param path        the path to the file (MUST NOT be a glob)
+     * @param erasureSpec the {@link FileErasureSpec} with which to erase the file
+     * @param executor    the Executor with which to run erasure tasks
+     * @return a future which completes with the result of erasing the file
+     * @see #eraseFile(Path, FileErasureSpec)
+     */
+    public ListenableFuture<FileErasureResult> eraseFileAsync(final Path path,
+                                                            FileErasureSpec erasureSpec,
+                                                            Executor executor) {
+        ListenableFuture<List<FileErasureResult>> results = eraseAsync(erasureSpec, executor, new FileResolver() {
+            @Override
+            public FileStatus[] resolve(FileSystem fs) throws IOException {
+                Preconditions.checkArgument(fs.exists(path), "File does not exist: " + path);
+                FileStatus status = fs.getFileStatus(path);
+                Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + path);
+                return new FileStatus[]{status};
+            }
+        });
+        return Futures.transform(results, new Function<List<FileErasureResult>, FileErasureResult>() {
+            @Override
+            public FileErasureResult apply(List<FileErasureResult> input) {
+                return input.get(0);
+            }
+        });
+    }
+
+    /**
+     * Erases files asynchronously.
+     *
+     * <p>Each asynchronous erasure uses its own {@link FileSystem} instance
+     * (rather than the cached instance), which is closed once it finishes,
+     * so that concurrent erasures do not close each other's FileSystem;
+     * unless the cached instance is {@linkplain Conf#REUSE_FILE_SYSTEM
+     * reused}, in which case it is never closed.
+     *
+     * @param erasureSpec the FileErasureSpec with which to erase the files
+     * @param executor    the Executor with which to run erasure tasks
+     * @param resolver    the resolver of the files to erase
+     * @return a future which completes with the result of erasing each file
+     */
+    private ListenableFuture<List<FileErasureResult>> eraseAsync(final FileErasureSpec erasureSpec,
+                                                                 final Executor executor,
+                                                                 final FileResolver resolver) {
+        preConfigure();
+        erasureSpec.setConf(getConf());
+        final EraseListener listener = listener();
+
+        final SettableFuture<List<FileErasureResult>> result = SettableFuture.create();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isCancelled()) {
+                        return;
+                    }
+
+                    ConcurrencyController controller;
+                    final FileSystem fs;
+                    final EraseEngine engine;
+                    FileStatus[] statuses;
+                    try {
+                        controller = newConcurrencyController();
+                        fs = reuseFileSystem()
+                                ? new ErasureFileSystem(FileSystem.get(getConf()),
+                                        byteThrottle, operationThrottle, controller, listener, false)
+                                : new ErasureFileSystem(FileSystem.newInstance(getConf()),
+                                        byteThrottle, operationThrottle, controller, listener, true);
+                    } catch (Throwable t) {
+                        result.setException(t);
+                        return;
+                    }
+                    try {
+                        statuses = resolver.resolve(fs);
+                        engine = newEraseEngine(fs, erasureSpec, controller, newFailedFiles(), listener);
+                    } catch (Throwable t) {
+                        closeQuietly(fs);
+                        result.setException(t);
+                        return;
+                    }
+
+                    result.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (result.isCancelled()) {
+                                engine.cancel();
+                            }
+                        }
+                    }, MoreExecutors.sameThreadExecutor());
+
+                    final ListenableFuture<List<FileErasureResult>> results =
+                            engine.start(Arrays.asList(statuses), executor);
+                    results.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            closeQuietly(fs);
+                            try {
+                                result.set(results.get());
+                            } catch (ExecutionException e) {
+                                result.setException(e.getCause());
+                            } catch (Throwable t) {
+                                result.setException(t);
+                            }
+                        }
+                    }, MoreExecutors.sameThreadExecutor());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.setException(e);
+        }
+        return result;
     }
 
     /**
@@ -76,15 +586,167 @@ public final class SecureErase extends NonNullConfigured {
         preConfigure();
         erasureSpec.setConf(getConf());
 
-        try (FileSystem fs = FileSystem.get(getConf())) {
+        EraseListener listener = listener();
+
+        try (FileSystem fs = openFileSystem(OperationObserver.NONE, listener)) {
             // Check that path is a regular file
             Preconditions.checkArgument(fs.exists(path), "File does not exist: " + path);
-            Preconditions.checkArgument(fs.getFileStatus(path).isFile(), "Path is not a regular file: " + path);
+            FileStatus status = fs.getFileStatus(path);
+            Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + path);
+
+            listener.eraseStarted(1, status.getLen());
+            listener.fileStarted(status);
+            try {
+                erasureSpec.eraseFile(fs, path);
+            } catch (IOException | RuntimeException | Error e) {
+                listener.fileFinished(
+                        new FileErasureResult(path, status.getLen(), FileErasureResult.Status.FAILED, e));
+                listener.eraseFinished();
+                throw e;
+            }
+            listener.fileFinished(new FileErasureResult(path, status.getLen(), FileErasureResult.Status.ERASED, null));
+            listener.eraseFinished();
+        }
+    }
+
+    /**
+     * Returns the {@link FileSystem} through which files are erased.
+     *
+     * @param observer the observer of operations made through the FileSystem
+     * @param listener the listener to which to report bytes written
+     * @return the FileSystem through which files are erased
+     * @throws IOException if an I/O error occurs while getting the FileSystem
+     */
+    private FileSystem openFileSystem(OperationObserver observer, EraseListener listener) throws IOException {
+        return new ErasureFileSystem(FileSystem.get(getConf()), byteThrottle, operationThrottle, observer, listener,
+                !reuseFileSystem());
+    }
+
+    /**
+     * Returns whether or not to leave the cached {@link FileSystem} open
+     * once erasing files finishes.
+     *
+     * @return whether or not to reuse the cached FileSystem
+     * @see Conf#REUSE_FILE_SYSTEM
+     */
+    private boolean reuseFileSystem() {
+        return getConf().getBoolean(Conf.REUSE_FILE_SYSTEM, false);
+    }
+
+    /**
+     * Returns the number of files whose metadata phases to run concurrently.
+     *
+     * @return the number of files whose metadata phases to run concurrently
+     * @see Conf#METADATA_CONCURRENCY
+     */
+    private int metadataConcurrency() {
+        Configuration conf = getConf();
+        return conf.getInt(Conf.METADATA_CONCURRENCY, conf.getInt(Conf.MAX_CONCURRENCY, 1));
+    }
+
+    /**
+     * Returns the listener to which to report the progress of an erasure:
+     * the {@linkplain ErasureMetrics metrics} (if published), every
+     * configured listener, and every added listener, each
+     * {@linkplain EraseListener#forErasure() for this erasure}.
+     *
+     * @return the listener to which to report the progress of an erasure
+     */
+    private EraseListener listener() {
+        List<EraseListener> all = new ArrayList<>();
+        if (publishMetrics) {
+            all.add(ErasureMetrics.get());
+        }
+        all.addAll(configuredListeners);
+        all.addAll(listeners);
+        return EraseListeners.forErasure(all);
+    }
+
+    /**
+     * Expands a glob into the files to erase.
+     *
+     * @param fs       the file system on which to expand the glob
+     * @param pathGlob a {@link Path} containing a glob pattern
+     * @return the statuses of the files matching the glob
+     * @throws IllegalArgumentException if the glob matches no files or non-regular
+     *                                  files
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  the glob
+     */
+    private static FileStatus[] globFiles(FileSystem fs, Path pathGlob) throws IllegalArgumentException, IOException {
+        FileStatus[] statuses = fs.globStatus(pathGlob);
+        Preconditions.checkArgument(statuses != null && statuses.length > 0,
+                "glob does not match any files: " + pathGlob);
+
+        // Check that statuses refer to regular files
+        for (FileStatus status : statuses) {
+            Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + status.getPath());
+        }
+        return statuses;
+    }
+
+    /**
+     * Returns a new {@link EraseEngine} for erasing a group of files.
+     *
+     * @param fs          the file system on which the files reside
+     * @param erasureSpec the FileErasureSpec with which to erase the files
+     * @param controller  the controller limiting the number of files
+     *                    erased concurrently
+     * @param failedFiles the files which have failed to be erased
+     * @param listener    the listener to which to report progress
+     * @return a new EraseEngine
+     */
+    private EraseEngine newEraseEngine(FileSystem fs,
+                                       FileErasureSpec erasureSpec,
+                                       ConcurrencyController controller,
+                                       FailedFiles failedFiles,
+                                       EraseListener listener) {
+        Configuration conf = getConf();
+        return new EraseEngine(fs, erasureSpec, controller,
+                conf.getLong(Conf.SMALL_FILE_THRESHOLD, 0),
+                conf.getInt(Conf.SMALL_FILE_CONCURRENCY, DEFAULT_SMALL_FILE_CONCURRENCY),
+                metadataConcurrency(),
+                new RetryPolicy.Policies(conf),
+                failedFiles,
+                listener);
+    }
+
+    /**
+     * Returns a new, empty, {@link FailedFiles} for an erasure.
+     *
+     * @return a new FailedFiles
+     * @see Conf#MAX_FAILED_FILES
+     */
+    private FailedFiles newFailedFiles() {
+        return new FailedFiles(getConf().getInt(Conf.MAX_FAILED_FILES, 0));
+    }
 
-            erasureSpec.eraseFile(fs, path);
+    /**
+     * Closes a {@link FileSystem}, ignoring any exception.
+     *
+     * @param fs the FileSystem to close
+     */
+    private static void closeQuietly(FileSystem fs) {
+        try {
+            fs.close();
+        } catch (IOException ignored) {
         }
     }
 
+    /**
+     * Returns a new {@link ConcurrencyController} for erasing a group of files.
+     *
+     * @return a new ConcurrencyController
+     * @throws IllegalArgumentException if the configured concurrency limits
+     *                                  or latency tolerance are invalid
+     */
+    private ConcurrencyController newConcurrencyController() throws IllegalArgumentException {
+        Configuration conf = getConf();
+        int max = conf.getInt(Conf.MAX_CONCURRENCY, 1);
+        int min = conf.getInt(Conf.MIN_CONCURRENCY, Math.min(max, 1));
+        return new ConcurrencyController(min, max, conf.getDouble(Conf.LATENCY_TOLERANCE, 2.0));
+    }
+
     /**
      * Perform any configuration needed before erasing files.
      */
@@ -92,6 +754,22 @@ public final class SecureErase extends NonNullConfigured {
         getConf().setBooleanIfUnset(Conf.LOG_ACTIONS, false);
     }
 
+    /**
+     * Resolves the files to erase asynchronously.
+     */
+    private interface FileResolver {
+        /**
+         * Returns the statuses of the files to erase.
+         *
+         * @param fs the file system on which the files reside
+         * @return the statuses of the files to erase
+         * @throws IllegalArgumentException if the files cannot be erased
+         * @throws IOException              if an I/O error occurs while
+         *                                  resolving the files
+         */
+        FileStatus[] resolve(FileSystem fs) throws IllegalArgumentException, IOException;
+    }
+
     /**
      * Utility class for {@link Configuration} constants.
      */
@@ -100,6 +778,173 @@ public final class SecureErase extends NonNullConfigured {
          * Whether or not erasure specifications should log their actions.
          */
         public static final String LOG_ACTIONS = "com.nthportal.hdfs-secure-erase.LOG_ACTIONS";
+        /**
+         * The maximum number of bytes per second written while overwriting
+         * files (non-positive for no limit).
+         */
+        public static final String BYTES_PER_SECOND = "com.nthportal.hdfs-secure-erase.BYTES_PER_SECOND";
+        /**
+         * The maximum number of file system (NameNode) operations per second
+         * made while erasing files (non-positive for no limit).
+         */
+        public static final String OPERATIONS_PER_SECOND = "com.nthportal.hdfs-secure-erase.OPERATIONS_PER_SECOND";
+        /**
+         * The maximum number of files matching a glob to erase concurrently
+         * (default 1). If greater than {@link #MIN_CONCURRENCY}, the number
+         * of files erased concurrently adapts between the two limits based on
+         * the latency of file system operations and the throughput of
+         * overwrite passes.
+         *
+         * <p>Erasure specifications used with a maximum concurrency greater
+         * than 1 must be thread-safe.
+         */
+        public static final String MAX_CONCURRENCY = "com.nthportal.hdfs-secure-erase.MAX_CONCURRENCY";
+        /**
+         * The minimum (and initial) number of files matching a glob to erase
+         * concurrently (default 1).
+         */
+        public static final String MIN_CONCURRENCY = "com.nthportal.hdfs-secure-erase.MIN_CONCURRENCY";
+        /**
+         * The factor by which the latency of a file system operation may
+         * exceed its usual latency (or by which the throughput of an overwrite
+         * pass may fall below its usual throughput) before the number of
+         * files erased concurrently is reduced (default 2.0).
+         */
+        public static final String LATENCY_TOLERANCE = "com.nthportal.hdfs-secure-erase.LATENCY_TOLERANCE";
+        /**
+         * The size in bytes of the largest file to treat as a small file
+         * (default 0, meaning that no files are treated as small files).
+         *
+         * <p>Small files matching a glob are erased separately from other
+         * files, {@link #SMALL_FILE_CONCURRENCY many at a time}. When their
+         * sizes are obfuscated, they are truncated to 0 bytes in a single
+         * operation rather than one size at a time, which never waits for
+         * the last block to be recovered.
+         */
+        public static final String SMALL_FILE_THRESHOLD = "com.nthportal.hdfs-secure-erase.SMALL_FILE_THRESHOLD";
+        /**
+         * The number of {@link #SMALL_FILE_THRESHOLD small files} matching a
+         * glob to erase concurrently (default 16).
+         */
+        public static final String SMALL_FILE_CONCURRENCY = "com.nthportal.hdfs-secure-erase.SMALL_FILE_CONCURRENCY";
+        /**
+         * The number of files matching a glob whose
+         * {@linkplain FileErasureSpec.Phase#METADATA metadata phases} (such
+         * as truncating, renaming and deleting them) to run concurrently
+         * (default {@link #MAX_CONCURRENCY}). A positive value runs metadata
+         * phases alongside the data phases (such as overwriting) of other
+         * files; a non-positive value runs every phase of erasing a file on
+         * the same worker instead. The default lets as many files be in
+         * their metadata phases as in their data phases, so that splitting
+         * the phases does not serialize metadata phases which would
+         * otherwise have run concurrently.
+         *
+         * <p>If metadata phases are slower than data phases, files whose
+         * data phases have finished queue up for their metadata phases. Once
+         * four files per metadata worker are queued, no further files are
+         * started until the queue shrinks, so the number of files which have
+         * been overwritten but not yet renamed and deleted stays bounded.
+         *
+         * <p>Where the HDFS client can rename files asynchronously (Hadoop
+         * 2.8 and later), a metadata worker deleting files with a
+         * {@link RenamingDeletionSpec} renames several files at once, so
+         * more files than this may be in their metadata phases together.
+         */
+        public static final String METADATA_CONCURRENCY = "com.nthportal.hdfs-secure-erase.METADATA_CONCURRENCY";
+        /**
+         * Whether or not to erase files matching a glob on virtual threads
+         * (default false). Requires Java 21 or later; on earlier versions,
+         * platform threads are used instead.
+         *
+         * <p>Erasing files consists largely of waiting for NameNode
+         * operations, so virtual threads make it cheap to have many files in
+         * flight at once; this is most useful together with a high
+         * {@link #METADATA_CONCURRENCY} or {@link #SMALL_FILE_CONCURRENCY}.
+         */
+        public static final String VIRTUAL_THREADS = "com.nthportal.hdfs-secure-erase.VIRTUAL_THREADS";
+        /**
+         * A comma-separated list of the names of {@link EraseListener}
+         * classes (which must have a default constructor) to notify of the
+         * progress of erasing files. Listeners which are
+         * {@link org.apache.hadoop.conf.Configurable Configurable} are
+         * configured with the {@code SecureErase}'s configuration.
+         */
+        public static final String LISTENERS = "com.nthportal.hdfs-secure-erase.LISTENERS";
+        /**
+         * Whether or not to publish {@linkplain ErasureMetrics metrics} for
+         * erasing files through the Hadoop metrics system and JMX
+         * (default false).
+         */
+        public static final String METRICS = "com.nthportal.hdfs-secure-erase.METRICS";
+        /**
+         * Whether or not to erase files through the cached {@link FileSystem}
+         * for the configuration, and leave it open once erasing them finishes
+         * (default false). Otherwise, the FileSystem through which files are
+         * erased is closed once erasing them finishes.
+         *
+         * <p>A long-running process which erases files repeatedly (such as
+         * the erase service of the command-line tool) reuses the FileSystem,
+         * so that its client stays connected to the NameNode between
+         * erasures; the process is responsible for closing it.
+         */
+        public static final String REUSE_FILE_SYSTEM = "com.nthportal.hdfs-secure-erase.REUSE_FILE_SYSTEM";
+        /**
+         * The maximum number of files to erase as a batch when erasing files
+         * matching a {@linkplain SecureErase#eraseGlobs(Iterable, FileErasureSpec)
+         * stream of globs} (default 10000). A batch is only taken once fewer
+         * than this many files are waiting to be started, so larger batches
+         * let globs be expanded further ahead of the files being erased, at
+         * the cost of holding more file statuses in memory.
+         */
+        public static final String GLOB_BATCH_SIZE = "com.nthportal.hdfs-secure-erase.GLOB_BATCH_SIZE";
+        /**
+         * The maximum number of times to retry a failed phase of erasing a
+         * file matching a glob, since the file last made progress (default
+         * 0). Only failures which may be transient (such as a broken write
+         * pipeline, an expired lease or a failed rename) are retried; a
+         * missing file, an existing destination, a lack of permission, a
+         * failed verification or an interruption fails the file at once.
+         *
+         * <p>A retry resumes the phase from the pass (or step) which failed,
+         * at the file's current path, rather than erasing the file from the
+         * start: completed overwrite passes are not repeated, and a file
+         * whose name has been partly obfuscated carries on being renamed
+         * from its current name. If the file was left open by a failed
+         * write, its lease is recovered first.
+         *
+         * <p>The value may be overridden for failures of a particular
+         * {@link FileSystemOperation} by appending its name to this key
+         * (for example, {@code com.nthportal.hdfs-secure-erase.RETRIES.RENAME});
+         * as may {@link #RETRY_BASE_DELAY_MILLIS} and
+         * {@link #RETRY_MAX_DELAY_MILLIS}. Failures not caused by an
+         * operation (such as writes to a file) use the unsuffixed values.
+         */
+        public static final String RETRIES = "com.nthportal.hdfs-secure-erase.RETRIES";
+        /**
+         * The maximum delay in milliseconds before the first retry of a
+         * failed phase (default 100). The maximum delay doubles with every
+         * further retry, up to {@link #RETRY_MAX_DELAY_MILLIS}, and the
+         * actual delay is chosen at random up to it, so that files which
+         * failed together are not all retried together.
+         */
+        public static final String RETRY_BASE_DELAY_MILLIS = "com.nthportal.hdfs-secure-erase.RETRY_BASE_DELAY_MILLIS";
+        /**
+         * The maximum delay in milliseconds before any retry of a failed
+         * phase (default 30000).
+         */
+        public static final String RETRY_MAX_DELAY_MILLIS = "com.nthportal.hdfs-secure-erase.RETRY_MAX_DELAY_MILLIS";
+        /**
+         * The number of files matching a glob (or globs) which may fail to
+         * be erased, once any {@linkplain #RETRIES retries} are exhausted,
+         * before no further files are started (default 0; negative for no
+         * limit). Until then, a file which fails is set aside and the
+         * remaining files carry on being erased; the first failure (with
+         * the others {@linkplain Throwable#addSuppressed(Throwable)
+         * suppressed}) is thrown once every file has been tried. Failed
+         * files are reported to {@link EraseListener}s, with the path at
+         * which each remains (see {@link FileErasureResult#getCurrentPath()}).
+         */
+        public static final String MAX_FAILED_FILES = "com.nthportal.hdfs-secure-erase.MAX_FAILED_FILES";
 
         private Conf() {}
     }
@@ -0,0 +1,26 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+/**
+ * Decorates the erasure specifications which make up a (possibly
+ * combined) erasure specification.
+ *
+ * @see FileErasureSpec#decorate(SpecDecorator)
+ * @see OutputStreamErasureSpec#decorate(SpecDecorator)
+ */
+interface SpecDecorator {
+    /**
+     * Decorates a {@link FileErasureSpec} which does not combine others.
+     *
+     * @param spec the FileErasureSpec to decorate
+     * @return the decorated FileErasureSpec
+     */
+    FileErasureSpec decorate(FileErasureSpec spec);
+
+    /**
+     * Decorates an {@link OutputStreamErasureSpec} which does not combine others.
+     *
+     * @param spec the OutputStreamErasureSpec to decorate
+     * @return the decorated OutputStreamErasureSpec
+     */
+    OutputStreamErasureSpec decorate(OutputStreamErasureSpec spec);
+}
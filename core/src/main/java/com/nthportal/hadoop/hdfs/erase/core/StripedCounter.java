@@ -0,0 +1,55 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which is cheap to add to from many threads at once.
+ *
+ * <p>Additions are spread across several cells, chosen by the ID of the
+ * adding thread, so that threads rarely contend for the same cell; the
+ * cells are spaced a cache line apart, so that threads adding to different
+ * cells do not contend for the same cache line either. Reading the value
+ * sums the cells, and is comparatively expensive.
+ */
+final class StripedCounter {
+    private static final int PADDING = 8; // 8 longs = 64 bytes, the size of a typical cache line
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Returns the number of stripes: the smallest power of two at least
+     * twice the number of processors.
+     *
+     * @return the number of stripes
+     */
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(processors * 2 - 1, 1)) << 1;
+    }
+
+    /**
+     * Adds to this counter.
+     *
+     * @param x the amount to add
+     */
+    void add(long x) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, x);
+    }
+
+    /**
+     * Returns the current value of this counter. The value is not an atomic
+     * snapshot if other threads are adding to this counter concurrently.
+     *
+     * @return the current value of this counter
+     */
+    long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+}
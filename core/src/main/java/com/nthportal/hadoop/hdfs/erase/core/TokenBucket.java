@@ -0,0 +1,127 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which limits the rate at which permits (for example,
+ * bytes or operations) may be acquired.
+ *
+ * <p>The bucket holds at most one second's worth of permits, so that short
+ * bursts are allowed after idle periods. Acquiring more permits than are
+ * available puts the bucket into debt rather than failing, and the
+ * acquiring thread sleeps until the debt would be repaid; this allows
+ * permits to be acquired in chunks larger than the rate itself.
+ *
+ * <p>The rate may be changed at any time, and the change is seen
+ * immediately by all threads acquiring permits. A non-positive rate
+ * means that permits are unlimited.
+ */
+final class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long permitsPerSecond;
+    private double available;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a new {@code TokenBucket} with the specified rate.
+     *
+     * @param permitsPerSecond the number of permits per second, or a
+     *                         non-positive value for unlimited permits
+     */
+    TokenBucket(long permitsPerSecond) {
+        this(permitsPerSecond, System.nanoTime());
+    }
+
+    /**
+     * Creates a new {@code TokenBucket} with the specified rate, which is
+     * full at the specified time.
+     *
+     * @param permitsPerSecond the number of permits per second, or a
+     *                         non-positive value for unlimited permits
+     * @param nowNanos         the current value of {@link System#nanoTime()}
+     */
+    TokenBucket(long permitsPerSecond, long nowNanos) {
+        this.permitsPerSecond = permitsPerSecond;
+        available = Math.max(permitsPerSecond, 0);
+        lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Returns the number of permits per second.
+     *
+     * @return the number of permits per second, or a non-positive value
+     * if permits are unlimited
+     */
+    long getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Sets the number of permits per second.
+     *
+     * @param permitsPerSecond the number of permits per second, or a
+     *                         non-positive value for unlimited permits
+     */
+    synchronized void setRate(long permitsPerSecond) {
+        refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        available = Math.min(available, Math.max(permitsPerSecond, 0));
+    }
+
+    /**
+     * Acquires the specified number of permits, sleeping if necessary
+     * until the rate allows them to be used.
+     *
+     * @param permits the number of permits to acquire
+     * @throws InterruptedIOException if interrupted while waiting for permits
+     */
+    void acquire(long permits) throws InterruptedIOException {
+        if (permitsPerSecond <= 0 || permits <= 0) {
+            return;
+        }
+
+        long waitNanos = reserve(permits, System.nanoTime());
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException("Interrupted while throttled").initCause(e);
+            }
+        }
+    }
+
+    /**
+     * Reserves the specified number of permits.
+     *
+     * @param permits  the number of permits to reserve
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     * @return the number of nanoseconds to wait before using the permits
+     */
+    synchronized long reserve(long permits, long nowNanos) {
+        long rate = permitsPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+
+        refill(nowNanos);
+        available -= permits;
+        return (available >= 0) ? 0 : (long) (-available * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Adds the permits accumulated since the last refill, up to one
+     * second's worth of permits.
+     *
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     */
+    private void refill(long nowNanos) {
+        long rate = permitsPerSecond;
+        if (rate > 0) {
+            available = Math.min(available + (nowNanos - lastRefillNanos) * (double) rate / NANOS_PER_SECOND, rate);
+        }
+        lastRefillNanos = nowNanos;
+    }
+}
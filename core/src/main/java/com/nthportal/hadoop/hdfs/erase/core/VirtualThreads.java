@@ -0,0 +1,83 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Utility class for creating executors which run each task on its own
+ * virtual thread, on Java versions which support virtual threads (21 and
+ * later).
+ *
+ * <p>Virtual threads are accessed reflectively, so that this project can
+ * continue to be built for and run on earlier Java versions.
+ */
+final class VirtualThreads {
+    private static final String THREAD_NAME_PREFIX = "secure-erase-virtual-";
+
+    private VirtualThreads() {}
+
+    /**
+     * Lazy initialization for the virtual thread API.
+     */
+    private static class Holder {
+        private static final Method ofVirtual;
+        private static final Method name;
+        private static final Method factory;
+        private static final Method newThreadPerTaskExecutor;
+
+        static {
+            Method ofVirtualMethod = null;
+            Method nameMethod = null;
+            Method factoryMethod = null;
+            Method newExecutorMethod = null;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+                nameMethod = builderClass.getMethod("name", String.class, long.class);
+                factoryMethod = builderClass.getMethod("factory");
+                newExecutorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                ofVirtualMethod = null;
+            }
+            ofVirtual = ofVirtualMethod;
+            name = nameMethod;
+            factory = factoryMethod;
+            newThreadPerTaskExecutor = newExecutorMethod;
+        }
+    }
+
+    /**
+     * Returns whether or not virtual threads are supported by the running JVM.
+     *
+     * @return true if virtual threads are supported; false otherwise
+     */
+    static boolean isSupported() {
+        return Holder.ofVirtual != null;
+    }
+
+    /**
+     * Returns a new {@link ExecutorService} which runs each task on a new
+     * virtual thread.
+     *
+     * @return a new ExecutorService which runs each task on a new virtual thread
+     * @throws UnsupportedOperationException if virtual threads are not
+     *                                       supported by the running JVM
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() throws UnsupportedOperationException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+
+        try {
+            Object builder = Holder.ofVirtual.invoke(null);
+            builder = Holder.name.invoke(builder, THREAD_NAME_PREFIX, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) Holder.factory.invoke(builder);
+            return (ExecutorService) Holder.newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Unable to create virtual threads", e);
+        }
+    }
+}
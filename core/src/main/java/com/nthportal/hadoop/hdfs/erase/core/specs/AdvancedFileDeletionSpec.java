@@ -1,19 +1,27 @@
 package com.nthportal.hadoop.hdfs.erase.core.specs;
 
-import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.common.annotations.VisibleForTesting;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import com.nthportal.hadoop.hdfs.erase.core.RenamingDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Configurable specification for deleting files.
  */
-public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
+public final class AdvancedFileDeletionSpec extends RenamingDeletionSpec {
     private static final long SMALL_FILE_THRESHOLD = 64;
     private static final List<Character> FILE_NAME_CHARS;
     private static final long TRUNCATE_WAIT_MILLIS = 20;
@@ -44,6 +52,7 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
     }
 
     private final Conf conf;
+    private long smallFileThreshold = 0;
 
     /**
      * Creates a specification from the specified configuration.
@@ -55,7 +64,15 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
     }
 
     @Override
-    public void eraseFile(FileSystem fs, Path path) throws IOException {
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        if (initialized) {
+            smallFileThreshold = conf.getLong(SecureErase.Conf.SMALL_FILE_THRESHOLD, 0);
+        }
+    }
+
+    @Override
+    protected Renames startErasing(FileSystem fs, Path path) throws IOException {
         boolean logActions = isLoggingEnabled();
         if (logActions) {
             logger.info("Deleting file: " + path);
@@ -65,63 +82,130 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
             if (logActions) {
                 logger.info("Truncating file: " + path);
             }
-            truncateFile(fs, path, logActions);
+            truncateFile(fs, path, smallFileThreshold, logActions);
         }
 
         if (conf.obfuscateFileName()) {
             if (logActions) {
                 logger.info("Obfuscating file name: " + path);
             }
-            path = obfuscateFileName(fs, path, logActions);
+            return new FileNameObfuscator(fs, path, logActions);
         }
+        return noRenames(path);
+    }
 
-        if (logActions) {
+    @Override
+    protected void finishErasing(FileSystem fs, Path path) throws IOException {
+        if (isLoggingEnabled()) {
             logger.info("Removing file: " + path);
         }
         fs.delete(path, false);
     }
 
+    @Override
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        if (conf.obfuscateFileSize()) {
+            estimateTruncation(file.getLen(), file.getBlockSize(), file.getLen() <= smallFileThreshold, estimate);
+        }
+        if (conf.obfuscateFileName()) {
+            // One rename to each shorter name, assuming none is already in use
+            estimate.operations(FileSystemOperation.RENAME, file.getPath().getName().length());
+        }
+        estimate.operation(FileSystemOperation.DELETE);
+    }
+
+    @Override
+    public String toString() {
+        List<String> actions = new ArrayList<>();
+        if (conf.obfuscateFileSize()) {
+            actions.add((smallFileThreshold > 0) ? "truncate (emptying small files at once)" : "truncate");
+        }
+        if (conf.obfuscateFileName()) {
+            actions.add("rename");
+        }
+        actions.add("delete");
+        return StringUtils.join(actions, ", then ");
+    }
+
     /**
      * Truncates a file.
      *
-     * @param fs         the file system on which the file resides
-     * @param path       the path to the file
-     * @param logActions whether or not to log actions
+     * <p>Files no larger than the small file threshold are truncated to 0
+     * bytes in a single operation, which never waits for block recovery,
+     * instead of being shrunk one size at a time (see
+     * {@link SecureErase.Conf#SMALL_FILE_THRESHOLD}).
+     *
+     * @param fs                 the file system on which the file resides
+     * @param path               the path to the file
+     * @param smallFileThreshold the size in bytes of the largest file to
+     *                           truncate to 0 bytes at once
+     * @param logActions         whether or not to log actions
      * @throws IOException if an I/O error occurs while truncating the file
      */
-    private static void truncateFile(FileSystem fs, Path path, boolean logActions) throws IOException {
+    private static void truncateFile(FileSystem fs, Path path, long smallFileThreshold, boolean logActions)
+            throws IOException {
         long size = fs.getFileStatus(path).getLen();
+        if (size <= smallFileThreshold) {
+            if (size > 0) {
+                truncateToSize(fs, path, 0, logActions);
+            }
+            return;
+        }
 
-        if (size > SMALL_FILE_THRESHOLD) {
-            // Resize to power of 2 bytes
-            size = 1L << (Long.SIZE - 1 - Long.numberOfLeadingZeros(size));
+        while (size > 0) {
+            size = nextTruncatedSize(size);
             truncateToSize(fs, path, size, logActions);
-
-            // Cut size in half until small
-            while (size > SMALL_FILE_THRESHOLD) {
-                size >>= 1;
-                truncateToSize(fs, path, size, logActions);
-            }
         }
+    }
 
-        truncateSmallFile(fs, path, size, logActions);
+    /**
+     * Returns the size to which to truncate a file next.
+     *
+     * <p>A file larger than SMALL_FILE_THRESHOLD is first resized to a power
+     * of 2 bytes (unless it already is), and then cut in half until small;
+     * a small file is shrunk by about 1/8 (however, always at least 1 byte)
+     * until its size is 0.
+     *
+     * @param size the current size of the file in bytes (must be positive)
+     * @return the next size of the file in bytes
+     */
+    private static long nextTruncatedSize(long size) {
+        if (size > SMALL_FILE_THRESHOLD) {
+            long powerOf2 = Long.highestOneBit(size);
+            return (powerOf2 != size) ? powerOf2 : size >> 1;
+        }
+        return size - Math.max(size >> 3, 1);
     }
 
     /**
-     * Truncates a file smaller than SMALL_FILE_THRESHOLD.
+     * Estimates the cost of truncating a file, as
+     * {@link #truncateFile(FileSystem, Path, long, boolean)} would.
      *
-     * @param fs         the file system on which the file resides
-     * @param path       the path to the file
-     * @param size       the size of the file in bytes
-     * @param logActions whether or not to log actions
-     * @throws IOException if an I/O error occurs while truncating the file
+     * <p>Truncating a file to a size which is not a multiple of its block
+     * size waits for the last block to be recovered, which is estimated to
+     * take a single status check.
+     *
+     * @param size      the size of the file in bytes
+     * @param blockSize the block size of the file
+     * @param small     whether the file is no larger than the small file
+     *                  threshold, and so is truncated to 0 bytes at once
+     * @param estimate  the estimate to which to add the cost
      */
-    private static void truncateSmallFile(FileSystem fs, Path path, long size, boolean logActions) throws IOException {
-        // shrink size by about 1/8 (however, always at least 1 byte)
-        // until size is 0
+    private static void estimateTruncation(long size, long blockSize, boolean small, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+        if (small) {
+            if (size > 0) {
+                estimate.operation(FileSystemOperation.TRUNCATE);
+            }
+            return;
+        }
         while (size > 0) {
-            size -= (Math.max(size >> 3, 1));
-            truncateToSize(fs, path, size, logActions);
+            size = nextTruncatedSize(size);
+            estimate.operation(FileSystemOperation.TRUNCATE);
+            if (blockSize > 0 && size % blockSize != 0) {
+                estimate.truncateRecovery();
+                estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+            }
         }
     }
 
@@ -135,7 +219,8 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
      * @param logActions whether or not to log actions
      * @throws IOException if an I/O error occurs while truncating the file
      */
-    private static void truncateToSize(FileSystem fs, Path path, long size, boolean logActions) throws IOException {
+    private static void truncateToSize(FileSystem fs, Path path, long size, boolean logActions)
+            throws IOException {
         if (logActions) {
             logger.debug("Truncating to size: " + size + "B");
         }
@@ -146,28 +231,61 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
                 logger.debug("Waiting for file to finish being truncated...");
             }
             do {
-                Uninterruptibles.sleepUninterruptibly(TRUNCATE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(TRUNCATE_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw (InterruptedIOException) new InterruptedIOException(
+                            "Interrupted while waiting for file to be truncated").initCause(e);
+                }
             } while (fs.getFileStatus(path).getLen() != size);
         }
     }
 
     /**
-     * Obfuscates the name of a file.
+     * Returns renames which leave a file's name as it is.
      *
-     * @param fs         the file system on which the file resides
-     * @param path       the path to the file
-     * @param logActions whether or not to log actions
-     * @return the new path to the file
-     * @throws IOException if an I/O error occurs while renaming the file
+     * @param path the path to the file
+     * @return renames which leave the file's name as it is
      */
-    private static Path obfuscateFileName(FileSystem fs, Path path, boolean logActions) throws IOException {
-        return new FileNameObfuscator(fs, path, logActions).obfuscate();
+    private static Renames noRenames(final Path path) {
+        return new Renames() {
+            @Override
+            public Path getPath() {
+                return path;
+            }
+
+            @Override
+            public Path next() {
+                return null;
+            }
+
+            @Override
+            public void completed(boolean renamed) {
+                throw new IllegalStateException("No renames to complete");
+            }
+
+            @Override
+            public void failed(IOException e) {
+                throw new IllegalStateException("No renames to fail");
+            }
+        };
     }
 
     /**
-     * Obfuscates a file's name.
+     * Obfuscates a file's name, by renaming it to names one character
+     * shorter at a time, down to a single character.
+     *
+     * <p>Each rename is made with {@link #renameIfAbsent(FileSystem, Path, Path)},
+     * which on HDFS fails atomically if the new name is already in use, so
+     * that names do not need to be checked before renaming. Each rename
+     * starts from the name produced by the one before it, so the renames of
+     * a file are made one at a time, either by {@link #obfuscate()} or, when
+     * erasing through {@link SecureErase}, by whichever thread is pipelining
+     * them with the renames of other files.
      */
-    private static final class FileNameObfuscator {
+    @VisibleForTesting
+    static final class FileNameObfuscator implements Renames {
         private static final int SHORT_NAME_MAX_LENGTH = 4;
         private static final int MEDIUM_NAME_MAX_LENGTH = 10;
         private static final int SHORT_NAME_ATTEMPTS = 4;
@@ -176,12 +294,23 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
         private static final int SHORT_NAME_MAX_FAILURES = 0;
         private static final int MEDIUM_NAME_MAX_FAILURES = 1;
         private static final int LONG_NAME_MAX_FAILURES = 3;
+        private static final int MAX_NAMES_IN_USE = 4096;
 
         private final FileSystem fs;
         private final Path parent;
         private final boolean log;
+        private final int attempts;
+        private final int maxFailures;
 
         private Path path;
+        private IOException lastFailure = null;
+        private int failures = 0;
+        private int targetLength;
+        // The candidate names of the target length, or null if the next length has not yet been started
+        private Iterator<String> names = null;
+        private int attemptsLeft;
+        private int namesInUse;
+        private Path destination = null;
 
         /**
          * Creates a new {@code FileNameObfuscator}.
@@ -195,132 +324,127 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
             this.path = path;
             parent = path.getParent();
             this.log = logActions;
-        }
-
-        /**
-         * Obfuscates the name of the file.
-         *
-         * @return the new path to the file
-         * @throws IOException if an I/O error occurs while renaming the file
-         */
-        Path obfuscate() throws IOException {
-            int nameLength = path.getName().length();
 
-            if (nameLength <= SHORT_NAME_MAX_LENGTH) {
-                obfuscateFileName(nameLength, SHORT_NAME_ATTEMPTS, SHORT_NAME_MAX_FAILURES);
-            } else if (nameLength <= MEDIUM_NAME_MAX_LENGTH) {
-                obfuscateFileName(nameLength, MEDIUM_NAME_ATTEMPTS, MEDIUM_NAME_MAX_FAILURES);
+            targetLength = path.getName().length();
+            if (targetLength <= SHORT_NAME_MAX_LENGTH) {
+                attempts = SHORT_NAME_ATTEMPTS;
+                maxFailures = SHORT_NAME_MAX_FAILURES;
+            } else if (targetLength <= MEDIUM_NAME_MAX_LENGTH) {
+                attempts = MEDIUM_NAME_ATTEMPTS;
+                maxFailures = MEDIUM_NAME_MAX_FAILURES;
             } else {
-                obfuscateFileName(nameLength, LONG_NAME_ATTEMPTS, LONG_NAME_MAX_FAILURES);
+                attempts = LONG_NAME_ATTEMPTS;
+                maxFailures = LONG_NAME_MAX_FAILURES;
             }
-
-            return path;
         }
 
         /**
-         * Obfuscates the name of the file based on the specified parameters.
+         * Obfuscates the name of the file, making each rename in turn.
          *
-         * @param currentNameLength the current length of the file name
-         * @param attempts          the maximum number of attempts to obfuscate
-         *                          a file to a given length
-         * @param maxFailures       the maximum number of failed obfuscations
-         *                          (to a given length) allowed
+         * @return the new path to the file
          * @throws IOException if an I/O error occurred and the file name could
          *                     not be fully obfuscated
          */
-        private void obfuscateFileName(int currentNameLength, int attempts, int maxFailures) throws IOException {
-            int failures = 0;
-
-            while (currentNameLength > 0) {
-                if (!obfuscateToLength(currentNameLength, attempts)) {
-                    failures += 1;
-                }
-                if (failures > maxFailures) {
-                    throw new IOException("Failed to obfuscate file name for: " + path.toString());
+        Path obfuscate() throws IOException {
+            Path dst;
+            while ((dst = next()) != null) {
+                boolean renamed;
+                try {
+                    renamed = renameIfAbsent(fs, path, dst);
+                } catch (IOException e) {
+                    failed(e);
+                    continue;
                 }
-                currentNameLength--;
+                completed(renamed);
             }
+            return path;
+        }
+
+        @Override
+        public Path getPath() {
+            return path;
         }
 
         /**
-         * Renames the file to an obfuscated name of the specified length.
+         * {@inheritDoc}
+         *
+         * <p>Candidate names of each length are tried in order until the file
+         * is renamed or the maximum number of attempts have failed with an
+         * I/O error, in which case the failure counts towards the maximum
+         * number of failed obfuscations (and the last I/O error is kept as
+         * the cause of the exception thrown if there are too many).
+         * Candidates of each length longer than 1 start from a random one of
+         * the first {@code FILE_NAME_CHARS.size()} names, so that files whose
+         * renames are in flight together (such as siblings of the same
+         * length) rarely try the same name. Candidates already in use are
+         * skipped without counting as failed attempts; the number of them
+         * skipped is bounded separately, so that a rename which keeps
+         * failing without an I/O error cannot walk the whole space of names.
          *
-         * @param targetLength the length of the obfuscated name
-         * @param attempts     the maximum number of attempts to obfuscate the name
-         *                     to the specified length
-         * @return true if the file name was obfuscated to the specified length;
-         * false otherwise
-         * @throws IOException if an I/O error occurred while attempting to
-         *                     obfuscate the file name
+         * @throws IOException if too many obfuscations (to a given length)
+         *                     have failed
          */
-        private boolean obfuscateToLength(int targetLength, int attempts) throws IOException {
-            for (int i = 0; i < attempts; i++) {
-                Path newPath = findPathOfLength(fs, parent, targetLength);
-                if (newPath != null && rename(path, newPath)) {
-                    if (log) {
-                        logger.debug("Renamed '" + path + "' to '" + newPath + "'");
+        @Override
+        public Path next() throws IOException {
+            while (targetLength > 0) {
+                if (names == null) {
+                    names = namesOfLength(targetLength);
+                    if (targetLength > 1) {
+                        for (int skip = ThreadLocalRandom.current().nextInt(FILE_NAME_CHARS.size()); skip > 0; skip--) {
+                            names.next();
+                        }
                     }
-                    path = newPath;
-                    return true;
+                    attemptsLeft = attempts;
+                    namesInUse = 0;
                 }
+                try {
+                    if (attemptsLeft > 0 && namesInUse < MAX_NAMES_IN_USE && names.hasNext()) {
+                        destination = new Path(parent, names.next());
+                        return destination;
+                    }
+                } catch (StackOverflowError ignored) {
+                    // In the astronomically unlikely case that the file name
+                    // is absurdly long, nearly all possible permutations of
+                    // obfuscation names are already taken as names of other
+                    // files, and the iterator overflows the stack, this
+                    // handles it.
+                }
+
+                // Every attempt failed, or no file name not in use found
+                failures += 1;
+                if (failures > maxFailures) {
+                    throw new IOException("Failed to obfuscate file name for: " + path.toString(), lastFailure);
+                }
+                nextLength();
             }
-            return false;
+            return null;
         }
 
-        /**
-         * Renames {@code src} to {@code dest}.
-         *
-         * <p>Because the documentation for {@link FileSystem#rename(Path, Path)}
-         * is unclear, this method unambiguously returns a {@code boolean}
-         * specifying whether or not the renaming was successful, and does not
-         * throw an {@link IOException}.
-         *
-         * @param src  the source path
-         * @param dest the destination path
-         * @return true if the path was renamed; false otherwise
-         */
-        private boolean rename(Path src, Path dest) {
-            try {
-                return fs.rename(src, dest);
-            } catch (IOException ignored) {
+        @Override
+        public void completed(boolean renamed) {
+            if (renamed) {
                 if (log) {
-                    logger.warn("Failed to rename '" + src + "' to '" + dest + "'");
+                    logger.debug("Renamed '" + path + "' to '" + destination + "'");
                 }
-                return false;
+                path = destination;
+                nextLength();
+            } else {
+                namesInUse++;
             }
         }
 
-        /**
-         * Finds a path with an obfuscated file name of a specified length
-         * which does not already exist on a filesystem.
-         *
-         * @param fs the file system on which to find the path
-         * @param parent the path of the parent directory to contain the file
-         * @param length the length of the file name
-         * @return an obfuscated path which does not exist on the file system, or
-         * null if no path could be found
-         * @throws IOException if an I/O error occurs while finding the path
-         */
-        private static Path findPathOfLength(FileSystem fs, Path parent, int length) throws IOException {
-            try {
-                Iterator<String> names = namesOfLength(length);
-
-                while (names.hasNext()) {
-                    Path path = new Path(parent, names.next());
-                    if (!fs.exists(path)) {
-                        return path;
-                    }
-                }
-            } catch (StackOverflowError ignored) {
-                // In the astronomically unlikely case that the file name
-                // is absurdly long, nearly all possible permutations of
-                // obfuscation names are already taken as names of other
-                // files, and the iterator overflows the stack, this
-                // handles it.
+        @Override
+        public void failed(IOException e) {
+            if (log) {
+                logger.warn("Failed to rename '" + path + "' to '" + destination + "'");
             }
+            lastFailure = e;
+            attemptsLeft--;
+        }
 
-            // No file name not in use found
-            return null;
+        private void nextLength() {
+            targetLength--;
+            names = null;
         }
 
         /**
@@ -329,7 +453,8 @@ public final class AdvancedFileDeletionSpec extends FileDeletionSpec {
          * @param length the length of the file names
          * @return an iterator over possible file names of a given length
          */
-        private static Iterator<String> namesOfLength(final int length) {
+        @VisibleForTesting
+        static Iterator<String> namesOfLength(final int length) {
             return new Iterator<String>() {
                 private Iterator<Character> characterIterator = FILE_NAME_CHARS.iterator();
                 private Iterator<String> prefixIteratorInstance = null;
@@ -1,6 +1,9 @@
 package com.nthportal.hadoop.hdfs.erase.core.specs;
 
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
 import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
@@ -21,4 +24,14 @@ public final class BasicFileDeletionSpec extends FileDeletionSpec {
 
         fs.delete(path, false);
     }
+
+    @Override
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.DELETE);
+    }
+
+    @Override
+    public String toString() {
+        return "delete";
+    }
 }
@@ -34,6 +34,25 @@ public abstract class ByteProvider {
         return "unidentified bytes";
     }
 
+    /**
+     * Returns whether or not this {@code ByteProvider} is deterministic.
+     *
+     * <p>A deterministic {@code ByteProvider} always provides the same
+     * sequence of bytes when starting from an {@linkplain State#empty()
+     * empty state}, no matter how the sequence is split between calls to
+     * {@link #nextBytes(byte[], State)}. The contents of a file overwritten
+     * with bytes from a deterministic {@code ByteProvider} can therefore be
+     * predicted, and verified without reading them back
+     * (see {@link ChecksumVerificationSpec}).
+     *
+     * <p>By default, a {@code ByteProvider} is not deterministic.
+     *
+     * @return true if this ByteProvider is deterministic; false otherwise
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
     /**
      * Returns a ByteProvider which generates random bytes using a {@link SecureRandom}.
      *
@@ -86,6 +105,11 @@ public abstract class ByteProvider {
             public String description() {
                 return "zeros (0x00)";
             }
+
+            @Override
+            public boolean isDeterministic() {
+                return true;
+            }
         };
     }
 
@@ -110,6 +134,11 @@ public abstract class ByteProvider {
                 public String description() {
                     return "byte (0x" + Hex.encodeHexString(new byte[] {b}) + ")";
                 }
+
+                @Override
+                public boolean isDeterministic() {
+                    return true;
+                }
             };
         }
     }
@@ -137,44 +166,38 @@ public abstract class ByteProvider {
             public Reusability nextBytes(byte[] bytes, State state) {
                 // Handle offset from previous operation
                 int offsetIndex = state.getInt();
-                int initialSrcLen = toRepeat.length - offsetIndex;
-
-                // Bytes to provide are less than the remaining bytes in toRepeat
-                if (bytes.length < initialSrcLen) {
-                    System.arraycopy(toRepeat, offsetIndex, bytes, 0, bytes.length);
-                    state.setInt(offsetIndex + bytes.length);
-                    return Reusability.NONE;
-                }
+                int newIndex = (int) ((offsetIndex + (long) bytes.length) % toRepeat.length);
+                state.setInt(newIndex);
 
                 // Copy remnant of toRepeat from previous operation
+                int initialSrcLen = Math.min(toRepeat.length - offsetIndex, bytes.length);
                 System.arraycopy(toRepeat, offsetIndex, bytes, 0, initialSrcLen);
 
-                int effectiveDestLen = bytes.length - offsetIndex;
-
                 // Repeat toRepeat as needed to fill the rest of bytes
-                if (effectiveDestLen < toRepeat.length) {
-                    System.arraycopy(toRepeat, 0, bytes, offsetIndex, effectiveDestLen);
-                    state.setInt(effectiveDestLen);
-                    return (effectiveDestLen == offsetIndex) ? Reusability.EXACT : Reusability.NONE;
-                } else {
-                    System.arraycopy(toRepeat, 0, bytes, offsetIndex, toRepeat.length);
+                int effectiveDestLen = bytes.length - initialSrcLen;
+                if (effectiveDestLen > 0) {
+                    System.arraycopy(toRepeat, 0, bytes, initialSrcLen, Math.min(toRepeat.length, effectiveDestLen));
 
                     int currentLength = toRepeat.length;
                     while (currentLength < effectiveDestLen) {
-                        System.arraycopy(bytes, offsetIndex, bytes, offsetIndex + currentLength, Math.min(currentLength, effectiveDestLen - currentLength));
+                        System.arraycopy(bytes, initialSrcLen, bytes, initialSrcLen + currentLength,
+                                Math.min(currentLength, effectiveDestLen - currentLength));
                         currentLength *= 2;
                     }
-
-                    int newIndex = effectiveDestLen % toRepeat.length;
-                    state.setInt(newIndex);
-                    return (newIndex == offsetIndex) ? Reusability.EXACT : Reusability.NONE;
                 }
+
+                return (newIndex == offsetIndex) ? Reusability.EXACT : Reusability.NONE;
             }
 
             @Override
             public String description() {
                 return "byte pattern (0x" + Hex.encodeHexString(toRepeat) + ")";
             }
+
+            @Override
+            public boolean isDeterministic() {
+                return true;
+            }
         };
     }
 
@@ -0,0 +1,231 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.base.Preconditions;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A {@link FileErasureSpec} which verifies that a file was last overwritten
+ * with bytes from a {@linkplain ByteProvider#isDeterministic() deterministic}
+ * {@link ByteProvider}, without reading the file's contents back.
+ *
+ * <p>The checksum which HDFS would report for the file (an MD5 of the MD5s
+ * of the CRCs of each chunk of each block) is computed locally from the
+ * bytes the ByteProvider provides, using the file's block size and the
+ * CRC type and bytes per CRC of the checksum reported by the file system,
+ * and compared with the checksum reported by the file system. This requires
+ * one NameNode operation for the file, and one (small) DataNode operation
+ * per block, instead of reading every byte of the file.
+ *
+ * <p>CRCs of consecutive identical chunks (for example, when overwriting
+ * with a single repeated byte) are only computed once.
+ */
+public final class ChecksumVerificationSpec extends FileErasureSpec {
+    private static final int MD5_BUFFER_INITIAL_SIZE = 32;
+    private static final Logger logger = Logger.getLogger(ChecksumVerificationSpec.class);
+
+    private final ByteProvider byteProvider;
+
+    /**
+     * Creates a {@code ChecksumVerificationSpec} which verifies that files
+     * were last overwritten with bytes from the specified {@link ByteProvider}.
+     *
+     * @param byteProvider the ByteProvider with which files were last overwritten
+     * @throws IllegalArgumentException if the ByteProvider is not deterministic
+     */
+    public ChecksumVerificationSpec(ByteProvider byteProvider) throws IllegalArgumentException {
+        Preconditions.checkArgument(byteProvider.isDeterministic(),
+                "cannot verify checksums of bytes which are not deterministic: " + byteProvider.description());
+        this.byteProvider = byteProvider;
+    }
+
+    @Override
+    public void eraseFile(FileSystem fs, Path path) throws IOException {
+        if (isLoggingEnabled()) {
+            logger.info("Verifying checksum of " + byteProvider.description() + " for file: " + path);
+        }
+
+        FileStatus status = fs.getFileStatus(path);
+        if (status.getLen() == 0) {
+            return;
+        }
+
+        FileChecksum actual = fs.getFileChecksum(path);
+        if (!(actual instanceof MD5MD5CRC32FileChecksum)) {
+            throw new IOException("Unable to verify file without an MD5-of-MD5-of-CRC checksum: " + path
+                    + " (checksum: " + actual + ")");
+        }
+
+        MD5MD5CRC32FileChecksum checksum = (MD5MD5CRC32FileChecksum) actual;
+        FileChecksum expected = expectedChecksum(status.getLen(),
+                status.getBlockSize(),
+                checksum.getCrcType(),
+                checksum.getChecksumOpt().getBytesPerChecksum());
+        if (!expected.equals(actual)) {
+            throw new ErasureVerificationException(path, "Checksum mismatch for file '" + path + "' overwritten with "
+                    + byteProvider.description() + ": expected " + expected + ", but was " + actual);
+        }
+    }
+
+    @Override
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+        if (file.getLen() > 0) {
+            estimate.operation(FileSystemOperation.GET_FILE_CHECKSUM);
+        }
+    }
+
+    @Override
+    public boolean isTerminal() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "verify checksum of " + byteProvider.description();
+    }
+
+    @Override
+    public Phase getPhase() {
+        return Phase.METADATA;
+    }
+
+    /**
+     * Computes the checksum which the file system should report for a file
+     * overwritten with bytes from the {@link ByteProvider}.
+     *
+     * @param length      the length of the file
+     * @param blockSize   the block size of the file
+     * @param crcType     the type of CRC used for the file
+     * @param bytesPerCrc the number of bytes in each chunk with a CRC
+     * @return the checksum which the file system should report
+     * @throws IOException if the CRC type is not supported
+     */
+    private FileChecksum expectedChecksum(long length, long blockSize, DataChecksum.Type crcType, int bytesPerCrc)
+            throws IOException {
+        ChunkCrcs crcs = new ChunkCrcs(DataChecksum.newDataChecksum(crcType, bytesPerCrc));
+        MessageDigest blockDigest = newMd5();
+        MessageDigest fileDigest = newMd5();
+        byte[] crcBytes = new byte[4];
+        int blocks = 0;
+
+        long remaining = length;
+        long crcPerBlock = 0;
+        boolean firstBlock = true;
+        while (remaining > 0) {
+            long blockLength = Math.min(blockSize, remaining);
+            remaining -= blockLength;
+
+            long chunks = 0;
+            for (long blockRemaining = blockLength; blockRemaining > 0; chunks++) {
+                int chunkLength = (int) Math.min(bytesPerCrc, blockRemaining);
+                blockRemaining -= chunkLength;
+
+                int crc = crcs.next(chunkLength);
+                crcBytes[0] = (byte) (crc >>> 24);
+                crcBytes[1] = (byte) (crc >>> 16);
+                crcBytes[2] = (byte) (crc >>> 8);
+                crcBytes[3] = (byte) crc;
+                blockDigest.update(crcBytes);
+            }
+            fileDigest.update(blockDigest.digest());
+            blocks++;
+
+            // As reported by HDFS: the CRCs per block of the first block,
+            // but only if the file has more than one block
+            if (firstBlock && remaining > 0) {
+                crcPerBlock = chunks;
+            }
+            firstBlock = false;
+        }
+
+        // HDFS digests the whole buffer into which the block MD5s were
+        // written, including any unused capacity (which is zeroed)
+        int bufferSize = MD5_BUFFER_INITIAL_SIZE;
+        while (bufferSize < blocks * MD5Hash.MD5_LEN) {
+            bufferSize <<= 1;
+        }
+        fileDigest.update(new byte[bufferSize - blocks * MD5Hash.MD5_LEN]);
+
+        MD5Hash md5 = new MD5Hash(fileDigest.digest());
+        switch (crcType) {
+            case CRC32:
+                return new MD5MD5CRC32GzipFileChecksum(bytesPerCrc, crcPerBlock, md5);
+            case CRC32C:
+                return new MD5MD5CRC32CastagnoliFileChecksum(bytesPerCrc, crcPerBlock, md5);
+            default:
+                throw new IOException("Unsupported CRC type: " + crcType);
+        }
+    }
+
+    /**
+     * Returns a new MD5 {@link MessageDigest}.
+     *
+     * @return a new MD5 MessageDigest
+     */
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("MD5 is required to be supported", e);
+        }
+    }
+
+    /**
+     * Computes the CRCs of consecutive chunks of the bytes provided by the
+     * {@link ByteProvider}, reusing bytes (and their CRCs) in the same way
+     * as {@link OverwriteSpec}.
+     */
+    private final class ChunkCrcs {
+        private final DataChecksum checksum;
+        private final ByteProvider.State state = ByteProvider.State.empty();
+        private ByteProvider.Reusability reusability = ByteProvider.Reusability.NONE;
+        private byte[] bytes = new byte[0];
+        private int crc;
+
+        private ChunkCrcs(DataChecksum checksum) {
+            this.checksum = checksum;
+        }
+
+        /**
+         * Returns the CRC of the next chunk of bytes.
+         *
+         * @param length the length of the chunk
+         * @return the CRC of the next chunk of bytes
+         */
+        int next(int length) {
+            if (length == bytes.length && reusability != ByteProvider.Reusability.NONE) {
+                return crc;
+            }
+
+            if (length < bytes.length && reusability == ByteProvider.Reusability.PREFIX_UNLIMITED) {
+                bytes = Arrays.copyOfRange(bytes, 0, length);
+            } else {
+                bytes = new byte[length];
+                reusability = byteProvider.nextBytes(bytes, state);
+            }
+
+            checksum.reset();
+            checksum.update(bytes, 0, length);
+            crc = (int) checksum.getValue();
+            return crc;
+        }
+    }
+}
@@ -10,4 +10,9 @@ abstract class FileDeletionSpec extends FileErasureSpec {
     public final boolean isTerminal() {
         return true;
     }
+
+    @Override
+    public final Phase getPhase() {
+        return Phase.METADATA;
+    }
 }
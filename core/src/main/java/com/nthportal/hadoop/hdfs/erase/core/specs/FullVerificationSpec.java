@@ -0,0 +1,224 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.base.Preconditions;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link FileErasureSpec} which verifies that a file was last overwritten
+ * with bytes from a {@linkplain ByteProvider#isDeterministic() deterministic}
+ * {@link ByteProvider}, by reading back the entire file.
+ *
+ * <p>The file is read using the enhanced {@link ByteBuffer} read API
+ * ({@link FSDataInputStream#read(ByteBufferPool, int, EnumSet)}), and each
+ * buffer read is compared with bytes regenerated from the ByteProvider.
+ * When the client is configured for short-circuit local reads
+ * ({@code dfs.client.read.shortcircuit} and {@code dfs.domain.socket.path})
+ * and is co-located with a replica of a block, the block is memory-mapped
+ * and compared without being copied onto the heap; otherwise, buffers are
+ * read into (and reused from) a pool of direct buffers. The expected bytes
+ * are regenerated in fixed-size chunks into buffers which are likewise
+ * reused between files, and compared with each buffer read eight bytes at
+ * a time, however the file happens to be split between reads.
+ *
+ * <p>As every byte is compared, HDFS checksums are not verified while
+ * reading. This is much more expensive than {@link ChecksumVerificationSpec},
+ * and should only be used when a full read-back of the file is required.
+ */
+public final class FullVerificationSpec extends FileErasureSpec {
+    private static final int MAX_READ_LENGTH = 4 * 1024 * 1024;
+    private static final EnumSet<ReadOption> readOptions = EnumSet.of(ReadOption.SKIP_CHECKSUMS);
+    private static final Logger logger = Logger.getLogger(FullVerificationSpec.class);
+
+    private final ByteProvider byteProvider;
+    private final ByteBufferPool bufferPool = new ElasticByteBufferPool();
+    private final Queue<ExpectedBytes> expectedPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a {@code FullVerificationSpec} which verifies that files
+     * were last overwritten with bytes from the specified {@link ByteProvider}.
+     *
+     * @param byteProvider the ByteProvider with which files were last overwritten
+     * @throws IllegalArgumentException if the ByteProvider is not deterministic
+     */
+    public FullVerificationSpec(ByteProvider byteProvider) throws IllegalArgumentException {
+        Preconditions.checkArgument(byteProvider.isDeterministic(),
+                "cannot verify bytes which are not deterministic: " + byteProvider.description());
+        this.byteProvider = byteProvider;
+    }
+
+    @Override
+    public void eraseFile(FileSystem fs, Path path) throws IOException {
+        if (isLoggingEnabled()) {
+            logger.info("Verifying contents of " + byteProvider.description() + " for file: " + path);
+        }
+
+        long length = fs.getFileStatus(path).getLen();
+        ExpectedBytes expectedBytes = expectedPool.poll();
+        if (expectedBytes == null) {
+            expectedBytes = new ExpectedBytes();
+        }
+        expectedBytes.rewind();
+        long position = 0;
+
+        try (FSDataInputStream in = fs.open(path)) {
+            while (position < length) {
+                ByteBuffer actual = in.read(bufferPool, (int) Math.min(MAX_READ_LENGTH, length - position), readOptions);
+                if (actual == null) {
+                    throw new ErasureVerificationException(path, "File '" + path + "' ended at offset " + position
+                            + ", but was expected to have length " + length);
+                }
+
+                try {
+                    int mismatch = expectedBytes.mismatch(actual);
+                    if (mismatch >= 0) {
+                        throw new ErasureVerificationException(path, "Contents of file '" + path
+                                + "' do not match " + byteProvider.description() + " at offset "
+                                + (position + mismatch));
+                    }
+                    position += actual.remaining();
+                } finally {
+                    in.releaseBuffer(actual);
+                }
+            }
+        } finally {
+            expectedPool.offer(expectedBytes);
+        }
+    }
+
+    @Override
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+        estimate.operation(FileSystemOperation.OPEN);
+        estimate.read(file.getLen());
+    }
+
+    @Override
+    public boolean isTerminal() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "verify every byte is " + byteProvider.description();
+    }
+
+    /**
+     * Regenerates consecutive bytes provided by the {@link ByteProvider}
+     * into a buffer of a fixed size, a chunk at a time, and compares them
+     * with the bytes read from a file. Chunks are reused rather than
+     * regenerated in the same way as {@link OverwriteSpec} reuses bytes;
+     * as the ByteProvider is deterministic, the bytes do not depend on how
+     * they are split between chunks.
+     */
+    private final class ExpectedBytes {
+        private final byte[] bytes = new byte[MAX_READ_LENGTH];
+        private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        private ByteProvider.State state = ByteProvider.State.empty();
+        private ByteProvider.Reusability reusability = ByteProvider.Reusability.NONE;
+        // The index of the chunk in the buffer (-1 for none), and the offset in it of the next byte
+        private long chunk = -1;
+        private int offset = 0;
+        private boolean zeroed = true;
+
+        /**
+         * Starts again from the first byte provided. The first chunk is kept
+         * if it is the one in the buffer, so that it is not regenerated for
+         * each of many small files.
+         */
+        void rewind() {
+            if (chunk != 0) {
+                chunk = -1;
+                state = ByteProvider.State.empty();
+                reusability = ByteProvider.Reusability.NONE;
+            }
+            offset = 0;
+        }
+
+        /**
+         * Compares the next bytes with the remaining bytes of a buffer, and
+         * moves past them.
+         *
+         * @param actual the buffer (whose position is not changed)
+         * @return the index (relative to the buffer's position) of the first
+         * byte which differs, or {@code -1} if none differ
+         */
+        int mismatch(ByteBuffer actual) {
+            int length = actual.remaining();
+            int compared = 0;
+            while (compared < length) {
+                if (chunk < 0 || offset == bytes.length) {
+                    nextChunk();
+                }
+                int count = Math.min(length - compared, bytes.length - offset);
+                int mismatch = mismatch(actual, actual.position() + compared, count);
+                if (mismatch >= 0) {
+                    return compared + mismatch;
+                }
+                offset += count;
+                compared += count;
+            }
+            return -1;
+        }
+
+        /**
+         * Compares bytes of a buffer with the bytes of the current chunk from
+         * the current offset, eight at a time.
+         *
+         * @param actual the buffer
+         * @param index  the index in the buffer of the first byte to compare
+         * @param count  the number of bytes to compare
+         * @return the index (relative to {@code index}) of the first byte
+         * which differs, or {@code -1} if none differ
+         */
+        private int mismatch(ByteBuffer actual, int index, int count) {
+            int i = 0;
+            if (actual.order() == buffer.order()) {
+                while (i + Long.SIZE / Byte.SIZE <= count
+                        && actual.getLong(index + i) == buffer.getLong(offset + i)) {
+                    i += Long.SIZE / Byte.SIZE;
+                }
+            }
+            for (; i < count; i++) {
+                if (actual.get(index + i) != bytes[offset + i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Moves on to the next chunk, regenerating it unless the bytes of the
+         * current chunk may be reused for it.
+         */
+        private void nextChunk() {
+            if (chunk < 0 || (reusability != ByteProvider.Reusability.EXACT
+                    && reusability != ByteProvider.Reusability.PREFIX_UNLIMITED)) {
+                if (!zeroed) {
+                    Arrays.fill(bytes, (byte) 0);
+                }
+                reusability = byteProvider.nextBytes(bytes, state);
+                zeroed = false;
+            }
+            chunk++;
+            offset = 0;
+        }
+    }
+}
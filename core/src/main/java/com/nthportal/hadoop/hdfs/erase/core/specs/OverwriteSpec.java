@@ -64,6 +64,11 @@ public final class OverwriteSpec extends OutputStreamErasureSpec {
         return false;
     }
 
+    @Override
+    public String toString() {
+        return "overwrite with " + byteProvider.description();
+    }
+
     /**
      * Writes bytes to an {@link OutputStream output stream}.
      */
@@ -0,0 +1,414 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureEstimate;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CanSetDropBehind;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Syncable;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link FileErasureSpec} which overwrites a file with another
+ * {@code FileErasureSpec}, and then verifies that a random sample of the
+ * file's contents was overwritten as expected.
+ *
+ * <p>While the file is overwritten, a digest is recorded of each of a
+ * number of randomly chosen chunks of the file. Once it has been
+ * overwritten, the sampled chunks are read back using positional reads
+ * by several readers in parallel, and their digests compared with those
+ * recorded. This works for any bytes (including random bytes), at a small
+ * fraction of the cost of reading the whole file back.
+ *
+ * <p>The number of chunks sampled is chosen so that, if at least a given
+ * fraction of the file's chunks were not overwritten as expected, at least
+ * one mismatch is found with a given confidence. If a file has fewer chunks
+ * than that, every chunk is verified.
+ *
+ * <p>If the overwriting {@code FileErasureSpec} writes the file more than
+ * once, only the last write is verified.
+ */
+public final class SampledVerificationSpec extends FileErasureSpec {
+    /**
+     * The default probability with which to find a mismatch.
+     */
+    public static final double DEFAULT_CONFIDENCE = 0.99;
+    /**
+     * The default smallest fraction of a file not overwritten as expected
+     * to detect with the {@linkplain #DEFAULT_CONFIDENCE default confidence}.
+     */
+    public static final double DEFAULT_DEFECT_FRACTION = 0.01;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int READERS = 4;
+    private static final int MAX_REPORTED_MISMATCHES = 8;
+    private static final Logger logger = Logger.getLogger(SampledVerificationSpec.class);
+
+    private final FileErasureSpec overwrite;
+    private final int samples;
+
+    /**
+     * Lazy initialization for the readers' executor.
+     */
+    private static class Holder {
+        private static final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("secure-erase-verify-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Creates a {@code SampledVerificationSpec} which verifies the specified
+     * {@link FileErasureSpec} with a confidence of 99% of finding a mismatch
+     * if at least 1% of the file was not overwritten as expected.
+     *
+     * @param overwrite the FileErasureSpec with which to overwrite files
+     * @throws UnsupportedOperationException if the FileErasureSpec is
+     *                                       {@link #isTerminal() terminal}
+     */
+    public SampledVerificationSpec(FileErasureSpec overwrite) throws UnsupportedOperationException {
+        this(overwrite, DEFAULT_CONFIDENCE, DEFAULT_DEFECT_FRACTION);
+    }
+
+    /**
+     * Creates a {@code SampledVerificationSpec} which verifies the specified
+     * {@link FileErasureSpec} with the specified confidence.
+     *
+     * @param overwrite      the FileErasureSpec with which to overwrite files
+     * @param confidence     the probability with which to find a mismatch if
+     *                       at least {@code defectFraction} of a file was not
+     *                       overwritten as expected
+     * @param defectFraction the smallest fraction of a file not overwritten
+     *                       as expected to detect with the given confidence
+     * @throws IllegalArgumentException      if the confidence or defect
+     *                                       fraction is not between 0 and 1
+     * @throws UnsupportedOperationException if the FileErasureSpec is
+     *                                       {@link #isTerminal() terminal}
+     */
+    public SampledVerificationSpec(FileErasureSpec overwrite, double confidence, double defectFraction)
+            throws IllegalArgumentException, UnsupportedOperationException {
+        Preconditions.checkArgument(confidence > 0 && confidence < 1, "confidence must be between 0 and 1");
+        Preconditions.checkArgument(defectFraction > 0 && defectFraction < 1,
+                "defect fraction must be between 0 and 1");
+        if (overwrite.isTerminal()) {
+            throw new UnsupportedOperationException("Cannot verify a terminal FileErasureSpec");
+        }
+        this.overwrite = overwrite;
+        samples = (int) Math.ceil(Math.log(1 - confidence) / Math.log(1 - defectFraction));
+    }
+
+    @Override
+    public void eraseFile(FileSystem fs, Path path) throws IOException {
+        long length = fs.getFileStatus(path).getLen();
+        long chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<Sample> sampled = chooseSamples(chunks, length);
+
+        RecordingFileSystem recordingFs = new RecordingFileSystem(fs, path, sampled);
+        overwrite.eraseFile(recordingFs, path);
+        if (!recordingFs.recorded) {
+            throw new IOException("File was not overwritten: " + path);
+        }
+
+        if (isLoggingEnabled()) {
+            logger.info("Verifying " + sampled.size() + " of " + chunks + " chunks of file: " + path);
+        }
+        verify(fs, path, sampled);
+    }
+
+    @Override
+    public void estimate(FileStatus file, ErasureEstimate estimate) {
+        estimate.operation(FileSystemOperation.GET_FILE_STATUS);
+        overwrite.estimate(file, estimate);
+        long chunks = (file.getLen() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks > 0) {
+            estimate.operation(FileSystemOperation.OPEN);
+            estimate.read(Math.min(file.getLen(), Math.min(chunks, samples) * CHUNK_SIZE));
+        }
+    }
+
+    @Override
+    public boolean isTerminal() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return overwrite + ", verifying " + samples + " sampled chunks";
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        if (initialized) {
+            overwrite.setConf(conf);
+        }
+    }
+
+    /**
+     * Chooses the chunks of a file to sample.
+     *
+     * @param chunks the number of chunks in the file
+     * @param length the length of the file
+     * @return the samples, in order of their offsets
+     */
+    private List<Sample> chooseSamples(long chunks, long length) {
+        SortedSet<Long> indices = new TreeSet<>();
+        if (chunks <= samples) {
+            for (long i = 0; i < chunks; i++) {
+                indices.add(i);
+            }
+        } else {
+            Random random = ThreadLocalRandom.current();
+            while (indices.size() < samples) {
+                indices.add((long) (random.nextDouble() * chunks));
+            }
+        }
+
+        List<Sample> sampled = new ArrayList<>(indices.size());
+        for (long index : indices) {
+            long offset = index * CHUNK_SIZE;
+            sampled.add(new Sample(offset, (int) Math.min(CHUNK_SIZE, length - offset)));
+        }
+        return sampled;
+    }
+
+    /**
+     * Reads back the sampled chunks of a file in parallel, and compares
+     * their digests with those recorded while the file was written.
+     *
+     * @param fs      the file system on which the file resides
+     * @param path    the path to the file
+     * @param sampled the samples
+     * @throws ErasureVerificationException if any sampled chunk does not match
+     * @throws IOException                  if an I/O error occurs while
+     *                                      reading the file
+     */
+    private static void verify(FileSystem fs, final Path path, List<Sample> sampled) throws IOException {
+        if (sampled.isEmpty()) {
+            return;
+        }
+
+        final List<Long> mismatches = Collections.synchronizedList(new ArrayList<Long>());
+        try (final FSDataInputStream in = fs.open(path)) {
+            int readers = Math.min(READERS, sampled.size());
+            List<Future<?>> futures = new ArrayList<>(readers);
+            for (int reader = 0; reader < readers; reader++) {
+                // Readers take every n-th sample, so each reads in order of offset
+                final List<Sample> assigned = new ArrayList<>();
+                for (int i = reader; i < sampled.size(); i += readers) {
+                    assigned.add(sampled.get(i));
+                }
+                futures.add(Holder.readers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        MessageDigest digest = newDigest();
+                        byte[] buffer = new byte[CHUNK_SIZE];
+                        for (Sample sample : assigned) {
+                            in.readFully(sample.offset, buffer, 0, sample.length);
+                            digest.update(buffer, 0, sample.length);
+                            if (!Arrays.equals(digest.digest(), sample.expected)) {
+                                mismatches.add(sample.offset);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (Future<?> f : futures) {
+                        f.cancel(true);
+                    }
+                    throw (IOException) new InterruptedIOException("Interrupted while verifying file: " + path)
+                            .initCause(e);
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+        }
+
+        if (!mismatches.isEmpty()) {
+            Collections.sort(mismatches);
+            List<Long> reported = mismatches.subList(0, Math.min(mismatches.size(), MAX_REPORTED_MISMATCHES));
+            throw new ErasureVerificationException(path, mismatches.size() + " of " + sampled.size()
+                    + " sampled chunks of file '" + path + "' were not overwritten as expected (at offsets "
+                    + reported + (mismatches.size() > reported.size() ? ", ..." : "") + ")");
+        }
+    }
+
+    /**
+     * Returns a new {@link MessageDigest} with which to digest chunks.
+     *
+     * @return a new MessageDigest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("MD5 is required to be supported", e);
+        }
+    }
+
+    /**
+     * A sampled chunk of a file.
+     */
+    private static final class Sample {
+        private final long offset;
+        private final int length;
+        private byte[] expected;
+
+        private Sample(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A FileSystem which records the digests of sampled chunks of a file
+     * as it is created.
+     */
+    private static final class RecordingFileSystem extends FilterFileSystem {
+        private final Path path;
+        private final List<Sample> sampled;
+        private boolean recorded = false;
+
+        private RecordingFileSystem(FileSystem fs, Path path, List<Sample> sampled) {
+            super(fs);
+            this.path = path;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                         short replication, long blockSize, Progressable progress)
+                throws IOException {
+            FSDataOutputStream out = super.create(f, permission, overwrite, bufferSize, replication, blockSize,
+                    progress);
+            if (!f.equals(path)) {
+                return out;
+            }
+            recorded = true;
+            return new FSDataOutputStream(new RecordingOutputStream(out, sampled), statistics);
+        }
+
+        @Override
+        public void close() {
+            // The underlying FileSystem is not owned by this FileSystem
+        }
+    }
+
+    /**
+     * An OutputStream which records the digests of sampled chunks of the
+     * bytes written to it.
+     *
+     * <p>Flushing and syncing are forwarded to the underlying stream, so
+     * that the wrapping {@link FSDataOutputStream} does not fall back to
+     * {@link #flush()} for them.
+     */
+    private static final class RecordingOutputStream extends FilterOutputStream
+            implements Syncable, CanSetDropBehind {
+        private final FSDataOutputStream out;
+        private final List<Sample> sampled;
+        private final MessageDigest digest = newDigest();
+        private long position = 0;
+        private int next = 0;
+
+        private RecordingOutputStream(FSDataOutputStream out, List<Sample> sampled) {
+            super(out);
+            this.out = out;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            record(b, off, len);
+        }
+
+        /**
+         * Records the parts of sampled chunks in bytes written at the
+         * current position.
+         *
+         * @param b   the bytes written
+         * @param off the offset of the bytes written in {@code b}
+         * @param len the number of bytes written
+         */
+        private void record(byte[] b, int off, int len) {
+            long end = position + len;
+            while (next < sampled.size() && sampled.get(next).offset < end) {
+                Sample sample = sampled.get(next);
+                long sampleEnd = sample.offset + sample.length;
+                long from = Math.max(sample.offset, position);
+                long to = Math.min(sampleEnd, end);
+                digest.update(b, off + (int) (from - position), (int) (to - from));
+                if (to < sampleEnd) {
+                    break;
+                }
+                sample.expected = digest.digest();
+                next++;
+            }
+            position = end;
+        }
+
+        @Override
+        @Deprecated
+        public void sync() throws IOException {
+            hflush();
+        }
+
+        @Override
+        public void hflush() throws IOException {
+            out.hflush();
+        }
+
+        @Override
+        public void hsync() throws IOException {
+            out.hsync();
+        }
+
+        @Override
+        public void setDropBehind(Boolean dropCache) throws IOException {
+            out.setDropBehind(dropCache);
+        }
+    }
+}
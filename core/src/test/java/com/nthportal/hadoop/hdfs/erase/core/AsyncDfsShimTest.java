@@ -0,0 +1,51 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when {@link AsyncDfsShim} is chosen to rename files, and when
+ * renames fall back to being made synchronously.
+ */
+public class AsyncDfsShimTest {
+    private static boolean hasAsyncClient() {
+        try {
+            Class.forName("org.apache.hadoop.hdfs.AsyncDistributedFileSystem");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void isSupportedOnlyWithAsyncClient() {
+        assertEquals(hasAsyncClient(), AsyncDfsShim.isSupported());
+    }
+
+    @Test
+    public void fallsBackOnFileSystemsOtherThanHdfs() throws Exception {
+        FileSystem local = FileSystem.getLocal(new Configuration());
+        assertNull(AsyncDfsShim.forFileSystem(local));
+
+        ErasureFileSystem fs = new ErasureFileSystem(local, new TokenBucket(0), new TokenBucket(0),
+                OperationObserver.NONE, EraseListeners.NONE, false);
+        assertFalse(fs.supportsAsyncRename());
+    }
+
+    @Test
+    public void fallsBackOnHdfsWithoutAsyncClient() {
+        if (!hasAsyncClient()) {
+            // The DistributedFileSystem is never used, so it need not be initialized
+            assertNull(AsyncDfsShim.forFileSystem(new DistributedFileSystem()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsObjectsWhichCannotRename() {
+        AsyncDfsShim.wrap(new Object());
+    }
+}
@@ -0,0 +1,53 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyControllerTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static ConcurrencyController rampedUp() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, 2.0);
+        for (int i = 0; i < 100; i++) {
+            controller.operationCompleted(FileSystemOperation.RENAME, 10 * MILLIS);
+        }
+        assertEquals(8, controller.limit());
+        return controller;
+    }
+
+    @Test
+    public void singleFastOutlierDoesNotPinBaseline() {
+        ConcurrencyController controller = rampedUp();
+
+        controller.operationCompleted(FileSystemOperation.RENAME, MILLIS);
+        for (int i = 0; i < 100; i++) {
+            controller.operationCompleted(FileSystemOperation.RENAME, 10 * MILLIS);
+        }
+        assertEquals(8, controller.limit());
+    }
+
+    @Test
+    public void latencySpikeDecreasesLimit() {
+        ConcurrencyController controller = rampedUp();
+
+        controller.operationCompleted(FileSystemOperation.RENAME, 100 * MILLIS);
+        assertEquals(4, controller.limit());
+    }
+
+    @Test
+    public void throttleWaitIsNotSlowThroughput() {
+        ConcurrencyController controller = rampedUp();
+
+        controller.streamClosed(8 * MEGABYTE, 100 * MILLIS, 90 * MILLIS, 0);
+        // Four times as long open, but only because of the byte throttle
+        controller.streamClosed(8 * MEGABYTE, 400 * MILLIS, 90 * MILLIS, 300 * MILLIS);
+        assertEquals(8, controller.limit());
+
+        controller.streamClosed(8 * MEGABYTE, 400 * MILLIS, 390 * MILLIS, 0);
+        assertEquals(4, controller.limit());
+    }
+}
@@ -0,0 +1,695 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nthportal.hadoop.hdfs.erase.core.specs.AdvancedFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.BasicFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.security.AccessControlException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Erases files on a {@link FaultInjectingFileSystem}, failing chosen
+ * operations, and checks the state in which the files are left and the
+ * results reported for them.
+ */
+public class EraseEngineTest {
+    private static final int FILE_LENGTH = 1000;
+    private static final int RETRIES = 3;
+
+    private File dir;
+    private Configuration conf;
+    private FaultInjectingFileSystem faulty;
+    private ExecutorService executor;
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        conf = new Configuration();
+        conf.setInt(SecureErase.Conf.RETRIES, RETRIES);
+        conf.setLong(SecureErase.Conf.RETRY_BASE_DELAY_MILLIS, 1);
+        conf.setLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS, 5);
+        faulty = new FaultInjectingFileSystem(FileSystem.getLocal(conf).getRawFileSystem());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        FileUtil.fullyDelete(dir);
+    }
+
+    private Path createFile(String name) throws IOException {
+        Path path = new Path(dir.toURI().toString(), name);
+        byte[] bytes = new byte[FILE_LENGTH];
+        Arrays.fill(bytes, (byte) 0x2a);
+        try (FSDataOutputStream out = faulty.getRawFileSystem().create(path)) {
+            out.write(bytes);
+        }
+        return path;
+    }
+
+    private static FileSystem erasureFileSystem(FileSystem fs) {
+        return new ErasureFileSystem(fs, new TokenBucket(0), new TokenBucket(0),
+                OperationObserver.NONE, EraseListeners.NONE, false);
+    }
+
+    private EraseEngine newEngine(FileSystem fs, FileErasureSpec spec, FailedFiles failedFiles) {
+        return newEngine(fs, spec, 1, 0, failedFiles);
+    }
+
+    private EraseEngine newEngine(FileSystem fs, FileErasureSpec spec, int concurrency, int metadataConcurrency,
+                                  FailedFiles failedFiles) {
+        spec.setConf(conf);
+        return new EraseEngine(fs, spec, new ConcurrencyController(concurrency, concurrency, 2.0), 0, 1,
+                metadataConcurrency, new RetryPolicy.Policies(conf), failedFiles, listener);
+    }
+
+    private List<FileErasureResult> erase(FileSystem fs, FileErasureSpec spec, Path... paths) throws Exception {
+        List<FileStatus> files = new ArrayList<>();
+        for (Path path : paths) {
+            files.add(fs.getFileStatus(path));
+        }
+        return newEngine(fs, spec, new FailedFiles(-1)).start(files, executor).get(30, TimeUnit.SECONDS);
+    }
+
+    private static FileErasureResult.Status status(List<FileErasureResult> results) {
+        assertEquals(1, results.size());
+        return results.get(0).getStatus();
+    }
+
+    private static byte[] read(FileSystem fs, Path path, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void resumesAtFailedPass() throws Exception {
+        Path path = createFile("file");
+        faulty.failCall(FileSystemOperation.CREATE, 2, false);
+
+        FileErasureSpec spec = FileErasureSpec.from(new OverwriteSpec(ByteProvider.zeros())
+                .andThen(new OverwriteSpec(ByteProvider.repeatedBytes((byte) 0x55)))
+                .andThen(new OverwriteSpec(ByteProvider.repeatedBytes((byte) 0xff))));
+        assertEquals(FileErasureResult.Status.ERASED, status(erase(erasureFileSystem(faulty), spec, path)));
+
+        // The first pass is not made again
+        assertEquals(4, faulty.calls(FileSystemOperation.CREATE));
+        assertEquals(1, listener.retries);
+        byte[] erased = new byte[FILE_LENGTH];
+        Arrays.fill(erased, (byte) 0xff);
+        assertArrayEquals(erased, read(faulty, path, FILE_LENGTH));
+    }
+
+    @Test
+    public void retriesAtRenamedPath() throws Exception {
+        Path path = createFile("abcdef");
+        faulty.failCall(FileSystemOperation.DELETE, 1, false);
+
+        FileErasureSpec spec = new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.newBuilder()
+                .obfuscateFileName(true)
+                .obfuscateFileSize(false)
+                .result());
+        assertEquals(FileErasureResult.Status.ERASED, status(erase(erasureFileSystem(faulty), spec, path)));
+        assertEquals(2, faulty.calls(FileSystemOperation.DELETE));
+        assertEquals(0, faulty.listStatus(path.getParent()).length);
+    }
+
+    @Test
+    public void skipsDeletionWhoseResponseWasLost() throws Exception {
+        Path path = createFile("file");
+        faulty.failCall(FileSystemOperation.DELETE, 1, true);
+
+        assertEquals(FileErasureResult.Status.ERASED,
+                status(erase(erasureFileSystem(faulty), new RenameAndDelete(), path)));
+        assertEquals(1, faulty.calls(FileSystemOperation.DELETE));
+        assertEquals(0, faulty.listStatus(path.getParent()).length);
+    }
+
+    @Test
+    public void failsFileRenamedByRenameWhoseResponseWasLost() throws Exception {
+        Path path = createFile("file");
+        faulty.failCall(FileSystemOperation.RENAME, 1, true);
+
+        List<FileErasureResult> results = erase(erasureFileSystem(faulty), new RenameAndDelete(), path);
+        assertEquals(FileErasureResult.Status.FAILED, status(results));
+        assertTrue(results.get(0).getFailure() instanceof FileNotFoundException);
+        assertFalse(faulty.exists(path));
+        assertTrue(faulty.exists(new Path(path.getParent(), RenameAndDelete.RENAMED)));
+    }
+
+    @Test
+    public void failsLostDeletionWithoutErasureFileSystem() throws Exception {
+        // Without an ErasureFileSystem, renames are not tracked, so a missing file is not assumed deleted
+        Path path = createFile("file");
+        faulty.failCall(FileSystemOperation.DELETE, 1, true);
+
+        List<FileErasureResult> results = erase(faulty, new RenameAndDelete(), path);
+        assertEquals(FileErasureResult.Status.FAILED, status(results));
+        assertTrue(results.get(0).getFailure() instanceof FileNotFoundException);
+    }
+
+    @Test
+    public void failsFileOnceRetriesAreExhausted() throws Exception {
+        Path path = createFile("file");
+        for (int call = 1; call <= RETRIES + 1; call++) {
+            faulty.failCall(FileSystemOperation.DELETE, call, false);
+        }
+
+        List<FileErasureResult> results = erase(erasureFileSystem(faulty), new BasicFileDeletionSpec(), path);
+        assertEquals(FileErasureResult.Status.FAILED, status(results));
+        assertEquals(RETRIES + 1, faulty.calls(FileSystemOperation.DELETE));
+        assertEquals(RETRIES, listener.retries);
+        assertTrue(faulty.exists(path));
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() throws Exception {
+        Path path = createFile("file");
+        faulty.denyEveryCall(FileSystemOperation.DELETE);
+
+        List<FileErasureResult> results = erase(erasureFileSystem(faulty), new BasicFileDeletionSpec(), path);
+        assertEquals(FileErasureResult.Status.FAILED, status(results));
+        assertTrue(results.get(0).getFailure() instanceof AccessControlException);
+        assertEquals(1, faulty.calls(FileSystemOperation.DELETE));
+        assertEquals(0, listener.retries);
+    }
+
+    @Test
+    public void stopsOnceTooManyFilesFail() throws Exception {
+        List<FileStatus> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(faulty.getFileStatus(createFile("file-" + i)));
+        }
+        faulty.denyEveryCall(FileSystemOperation.DELETE);
+
+        FailedFiles failedFiles = new FailedFiles(1);
+        EraseEngine engine = newEngine(erasureFileSystem(faulty), new BasicFileDeletionSpec(), failedFiles);
+        try {
+            engine.erase(files, false);
+            fail("Expected erasing to stop");
+        } catch (AccessControlException e) {
+            assertEquals(1, e.getSuppressed().length);
+        }
+
+        assertEquals(2, failedFiles.count());
+        assertEquals(5, listener.finished.size());
+        int failed = 0;
+        int aborted = 0;
+        for (FileErasureResult result : listener.finished) {
+            if (result.getStatus() == FileErasureResult.Status.FAILED) {
+                failed++;
+            } else if (result.getStatus() == FileErasureResult.Status.ABORTED) {
+                aborted++;
+                assertTrue(faulty.exists(result.getPath()));
+            }
+        }
+        assertEquals(2, failed);
+        assertEquals(3, aborted);
+    }
+
+    @Test
+    public void observesChecksOfRenameWithOptions() throws Exception {
+        Path src = createFile("src");
+        Path dst = new Path(src.getParent(), "dst");
+        final List<FileSystemOperation> operations = Collections.synchronizedList(new ArrayList<FileSystemOperation>());
+        OperationObserver observer = new OperationObserver() {
+            @Override
+            public void operationCompleted(FileSystemOperation operation, long nanos) {
+                operations.add(operation);
+            }
+
+            @Override
+            public void operationFailed(FileSystemOperation operation, IOException e) {
+                operations.add(operation);
+            }
+
+            @Override
+            public void streamClosed(long bytes, long nanos, long writeNanos, long throttledNanos) {}
+        };
+        ErasureFileSystem fs = new ErasureFileSystem(faulty, new TokenBucket(0), new TokenBucket(0),
+                observer, EraseListeners.NONE, false);
+
+        // Off HDFS, the source and destination are checked before renaming
+        fs.rename(src, dst, Options.Rename.NONE);
+        assertTrue(faulty.exists(dst));
+        assertEquals(FileSystemOperation.RENAME, operations.get(operations.size() - 1));
+        assertTrue(Collections.frequency(operations, FileSystemOperation.GET_FILE_STATUS) >= 2);
+    }
+
+    @Test
+    public void failsWhenExecutorRejectsWorkers() throws Exception {
+        Path path = createFile("file");
+        ListenableFuture<List<FileErasureResult>> results = newEngine(erasureFileSystem(faulty),
+                new BasicFileDeletionSpec(), new FailedFiles(-1))
+                .start(Collections.singletonList(faulty.getFileStatus(path)), rejectingAfter(0));
+        assertRejected(results);
+
+        assertEquals(1, listener.finished.size());
+        assertEquals(FileErasureResult.Status.ABORTED, listener.finished.get(0).getStatus());
+        assertTrue(faulty.exists(path));
+    }
+
+    @Test
+    public void eraseAsyncFailsWhenExecutorRejectsTasks() throws Exception {
+        Path path = createFile("file");
+        SecureErase secureErase = new SecureErase(new Configuration(conf));
+
+        // The task resolving the files is rejected
+        assertRejected(secureErase.eraseFileAsync(path, new BasicFileDeletionSpec(), rejectingAfter(0)));
+        // The workers erasing the files are rejected
+        assertRejected(secureErase.eraseFileAsync(path, new BasicFileDeletionSpec(), rejectingAfter(1)));
+        assertTrue(faulty.exists(path));
+    }
+
+    private Executor rejectingAfter(int tasks) {
+        final AtomicInteger remaining = new AtomicInteger(tasks);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (remaining.getAndDecrement() <= 0) {
+                    throw new RejectedExecutionException("Rejected erasure task");
+                }
+                executor.execute(command);
+            }
+        };
+    }
+
+    private static void assertRejected(ListenableFuture<?> future) throws Exception {
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            fail("Expected the erasure to fail");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void boundsFilesWaitingForMetadataLane() throws Exception {
+        int files = 40;
+        int concurrency = 4;
+        List<FileStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            statuses.add(faulty.getFileStatus(createFile("file-" + i)));
+        }
+        faulty.delayEveryCall(FileSystemOperation.DELETE, 20);
+
+        FileErasureSpec spec = FileErasureSpec.from(new OverwriteSpec(ByteProvider.zeros()))
+                .andThen(new BasicFileDeletionSpec());
+        List<FileErasureResult> results = newEngine(erasureFileSystem(faulty), spec, concurrency, 1,
+                new FailedFiles(-1)).start(statuses, executor).get(30, TimeUnit.SECONDS);
+        for (FileErasureResult result : results) {
+            assertEquals(FileErasureResult.Status.ERASED, result.getStatus());
+        }
+        assertEquals(0, faulty.listStatus(new Path(dir.toURI().toString())).length);
+
+        // Four files per metadata worker, plus one from each data worker which was already running
+        assertTrue("Files waiting: " + listener.maxWaiting, listener.maxWaiting <= 4 + concurrency);
+    }
+
+    @Test
+    public void erasesBatchesWithoutWaitingForEarlierBatches() throws Exception {
+        final Path slow = createFile("slow");
+        final Path fast = createFile("fast");
+        FileBatcher<Path> batcher = new FileBatcher<Path>(Arrays.asList(slow, fast).iterator(), 1) {
+            @Override
+            FileStatus[] expand(Path path) throws IOException {
+                return new FileStatus[]{getFileSystem().getFileStatus(path)};
+            }
+        };
+
+        // The slow file (in the first batch) only finishes once the fast file (in the second batch) has
+        EraseEngine engine = newEngine(erasureFileSystem(faulty), new WaitForFile(fast.getName()), 2, 0,
+                new FailedFiles(-1));
+        try (FileBatcher<Path> started = batcher.start(faulty)) {
+            engine.erase(started, 1, false);
+        }
+
+        assertEquals(1, listener.erasures);
+        assertEquals(2, listener.files);
+        assertEquals(2, listener.finished.size());
+        for (FileErasureResult result : listener.finished) {
+            assertEquals(FileErasureResult.Status.ERASED, result.getStatus());
+        }
+        assertEquals(fast, listener.finished.get(0).getPath());
+    }
+
+    @Test
+    public void erasesFileInOverlappingBatchesOnce() throws Exception {
+        Path a = createFile("a");
+        Path b = createFile("b");
+        final CountDownLatch allAdded = new CountDownLatch(1);
+        // The second glob matches a file which is still being erased from the first
+        List<Path> globs = Arrays.asList(new Path(dir.toURI().toString(), "*"), a);
+        FileBatcher<Path> batcher = new FileBatcher<Path>(globs.iterator(), 1) {
+            @Override
+            FileStatus[] expand(Path glob) throws IOException {
+                return getFileSystem().globStatus(glob);
+            }
+
+            @Override
+            synchronized List<FileStatus> nextBatch() throws IOException {
+                List<FileStatus> batch = super.nextBatch();
+                if (batch == null) {
+                    allAdded.countDown();
+                }
+                return batch;
+            }
+        };
+
+        EraseEngine engine = newEngine(erasureFileSystem(faulty), new AwaitLatch(allAdded), 2, 0,
+                new FailedFiles(-1));
+        try (FileBatcher<Path> started = batcher.start(faulty)) {
+            engine.erase(started, 1, false);
+        }
+
+        assertEquals(2, listener.files);
+        assertEquals(2, listener.finished.size());
+        for (FileErasureResult result : listener.finished) {
+            assertEquals(FileErasureResult.Status.ERASED, result.getStatus());
+        }
+        assertFalse(faulty.exists(a));
+        assertFalse(faulty.exists(b));
+    }
+
+    @Test
+    public void erasesEarlierBatchesBeforeThrowingExpansionFailure() throws Exception {
+        final Path path = createFile("file");
+        FileBatcher<Path> batcher = new FileBatcher<Path>(Arrays.asList(path, new Path(path, "missing")).iterator(),
+                1) {
+            @Override
+            FileStatus[] expand(Path path) throws IOException {
+                return new FileStatus[]{getFileSystem().getFileStatus(path)};
+            }
+        };
+
+        EraseEngine engine = newEngine(erasureFileSystem(faulty), new BasicFileDeletionSpec(), new FailedFiles(-1));
+        try (FileBatcher<Path> started = batcher.start(faulty)) {
+            engine.erase(started, 1, false);
+            fail("Expected expanding the second item to fail");
+        } catch (FileNotFoundException expected) {
+            // The missing file fails to expand
+        }
+
+        assertEquals(1, listener.finished.size());
+        assertEquals(FileErasureResult.Status.ERASED, listener.finished.get(0).getStatus());
+        assertFalse(faulty.exists(path));
+    }
+
+    @Test
+    public void recoversLeaseOnFileLeftOpen() throws Exception {
+        File baseDir = Files.createTempDir();
+        Configuration clusterConf = new Configuration();
+        clusterConf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(clusterConf).numDataNodes(1).build();
+        FSDataOutputStream open = null;
+        try {
+            cluster.waitActive();
+            DistributedFileSystem dfs = cluster.getFileSystem();
+            Path path = new Path("/open");
+            // Each truncation within a block waits for the block to be recovered, so the file is tiny
+            try (FSDataOutputStream out = dfs.create(path)) {
+                out.write(1);
+            }
+
+            // Another client holds the lease on the file, as a failed write would
+            FileSystem other = FileSystem.newInstance(dfs.getUri(), cluster.getConfiguration(0));
+            open = other.append(path);
+            open.write(1);
+            open.hflush();
+
+            // Truncating the file fails while the other client holds the lease
+            FileErasureSpec spec = new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.newBuilder()
+                    .obfuscateFileName(false)
+                    .obfuscateFileSize(true)
+                    .result());
+            assertEquals(FileErasureResult.Status.ERASED, status(erase(erasureFileSystem(dfs), spec, path)));
+            assertEquals(1, listener.retries);
+            assertFalse(dfs.exists(path));
+        } finally {
+            if (open != null) {
+                try {
+                    open.close();
+                } catch (IOException ignored) {
+                    // The lease was recovered from under the stream
+                }
+            }
+            cluster.shutdown();
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    @Test
+    public void pipelinesRenamesOfDifferentFiles() throws Exception {
+        int files = 8;
+        List<FileStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            statuses.add(faulty.getFileStatus(createFile("a-long-file-name-" + i)));
+        }
+        AsyncRenames asyncRenames = new AsyncRenames(faulty.getRawFileSystem(), executor);
+        ErasureFileSystem fs = (ErasureFileSystem) erasureFileSystem(faulty);
+        fs.setAsyncFs(AsyncDfsShim.wrap(asyncRenames));
+
+        FileErasureSpec spec = new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf());
+        List<FileErasureResult> results = newEngine(fs, spec, 1, 1, new FailedFiles(-1))
+                .start(statuses, executor).get(30, TimeUnit.SECONDS);
+        for (FileErasureResult result : results) {
+            assertEquals(FileErasureResult.Status.ERASED, result.getStatus());
+        }
+        assertEquals(0, faulty.listStatus(new Path(dir.toURI().toString())).length);
+
+        // A single metadata worker kept a rename of every file in flight, each to a name of every length,
+        // and made none of them synchronously
+        assertEquals(files, asyncRenames.maxInFlight);
+        assertEquals(files * "a-long-file-name-0".length(), asyncRenames.renames.get());
+        assertEquals(0, faulty.calls(FileSystemOperation.RENAME));
+    }
+
+    /**
+     * A terminal spec which renames a file and then deletes it.
+     */
+    private static final class RenameAndDelete extends FileErasureSpec {
+        private static final String RENAMED = "renamed";
+
+        @Override
+        public void eraseFile(FileSystem fs, Path path) throws IOException {
+            Path renamed = new Path(path.getParent(), RENAMED);
+            if (!renameIfAbsent(fs, path, renamed)) {
+                throw new IOException("Failed to rename '" + path + "'");
+            }
+            fs.delete(renamed, false);
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return true;
+        }
+    }
+
+    /**
+     * A terminal spec which deletes a file, first waiting for another file
+     * to be deleted.
+     */
+    private static final class WaitForFile extends FileErasureSpec {
+        private final String other;
+        private final CountDownLatch otherDeleted = new CountDownLatch(1);
+
+        private WaitForFile(String other) {
+            this.other = other;
+        }
+
+        @Override
+        public void eraseFile(FileSystem fs, Path path) throws IOException {
+            if (path.getName().equals(other)) {
+                fs.delete(path, false);
+                otherDeleted.countDown();
+                return;
+            }
+            try {
+                if (!otherDeleted.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("'" + other + "' was not deleted while erasing '" + path + "'");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            fs.delete(path, false);
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return true;
+        }
+    }
+
+    /**
+     * A terminal spec which deletes a file once a latch has been counted down.
+     */
+    private static final class AwaitLatch extends FileErasureSpec {
+        private final CountDownLatch latch;
+
+        private AwaitLatch(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void eraseFile(FileSystem fs, Path path) throws IOException {
+            try {
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Latch was not counted down while erasing '" + path + "'");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            fs.delete(path, false);
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return true;
+        }
+    }
+
+    /**
+     * Renames files asynchronously on another FileSystem, like
+     * {@code AsyncDistributedFileSystem} on HDFS, taking a while to do so,
+     * and records the largest number of renames in flight at once.
+     */
+    public static final class AsyncRenames {
+        private static final long RENAME_MILLIS = 50;
+
+        private final FileSystem fs;
+        private final ExecutorService executor;
+        private final AtomicInteger renames = new AtomicInteger();
+        private int inFlight = 0;
+        private int maxInFlight = 0;
+
+        private AsyncRenames(FileSystem fs, ExecutorService executor) {
+            this.fs = fs;
+            this.executor = executor;
+        }
+
+        public Future<Void> rename(final Path src, final Path dst, Options.Rename... options) {
+            synchronized (this) {
+                inFlight++;
+                maxInFlight = Math.max(maxInFlight, inFlight);
+            }
+            return executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(RENAME_MILLIS);
+                        // Renames to a name in use fail atomically, as on HDFS
+                        synchronized (AsyncRenames.this) {
+                            if (fs.exists(dst)) {
+                                throw new FileAlreadyExistsException(dst.toString());
+                            }
+                            if (!fs.rename(src, dst)) {
+                                throw new IOException("Failed to rename " + src);
+                            }
+                        }
+                        renames.incrementAndGet();
+                        return null;
+                    } finally {
+                        synchronized (AsyncRenames.this) {
+                            inFlight--;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Records the erasures, results and retries reported to it, and the
+     * largest number of files waiting between their data and metadata
+     * phases.
+     */
+    private static final class RecordingListener extends EraseListener {
+        private final List<FileErasureResult> finished = Collections.synchronizedList(
+                new ArrayList<FileErasureResult>());
+        private volatile int retries = 0;
+        private int erasures = 0;
+        private long files = 0;
+        private int waiting = 0;
+        private int maxWaiting = 0;
+
+        @Override
+        public synchronized void eraseStarted(long files, long bytes) {
+            erasures++;
+            this.files += files;
+        }
+
+        @Override
+        public synchronized void filesAdded(long files, long bytes) {
+            this.files += files;
+        }
+
+        @Override
+        public synchronized void phaseStarted(Path path, FileErasureSpec.Phase phase) {
+            if (phase == FileErasureSpec.Phase.METADATA) {
+                waiting--;
+            }
+        }
+
+        @Override
+        public synchronized void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos,
+                                               Throwable failure) {
+            if (phase == FileErasureSpec.Phase.DATA && failure == null) {
+                waiting++;
+                maxWaiting = Math.max(maxWaiting, waiting);
+            }
+        }
+
+        @Override
+        public void phaseRetried(Path path, FileErasureSpec.Phase phase, int retry, long delayMillis,
+                                 Throwable failure) {
+            retries = retry;
+        }
+
+        @Override
+        public void fileFinished(FileErasureResult result) {
+            finished.add(result);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.nthportal.hadoop.hdfs.erase.core.specs.BasicFileDeletionSpec;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the time remaining estimated by {@link EraseProgress} while a
+ * large file is still being overwritten.
+ */
+public class EraseProgressTest {
+    private static final long FILE_LENGTH = 1000;
+
+    private static ErasurePlan plan(int passes) {
+        return ErasurePlan.compile(FileErasureSpec.from(new OverwriteSpec(ByteProvider.zeros()))
+                .repeated(passes)
+                .andThen(new BasicFileDeletionSpec()));
+    }
+
+    @Test
+    public void countsOverwritePassesOfPlan() {
+        assertEquals(3, plan(3).overwritePasses());
+        assertEquals(0, ErasurePlan.compile(new BasicFileDeletionSpec()).overwritePasses());
+    }
+
+    @Test
+    public void estimatesFromBytesWrittenBeforeAnyFileFinishes() throws Exception {
+        EraseProgress progress = new EraseProgress(plan(2));
+        progress.eraseStarted(1, FILE_LENGTH);
+        assertEquals(-1, progress.getEstimatedRemainingNanos());
+
+        progress.bytesWritten(FILE_LENGTH / 2);
+        Thread.sleep(1);
+        long quarter = progress.getEstimatedRemainingNanos();
+        // A quarter of the bytes to write have been written, so about three times as long again remains
+        assertTrue("Estimated: " + quarter, quarter >= 2 * progress.getElapsedNanos());
+
+        progress.bytesWritten(FILE_LENGTH);
+        assertTrue(progress.getEstimatedRemainingNanos() < quarter);
+    }
+
+    @Test
+    public void estimatesFromFinishedFilesWithoutPlan() {
+        EraseProgress progress = new EraseProgress();
+        progress.eraseStarted(2, 2 * FILE_LENGTH);
+        progress.bytesWritten(FILE_LENGTH);
+        assertEquals(-1, progress.getEstimatedRemainingNanos());
+
+        progress.fileFinished(new FileErasureResult(new Path("/file"), FILE_LENGTH,
+                FileErasureResult.Status.ERASED, null));
+        assertTrue(progress.getEstimatedRemainingNanos() >= 0);
+
+        progress.fileFinished(new FileErasureResult(new Path("/other"), FILE_LENGTH,
+                FileErasureResult.Status.ERASED, null));
+        assertEquals(0, progress.getEstimatedRemainingNanos());
+    }
+}
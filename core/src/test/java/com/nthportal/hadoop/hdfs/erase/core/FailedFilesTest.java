@@ -0,0 +1,75 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FailedFilesTest {
+    private static FileErasureResult failed(int i) {
+        return new FileErasureResult(new Path("/file-" + i), 0, FileErasureResult.Status.FAILED,
+                new IOException("Failure " + i));
+    }
+
+    @Test
+    public void stopsOnceLimitIsExceeded() {
+        FailedFiles failedFiles = new FailedFiles(2);
+        assertTrue(failedFiles.add(failed(0)));
+        assertTrue(failedFiles.add(failed(1)));
+        assertFalse(failedFiles.add(failed(2)));
+        assertEquals(3, failedFiles.count());
+    }
+
+    @Test
+    public void negativeLimitNeverStops() {
+        FailedFiles failedFiles = new FailedFiles(-1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(failedFiles.add(failed(i)));
+        }
+    }
+
+    @Test
+    public void rethrowsNothingWithoutFailures() throws IOException {
+        new FailedFiles(0).rethrow();
+    }
+
+    @Test
+    public void rethrowsRetainedFailures() {
+        FailedFiles failedFiles = new FailedFiles(-1);
+        for (int i = 0; i < 3; i++) {
+            failedFiles.add(failed(i));
+        }
+        try {
+            failedFiles.rethrow();
+            fail("Expected the first failure to be rethrown");
+        } catch (IOException e) {
+            assertEquals("Failure 0", e.getMessage());
+            assertEquals(2, e.getSuppressed().length);
+            assertEquals("Failure 2", e.getSuppressed()[1].getMessage());
+        }
+    }
+
+    @Test
+    public void boundsRetainedFailures() {
+        FailedFiles failedFiles = new FailedFiles(-1);
+        int count = FailedFiles.MAX_RETAINED_FAILURES + 500;
+        for (int i = 0; i < count; i++) {
+            failedFiles.add(failed(i));
+        }
+        assertEquals(count, failedFiles.count());
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                failedFiles.rethrow();
+                fail("Expected the first failure to be rethrown");
+            } catch (IOException e) {
+                Throwable[] suppressed = e.getSuppressed();
+                // The retained failures but the first, then the count of the rest
+                assertEquals(FailedFiles.MAX_RETAINED_FAILURES, suppressed.length);
+                assertEquals("500 further files failed to be erased",
+                        suppressed[suppressed.length - 1].getMessage());
+            }
+        }
+    }
+}
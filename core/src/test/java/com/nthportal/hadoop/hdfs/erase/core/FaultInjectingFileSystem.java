@@ -0,0 +1,179 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A FileSystem which fails chosen calls of chosen operations, either
+ * before making the call or after it has been made (as if only the
+ * response to it had been lost).
+ */
+final class FaultInjectingFileSystem extends FilterFileSystem {
+    private final Map<FileSystemOperation, Integer> calls = new EnumMap<>(FileSystemOperation.class);
+    private final Map<FileSystemOperation, Map<Integer, Boolean>> faults = new EnumMap<>(FileSystemOperation.class);
+    private final Set<FileSystemOperation> deniedOperations = EnumSet.noneOf(FileSystemOperation.class);
+    private final Map<FileSystemOperation, Long> delays = new EnumMap<>(FileSystemOperation.class);
+
+    FaultInjectingFileSystem(FileSystem fs) {
+        super(fs);
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            calls.put(operation, 0);
+            faults.put(operation, new HashMap<Integer, Boolean>());
+        }
+    }
+
+    /**
+     * Fails a call of an operation with an IOException.
+     *
+     * @param operation    the operation
+     * @param call         the number of the call to fail, counting from 1
+     * @param lostResponse whether to make the call before failing it
+     * @return this FileSystem
+     */
+    synchronized FaultInjectingFileSystem failCall(FileSystemOperation operation, int call, boolean lostResponse) {
+        faults.get(operation).put(call, lostResponse);
+        return this;
+    }
+
+    /**
+     * Fails every call of an operation with an {@link AccessControlException}
+     * (which is not retried), without making it.
+     *
+     * @param operation the operation
+     * @return this FileSystem
+     */
+    synchronized FaultInjectingFileSystem denyEveryCall(FileSystemOperation operation) {
+        deniedOperations.add(operation);
+        return this;
+    }
+
+    /**
+     * Delays every call of an operation.
+     *
+     * @param operation   the operation
+     * @param delayMillis the delay in milliseconds before making each call
+     * @return this FileSystem
+     */
+    synchronized FaultInjectingFileSystem delayEveryCall(FileSystemOperation operation, long delayMillis) {
+        delays.put(operation, delayMillis);
+        return this;
+    }
+
+    /**
+     * Returns the number of calls made of an operation, including calls
+     * which failed.
+     *
+     * @param operation the operation
+     * @return the number of calls made of the operation
+     */
+    synchronized int calls(FileSystemOperation operation) {
+        return calls.get(operation);
+    }
+
+    /**
+     * Counts (and delays) a call of an operation, failing it if it is to
+     * fail before being made.
+     *
+     * @return true if the call is to fail after being made; false otherwise
+     */
+    private boolean call(FileSystemOperation operation) throws IOException {
+        int call;
+        Boolean lostResponse;
+        boolean denied;
+        Long delayMillis;
+        synchronized (this) {
+            call = calls.get(operation) + 1;
+            calls.put(operation, call);
+            lostResponse = faults.get(operation).remove(call);
+            denied = deniedOperations.contains(operation);
+            delayMillis = delays.get(operation);
+        }
+        if (delayMillis != null) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while delaying " + operation);
+            }
+        }
+        if (denied) {
+            throw new AccessControlException("Injected denial of " + operation + " call " + call);
+        }
+        if (Boolean.FALSE.equals(lostResponse)) {
+            throw new IOException("Injected failure of " + operation + " call " + call);
+        }
+        return lostResponse != null;
+    }
+
+    private static IOException lostResponse(FileSystemOperation operation) {
+        return new IOException("Injected lost response to " + operation);
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                     short replication, long blockSize, Progressable progress)
+            throws IOException {
+        boolean lost = call(FileSystemOperation.CREATE);
+        FSDataOutputStream out = super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+        if (lost) {
+            out.close();
+            throw lostResponse(FileSystemOperation.CREATE);
+        }
+        return out;
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        boolean lost = call(FileSystemOperation.GET_FILE_STATUS);
+        FileStatus status = super.getFileStatus(f);
+        if (lost) {
+            throw lostResponse(FileSystemOperation.GET_FILE_STATUS);
+        }
+        return status;
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) throws IOException {
+        boolean lost = call(FileSystemOperation.RENAME);
+        boolean renamed = super.rename(src, dst);
+        if (lost) {
+            throw lostResponse(FileSystemOperation.RENAME);
+        }
+        return renamed;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void rename(Path src, Path dst, Options.Rename... options) throws IOException {
+        boolean lost = call(FileSystemOperation.RENAME);
+        super.rename(src, dst, options);
+        if (lost) {
+            throw lostResponse(FileSystemOperation.RENAME);
+        }
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+        boolean lost = call(FileSystemOperation.DELETE);
+        boolean deleted = super.delete(f, recursive);
+        if (lost) {
+            throw lostResponse(FileSystemOperation.DELETE);
+        }
+        return deleted;
+    }
+}
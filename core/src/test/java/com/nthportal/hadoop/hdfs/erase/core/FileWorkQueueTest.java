@@ -0,0 +1,72 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class FileWorkQueueTest {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static FileStatus file(long megabytes) {
+        return new FileStatus(megabytes * MEGABYTE, false, 1, MEGABYTE, 0, new Path("/file-" + megabytes));
+    }
+
+    private static void assertPolled(FileWorkQueue queue, int slot, long megabytes) {
+        FileStatus file = queue.poll(slot);
+        assertNotNull("Expected a file for slot " + slot, file);
+        assertEquals(megabytes * MEGABYTE, file.getLen());
+    }
+
+    @Test
+    public void assignsLargestFilesToLeastLoadedSlot() {
+        FileWorkQueue queue = new FileWorkQueue(Arrays.asList(file(10), file(100), file(50), file(60)), 2);
+        assertEquals(2, queue.slots());
+        assertEquals(4, queue.size());
+
+        // 100 -> slot 0, 60 -> slot 1, 50 -> slot 1 (which has less work), 10 -> slot 0
+        assertPolled(queue, 0, 100);
+        assertPolled(queue, 1, 60);
+        assertPolled(queue, 1, 50);
+        assertPolled(queue, 0, 10);
+        assertEquals(0, queue.size());
+        assertNull(queue.poll(0));
+        assertNull(queue.poll(1));
+    }
+
+    @Test
+    public void stealsLargestFileFromMostLoadedSlot() {
+        // 100 -> slot 0, 50 -> slot 1, 40 -> slot 2, 5 -> slot 2
+        FileWorkQueue queue = new FileWorkQueue(Arrays.asList(file(100), file(50), file(40), file(5)), 3);
+        assertPolled(queue, 1, 50);
+
+        // Slot 1 has run out, and slot 0 has the most work left
+        assertPolled(queue, 1, 100);
+        // Then slot 2, whose files are taken largest first
+        assertPolled(queue, 1, 40);
+        assertPolled(queue, 0, 5);
+        assertNull(queue.poll(2));
+    }
+
+    @Test
+    public void addsFilesBehindQueuedFiles() {
+        FileWorkQueue queue = new FileWorkQueue(Collections.singletonList(file(100)), 2);
+        queue.addAll(Arrays.asList(file(50), file(60)));
+        assertEquals(3, queue.size());
+
+        // 60 -> slot 1 (which is empty), 50 -> slot 1 (which still has less work)
+        assertPolled(queue, 1, 60);
+        assertPolled(queue, 0, 100);
+        assertPolled(queue, 0, 50);
+        assertEquals(0, queue.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresPositiveSlots() {
+        new FileWorkQueue(Collections.<FileStatus>emptyList(), 0);
+    }
+}
@@ -0,0 +1,223 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.specs.ByteProvider;
+import com.nthportal.hadoop.hdfs.erase.core.specs.OverwriteSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.FSImageTestUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Selects files from the fsimage of a MiniDFSCluster, whose namespace
+ * includes a snapshot, a file renamed since the snapshot was taken (which
+ * the image records as a reference), a file deleted since then, and a file
+ * still being written.
+ */
+public class FsImageSelectorTest {
+    private static final long OLD_MTIME = 1000;
+    private static final int SMALL_LENGTH = 100;
+    private static final int LARGE_LENGTH = 5000;
+
+    private static File baseDir;
+    private static MiniDFSCluster cluster;
+    private static DistributedFileSystem fs;
+    private static FSDataOutputStream open;
+    private static File fsimage;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        baseDir = Files.createTempDir();
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+        fs = cluster.getFileSystem();
+
+        Path data = new Path("/data");
+        createFile(new Path(data, "small"), SMALL_LENGTH);
+        createFile(new Path(data, "large"), LARGE_LENGTH);
+        createFile(new Path(data, "old"), SMALL_LENGTH);
+        fs.setTimes(new Path(data, "old"), OLD_MTIME, -1);
+        createFile(new Path(data, "before-rename"), SMALL_LENGTH);
+        createFile(new Path(data, "deleted"), SMALL_LENGTH);
+        createFile(new Path("/other/small"), SMALL_LENGTH);
+
+        fs.allowSnapshot(data);
+        fs.createSnapshot(data, "s1");
+        fs.rename(new Path(data, "before-rename"), new Path(data, "renamed"));
+        fs.delete(new Path(data, "deleted"), false);
+
+        open = fs.create(new Path(data, "open"));
+        open.write(new byte[SMALL_LENGTH]);
+        open.hflush();
+
+        Path stale = new Path("/stale");
+        for (String name : Arrays.asList("unchanged", "modified", "replaced", "deleted")) {
+            createFile(new Path(stale, name), SMALL_LENGTH);
+        }
+
+        fs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_ENTER);
+        fs.saveNamespace();
+        fs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_LEAVE);
+        fsimage = FSImageTestUtil.findLatestImageFile(
+                FSImageTestUtil.getFSImage(cluster.getNameNode()).getStorage().getStorageDir(0));
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (open != null) {
+            open.close();
+        }
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        if (baseDir != null) {
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    private static void createFile(Path path, int length) throws Exception {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(bytes);
+        }
+    }
+
+    private static List<FileStatus> select(FsImageSelector.Builder builder) throws Exception {
+        try (FsImageSelector.SelectedFiles selected = builder.result().select(fsimage, cluster.getConfiguration(0))) {
+            return Lists.newArrayList(selected);
+        }
+    }
+
+    private static Set<String> names(List<FileStatus> statuses) {
+        Set<String> names = new HashSet<>();
+        for (FileStatus status : statuses) {
+            names.add(status.getPath().getName());
+        }
+        return names;
+    }
+
+    private static FsImageSelector.Builder data() {
+        return FsImageSelector.newBuilder().glob(new Path("/data/*"));
+    }
+
+    @Test
+    public void selectsOnlyClosedFilesInCurrentNamespace() throws Exception {
+        assertEquals(ImmutableSet.of("small", "large", "old", "renamed"), names(select(data())));
+    }
+
+    @Test
+    public void selectsNothingFromSnapshots() throws Exception {
+        assertEquals(ImmutableSet.<String>of(),
+                names(select(FsImageSelector.newBuilder().glob(new Path("/data/.snapshot/*/*")))));
+    }
+
+    @Test
+    public void recordsStatusesAndInodeIds() throws Exception {
+        for (FileStatus status : select(data())) {
+            FileStatus live = fs.getFileStatus(status.getPath());
+            assertEquals(live.getLen(), status.getLen());
+            assertEquals(live.getModificationTime(), status.getModificationTime());
+            assertEquals(live.getPermission(), status.getPermission());
+            assertEquals(live.getOwner(), status.getOwner());
+            assertEquals(fs.getClient().getFileInfo(status.getPath().toString()).getFileId(),
+                    ((InodeFileStatus) status).getFileId());
+        }
+    }
+
+    @Test
+    public void selectsBySize() throws Exception {
+        assertEquals(ImmutableSet.of("large"), names(select(data().minSize(SMALL_LENGTH + 1))));
+        assertEquals(ImmutableSet.of("small", "old", "renamed"), names(select(data().maxSize(SMALL_LENGTH))));
+        assertEquals(ImmutableSet.<String>of(),
+                names(select(data().minSize(SMALL_LENGTH + 1).maxSize(LARGE_LENGTH - 1))));
+    }
+
+    @Test
+    public void selectsByModificationTime() throws Exception {
+        assertEquals(ImmutableSet.of("old"), names(select(data().modifiedBefore(OLD_MTIME + 1))));
+        assertEquals(ImmutableSet.of("small", "large", "renamed"), names(select(data().modifiedAfter(OLD_MTIME))));
+        assertEquals(ImmutableSet.<String>of(),
+                names(select(data().modifiedAfter(OLD_MTIME).modifiedBefore(OLD_MTIME))));
+    }
+
+    @Test
+    public void readsSelectedFilesAgainUntilClosed() throws Exception {
+        FsImageSelector.SelectedFiles selected = data().result().select(fsimage, cluster.getConfiguration(0));
+        try {
+            Iterator<FileStatus> unfinished = selected.iterator();
+            assertTrue(unfinished.hasNext());
+            assertEquals(names(Lists.newArrayList(selected)), names(Lists.newArrayList(selected)));
+        } finally {
+            selected.close();
+        }
+
+        try {
+            selected.iterator();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Closing the files also closed the unfinished iteration
+        }
+    }
+
+    @Test
+    public void erasesOnlyFilesUnchangedSinceSelected() throws Exception {
+        Path stale = new Path("/stale");
+        List<FileStatus> selected = select(FsImageSelector.newBuilder().glob(new Path(stale, "*")));
+        assertEquals(ImmutableSet.of("unchanged", "modified", "replaced", "deleted"), names(selected));
+
+        // Replace a file with one indistinguishable but for its inode ID
+        Path replaced = new Path(stale, "replaced");
+        long replacedMtime = fs.getFileStatus(replaced).getModificationTime();
+        fs.delete(replaced, false);
+        createFile(replaced, SMALL_LENGTH);
+        fs.setTimes(replaced, replacedMtime, -1);
+        fs.setTimes(new Path(stale, "modified"), System.currentTimeMillis() + 60000, -1);
+        fs.delete(new Path(stale, "deleted"), false);
+
+        Configuration conf = new Configuration(cluster.getConfiguration(0));
+        conf.set(FileSystem.FS_DEFAULT_NAME_KEY, fs.getUri().toString());
+        conf.setBoolean(SecureErase.Conf.REUSE_FILE_SYSTEM, true);
+        new SecureErase(conf).eraseStatuses(selected,
+                FileErasureSpec.from(new OverwriteSpec(ByteProvider.repeatedBytes((byte) 0xff))));
+
+        byte[] erased = new byte[SMALL_LENGTH];
+        Arrays.fill(erased, (byte) 0xff);
+        assertArrayEquals(erased, read(new Path(stale, "unchanged")));
+        assertFalse(Arrays.equals(erased, read(new Path(stale, "modified"))));
+        assertFalse(Arrays.equals(erased, read(replaced)));
+        assertFalse(fs.exists(new Path(stale, "deleted")));
+    }
+
+    private static byte[] read(Path path) throws Exception {
+        byte[] bytes = new byte[SMALL_LENGTH];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+}
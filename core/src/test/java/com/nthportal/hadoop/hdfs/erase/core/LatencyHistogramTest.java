@@ -0,0 +1,80 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguousUpToMaxValue() {
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int i = 0; i <= last; i++) {
+            long lowerBound = LatencyHistogram.lowerBound(i);
+            long upperBound = lowerBound + LatencyHistogram.bucketWidth(i) - 1;
+            assertTrue("Bucket " + i + " overflows", upperBound >= lowerBound);
+            assertEquals(i, LatencyHistogram.indexOf(lowerBound));
+            assertEquals(i, LatencyHistogram.indexOf(upperBound));
+            if (i < last) {
+                assertEquals(upperBound + 1, LatencyHistogram.lowerBound(i + 1));
+            } else {
+                assertEquals(Long.MAX_VALUE, upperBound);
+            }
+        }
+    }
+
+    @Test
+    public void bucketsAreNarrowRelativeToValues() {
+        for (long value = 1; value > 0; value = value * 3 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(LatencyHistogram.bucketWidth(index) <= Math.max(LatencyHistogram.lowerBound(index) / 32, 1));
+        }
+    }
+
+    @Test
+    public void percentilesUseRankOfValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertEquals(20, histogram.count());
+        assertEquals(10.5, histogram.mean(), 0);
+        assertEquals(20, histogram.max());
+
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(1, histogram.percentile(5));
+        assertEquals(2, histogram.percentile(5.1));
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(19, histogram.percentile(95));
+        assertEquals(20, histogram.percentile(100));
+    }
+
+    @Test
+    public void percentilesAreBucketMidpointsNoLargerThanMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // Counted in the bucket [976, 992)
+        histogram.record(990);
+        assertEquals(984, histogram.percentile(50));
+
+        histogram = new LatencyHistogram();
+        histogram.record(977);
+        assertEquals(977, histogram.percentile(50));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.max());
+        long p100 = histogram.percentile(100);
+        assertEquals(LatencyHistogram.indexOf(Long.MAX_VALUE), LatencyHistogram.indexOf(p100));
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(100));
+    }
+}
@@ -0,0 +1,81 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.AccessControlException;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    private static RetryPolicy.Policies policies(long baseDelay, long maxDelay) {
+        Configuration conf = new Configuration(false);
+        conf.setInt(SecureErase.Conf.RETRIES, 5);
+        conf.setLong(SecureErase.Conf.RETRY_BASE_DELAY_MILLIS, baseDelay);
+        conf.setLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS, maxDelay);
+        conf.setInt(SecureErase.Conf.RETRIES + "." + FileSystemOperation.DELETE.name(), 1);
+        conf.setLong(SecureErase.Conf.RETRY_MAX_DELAY_MILLIS + "." + FileSystemOperation.DELETE.name(), 10);
+        return new RetryPolicy.Policies(conf);
+    }
+
+    private static long maxDelay(RetryPolicy policy, int retry) {
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.delayMillis(retry);
+            assertTrue(delay >= 0);
+            max = Math.max(max, delay);
+        }
+        return max;
+    }
+
+    @Test
+    public void delayDoublesUpToCeiling() {
+        RetryPolicy policy = policies(100, 1000).get(null);
+        assertTrue(maxDelay(policy, 1) <= 100);
+        assertTrue(maxDelay(policy, 2) <= 200);
+        assertTrue(maxDelay(policy, 3) <= 400);
+        assertTrue(maxDelay(policy, 4) <= 800);
+        assertTrue(maxDelay(policy, 5) <= 1000);
+        assertTrue(maxDelay(policy, 5) > 800);
+    }
+
+    @Test
+    public void delayDoesNotOverflow() {
+        RetryPolicy policy = policies(100, Long.MAX_VALUE).get(null);
+        assertTrue(maxDelay(policy, Integer.MAX_VALUE) >= 0);
+        assertEquals(0, maxDelay(policies(0, 1000).get(null), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void operationsOverrideDefaults() {
+        RetryPolicy.Policies policies = policies(100, 1000);
+        assertEquals(5, policies.get(null).maxRetries());
+        assertEquals(5, policies.get(FileSystemOperation.RENAME).maxRetries());
+        assertEquals(1, policies.get(FileSystemOperation.DELETE).maxRetries());
+        // The maximum delay is never below the base delay
+        assertTrue(maxDelay(policies.get(FileSystemOperation.DELETE), 1) > 10);
+        assertTrue(maxDelay(policies.get(FileSystemOperation.DELETE), 5) <= 100);
+    }
+
+    @Test
+    public void retriesOnlyTransientFailures() {
+        assertTrue(RetryPolicy.isRetryable(new IOException()));
+        assertTrue(RetryPolicy.isRetryable(new RemoteException(IOException.class.getName(), "")));
+        assertFalse(RetryPolicy.isRetryable(new FileNotFoundException()));
+        assertFalse(RetryPolicy.isRetryable(new FileAlreadyExistsException()));
+        assertFalse(RetryPolicy.isRetryable(new AccessControlException()));
+        assertFalse(RetryPolicy.isRetryable(new InterruptedIOException()));
+        assertFalse(RetryPolicy.isRetryable(new ErasureVerificationException(new Path("/file"), "")));
+        assertFalse(RetryPolicy.isRetryable(
+                new RemoteException(FileNotFoundException.class.getName(), "")));
+        assertFalse(RetryPolicy.isRetryable(
+                new RemoteException(AccessControlException.class.getName(), "")));
+        assertFalse(RetryPolicy.isRetryable(new RuntimeException()));
+    }
+}
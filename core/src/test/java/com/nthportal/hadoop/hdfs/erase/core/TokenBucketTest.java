@@ -0,0 +1,64 @@
+package com.nthportal.hadoop.hdfs.erase.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void startsFull() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        assertEquals(0, bucket.reserve(1000, 0));
+        assertEquals(MILLIS, bucket.reserve(1, 0));
+    }
+
+    @Test
+    public void debtIsRepaidAtRate() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+
+        // A chunk larger than the rate puts the bucket two seconds into debt
+        assertEquals(2 * SECOND, bucket.reserve(3000, 0));
+        // Half of the debt has been repaid one second later
+        assertEquals(SECOND + MILLIS, bucket.reserve(1, SECOND));
+        assertEquals(0, bucket.reserve(0, 3 * SECOND + MILLIS));
+    }
+
+    @Test
+    public void refillsUpToOneSecondOfPermits() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        assertEquals(0, bucket.reserve(1000, 0));
+
+        assertEquals(0, bucket.reserve(250, 250 * MILLIS));
+        assertEquals(MILLIS, bucket.reserve(1, 250 * MILLIS));
+
+        // However long the bucket is idle, bursts are limited to the rate
+        assertEquals(0, bucket.reserve(1000, 60 * SECOND));
+        assertEquals(MILLIS, bucket.reserve(1, 60 * SECOND));
+    }
+
+    @Test
+    public void nonPositiveRateIsUnlimited() throws Exception {
+        TokenBucket bucket = new TokenBucket(0, 0);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE, 0));
+        bucket.acquire(Long.MAX_VALUE);
+
+        bucket.setRate(-1);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void loweringRateDiscardsExcessPermits() {
+        TokenBucket bucket = new TokenBucket(Long.MAX_VALUE / SECOND);
+        bucket.setRate(1000);
+        assertEquals(1000, bucket.getRate());
+
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(1000, now));
+        assertEquals(MILLIS, bucket.reserve(1, now), MILLIS);
+    }
+}
@@ -0,0 +1,184 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Erases files with the default {@link AdvancedFileDeletionSpec} against a
+ * MiniDFSCluster, where the obfuscated names of files compete with each
+ * other and with the names of other files.
+ */
+public class AdvancedFileDeletionSpecTest {
+    private static final int FILE_LENGTH = 100;
+
+    private static File baseDir;
+    private static MiniDFSCluster cluster;
+    private static FileSystem fs;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        baseDir = Files.createTempDir();
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+        fs = cluster.getFileSystem();
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        if (baseDir != null) {
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    private static void createFile(Path path) throws Exception {
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(new byte[FILE_LENGTH]);
+        }
+    }
+
+    private static void erase(Path glob) throws Exception {
+        Configuration conf = new Configuration(cluster.getConfiguration(0));
+        conf.set(FileSystem.FS_DEFAULT_NAME_KEY, fs.getUri().toString());
+        conf.setBoolean(SecureErase.Conf.REUSE_FILE_SYSTEM, true);
+        // Empty the files at once, so that they are erased many at a time
+        conf.setLong(SecureErase.Conf.SMALL_FILE_THRESHOLD, FILE_LENGTH);
+        conf.setInt(SecureErase.Conf.MAX_FAILED_FILES, -1);
+        new SecureErase(conf).eraseGlob(glob,
+                new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.defaultConf()));
+    }
+
+    @Test
+    public void erasesManySameLengthSiblingsConcurrently() throws Exception {
+        Path dir = new Path("/siblings");
+        for (int i = 0; i < 32; i++) {
+            createFile(new Path(dir, String.format("part-%05d", i)));
+        }
+
+        erase(new Path(dir, "*"));
+        assertEquals(0, fs.listStatus(dir).length);
+    }
+
+    @Test
+    public void skipsShortNamesInUse() throws Exception {
+        Path dir = new Path("/short");
+        for (int i = 0; i < 4; i++) {
+            createFile(new Path(dir, Integer.toString(i)));
+        }
+        createFile(new Path(dir, "abc"));
+
+        erase(new Path(dir, "abc"));
+        assertEquals(4, fs.listStatus(dir).length);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(fs.exists(new Path(dir, Integer.toString(i))));
+        }
+    }
+
+    @Test
+    public void countsFailedRenamesTowardsMaxFailures() throws Exception {
+        Path dir = new Path("/failing");
+        Path path = new Path(dir, "a-long-file-name");
+        createFile(path);
+
+        // Long names may fail to be obfuscated to three lengths
+        FileSystem failing = new FailingRenames(fs, 5, 7, 9);
+        Path obfuscated = new AdvancedFileDeletionSpec.FileNameObfuscator(failing, path, false).obfuscate();
+        assertEquals(1, obfuscated.getName().length());
+        assertTrue(fs.exists(obfuscated));
+    }
+
+    @Test
+    public void failsOnceTooManyRenamesFail() throws Exception {
+        Path dir = new Path("/too-many-failing");
+        Path path = new Path(dir, "a-long-file-name");
+        createFile(path);
+
+        FileSystem failing = new FailingRenames(fs, 3, 5, 7, 9);
+        try {
+            new AdvancedFileDeletionSpec.FileNameObfuscator(failing, path, false).obfuscate();
+            fail("Expected obfuscating the file name to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to obfuscate file name"));
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void truncatesSmallFilesToZeroAtOnce() throws Exception {
+        Path path = new Path("/small/file");
+        createFile(path);
+
+        Configuration conf = new Configuration(fs.getConf());
+        conf.setLong(SecureErase.Conf.SMALL_FILE_THRESHOLD, FILE_LENGTH);
+        AdvancedFileDeletionSpec spec = new AdvancedFileDeletionSpec(AdvancedFileDeletionSpec.Conf.newBuilder()
+                .obfuscateFileName(false)
+                .result());
+        spec.setConf(conf);
+
+        CountingTruncates counting = new CountingTruncates(fs);
+        spec.eraseFile(counting, path);
+        assertEquals(Arrays.asList(0L), counting.sizes);
+        assertFalse(fs.exists(path));
+    }
+
+    /**
+     * A FileSystem on which renames to names of chosen lengths fail.
+     */
+    private static final class FailingRenames extends FilterFileSystem {
+        private final Set<Integer> failingLengths;
+
+        private FailingRenames(FileSystem fs, Integer... failingLengths) {
+            super(fs);
+            this.failingLengths = new HashSet<>(Arrays.asList(failingLengths));
+        }
+
+        @Override
+        public boolean rename(Path src, Path dst) throws IOException {
+            if (failingLengths.contains(dst.getName().length())) {
+                throw new IOException("Injected failure renaming '" + src + "' to '" + dst + "'");
+            }
+            return super.rename(src, dst);
+        }
+    }
+
+    /**
+     * A FileSystem which records the sizes to which files are truncated.
+     */
+    private static final class CountingTruncates extends FilterFileSystem {
+        private final List<Long> sizes = new ArrayList<>();
+
+        private CountingTruncates(FileSystem fs) {
+            super(fs);
+        }
+
+        @Override
+        public boolean truncate(Path f, long newLength) throws IOException {
+            sizes.add(newLength);
+            return super.truncate(f, newLength);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ByteProviderTest {
+    private static final byte[] PATTERN = {1, 2, 3, 4, 5};
+
+    /**
+     * Returns the bytes provided by a ByteProvider in calls of the
+     * specified lengths, concatenated.
+     */
+    private static byte[] provide(ByteProvider provider, int... lengths) {
+        ByteProvider.State state = ByteProvider.State.empty();
+        byte[] all = new byte[0];
+        for (int length : lengths) {
+            byte[] bytes = new byte[length];
+            provider.nextBytes(bytes, state);
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + length);
+            System.arraycopy(bytes, 0, all, offset, length);
+        }
+        return all;
+    }
+
+    private static byte[] repeated(byte[] pattern, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = pattern[i % pattern.length];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void repeatedBytesFillsFromStartOfPattern() {
+        assertArrayEquals(repeated(PATTERN, 23), provide(ByteProvider.repeatedBytes(PATTERN), 23));
+    }
+
+    @Test
+    public void repeatedBytesContinuesPatternAcrossCalls() {
+        // Calls shorter than the rest of the pattern, calls which wrap around
+        // it, and calls longer than it which start part of the way through
+        int[] lengths = {2, 1, 4, 13, 3, 7, 1, 32};
+        int total = 0;
+        for (int length : lengths) {
+            total += length;
+        }
+
+        assertArrayEquals(repeated(PATTERN, total), provide(ByteProvider.repeatedBytes(PATTERN), lengths));
+    }
+
+    @Test
+    public void repeatedBytesIsDeterministic() {
+        assertTrue(ByteProvider.repeatedBytes(PATTERN).isDeterministic());
+        assertTrue(ByteProvider.repeatedBytes((byte) 0x5a).isDeterministic());
+        assertTrue(ByteProvider.zeros().isDeterministic());
+        assertFalse(ByteProvider.randomBytes().isDeterministic());
+    }
+}
@@ -0,0 +1,140 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.DataChecksum;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Verifies files overwritten by an {@link OverwriteSpec} against a
+ * MiniDFSCluster, with each CRC type which HDFS can write.
+ */
+@RunWith(Parameterized.class)
+public class ChecksumVerificationSpecTest {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BYTES_PER_CHECKSUM = 512;
+
+    private static File baseDir;
+    private static MiniDFSCluster cluster;
+
+    private final DataChecksum.Type crcType;
+    private FileSystem fs;
+
+    public ChecksumVerificationSpecTest(DataChecksum.Type crcType) {
+        this.crcType = crcType;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> crcTypes() {
+        return Arrays.asList(new Object[][] {{DataChecksum.Type.CRC32}, {DataChecksum.Type.CRC32C}});
+    }
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        baseDir = Files.createTempDir();
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        if (baseDir != null) {
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // The CRC type and block size are chosen by the writing client
+        Configuration conf = new Configuration(cluster.getConfiguration(0));
+        conf.set(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, crcType.name());
+        conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BYTES_PER_CHECKSUM);
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        fs = FileSystem.newInstance(cluster.getURI(), conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.close();
+    }
+
+    /**
+     * Creates a file of random bytes and overwrites it with bytes from a
+     * ByteProvider.
+     */
+    private Path overwrittenFile(String name, int length, ByteProvider byteProvider) throws Exception {
+        Path path = new Path("/" + crcType + "/" + name);
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(bytes);
+        }
+        FileErasureSpec.from(new OverwriteSpec(byteProvider)).eraseFile(fs, path);
+        return path;
+    }
+
+    private void verify(Path path, ByteProvider byteProvider) throws Exception {
+        new ChecksumVerificationSpec(byteProvider).eraseFile(fs, path);
+    }
+
+    @Test
+    public void verifiesSingleBlockFile() throws Exception {
+        ByteProvider zeros = ByteProvider.zeros();
+        verify(overwrittenFile("single-block", 1000, zeros), zeros);
+    }
+
+    @Test
+    public void verifiesMultiBlockFile() throws Exception {
+        ByteProvider ff = ByteProvider.repeatedBytes((byte) 0xff);
+        verify(overwrittenFile("multi-block", 3 * BLOCK_SIZE + 700, ff), ff);
+    }
+
+    @Test
+    public void verifiesPatternNotAlignedWithChunks() throws Exception {
+        // Chunks and blocks start part of the way through a 3-byte pattern
+        ByteProvider pattern = ByteProvider.repeatedBytes(new byte[] {0x00, 0x55, (byte) 0xaa});
+        verify(overwrittenFile("pattern", 2 * BLOCK_SIZE + 100, pattern), pattern);
+    }
+
+    @Test(expected = ErasureVerificationException.class)
+    public void rejectsFileOverwrittenWithOtherBytes() throws Exception {
+        Path path = overwrittenFile("mismatch", 2 * BLOCK_SIZE + 100, ByteProvider.zeros());
+        verify(path, ByteProvider.repeatedBytes((byte) 0xff));
+    }
+
+    @Test(expected = ErasureVerificationException.class)
+    public void rejectsFileNotOverwritten() throws Exception {
+        Path path = new Path("/" + crcType + "/random");
+        byte[] bytes = new byte[BLOCK_SIZE + 100];
+        new Random(0).nextBytes(bytes);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(bytes);
+        }
+        verify(path, ByteProvider.zeros());
+    }
+}
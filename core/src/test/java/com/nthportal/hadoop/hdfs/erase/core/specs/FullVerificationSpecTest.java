@@ -0,0 +1,78 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies files written with a byte pattern on the local file system,
+ * where reads are not aligned with the chunks in which the expected bytes
+ * are regenerated.
+ */
+public class FullVerificationSpecTest {
+    private static final int CHUNK_LENGTH = 4 * 1024 * 1024;
+    // A pattern whose length does not divide the chunk length, so that each chunk differs
+    private static final ByteProvider PATTERN = ByteProvider.repeatedBytes(new byte[]{1, 2, 3});
+
+    private File dir;
+    private FileSystem fs;
+    private FullVerificationSpec spec;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        Configuration conf = new Configuration();
+        fs = FileSystem.getLocal(conf).getRawFileSystem();
+        spec = new FullVerificationSpec(PATTERN);
+        spec.setConf(conf);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(dir);
+    }
+
+    private Path createFile(String name, int length, int corruptOffset) throws IOException {
+        byte[] bytes = new byte[length];
+        PATTERN.nextBytes(bytes, ByteProvider.State.empty());
+        if (corruptOffset >= 0) {
+            bytes[corruptOffset] ^= 0x7f;
+        }
+        Path path = new Path(dir.toURI().toString(), name);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(bytes);
+        }
+        return path;
+    }
+
+    @Test
+    public void verifiesFilesSpanningSeveralChunks() throws Exception {
+        spec.eraseFile(fs, createFile("large", 2 * CHUNK_LENGTH + 5, -1));
+        // The expected bytes start again from the first chunk for each file
+        spec.eraseFile(fs, createFile("small", 100, -1));
+        spec.eraseFile(fs, createFile("other", CHUNK_LENGTH + 1, -1));
+    }
+
+    @Test
+    public void reportsOffsetOfFirstMismatch() throws Exception {
+        int offset = CHUNK_LENGTH + 17;
+        try {
+            spec.eraseFile(fs, createFile("corrupt", 2 * CHUNK_LENGTH, offset));
+            fail("Expected verification to fail");
+        } catch (ErasureVerificationException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("at offset " + offset));
+        }
+    }
+}
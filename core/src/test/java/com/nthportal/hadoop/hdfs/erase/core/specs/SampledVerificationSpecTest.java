@@ -0,0 +1,165 @@
+package com.nthportal.hadoop.hdfs.erase.core.specs;
+
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.ErasureVerificationException;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Overwrites files and verifies a sample of their chunks with a
+ * {@link SampledVerificationSpec} against a MiniDFSCluster.
+ */
+public class SampledVerificationSpecTest {
+    // The size of the chunks sampled by SampledVerificationSpec
+    private static final int CHUNK_SIZE = 4096;
+    // Samples 11 chunks
+    private static final double CONFIDENCE = 0.9;
+    private static final double DEFECT_FRACTION = 0.2;
+
+    private static File baseDir;
+    private static MiniDFSCluster cluster;
+
+    private FileSystem fs;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        baseDir = Files.createTempDir();
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        if (baseDir != null) {
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        fs = FileSystem.newInstance(cluster.getURI(), cluster.getConfiguration(0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.close();
+    }
+
+    private Path createFile(String name, int length) throws IOException {
+        Path path = new Path("/" + name);
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(bytes);
+        }
+        return path;
+    }
+
+    private static SampledVerificationSpec sampled(FileErasureSpec overwrite) {
+        return new SampledVerificationSpec(overwrite, CONFIDENCE, DEFECT_FRACTION);
+    }
+
+    private static FileErasureSpec randomOverwrite() {
+        return FileErasureSpec.from(new OverwriteSpec(ByteProvider.randomBytes()));
+    }
+
+    @Test
+    public void verifiesRandomMultiPassOverwrite() throws Exception {
+        // Many more chunks than samples, the last of them partial
+        Path path = createFile("multi-pass", 40 * CHUNK_SIZE + 100);
+        sampled(randomOverwrite().repeated(3)).eraseFile(fs, path);
+        assertEquals(40 * CHUNK_SIZE + 100, fs.getFileStatus(path).getLen());
+    }
+
+    @Test
+    public void reportsCorruptedChunkWithItsOffset() throws Exception {
+        Path path = createFile("corrupted", 8 * CHUNK_SIZE);
+        try {
+            new SampledVerificationSpec(new CorruptingOverwrite(fs, 3 * CHUNK_SIZE + 17)).eraseFile(fs, path);
+            fail("Expected the corrupted chunk to be found");
+        } catch (ErasureVerificationException e) {
+            assertEquals(path, e.getPath());
+            assertTrue(e.getMessage(), e.getMessage().contains("1 of 8 sampled chunks"));
+            assertTrue(e.getMessage(), e.getMessage().contains("at offsets [" + 3 * CHUNK_SIZE + "]"));
+        }
+    }
+
+    @Test
+    public void verifiesFileShorterThanOneChunk() throws Exception {
+        Path path = createFile("short", 100);
+        sampled(randomOverwrite()).eraseFile(fs, path);
+
+        // The only (partial) chunk is still verified
+        path = createFile("short-corrupted", 100);
+        try {
+            sampled(new CorruptingOverwrite(fs, 99)).eraseFile(fs, path);
+            fail("Expected the corrupted chunk to be found");
+        } catch (ErasureVerificationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 of 1 sampled chunks"));
+        }
+    }
+
+    @Test
+    public void verifiesEveryChunkOfFileWithFewerChunksThanSamples() throws Exception {
+        // 5 chunks, of which only the last (partial) one is corrupted
+        Path path = createFile("few-chunks", 4 * CHUNK_SIZE + 100);
+        try {
+            sampled(new CorruptingOverwrite(fs, 4 * CHUNK_SIZE + 50)).eraseFile(fs, path);
+            fail("Expected the corrupted chunk to be found");
+        } catch (ErasureVerificationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 of 5 sampled chunks"));
+            assertTrue(e.getMessage(), e.getMessage().contains("at offsets [" + 4 * CHUNK_SIZE + "]"));
+        }
+    }
+
+    /**
+     * A spec which overwrites a file with zeros, and then rewrites it with
+     * one byte changed, through a FileSystem which is not being recorded.
+     */
+    private static final class CorruptingOverwrite extends FileErasureSpec {
+        private final FileSystem unrecorded;
+        private final int corruptOffset;
+
+        private CorruptingOverwrite(FileSystem unrecorded, int corruptOffset) {
+            this.unrecorded = unrecorded;
+            this.corruptOffset = corruptOffset;
+        }
+
+        @Override
+        public void eraseFile(FileSystem fs, Path path) throws IOException {
+            FileErasureSpec.from(new OverwriteSpec(ByteProvider.zeros())).eraseFile(fs, path);
+
+            byte[] bytes = new byte[(int) unrecorded.getFileStatus(path).getLen()];
+            bytes[corruptOffset] = 1;
+            try (FSDataOutputStream out = unrecorded.create(path)) {
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public boolean isTerminal() {
+            return false;
+        }
+    }
+}
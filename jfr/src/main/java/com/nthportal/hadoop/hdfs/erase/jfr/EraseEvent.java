@@ -0,0 +1,29 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Erasing a group of files (or a single file).
+ */
+@Name(EraseEvent.NAME)
+@Label("Erase")
+@Category(FlightRecorderListener.CATEGORY)
+@Description("Erasing a group of files")
+@StackTrace(false)
+final class EraseEvent extends jdk.jfr.Event {
+    static final String NAME = FlightRecorderListener.PREFIX + "Erase";
+
+    @Label("Files")
+    @Description("Number of files to erase")
+    long files;
+
+    @Label("Bytes")
+    @Description("Total length of the files to erase")
+    @DataAmount
+    long bytes;
+}
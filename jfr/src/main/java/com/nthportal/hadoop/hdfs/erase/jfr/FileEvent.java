@@ -0,0 +1,38 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Erasing a file, from when it started until it finished (which, for a file
+ * whose metadata phase is deferred, need not be on the same thread).
+ */
+@Name(FileEvent.NAME)
+@Label("Erase File")
+@Category(FlightRecorderListener.CATEGORY)
+@Description("Erasing a file")
+@StackTrace(false)
+final class FileEvent extends jdk.jfr.Event {
+    static final String NAME = FlightRecorderListener.PREFIX + "File";
+
+    @Label("Path Hash")
+    @Description("Hash of the path to the file")
+    long pathHash;
+
+    @Label("Length")
+    @Description("Length of the file")
+    @DataAmount
+    long length;
+
+    @Label("Status")
+    @Description("Result of erasing the file")
+    String status;
+
+    @Label("Failure")
+    @Description("Class of the exception with which erasing the file failed")
+    String failure;
+}
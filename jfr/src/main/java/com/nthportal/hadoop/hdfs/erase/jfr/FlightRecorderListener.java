@@ -0,0 +1,267 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.nthportal.hadoop.hdfs.erase.core.EraseListener;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureResult;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.FileSystemOperation;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import jdk.jfr.EventType;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link EraseListener} which emits JDK Flight Recorder events for
+ * erasing files, so that erasing files can be correlated with garbage
+ * collection, allocation, socket I/O and so on in a single recording.
+ *
+ * <p>The events emitted (all in the "HDFS Secure Erase" category) are:
+ * <ul>
+ *     <li>{@code com.nthportal.hdfs_secure_erase.Erase}: erasing a group
+ *     of files</li>
+ *     <li>{@code com.nthportal.hdfs_secure_erase.File}: erasing a file</li>
+ *     <li>{@code com.nthportal.hdfs_secure_erase.Phase}: a
+ *     {@linkplain FileErasureSpec.Phase phase} of erasing a file</li>
+ *     <li>{@code com.nthportal.hdfs_secure_erase.Pass}: a pass writing to a
+ *     file, such as an overwrite pass</li>
+ *     <li>{@code com.nthportal.hdfs_secure_erase.Operation}: a
+ *     {@linkplain FileSystemOperation file system operation}, such as each
+ *     truncation, rename and status check (including those made while
+ *     waiting for a truncation to finish)</li>
+ * </ul>
+ *
+ * <p>Events identify files by a 64-bit hash of their paths, rather than by
+ * the paths themselves, so that recordings do not reveal the names of
+ * erased files. Events are only created when they are enabled in a running
+ * recording; otherwise, each event costs little more than a check of
+ * whether it is enabled.
+ *
+ * <p>{@code SecureErase} records each erasure with a listener of its own
+ * (see {@link #forErasure()}), so that the {@code Erase} events of
+ * erasures which run concurrently (for example, asynchronous erasures,
+ * or the requests of an erase service) each end when their own files have
+ * been erased. A single {@code FlightRecorderListener} records one group
+ * of files at a time.
+ *
+ * <p>To use this listener, add this module to the classpath and name this
+ * class in {@link SecureErase.Conf#LISTENERS}.
+ */
+public class FlightRecorderListener extends EraseListener {
+    static final String PREFIX = "com.nthportal.hdfs_secure_erase.";
+    static final String CATEGORY = "HDFS Secure Erase";
+
+    private static final HashFunction PATH_HASH = Hashing.murmur3_128();
+
+    private static final EventType FILE_EVENT = EventType.getEventType(FileEvent.class);
+
+    private final AtomicReference<EraseEvent> erase = new AtomicReference<>();
+    private final ThreadLocal<CurrentFile> currentFile = new ThreadLocal<>();
+    private final ThreadLocal<PhaseEvent> currentPhase = new ThreadLocal<>();
+    private final ConcurrentMap<Path, FileEvent> files = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a new {@code FlightRecorderListener} with which to record a
+     * single erasure.
+     *
+     * @return a new FlightRecorderListener
+     */
+    @Override
+    public EraseListener forErasure() {
+        return new FlightRecorderListener();
+    }
+
+    @Override
+    public void eraseStarted(long files, long bytes) {
+        // Erasures finish on whichever thread finishes the last file
+        EraseEvent event = new EraseEvent();
+        if (!event.isEnabled()) {
+            erase.set(null);
+            return;
+        }
+        event.files = files;
+        event.bytes = bytes;
+        event.begin();
+        erase.set(event);
+    }
+
+    @Override
+    public void filesAdded(long files, long bytes) {
+        // Files are only added before the erasure finishes, by the thread which started it
+        EraseEvent event = erase.get();
+        if (event != null) {
+            event.files += files;
+            event.bytes += bytes;
+        }
+    }
+
+    @Override
+    public void eraseFinished() {
+        EraseEvent event = erase.getAndSet(null);
+        if (event != null) {
+            event.commit();
+        }
+    }
+
+    @Override
+    public void fileStarted(FileStatus file) {
+        Path path = file.getPath();
+        currentFile.set(new CurrentFile(path));
+
+        // Files may finish on a different thread from the one on which they started
+        if (FILE_EVENT.isEnabled()) {
+            FileEvent event = new FileEvent();
+            event.length = file.getLen();
+            event.begin();
+            files.put(path, event);
+        }
+    }
+
+    @Override
+    public void fileFinished(FileErasureResult result) {
+        Path path = result.getPath();
+        CurrentFile current = currentFile.get();
+        if (current != null && current.path.equals(path)) {
+            currentFile.remove();
+        }
+
+        FileEvent event = files.remove(path);
+        if (event == null) {
+            // Not started while recording (or aborted before being started)
+            event = new FileEvent();
+            if (!event.isEnabled()) {
+                return;
+            }
+            event.length = result.getLength();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.pathHash = hash(path);
+            event.status = result.getStatus().toString();
+            event.failure = className(result.getFailure());
+            event.commit();
+        }
+    }
+
+    @Override
+    public void phaseStarted(Path path, FileErasureSpec.Phase phase) {
+        CurrentFile current = currentFile.get();
+        if (current == null || !current.path.equals(path)) {
+            current = new CurrentFile(path);
+            currentFile.set(current);
+        }
+
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.pathHash = current.hash();
+            event.phase = phase.toString();
+            event.begin();
+            currentPhase.set(event);
+        }
+    }
+
+    @Override
+    public void phaseFinished(Path path, FileErasureSpec.Phase phase, long nanos, Throwable failure) {
+        currentFile.remove();
+
+        PhaseEvent event = currentPhase.get();
+        if (event != null) {
+            currentPhase.remove();
+            event.failure = className(failure);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void operationCompleted(FileSystemOperation operation, long nanos) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.pathHash = currentPathHash();
+            event.operation = operation.toString();
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void operationFailed(FileSystemOperation operation, IOException e) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.pathHash = currentPathHash();
+            event.operation = operation.toString();
+            event.failure = className(e);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void passCompleted(long bytes, long nanos, long writeNanos) {
+        PassEvent event = new PassEvent();
+        if (event.shouldCommit()) {
+            event.pathHash = currentPathHash();
+            event.bytes = bytes;
+            event.passDuration = nanos;
+            event.writeDuration = writeNanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the hash of the path to the file being erased by the current
+     * thread, or 0 if the current thread is not erasing a file.
+     *
+     * @return the hash of the path to the file being erased
+     */
+    private long currentPathHash() {
+        CurrentFile current = currentFile.get();
+        return (current == null) ? 0 : current.hash();
+    }
+
+    /**
+     * Returns the hash of a path.
+     *
+     * @param path the path
+     * @return the hash of the path
+     */
+    static long hash(Path path) {
+        return PATH_HASH.hashBytes(path.toString().getBytes(StandardCharsets.UTF_8)).asLong();
+    }
+
+    /**
+     * Returns the name of the class of an exception, or {@code null} if
+     * there is no exception.
+     *
+     * @param t the exception (may be null)
+     * @return the name of the class of the exception
+     */
+    private static String className(Throwable t) {
+        return (t == null) ? null : t.getClass().getName();
+    }
+
+    /**
+     * The file being erased by a thread, whose path is hashed at most once.
+     */
+    private static final class CurrentFile {
+        private final Path path;
+        private long hash;
+        private boolean hashed = false;
+
+        private CurrentFile(Path path) {
+            this.path = path;
+        }
+
+        private long hash() {
+            if (!hashed) {
+                hash = FlightRecorderListener.hash(path);
+                hashed = true;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A file system (NameNode) operation made while erasing a file, such as
+ * truncating or renaming it. Committed once the operation has completed,
+ * so its latency is a field rather than the duration of the event itself.
+ */
+@Name(OperationEvent.NAME)
+@Label("File System Operation")
+@Category(FlightRecorderListener.CATEGORY)
+@Description("A file system operation made while erasing a file")
+@StackTrace(false)
+final class OperationEvent extends jdk.jfr.Event {
+    static final String NAME = FlightRecorderListener.PREFIX + "Operation";
+
+    @Label("Path Hash")
+    @Description("Hash of the path to the file being erased")
+    long pathHash;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan
+    long latency;
+
+    @Label("Failure")
+    @Description("Class of the exception with which the operation failed")
+    String failure;
+}
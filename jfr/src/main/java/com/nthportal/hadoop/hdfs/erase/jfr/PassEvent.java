@@ -0,0 +1,42 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A pass writing to a file (such as an overwrite pass). Committed once the
+ * file has been closed, so its duration is a field rather than the duration
+ * of the event itself.
+ */
+@Name(PassEvent.NAME)
+@Label("Overwrite Pass")
+@Category(FlightRecorderListener.CATEGORY)
+@Description("A pass writing to a file")
+@StackTrace(false)
+final class PassEvent extends jdk.jfr.Event {
+    static final String NAME = FlightRecorderListener.PREFIX + "Pass";
+
+    @Label("Path Hash")
+    @Description("Hash of the path to the file")
+    long pathHash;
+
+    @Label("Bytes")
+    @Description("Bytes written by the pass")
+    @DataAmount
+    long bytes;
+
+    @Label("Pass Duration")
+    @Description("Time from creating the file until it was closed")
+    @Timespan
+    long passDuration;
+
+    @Label("Write Duration")
+    @Description("Time spent writing to the file")
+    @Timespan
+    long writeDuration;
+}
@@ -0,0 +1,30 @@
+package com.nthportal.hadoop.hdfs.erase.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A phase (data or metadata) of erasing a file.
+ */
+@Name(PhaseEvent.NAME)
+@Label("Erase Phase")
+@Category(FlightRecorderListener.CATEGORY)
+@Description("A phase of erasing a file")
+@StackTrace(false)
+final class PhaseEvent extends jdk.jfr.Event {
+    static final String NAME = FlightRecorderListener.PREFIX + "Phase";
+
+    @Label("Path Hash")
+    @Description("Hash of the path to the file")
+    long pathHash;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Failure")
+    @Description("Class of the exception with which the phase failed")
+    String failure;
+}
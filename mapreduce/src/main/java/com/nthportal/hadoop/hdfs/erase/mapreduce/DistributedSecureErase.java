@@ -0,0 +1,256 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.nthportal.hadoop.hdfs.erase.cli.ErasureSpecOptions;
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import org.apache.commons.cli.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link Tool} which erases files using a MapReduce job, so that
+ * erasure is spread across the write bandwidth of the whole cluster.
+ *
+ * <p>Similarly to DistCp, the files matching the specified globs are
+ * first written to a listing, which is split into chunks of roughly equal
+ * size by {@link EraseInputFormat}; each map task then erases the files in
+ * its chunk with the configured {@link FileErasureSpec}.
+ *
+ * <p>How files are erased is specified with the same options as the
+ * command-line tool (see {@link ErasureSpecOptions}), which are passed to
+ * each map task; without any such options, files are erased the same way
+ * the command-line tool erases them by default.
+ */
+public final class DistributedSecureErase extends Configured implements Tool {
+    private static final String COMMAND_NAME = "hdfs-secure-erase-distributed";
+    private static final int DEFAULT_MAPS = 20;
+
+    @Override
+    public int run(String[] args) throws Exception {
+        CommandLine cmd;
+        try {
+            cmd = new GnuParser().parse(Opts.options(), args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            printHelp();
+            return 1;
+        }
+        if (cmd.hasOption(Opts.HELP) || cmd.getArgs().length == 0) {
+            printHelp();
+            return cmd.hasOption(Opts.HELP) ? 0 : 1;
+        }
+
+        Configuration conf = getConf();
+        setErasureSpecArgs(conf, ErasureSpecOptions.toArgs(cmd));
+        conf.setBoolean(Conf.IGNORE_FAILURES, cmd.hasOption(Opts.IGNORE_FAILURES));
+        conf.setInt(MRJobConfig.NUM_MAPS, Integer.parseInt(cmd.getOptionValue(Opts.MAPS, String.valueOf(DEFAULT_MAPS))));
+
+        List<Path> globs = new ArrayList<>();
+        for (String arg : cmd.getArgs()) {
+            globs.add(new Path(arg));
+        }
+
+        return runJob(conf, globs) ? 0 : 1;
+    }
+
+    /**
+     * Erases the files matching the specified globs using a MapReduce job,
+     * and waits for the job to complete.
+     *
+     * <p>The {@link FileErasureSpec} to use is set in the configuration,
+     * either as the options which specify it
+     * ({@link #setErasureSpecArgs(Configuration, String[])}), or as
+     * {@link Conf#ERASURE_SPEC}.
+     *
+     * @param conf  the Configuration to use
+     * @param globs {@link Path}s containing
+     *              {@link FileSystem#globStatus(Path) glob patterns}
+     * @return true if the job succeeded and every file was either erased or
+     * missing from the start; false otherwise (including if a retried map
+     * task found files missing which may have been left partially erased)
+     * @throws IllegalArgumentException if the erasure spec is invalid, or if
+     *                                  a glob matches no files or non-regular
+     *                                  files
+     * @throws IOException              if an I/O error occurs while preparing
+     *                                  or running the job
+     * @throws InterruptedException     if interrupted while waiting for the job
+     * @throws ClassNotFoundException   if a class needed by the job cannot be
+     *                                  found
+     */
+    public static boolean runJob(Configuration conf, List<Path> globs)
+            throws IllegalArgumentException, IOException, InterruptedException, ClassNotFoundException {
+        // Fail before submitting the job if the erasure spec is invalid
+        erasureSpec(conf);
+
+        Path workDir = new Path(conf.get(Conf.WORK_DIR, Conf.DEFAULT_WORK_DIR), UUID.randomUUID().toString());
+        FileSystem workFs = workDir.getFileSystem(conf);
+
+        try {
+            EraseListing listing = EraseListing.build(conf, new Path(workDir, "listing.seq"), globs);
+
+            Job job = Job.getInstance(conf, COMMAND_NAME + ": " + listing.fileCount() + " files");
+            Configuration jobConf = job.getConfiguration();
+            jobConf.set(Conf.LISTING_PATH, listing.path().toString());
+            jobConf.setLong(Conf.TOTAL_BYTES, listing.totalBytes());
+            jobConf.set(Conf.JOURNAL_DIR, new Path(workDir, "journal").toString());
+
+            job.setJarByClass(DistributedSecureErase.class);
+            job.setInputFormatClass(EraseInputFormat.class);
+            job.setMapperClass(EraseMapper.class);
+            job.setNumReduceTasks(0);
+            job.setOutputKeyClass(NullWritable.class);
+            job.setOutputValueClass(NullWritable.class);
+            job.setOutputFormatClass(NullOutputFormat.class);
+            // Two attempts must never erase the same file at the same time
+            job.setMapSpeculativeExecution(false);
+
+            boolean success = job.waitForCompletion(true);
+
+            Counters counters = job.getCounters();
+            System.out.println("Files erased:  " + counters.findCounter(EraseCounter.FILES_ERASED).getValue());
+            System.out.println("Files failed:  " + counters.findCounter(EraseCounter.FILES_FAILED).getValue());
+            System.out.println("Files missing: " + counters.findCounter(EraseCounter.FILES_MISSING).getValue());
+            System.out.println("Bytes erased:  " + counters.findCounter(EraseCounter.BYTES_ERASED).getValue());
+
+            long unconfirmed = counters.findCounter(EraseCounter.FILES_UNCONFIRMED).getValue();
+            if (unconfirmed > 0) {
+                System.out.println("Files unconfirmed: " + unconfirmed + " (missing after a task was retried, "
+                        + "and possibly left partially erased; see the task logs)");
+            }
+
+            return success && unconfirmed == 0;
+        } finally {
+            workFs.delete(workDir, true);
+        }
+    }
+
+    /**
+     * Sets the options which specify how map tasks erase files (see
+     * {@link ErasureSpecOptions}).
+     *
+     * @param conf the Configuration in which to set the options
+     * @param args the arguments of the options, or an empty array for the
+     *             default erasure spec
+     */
+    public static void setErasureSpecArgs(Configuration conf, String[] args) {
+        String[] escaped = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            // Byte patterns are comma-separated
+            escaped[i] = StringUtils.escapeString(args[i]);
+        }
+        conf.set(Conf.ERASURE_SPEC_ARGS, StringUtils.join(",", escaped));
+    }
+
+    /**
+     * Returns the {@link FileErasureSpec} with which to erase files, as
+     * configured by {@link Conf#ERASURE_SPEC} or by
+     * {@link #setErasureSpecArgs(Configuration, String[])}.
+     *
+     * @param conf the Configuration
+     * @return the FileErasureSpec with which to erase files
+     * @throws IllegalArgumentException if the erasure spec is invalid
+     */
+    static FileErasureSpec erasureSpec(Configuration conf) throws IllegalArgumentException {
+        Class<? extends FileErasureSpec> specClass = conf.getClass(Conf.ERASURE_SPEC, null, FileErasureSpec.class);
+        if (specClass != null) {
+            return ReflectionUtils.newInstance(specClass, conf);
+        }
+
+        String argsStr = conf.get(Conf.ERASURE_SPEC_ARGS, "");
+        String[] args = argsStr.isEmpty() ? new String[0] : StringUtils.split(argsStr);
+        for (int i = 0; i < args.length; i++) {
+            args[i] = StringUtils.unEscapeString(args[i]);
+        }
+        FileErasureSpec spec = ErasureSpecOptions.parse(args);
+        spec.setConf(conf);
+        return spec;
+    }
+
+    /**
+     * Prints a help message to stdout.
+     */
+    private static void printHelp() {
+        new HelpFormatter().printHelp(COMMAND_NAME + " [GENERIC_OPTIONS] [OPTIONS] FILE [FILES...]", Opts.options());
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new DistributedSecureErase(), args));
+    }
+
+    /**
+     * Command-line options
+     */
+    private static final class Opts {
+        private Opts() {}
+
+        static String HELP = "help";
+        static String MAPS = "maps";
+        static String IGNORE_FAILURES = "ignore-failures";
+
+        static Options options() {
+            Options options = new Options();
+
+            options.addOption(new Option("h", HELP, false, "shows this help message"));
+
+            ErasureSpecOptions.addTo(options);
+
+            Option opt = new Option("m", MAPS, true, "the maximum number of map tasks (default " + DEFAULT_MAPS + ")");
+            opt.setArgName("COUNT");
+            options.addOption(opt);
+
+            options.addOption(new Option("i", IGNORE_FAILURES, false,
+                    "continue erasing other files when a file fails to be erased"));
+
+            return options;
+        }
+    }
+
+    /**
+     * Utility class for {@link Configuration} constants.
+     */
+    public static final class Conf {
+        /**
+         * The name of the {@link FileErasureSpec} class with which map tasks
+         * erase files (must have a default constructor). Takes precedence
+         * over {@link #ERASURE_SPEC_ARGS}.
+         */
+        public static final String ERASURE_SPEC = "com.nthportal.hdfs-secure-erase.mapreduce.ERASURE_SPEC";
+        /**
+         * The options (see {@link ErasureSpecOptions}) which specify how map
+         * tasks erase files, if {@link #ERASURE_SPEC} is not set. Set with
+         * {@link DistributedSecureErase#setErasureSpecArgs(Configuration, String[])}.
+         */
+        public static final String ERASURE_SPEC_ARGS = "com.nthportal.hdfs-secure-erase.mapreduce.ERASURE_SPEC_ARGS";
+        /**
+         * Whether or not map tasks should continue erasing other files when
+         * a file fails to be erased.
+         */
+        public static final String IGNORE_FAILURES = "com.nthportal.hdfs-secure-erase.mapreduce.IGNORE_FAILURES";
+        /**
+         * The directory under which the file listing for a job is written.
+         */
+        public static final String WORK_DIR = "com.nthportal.hdfs-secure-erase.mapreduce.WORK_DIR";
+
+        static final String LISTING_PATH = "com.nthportal.hdfs-secure-erase.mapreduce.LISTING_PATH";
+        static final String TOTAL_BYTES = "com.nthportal.hdfs-secure-erase.mapreduce.TOTAL_BYTES";
+        static final String JOURNAL_DIR = "com.nthportal.hdfs-secure-erase.mapreduce.JOURNAL_DIR";
+        static final String DEFAULT_WORK_DIR = "/tmp/hdfs-secure-erase";
+
+        private Conf() {}
+    }
+}
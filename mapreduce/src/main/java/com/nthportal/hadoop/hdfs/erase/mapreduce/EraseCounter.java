@@ -0,0 +1,33 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+/**
+ * Counters reported by a {@link DistributedSecureErase} job.
+ */
+public enum EraseCounter {
+    /**
+     * The number of files which were erased.
+     */
+    FILES_ERASED,
+    /**
+     * The number of files which could not be erased.
+     */
+    FILES_FAILED,
+    /**
+     * The number of files which no longer existed when the first attempt of
+     * their map task reached them (for example, because they were deleted
+     * after the job was submitted).
+     */
+    FILES_MISSING,
+    /**
+     * The number of files which no longer existed when a retried attempt of
+     * their map task reached them, and which no earlier attempt recorded
+     * as erased. An earlier attempt may have left these files partially
+     * erased under another name (for example, renamed but not deleted),
+     * so they need to be checked.
+     */
+    FILES_UNCONFIRMED,
+    /**
+     * The total length in bytes of the files which were erased.
+     */
+    BYTES_ERASED
+}
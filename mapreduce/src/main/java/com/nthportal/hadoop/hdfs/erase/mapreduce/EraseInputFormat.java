@@ -0,0 +1,65 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.nthportal.hadoop.hdfs.erase.mapreduce.DistributedSecureErase.Conf;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link InputFormat} which splits an {@link EraseListing} into chunks
+ * containing approximately the same number of bytes to erase.
+ *
+ * <p>Splits are contiguous ranges of records in the listing; a split is closed
+ * as soon as adding the next file would exceed the total number of bytes
+ * divided by the number of map tasks.
+ */
+public final class EraseInputFormat extends InputFormat<Text, LongWritable> {
+    @Override
+    public List<InputSplit> getSplits(JobContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Path listing = new Path(conf.get(Conf.LISTING_PATH));
+        long totalBytes = conf.getLong(Conf.TOTAL_BYTES, 0);
+        int maps = Math.max(conf.getInt(MRJobConfig.NUM_MAPS, 1), 1);
+        long bytesPerSplit = (long) Math.ceil(totalBytes / (double) maps);
+
+        List<InputSplit> splits = new ArrayList<>(maps);
+        Text key = new Text();
+        LongWritable value = new LongWritable();
+
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(listing))) {
+            long splitStart = reader.getPosition();
+            long lastPosition = splitStart;
+            long splitBytes = 0;
+
+            while (reader.next(key, value)) {
+                if (splitBytes + value.get() > bytesPerSplit && lastPosition != splitStart) {
+                    splits.add(new FileSplit(listing, splitStart, lastPosition - splitStart, null));
+                    splitStart = lastPosition;
+                    splitBytes = 0;
+                }
+                splitBytes += value.get();
+                lastPosition = reader.getPosition();
+            }
+
+            if (lastPosition != splitStart) {
+                splits.add(new FileSplit(listing, splitStart, lastPosition - splitStart, null));
+            }
+        }
+
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Text, LongWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new SequenceFileRecordReader<>();
+    }
+}
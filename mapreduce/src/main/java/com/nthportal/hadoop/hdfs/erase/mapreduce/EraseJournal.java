@@ -0,0 +1,102 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A journal of the files which an attempt of a map task has finished
+ * erasing, so that a later attempt of the same task can tell files which
+ * were erased by an earlier attempt from files which may have been left
+ * partially erased (for example, renamed but not yet deleted) by it.
+ *
+ * <p>Each attempt writes its own journal file, named after the attempt,
+ * in the job's journal directory. Each path is
+ * {@linkplain FSDataOutputStream#hflush() flushed} as it is written, so
+ * that it can be read even if the attempt is killed without closing the
+ * journal.
+ */
+final class EraseJournal implements Closeable {
+    private final FSDataOutputStream out;
+
+    /**
+     * Creates the journal of a task attempt.
+     *
+     * @param fs      the FileSystem on which to write the journal
+     * @param dir     the job's journal directory
+     * @param attempt the task attempt
+     * @throws IOException if the journal cannot be created
+     */
+    EraseJournal(FileSystem fs, Path dir, TaskAttemptID attempt) throws IOException {
+        out = fs.create(new Path(dir, attempt.toString()), true);
+    }
+
+    /**
+     * Records that a file was erased.
+     *
+     * @param path the path of the file, as listed in the job's
+     *             {@link EraseListing}
+     * @throws IOException if the path cannot be written to the journal
+     */
+    void erased(String path) throws IOException {
+        out.write((path + '\n').getBytes(Charsets.UTF_8));
+        out.hflush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Reads the files recorded as erased by earlier attempts of a task.
+     *
+     * @param fs      the FileSystem on which journals are written
+     * @param dir     the job's journal directory
+     * @param attempt the current task attempt
+     * @return the paths (as listed in the job's {@link EraseListing}) of
+     * the files recorded as erased by earlier attempts of the task
+     * @throws IOException if the journals cannot be read
+     */
+    static Set<String> readEarlierAttempts(FileSystem fs, Path dir, TaskAttemptID attempt) throws IOException {
+        Set<String> erased = new HashSet<>();
+        if (attempt.getId() == 0 || !fs.exists(dir)) {
+            return erased;
+        }
+        for (FileStatus status : fs.listStatus(dir)) {
+            TaskAttemptID other;
+            try {
+                other = TaskAttemptID.forName(status.getPath().getName());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            // Attempt IDs may be of the old or new API, which are never equal, so compare their names
+            if (other == null
+                    || !other.getTaskID().toString().equals(attempt.getTaskID().toString())
+                    || other.getId() >= attempt.getId()) {
+                continue;
+            }
+            String journal;
+            try (InputStream in = fs.open(status.getPath())) {
+                journal = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+            }
+            // Ignore a final path which a killed attempt did not finish writing
+            for (String path : journal.substring(0, journal.lastIndexOf('\n') + 1).split("\n")) {
+                if (!path.isEmpty()) {
+                    erased.add(path);
+                }
+            }
+        }
+        return erased;
+    }
+}
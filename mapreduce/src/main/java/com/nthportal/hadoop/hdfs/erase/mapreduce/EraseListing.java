@@ -0,0 +1,111 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A listing of the files to be erased by a {@link DistributedSecureErase} job.
+ *
+ * <p>The listing is a {@link SequenceFile} mapping each file's fully qualified
+ * path ({@link Text}) to its length ({@link LongWritable}). A sync marker is
+ * written after every record, so that the listing can be split at any record
+ * boundary by {@link EraseInputFormat}.
+ */
+final class EraseListing {
+    private final Path path;
+    private final long fileCount;
+    private final long totalBytes;
+
+    private EraseListing(Path path, long fileCount, long totalBytes) {
+        this.path = path;
+        this.fileCount = fileCount;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * The path of the listing file.
+     *
+     * @return the path of the listing file
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * The number of files in the listing.
+     *
+     * @return the number of files in the listing
+     */
+    long fileCount() {
+        return fileCount;
+    }
+
+    /**
+     * The total length in bytes of the files in the listing.
+     *
+     * @return the total length in bytes of the files in the listing
+     */
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Expands the specified globs and writes the matching files to a listing.
+     *
+     * @param conf    the Configuration to use
+     * @param listing the path at which to write the listing
+     * @param globs   {@link Path}s containing
+     *                {@link FileSystem#globStatus(Path) glob patterns}
+     * @return the listing which was written
+     * @throws IllegalArgumentException if a glob matches no files or non-regular
+     *                                  files
+     * @throws IOException              if an I/O error occurs while expanding
+     *                                  the globs or writing the listing
+     */
+    static EraseListing build(Configuration conf, Path listing, List<Path> globs)
+            throws IllegalArgumentException, IOException {
+        long fileCount = 0;
+        long totalBytes = 0;
+
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(listing),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(LongWritable.class))) {
+            Text key = new Text();
+            LongWritable value = new LongWritable();
+
+            for (Path glob : globs) {
+                FileSystem fs = glob.getFileSystem(conf);
+                FileStatus[] statuses = fs.globStatus(glob);
+                Preconditions.checkArgument(statuses != null && statuses.length > 0,
+                        "glob does not match any files: " + glob);
+
+                // Check that statuses refer to regular files
+                for (FileStatus status : statuses) {
+                    Preconditions.checkArgument(status.isFile(), "Path is not a regular file: " + status.getPath());
+                }
+
+                for (FileStatus status : statuses) {
+                    key.set(fs.makeQualified(status.getPath()).toString());
+                    value.set(status.getLen());
+                    writer.append(key, value);
+                    writer.sync();
+
+                    fileCount++;
+                    totalBytes += status.getLen();
+                }
+            }
+        }
+
+        return new EraseListing(listing, fileCount, totalBytes);
+    }
+}
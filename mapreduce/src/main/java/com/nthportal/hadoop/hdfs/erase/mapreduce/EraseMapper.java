@@ -0,0 +1,123 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.nthportal.hadoop.hdfs.erase.core.FileErasureSpec;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import com.nthportal.hadoop.hdfs.erase.mapreduce.DistributedSecureErase.Conf;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A {@link Mapper} which erases each file in its split of an
+ * {@link EraseListing} using the configured {@link FileErasureSpec}.
+ *
+ * <p>Each file which is erased is recorded in an {@link EraseJournal}, so
+ * that if the task is retried, files which an earlier attempt erased are
+ * counted as erased, while files which are missing but were not recorded
+ * (and so may have been left partially erased by an earlier attempt) are
+ * counted as {@link EraseCounter#FILES_UNCONFIRMED unconfirmed}.
+ */
+public final class EraseMapper extends Mapper<Text, LongWritable, NullWritable, NullWritable> {
+    private static final Logger logger = Logger.getLogger(EraseMapper.class);
+
+    private FileErasureSpec spec;
+    private boolean ignoreFailures;
+    private EraseJournal journal;
+    private Set<String> erasedByEarlierAttempts;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        conf.setBooleanIfUnset(SecureErase.Conf.LOG_ACTIONS, false);
+        ignoreFailures = conf.getBoolean(Conf.IGNORE_FAILURES, false);
+        spec = DistributedSecureErase.erasureSpec(conf);
+
+        Path journalDir = new Path(conf.get(Conf.JOURNAL_DIR));
+        FileSystem journalFs = journalDir.getFileSystem(conf);
+        erasedByEarlierAttempts = EraseJournal.readEarlierAttempts(journalFs, journalDir, context.getTaskAttemptID());
+        journal = new EraseJournal(journalFs, journalDir, context.getTaskAttemptID());
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+        journal.close();
+    }
+
+    @Override
+    protected void map(Text key, LongWritable value, Context context) throws IOException {
+        Path path = new Path(key.toString());
+        FileSystem fs = new ProgressReportingFileSystem(path.getFileSystem(context.getConfiguration()), context);
+
+        if (!fs.exists(path)) {
+            if (erasedByEarlierAttempts.contains(key.toString())) {
+                // The counters of the earlier attempt were discarded when it failed
+                context.getCounter(EraseCounter.FILES_ERASED).increment(1);
+                context.getCounter(EraseCounter.BYTES_ERASED).increment(value.get());
+            } else if (context.getTaskAttemptID().getId() > 0) {
+                logger.error("File no longer exists, and no earlier attempt finished erasing it "
+                        + "(an earlier attempt may have left it partially erased under another name): " + path);
+                context.getCounter(EraseCounter.FILES_UNCONFIRMED).increment(1);
+            } else {
+                logger.warn("File no longer exists: " + path);
+                context.getCounter(EraseCounter.FILES_MISSING).increment(1);
+            }
+            return;
+        }
+
+        context.setStatus("Erasing " + path);
+        try {
+            spec.eraseFile(fs, path);
+        } catch (IOException e) {
+            context.getCounter(EraseCounter.FILES_FAILED).increment(1);
+            if (!ignoreFailures) {
+                throw e;
+            }
+            logger.error("Failed to erase file: " + path, e);
+            return;
+        }
+
+        journal.erased(key.toString());
+        context.getCounter(EraseCounter.FILES_ERASED).increment(1);
+        context.getCounter(EraseCounter.BYTES_ERASED).increment(value.get());
+    }
+
+    /**
+     * A FileSystem which reports progress to the task while data is being
+     * written, so that long overwrite passes over large files are not
+     * mistaken for hung tasks.
+     *
+     * <p>The underlying FileSystem is shared and cached, and is therefore
+     * not closed by this FileSystem.
+     */
+    private static final class ProgressReportingFileSystem extends FilterFileSystem {
+        private final Progressable progressable;
+
+        private ProgressReportingFileSystem(FileSystem fs, Progressable progressable) {
+            super(fs);
+            this.progressable = progressable;
+        }
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                         short replication, long blockSize, Progressable progress)
+                throws IOException {
+            return super.create(f, permission, overwrite, bufferSize, replication, blockSize,
+                    (progress != null) ? progress : progressable);
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,110 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.google.common.io.Files;
+import com.nthportal.hadoop.hdfs.erase.core.SecureErase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link DistributedSecureErase} jobs with the LocalJobRunner against
+ * a MiniDFSCluster.
+ */
+public class DistributedSecureEraseTest {
+    private static final int FILE_LENGTH = 10000;
+
+    private static File baseDir;
+    private static MiniDFSCluster cluster;
+    private static Configuration conf;
+    private static FileSystem fs;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        baseDir = Files.createTempDir();
+        Configuration clusterConf = new Configuration();
+        clusterConf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        cluster = new MiniDFSCluster.Builder(clusterConf).numDataNodes(1).build();
+        cluster.waitActive();
+        fs = cluster.getFileSystem();
+
+        conf = new Configuration(cluster.getConfiguration(0));
+        conf.set(FileSystem.FS_DEFAULT_NAME_KEY, fs.getUri().toString());
+        conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME);
+        conf.set(DistributedSecureErase.Conf.WORK_DIR, "/work");
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        if (baseDir != null) {
+            FileUtil.fullyDelete(baseDir);
+        }
+    }
+
+    private static void createFiles(Path dir, int count) throws Exception {
+        Random random = new Random(0);
+        byte[] bytes = new byte[FILE_LENGTH];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(bytes);
+            try (FSDataOutputStream out = fs.create(new Path(dir, "file" + i))) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static int run(String... args) throws Exception {
+        return ToolRunner.run(new Configuration(conf), new DistributedSecureErase(), args);
+    }
+
+    @Test
+    public void erasesWithDefaultSpec() throws Exception {
+        Path dir = new Path("/default");
+        createFiles(dir, 5);
+
+        // Empty the files at once rather than waiting for block recovery after every truncation step
+        assertEquals(0, run("-D", SecureErase.Conf.SMALL_FILE_THRESHOLD + "=" + FILE_LENGTH, "-m", "2", dir + "/*"));
+        assertEquals(0, fs.listStatus(dir).length);
+        assertEquals(0, fs.listStatus(new Path("/work")).length);
+    }
+
+    @Test
+    public void erasesWithCommandLineSpecOptions() throws Exception {
+        Path dir = new Path("/patterns");
+        createFiles(dir, 3);
+
+        // Byte patterns are comma-separated, so must survive being passed to the tasks
+        assertEquals(0, run("-m", "2", "-b", "00,ff", "--verify", dir + "/*"));
+
+        byte[] expected = new byte[FILE_LENGTH];
+        Arrays.fill(expected, (byte) 0xff);
+        for (int i = 0; i < 3; i++) {
+            byte[] actual = new byte[FILE_LENGTH];
+            try (FSDataInputStream in = fs.open(new Path(dir, "file" + i))) {
+                in.readFully(actual);
+            }
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSpecOptions() throws Exception {
+        run("-n", "0", "/default/*");
+    }
+}
@@ -0,0 +1,76 @@
+package com.nthportal.hadoop.hdfs.erase.mapreduce;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class EraseJournalTest {
+    private static final TaskID TASK = new TaskID("local", 1, TaskType.MAP, 0);
+    private static final TaskID OTHER_TASK = new TaskID("local", 1, TaskType.MAP, 1);
+
+    private File baseDir;
+    private FileSystem fs;
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDir();
+        fs = FileSystem.getLocal(new Configuration());
+        dir = new Path(baseDir.getAbsolutePath(), "journal");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(baseDir);
+    }
+
+    @Test
+    public void firstAttemptReadsNothing() throws Exception {
+        assertEquals(Collections.emptySet(), EraseJournal.readEarlierAttempts(fs, dir, new TaskAttemptID(TASK, 0)));
+    }
+
+    @Test
+    public void laterAttemptReadsEarlierAttemptsOfSameTask() throws Exception {
+        try (EraseJournal journal = new EraseJournal(fs, dir, new TaskAttemptID(TASK, 0))) {
+            journal.erased("hdfs://nn/a");
+            journal.erased("hdfs://nn/b");
+        }
+        try (EraseJournal journal = new EraseJournal(fs, dir, new TaskAttemptID(TASK, 1))) {
+            journal.erased("hdfs://nn/c");
+        }
+        try (EraseJournal journal = new EraseJournal(fs, dir, new TaskAttemptID(OTHER_TASK, 0))) {
+            journal.erased("hdfs://nn/other");
+        }
+
+        assertEquals(ImmutableSet.of("hdfs://nn/a", "hdfs://nn/b"),
+                EraseJournal.readEarlierAttempts(fs, dir, new TaskAttemptID(TASK, 1)));
+        assertEquals(ImmutableSet.of("hdfs://nn/a", "hdfs://nn/b", "hdfs://nn/c"),
+                EraseJournal.readEarlierAttempts(fs, dir, new TaskAttemptID(TASK, 2)));
+    }
+
+    @Test
+    public void ignoresUnfinishedPath() throws Exception {
+        try (FSDataOutputStream out = fs.create(new Path(dir, new TaskAttemptID(TASK, 0).toString()))) {
+            out.write("hdfs://nn/file1\nhdfs://nn/file".getBytes(Charsets.UTF_8));
+        }
+
+        assertEquals(ImmutableSet.of("hdfs://nn/file1"),
+                EraseJournal.readEarlierAttempts(fs, dir, new TaskAttemptID(TASK, 1)));
+    }
+}